@@ -0,0 +1,96 @@
+package za.redbridge.simulator;
+
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.BodyDef;
+import org.jbox2d.dynamics.World;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import za.redbridge.simulator.config.SimConfig;
+import za.redbridge.simulator.object.PhysicalObject;
+import za.redbridge.simulator.portrayal.Portrayal;
+
+/**
+ * Benchmarks filling a placement area with a mix of robot-sized circles and resource-sized
+ * rectangles, the way the robot and resource factories do. The area grows with the number of
+ * objects so that the density stays the same.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlacementAreaBenchmark {
+
+    private static final float ROBOT_RADIUS = 0.15f;
+    private static final float RESOURCE_SIZE = 0.4f;
+
+    // Square metres of area per object
+    private static final float AREA_PER_OBJECT = 1.5f;
+
+    @Param({"100", "1000", "10000"})
+    public int objects;
+
+    @Param({"RANDOM", "DENSE"})
+    public SimConfig.PlacementStrategy strategy;
+
+    private float size;
+    private PlaceholderObject[] placeholders;
+    private long seed = 0;
+
+    @Setup
+    public void setUp() {
+        size = (float) Math.ceil(Math.sqrt(objects * AREA_PER_OBJECT));
+
+        // Bodies without fixtures just need to be moved into their space to be placed in it
+        World world = new World(new Vec2());
+        placeholders = new PlaceholderObject[objects];
+        for (int i = 0; i < objects; i++) {
+            placeholders[i] = new PlaceholderObject(world);
+        }
+    }
+
+    @Benchmark
+    public PlacementArea placeObjects() {
+        PlacementArea placementArea = new PlacementArea(size, size);
+        placementArea.setSeed(seed++);
+        placementArea.setStrategy(strategy);
+
+        for (int i = 0; i < objects; i++) {
+            final PlacementArea.Space space;
+            if (i % 2 == 0) {
+                space = placementArea.getRandomCircularSpace(ROBOT_RADIUS);
+            } else {
+                space = placementArea.getRandomRectangularSpace(RESOURCE_SIZE, RESOURCE_SIZE);
+            }
+
+            PlaceholderObject placeholder = placeholders[i];
+            placeholder.getBody().setTransform(space.getPosition(), space.getAngle());
+            placementArea.placeObject(space, placeholder);
+        }
+        return placementArea;
+    }
+
+    private static class PlaceholderObject extends PhysicalObject {
+        PlaceholderObject(World world) {
+            super(world.createBody(new BodyDef()));
+        }
+
+        @Override
+        protected Portrayal createPortrayal() {
+            return null;
+        }
+    }
+}
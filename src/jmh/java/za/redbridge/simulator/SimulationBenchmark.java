@@ -0,0 +1,63 @@
+package za.redbridge.simulator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import za.redbridge.simulator.config.SimConfig;
+import za.redbridge.simulator.factories.HomogeneousRobotFactory;
+import za.redbridge.simulator.phenotype.ChasingPhenotype;
+
+/**
+ * Benchmarks whole simulation runs for each of the configs shipped with the simulator. Each run
+ * uses the next seed so that the benchmark isn't tuned to a single layout. Runs carry on after all
+ * the resources have been collected so that every run is the same length.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SimulationBenchmark {
+
+    @Param({
+            "configs/smallSimConfig.yml",
+            "configs/mediumSimConfig.yml",
+            "configs/largeSimConfig.yml"
+    })
+    public String config;
+
+    @Param({"1000"})
+    public int iterations;
+
+    private SimConfig simConfig;
+    private long seed = 0;
+
+    @Setup
+    public void setUp() {
+        simConfig = new SimConfig(config);
+    }
+
+    @Benchmark
+    public Simulation runForNIterations() {
+        HomogeneousRobotFactory robotFactory = new HomogeneousRobotFactory(new ChasingPhenotype(),
+                simConfig.getRobotMass(), simConfig.getRobotRadius(), simConfig.getRobotColour(),
+                simConfig.getObjectsRobots());
+
+        Simulation simulation = new Simulation(simConfig, robotFactory, seed++);
+        simulation.setStopOnceCollected(false);
+        simulation.runForNIterations(iterations);
+        return simulation;
+    }
+}
@@ -0,0 +1,62 @@
+package za.redbridge.simulator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import za.redbridge.simulator.config.SimConfig;
+import za.redbridge.simulator.factories.HomogeneousRobotFactory;
+import za.redbridge.simulator.phenotype.ChasingPhenotype;
+
+/**
+ * Benchmarks getting a simulation ready for a new run, either by building a new world or by
+ * resetting the existing one (see {@link Simulation#setReuseWorld(boolean)}). The first step is
+ * included since that is where a new world pairs up all its fixtures.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WorldResetBenchmark {
+
+    @Param({"configs/smallSimConfig.yml"})
+    public String config;
+
+    @Param({"false", "true"})
+    public boolean reuseWorld;
+
+    private Simulation simulation;
+    private long seed = 0;
+
+    @Setup
+    public void setUp() {
+        SimConfig simConfig = new SimConfig(config);
+        HomogeneousRobotFactory robotFactory = new HomogeneousRobotFactory(new ChasingPhenotype(),
+                simConfig.getRobotMass(), simConfig.getRobotRadius(), simConfig.getRobotColour(),
+                simConfig.getObjectsRobots());
+
+        simulation = new Simulation(simConfig, robotFactory);
+        simulation.setReuseWorld(reuseWorld);
+        simulation.start(); // So there is a world to reuse
+    }
+
+    @Benchmark
+    public Simulation startNewRun() {
+        simulation.setSeed(seed++);
+        simulation.start();
+        simulation.schedule.step(simulation);
+        return simulation;
+    }
+}
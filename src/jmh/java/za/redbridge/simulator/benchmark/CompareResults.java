@@ -0,0 +1,119 @@
+package za.redbridge.simulator.benchmark;
+
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares two sets of JMH results saved as JSON (with {@code -rf json}) and prints the change in
+ * each benchmark's score. Exits with a non-zero status if any benchmark is slower than the
+ * baseline by more than the threshold and by more than the error of the two scores.
+ *
+ * Usage: CompareResults baseline.json results.json [threshold percentage, default 5]
+ */
+public class CompareResults {
+
+    private static final double DEFAULT_THRESHOLD = 5.0;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: CompareResults <baseline.json> <results.json> [threshold %]");
+            System.exit(2);
+        }
+
+        Map<String, Score> baseline = loadScores(args[0]);
+        Map<String, Score> results = loadScores(args[1]);
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_THRESHOLD;
+
+        int regressions = 0;
+        for (Map.Entry<String, Score> entry : results.entrySet()) {
+            String name = entry.getKey();
+            Score result = entry.getValue();
+            Score base = baseline.get(name);
+            if (base == null) {
+                System.out.printf("%-100s %12.3f %-10s (no baseline)%n", name, result.score,
+                        result.unit);
+                continue;
+            }
+
+            // Positive when worse, whichever way round the score is measured
+            double change = (result.score - base.score) / base.score * 100;
+            double worse = result.higherIsBetter ? -change : change;
+            double difference = Math.abs(result.score - base.score);
+            boolean regression = worse > threshold && difference > base.error + result.error;
+            if (regression) {
+                regressions++;
+            }
+
+            System.out.printf("%-100s %12.3f -> %12.3f %-10s %+7.1f%%%s%n", name, base.score,
+                    result.score, result.unit, change, regression ? "  REGRESSION" : "");
+        }
+
+        for (String name : baseline.keySet()) {
+            if (!results.containsKey(name)) {
+                System.out.printf("%-100s (not run)%n", name);
+            }
+        }
+
+        if (regressions > 0) {
+            System.out.println(regressions + " benchmark(s) regressed by more than " + threshold
+                    + "%");
+            System.exit(1);
+        }
+    }
+
+    // JSON is a subset of YAML, so there's no need for another library to read the results
+    @SuppressWarnings("unchecked")
+    private static Map<String, Score> loadScores(String filepath) throws IOException {
+        List<Map<String, Object>> benchmarks;
+        try (Reader reader = Files.newBufferedReader(Paths.get(filepath))) {
+            benchmarks = (List<Map<String, Object>>) new Yaml().load(reader);
+        }
+
+        Map<String, Score> scores = new LinkedHashMap<>();
+        for (Map<String, Object> benchmark : benchmarks) {
+            StringBuilder name = new StringBuilder((String) benchmark.get("benchmark"));
+            Map<String, Object> params = (Map<String, Object>) benchmark.get("params");
+            if (params != null) {
+                params.forEach((key, value) -> name.append(' ').append(key).append('=')
+                        .append(value));
+            }
+
+            Map<String, Object> metric = (Map<String, Object>) benchmark.get("primaryMetric");
+            String mode = (String) benchmark.get("mode");
+            scores.put(name.toString(), new Score(toDouble(metric.get("score")),
+                    toDouble(metric.get("scoreError")), (String) metric.get("scoreUnit"),
+                    "thrpt".equals(mode)));
+        }
+        return scores;
+    }
+
+    // JMH writes NaN as a string, e.g. the error of a single measurement
+    private static double toDouble(Object value) {
+        if (value instanceof Number) {
+            double d = ((Number) value).doubleValue();
+            return Double.isNaN(d) ? 0.0 : d;
+        }
+        return 0.0;
+    }
+
+    private static class Score {
+        final double score;
+        final double error;
+        final String unit;
+        final boolean higherIsBetter;
+
+        Score(double score, double error, String unit, boolean higherIsBetter) {
+            this.score = score;
+            this.error = error;
+            this.unit = unit;
+            this.higherIsBetter = higherIsBetter;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package za.redbridge.simulator.phenotype.heuristics;
+
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.World;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Color;
+import java.util.concurrent.TimeUnit;
+
+import za.redbridge.simulator.config.SimConfig;
+import za.redbridge.simulator.object.RobotObject;
+import za.redbridge.simulator.phenotype.Phenotype;
+import za.redbridge.simulator.sensor.CollisionSensor;
+import za.redbridge.simulator.sensor.PickupSensor;
+
+/**
+ * Benchmarks a step of a robot's heuristics: either no heuristic applies and every one is tried,
+ * or the robot is carrying a resource and the pickup heuristic steers it home.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HeuristicScheduleBenchmark {
+
+    @Param({"false", "true"})
+    public boolean boundToResource;
+
+    private HeuristicSchedule schedule;
+
+    private final double[] inputs = new double[0];
+    private final double[] wheelDrives = new double[2];
+
+    @Setup
+    public void setUp() {
+        World world = new World(new Vec2());
+        RobotObject robot = new RobotObject(world, new Vec2(10f, 10f), 0f, 0.15, 0.7,
+                Color.BLACK, Phenotype.DUMMY_PHENOTYPE, SimConfig.Direction.SOUTH);
+        robot.setBoundToResource(boundToResource);
+
+        PickupSensor pickupSensor = new PickupSensor(0.1f, 0.2f);
+        pickupSensor.attach(robot);
+        CollisionSensor collisionSensor = new CollisionSensor(0.55f);
+        collisionSensor.attach(robot);
+
+        schedule = new HeuristicSchedule();
+        schedule.addHeuristic(
+                new PickupHeuristic(pickupSensor, robot, SimConfig.Direction.SOUTH));
+        schedule.addHeuristic(new CollisionAvoidanceHeuristic(collisionSensor, robot));
+    }
+
+    @Benchmark
+    public double[] step() {
+        schedule.step(inputs, wheelDrives);
+        return wheelDrives;
+    }
+}
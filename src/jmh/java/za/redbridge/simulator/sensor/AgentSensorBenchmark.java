@@ -0,0 +1,110 @@
+package za.redbridge.simulator.sensor;
+
+import org.jbox2d.common.Transform;
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.Fixture;
+import org.jbox2d.dynamics.World;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Color;
+import java.util.concurrent.TimeUnit;
+
+import sim.util.Double2D;
+import za.redbridge.simulator.config.SimConfig;
+import za.redbridge.simulator.object.PhysicalObject;
+import za.redbridge.simulator.object.ResourceObject;
+import za.redbridge.simulator.object.RobotObject;
+import za.redbridge.simulator.object.WallObject;
+import za.redbridge.simulator.phenotype.Phenotype;
+import za.redbridge.simulator.sensor.sensedobjects.SensedObject;
+
+/**
+ * Benchmarks for working out where a single fixture of each shape lies in a sensor's field. Each
+ * object sits in front of the sensor so that the full calculation is done.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AgentSensorBenchmark {
+
+    private static final Vec2 SENSOR_POSITION = new Vec2(10f, 10f);
+    private static final Vec2 OBJECT_POSITION = new Vec2(10.6f, 10.1f);
+
+    private AgentSensor sensor;
+
+    private Fixture circleFixture;
+    private Transform circleTransform;
+
+    private Fixture polygonFixture;
+    private Transform polygonTransform;
+
+    private Fixture edgeFixture;
+    private Transform edgeTransform;
+
+    @Setup
+    public void setUp() {
+        World world = new World(new Vec2());
+
+        RobotObject robot = createRobot(world, SENSOR_POSITION);
+        sensor = new ProximityAgentSensor(0f, 0f, 1f, 1.5f);
+        sensor.attach(robot);
+
+        circleFixture = getSolidFixture(createRobot(world, OBJECT_POSITION));
+        circleTransform = new Transform(sensor.getFixtureRelativeTransform(circleFixture));
+
+        ResourceObject resource =
+                new ResourceObject(world, OBJECT_POSITION, 0.3f, 0.4f, 0.4f, 1f, 1, 10.0);
+        polygonFixture = getSolidFixture(resource);
+        polygonTransform = new Transform(sensor.getFixtureRelativeTransform(polygonFixture));
+
+        // A wall slightly askew across the sensor's field
+        WallObject wall = new WallObject(world, new Double2D(OBJECT_POSITION.x, SENSOR_POSITION.y),
+                new Double2D(-0.1, -1), new Double2D(0.1, 1));
+        edgeFixture = getSolidFixture(wall);
+        edgeTransform = new Transform(sensor.getFixtureRelativeTransform(edgeFixture));
+    }
+
+    @Benchmark
+    public SensedObject senseCircleFixture() {
+        sensor.recycleSensedObjects();
+        return sensor.senseCircleFixture(circleFixture, circleTransform);
+    }
+
+    @Benchmark
+    public SensedObject sensePolygonFixture() {
+        sensor.recycleSensedObjects();
+        return sensor.sensePolygonFixture(polygonFixture, polygonTransform);
+    }
+
+    @Benchmark
+    public SensedObject senseEdgeFixture() {
+        sensor.recycleSensedObjects();
+        return sensor.senseEdgeFixture(edgeFixture, edgeTransform);
+    }
+
+    private static RobotObject createRobot(World world, Vec2 position) {
+        return new RobotObject(world, position, 0f, 0.15, 0.7, Color.BLACK,
+                Phenotype.DUMMY_PHENOTYPE, SimConfig.Direction.SOUTH);
+    }
+
+    private static Fixture getSolidFixture(PhysicalObject object) {
+        for (Fixture f = object.getBody().getFixtureList(); f != null; f = f.getNext()) {
+            if (!f.isSensor()) {
+                return f;
+            }
+        }
+        throw new IllegalStateException("Object has no solid fixture");
+    }
+}
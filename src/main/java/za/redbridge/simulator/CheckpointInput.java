@@ -0,0 +1,107 @@
+package za.redbridge.simulator;
+
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.Fixture;
+import org.jbox2d.dynamics.World;
+import org.jbox2d.dynamics.joints.Joint;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import za.redbridge.simulator.object.PhysicalObject;
+import za.redbridge.simulator.object.RobotObject;
+import za.redbridge.simulator.phenotype.Phenotype;
+
+/**
+ * The stream the state of a simulation is read back from when a {@link SimulationCheckpoint} is
+ * restored. Indices written by a {@link CheckpointOutput} are turned into the matching objects,
+ * fixtures and joints of the simulation being restored.
+ */
+public class CheckpointInput extends DataInputStream {
+
+    private final World world;
+    private final List<PhysicalObject> objects;
+    private final List<Body> bodies;
+    private final List<Fixture> fixtures;
+
+    // Only known once the joints have been restored
+    private List<Joint> joints;
+
+    /**
+     * Create a stream for restoring the state of a simulation.
+     * @param in the stream to read from
+     * @param world the simulation's physics world, newly created
+     * @param objects the simulation's objects, in the order they were written
+     */
+    CheckpointInput(InputStream in, World world, List<PhysicalObject> objects) {
+        super(in);
+        this.world = world;
+        this.objects = objects;
+        bodies = WorldCheckpoint.getBodies(world);
+        fixtures = WorldCheckpoint.getFixtures(world);
+    }
+
+    /** Look up the joints again once they have all been created. */
+    void updateJoints() {
+        joints = WorldCheckpoint.getJoints(world);
+    }
+
+    /**
+     * Read an object of the simulation, or null.
+     * @param type the type the object must have
+     * @throws IOException if the object doesn't exist or has the wrong type
+     */
+    public <T extends PhysicalObject> T readObject(Class<T> type) throws IOException {
+        PhysicalObject object = readIndex(objects, "object");
+        if (object != null && !type.isInstance(object)) {
+            throw new IOException("Expected a " + type.getSimpleName() + " but found a "
+                    + object.getClass().getSimpleName());
+        }
+        return type.cast(object);
+    }
+
+    /** Read the phenotype of one of the simulation's robots, or null. */
+    public Phenotype readPhenotype() throws IOException {
+        RobotObject robot = readObject(RobotObject.class);
+        return robot != null ? robot.getPhenotype() : null;
+    }
+
+    /** Read a body of the simulation's world, or null. */
+    public Body readBody() throws IOException {
+        return readIndex(bodies, "body");
+    }
+
+    /** Read a fixture of the simulation's world, or null. */
+    public Fixture readFixture() throws IOException {
+        return readIndex(fixtures, "fixture");
+    }
+
+    /** Read a joint of the simulation's world, or null. */
+    public Joint readJoint() throws IOException {
+        if (joints == null) {
+            throw new IllegalStateException("Joints haven't been restored yet");
+        }
+        return readIndex(joints, "joint");
+    }
+
+    /** Read a vector. */
+    public Vec2 readVec2() throws IOException {
+        float x = readFloat();
+        float y = readFloat();
+        return new Vec2(x, y);
+    }
+
+    private <T> T readIndex(List<T> values, String kind) throws IOException {
+        int index = readInt();
+        if (index == -1) {
+            return null;
+        }
+        if (index < 0 || index >= values.size()) {
+            throw new IOException("Invalid " + kind + " index: " + index);
+        }
+        return values.get(index);
+    }
+}
@@ -0,0 +1,127 @@
+package za.redbridge.simulator;
+
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.Fixture;
+import org.jbox2d.dynamics.World;
+import org.jbox2d.dynamics.joints.Joint;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import za.redbridge.simulator.object.PhysicalObject;
+import za.redbridge.simulator.object.RobotObject;
+import za.redbridge.simulator.phenotype.Phenotype;
+
+/**
+ * The stream the state of a simulation is written to for a {@link SimulationCheckpoint}. Objects,
+ * fixtures and joints are written as indices, which a {@link CheckpointInput} turns back into the
+ * matching objects of the simulation being restored.
+ */
+public class CheckpointOutput extends DataOutputStream {
+
+    private final Map<PhysicalObject, Integer> objectIndices = new IdentityHashMap<>();
+    private final Map<Phenotype, Integer> phenotypeIndices = new IdentityHashMap<>();
+    private final Map<Body, Integer> bodyIndices = new IdentityHashMap<>();
+    private final Map<Fixture, Integer> fixtureIndices = new IdentityHashMap<>();
+    private final Map<Joint, Integer> jointIndices = new IdentityHashMap<>();
+
+    /**
+     * Create a stream for the state of a simulation.
+     * @param out the stream to write to
+     * @param world the simulation's physics world
+     * @param objects the simulation's objects, in the order they are written
+     */
+    CheckpointOutput(OutputStream out, World world, List<PhysicalObject> objects) {
+        super(out);
+
+        for (int i = 0; i < objects.size(); i++) {
+            PhysicalObject object = objects.get(i);
+            objectIndices.put(object, i);
+            if (object instanceof RobotObject) {
+                phenotypeIndices.put(((RobotObject) object).getPhenotype(), i);
+            }
+        }
+
+        List<Body> bodies = WorldCheckpoint.getBodies(world);
+        for (int i = 0; i < bodies.size(); i++) {
+            bodyIndices.put(bodies.get(i), i);
+        }
+
+        List<Fixture> fixtures = WorldCheckpoint.getFixtures(world);
+        for (int i = 0; i < fixtures.size(); i++) {
+            fixtureIndices.put(fixtures.get(i), i);
+        }
+
+        List<Joint> joints = WorldCheckpoint.getJoints(world);
+        for (int i = 0; i < joints.size(); i++) {
+            jointIndices.put(joints.get(i), i);
+        }
+    }
+
+    /** Write an object of the simulation, or null. */
+    public void writeObject(PhysicalObject object) throws IOException {
+        writeIndex(objectIndices, object, "Object");
+    }
+
+    /** Write the phenotype of one of the simulation's robots, or null. */
+    public void writePhenotype(Phenotype phenotype) throws IOException {
+        writeIndex(phenotypeIndices, phenotype, "Phenotype");
+    }
+
+    /** Write a body of the simulation's world, or null. */
+    public void writeBody(Body body) throws IOException {
+        writeIndex(bodyIndices, body, "Body");
+    }
+
+    /** Write a fixture of the simulation's world, or null. */
+    public void writeFixture(Fixture fixture) throws IOException {
+        writeIndex(fixtureIndices, fixture, "Fixture");
+    }
+
+    /** Write a joint of the simulation's world, or null. */
+    public void writeJoint(Joint joint) throws IOException {
+        writeIndex(jointIndices, joint, "Joint");
+    }
+
+    /**
+     * Get the index an object is written as. Sets and maps can be written in the order of their
+     * indices so that equal states are always written the same.
+     */
+    public int getIndex(PhysicalObject object) {
+        return getIndex(objectIndices, object, "Object");
+    }
+
+    /** Get the index the phenotype of one of the simulation's robots is written as. */
+    public int getIndex(Phenotype phenotype) {
+        return getIndex(phenotypeIndices, phenotype, "Phenotype");
+    }
+
+    /** Write a vector. */
+    public void writeVec2(Vec2 vector) throws IOException {
+        writeFloat(vector.x);
+        writeFloat(vector.y);
+    }
+
+    private <T> void writeIndex(Map<T, Integer> indices, T value, String kind)
+            throws IOException {
+        if (value == null) {
+            writeInt(-1);
+            return;
+        }
+
+        writeInt(getIndex(indices, value, kind));
+    }
+
+    private static <T> int getIndex(Map<T, Integer> indices, T value, String kind) {
+        Integer index = indices.get(value);
+        if (index == null) {
+            throw new IllegalStateException(kind + " isn't part of the simulation: " + value);
+        }
+        return index;
+    }
+}
@@ -3,6 +3,7 @@ package za.redbridge.simulator;
 import java.util.HashMap;
 import java.util.Map;
 
+import za.redbridge.simulator.object.ResourceObject;
 import za.redbridge.simulator.phenotype.Phenotype;
 
 /**
@@ -12,6 +13,7 @@ public class FitnessStats {
 
     private final Map<Phenotype,Double> phenotypeFitnesses = new HashMap<>();
     private double teamFitness = 0.0;
+    private double adjustedTeamFitness = 0.0;
 
     private final double totalResourceValue;
     private int maxSteps;
@@ -21,6 +23,22 @@ public class FitnessStats {
         this.maxSteps = maxSteps;
     }
 
+    /**
+     * Create the stats of a run that has already finished, e.g. one that was stored in a cache.
+     * @param totalResourceValue the total value of all the resources
+     * @param maxSteps the number of steps the simulation could run for
+     * @param collectedValue the unadjusted value of the collected resources
+     * @param adjustedTeamFitness the sum of the phenotypes' fitnesses
+     * @param phenotypeFitnesses the fitness of each phenotype
+     */
+    public FitnessStats(double totalResourceValue, int maxSteps, double collectedValue,
+            double adjustedTeamFitness, Map<Phenotype,Double> phenotypeFitnesses) {
+        this(totalResourceValue, maxSteps);
+        this.teamFitness = collectedValue;
+        this.adjustedTeamFitness = adjustedTeamFitness;
+        this.phenotypeFitnesses.putAll(phenotypeFitnesses);
+    }
+
     /**
      * Increment a phenotype's fitness.
      * @param phenotype the phenotype who's score will be adjusted
@@ -28,6 +46,7 @@ public class FitnessStats {
      */
     public void addToPhenotypeFitness(Phenotype phenotype, double adjustedValue) {
         phenotypeFitnesses.put(phenotype, getPhenotypeFitness(phenotype) + adjustedValue);
+        adjustedTeamFitness += adjustedValue;
     }
 
     public double getPhenotypeFitness(Phenotype phenotype) {
@@ -52,6 +71,36 @@ public class FitnessStats {
         return (teamFitness / totalResourceValue) * 100;
     }
 
+    /**
+     * Gets the normalized sum of the phenotypes' fitnesses (out of 100). Unlike the team fitness,
+     * resources count for less the later they were collected.
+     */
+    public double getAdjustedTeamFitness() {
+        return (adjustedTeamFitness / totalResourceValue) * 100;
+    }
+
+    /**
+     * Gets an upper bound on the adjusted team fitness that can still be reached, if every
+     * resource that hasn't been collected yet were collected straight away.
+     * @param progressFraction how far through the simulation it is
+     */
+    public double getAdjustedTeamFitnessUpperBound(double progressFraction) {
+        double uncollectedValue = Math.max(totalResourceValue - teamFitness, 0.0);
+        double bound = adjustedTeamFitness
+                + ResourceObject.getAdjustedValue(uncollectedValue, progressFraction);
+        return (bound / totalResourceValue) * 100;
+    }
+
+    /** Gets the unadjusted value of the resources that have been collected. */
+    public double getCollectedValue() {
+        return teamFitness;
+    }
+
+    /** Gets the sum of the phenotypes' fitnesses, before it's normalized. */
+    public double getAdjustedCollectedValue() {
+        return adjustedTeamFitness;
+    }
+
     public Map<Phenotype,Double> getPhenotypeFitnessMap() {
         return phenotypeFitnesses;
     }
@@ -59,4 +108,8 @@ public class FitnessStats {
     public double getTotalResourceValue() {
         return totalResourceValue;
     }
+
+    public int getMaxSteps() {
+        return maxSteps;
+    }
 }
@@ -0,0 +1,83 @@
+package za.redbridge.simulator;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+
+/**
+ * A ring buffer of {@link SimulationCheckpoint}s of a run, in step order, that holds at most a
+ * fixed number of bytes of them. Once full, the earliest keyframes make way for new ones. Runs are
+ * deterministic, so keyframes stay valid when the run is rewound and played again.
+ */
+final class KeyframeBuffer {
+
+    private final Deque<SimulationCheckpoint> keyframes = new ArrayDeque<>();
+    private final long maxBytes;
+    private long bytes = 0;
+
+    /**
+     * Create an empty buffer.
+     * @param maxBytes the most memory the keyframes may take up, in bytes
+     */
+    KeyframeBuffer(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Invalid keyframe memory: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Add a keyframe if it is later than every keyframe in the buffer, dropping the earliest
+     * keyframes to make room for it.
+     * @return true if the keyframe was added
+     */
+    boolean add(SimulationCheckpoint keyframe) {
+        if (keyframe.size() > maxBytes
+                || !keyframes.isEmpty() && keyframe.getStep() <= keyframes.getLast().getStep()) {
+            return false;
+        }
+
+        keyframes.addLast(keyframe);
+        bytes += keyframe.size();
+        while (bytes > maxBytes) {
+            bytes -= keyframes.removeFirst().size();
+        }
+        return true;
+    }
+
+    /** Get the latest keyframe at or before a step, or null if there isn't one. */
+    SimulationCheckpoint floor(long step) {
+        for (Iterator<SimulationCheckpoint> it = keyframes.descendingIterator(); it.hasNext(); ) {
+            SimulationCheckpoint keyframe = it.next();
+            if (keyframe.getStep() <= step) {
+                return keyframe;
+            }
+        }
+        return null;
+    }
+
+    /** Get the step of the latest keyframe, or -1 if the buffer is empty. */
+    long getLatestStep() {
+        return !keyframes.isEmpty() ? keyframes.getLast().getStep() : -1;
+    }
+
+    /** Get the number of keyframes in the buffer. */
+    int size() {
+        return keyframes.size();
+    }
+
+    /** Get the memory the keyframes take up, in bytes. */
+    long getBytes() {
+        return bytes;
+    }
+
+    /** Get the most memory the keyframes may take up, in bytes. */
+    long getMaxBytes() {
+        return maxBytes;
+    }
+
+    void clear() {
+        keyframes.clear();
+        bytes = 0;
+    }
+}
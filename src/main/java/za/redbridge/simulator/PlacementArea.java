@@ -6,11 +6,15 @@ import org.jbox2d.common.Vec2;
 import org.jbox2d.dynamics.Body;
 import org.jbox2d.dynamics.Fixture;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import ec.util.MersenneTwisterFast;
+import za.redbridge.simulator.config.SimConfig;
 import za.redbridge.simulator.object.PhysicalObject;
 
 
@@ -25,6 +29,9 @@ import static za.redbridge.simulator.physics.AABBUtil.resizeAABB;
  * the area and the PlacementArea instance will return a {@link Space} object if that space is
  * available. The factory must then confirm the usage of that space by registering the object to be
  * placed with {@link #placeObject(Space, PhysicalObject)}.
+ *
+ * Placed spaces are indexed in a uniform grid so that checking for overlaps only looks at nearby
+ * spaces. How random spaces are chosen depends on the {@link SimConfig.PlacementStrategy}.
  * Created by jamie on 2014/08/21.
  */
 public class PlacementArea {
@@ -34,17 +41,52 @@ public class PlacementArea {
 
     private static final int MAX_PLACEMENT_TRIES = 1000;
 
+    // Grid cells are at least this big, and bigger if there would otherwise be too many of them
+    private static final float MIN_GRID_CELL_SIZE = 1.0f;
+    private static final int MAX_GRID_CELLS = 1 << 16;
+
+    // For dense placement, how much bigger than an object the cells it is placed in are. The extra
+    // space is used to jitter the object's position within its cell.
+    private static final float DENSE_CELL_SCALE = 1.25f;
+
     private final float width;
     private final float height;
 
     private final MersenneTwisterFast random = new MersenneTwisterFast();
 
+    private SimConfig.PlacementStrategy strategy = SimConfig.PlacementStrategy.RANDOM;
+
     // Need an ordered map, hence the use of a linked hashmap
     private final Map<PhysicalObject, Space> placements = new LinkedHashMap<>();
 
+    // Placed spaces by the grid cells they overlap
+    private final float gridCellSize;
+    private final int gridColumns;
+    private final int gridRows;
+    private final List<List<Space>> grid;
+
+    // Candidate positions for dense placement, per object size
+    private final Map<Float, DenseCandidates> denseCandidates = new HashMap<>();
+
+    // Records the random spaces handed out, or replays a recorded layout instead of finding them
+    private WorldLayout.Builder recorder;
+    private WorldLayout layout;
+    private int layoutIndex = 0;
+
     PlacementArea(float width, float height) {
         this.width = width;
         this.height = height;
+
+        gridCellSize = Math.max(MIN_GRID_CELL_SIZE,
+                (float) Math.sqrt(width * height / MAX_GRID_CELLS));
+        gridColumns = Math.max(1, (int) Math.ceil(width / gridCellSize));
+        gridRows = Math.max(1, (int) Math.ceil(height / gridCellSize));
+
+        int cells = gridColumns * gridRows;
+        grid = new ArrayList<>(cells);
+        for (int i = 0; i < cells; i++) {
+            grid.add(null); // Cells are only given a list once something is placed in them
+        }
     }
 
     double getWidth() {
@@ -59,7 +101,65 @@ public class PlacementArea {
         random.setSeed(seed);
     }
 
+    void setStrategy(SimConfig.PlacementStrategy strategy) {
+        this.strategy = strategy;
+    }
+
+    /** Record the random spaces handed out from now on. */
+    void recordLayout(WorldLayout.Builder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * Hand out the spaces of a layout as random spaces instead of finding free spaces. The layout
+     * was recorded by a placement area with the same seed, so the spaces are known to be free.
+     */
+    void replayLayout(WorldLayout layout) {
+        if (layout.getWidth() != width || layout.getHeight() != height) {
+            throw new IllegalArgumentException("Layout is for a different size of environment");
+        }
+
+        this.layout = layout;
+        layoutIndex = 0;
+    }
+
+    private Space replaySpace(byte shape, float requestWidth, float requestHeight) {
+        if (layoutIndex >= layout.size()
+                || !layout.matches(layoutIndex, shape, requestWidth, requestHeight)) {
+            throw new IllegalStateException("Layout doesn't match the objects being placed");
+        }
+
+        Space space = new Space(layout.getAABB(layoutIndex), layout.getAngle(layoutIndex));
+        space.replayed = true;
+        layoutIndex++;
+        return space;
+    }
+
+    private Space recordSpace(byte shape, float requestWidth, float requestHeight, Space space) {
+        if (recorder != null) {
+            recorder.add(shape, requestWidth, requestHeight, space.aabb, space.angle);
+        }
+        return space;
+    }
+
     Space getRandomRectangularSpace(float objectWidth, float objectHeight) {
+        if (layout != null) {
+            return replaySpace(WorldLayout.RECTANGLE, objectWidth, objectHeight);
+        }
+
+        return recordSpace(WorldLayout.RECTANGLE, objectWidth, objectHeight,
+                findRandomRectangularSpace(objectWidth, objectHeight));
+    }
+
+    private Space findRandomRectangularSpace(float objectWidth, float objectHeight) {
+        if (strategy == SimConfig.PlacementStrategy.DENSE) {
+            Space space = getDenseRectangularSpace(objectWidth, objectHeight);
+            if (space != null) {
+                return space;
+            }
+            // Run out of candidates, fall back to throwing darts
+        }
+
         AABB aabb = new AABB();
         float angle;
         int tries = 1;
@@ -84,6 +184,23 @@ public class PlacementArea {
     }
 
     Space getRandomCircularSpace(float objectRadius) {
+        if (layout != null) {
+            return replaySpace(WorldLayout.CIRCLE, objectRadius, objectRadius);
+        }
+
+        return recordSpace(WorldLayout.CIRCLE, objectRadius, objectRadius,
+                findRandomCircularSpace(objectRadius));
+    }
+
+    private Space findRandomCircularSpace(float objectRadius) {
+        if (strategy == SimConfig.PlacementStrategy.DENSE) {
+            Space space = getDenseCircularSpace(objectRadius);
+            if (space != null) {
+                return space;
+            }
+            // Run out of candidates, fall back to throwing darts
+        }
+
         float diameter = objectRadius * 2 + PADDING;
 
         float halfDiameter = diameter / 2;
@@ -107,6 +224,58 @@ public class PlacementArea {
         return new Space(aabb, angle);
     }
 
+    private Space getDenseRectangularSpace(float objectWidth, float objectHeight) {
+        float angle = randomAngle(random);
+        float sin = MathUtils.abs(MathUtils.sin(angle));
+        float cos = MathUtils.abs(MathUtils.cos(angle));
+        float width = objectHeight * sin + objectWidth * cos + PADDING;
+        float height = objectWidth * sin + objectHeight * cos + PADDING;
+
+        // Share candidates between objects of the same size, whatever their angle
+        float extent = MathUtils.sqrt(objectWidth * objectWidth + objectHeight * objectHeight)
+                + PADDING;
+        AABB aabb = takeDenseCandidate(extent, width, height);
+        return aabb != null ? new Space(aabb, angle) : null;
+    }
+
+    private Space getDenseCircularSpace(float objectRadius) {
+        float diameter = objectRadius * 2 + PADDING;
+        float angle = randomAngle(random);
+
+        AABB aabb = takeDenseCandidate(diameter, diameter, diameter);
+        return aabb != null ? new Space(aabb, angle) : null;
+    }
+
+    /*
+     * Dart throwing with candidate lists: the area is divided into cells a bit bigger than the
+     * object and each object takes the next free cell in a random order. Cells are never reused
+     * since placed objects are never removed, so placing n objects costs O(n) overlap checks
+     * rather than the O(n) tries per object that random placement needs once the area is crowded.
+     */
+    private AABB takeDenseCandidate(float extent, float width, float height) {
+        DenseCandidates candidates = denseCandidates.get(extent);
+        if (candidates == null) {
+            candidates = new DenseCandidates(extent);
+            denseCandidates.put(extent, candidates);
+        }
+
+        AABB aabb = new AABB();
+        resizeAABB(aabb, width, height);
+        while (candidates.hasNext()) {
+            int cell = candidates.next();
+            float x = candidates.originX + (cell % candidates.columns) * candidates.cellSize
+                    + width / 2 + random.nextFloat() * (candidates.cellSize - width);
+            float y = candidates.originY + (cell / candidates.columns) * candidates.cellSize
+                    + height / 2 + random.nextFloat() * (candidates.cellSize - height);
+            moveAABB(aabb, x, y);
+
+            if (!overlappingWithOtherObject(aabb)) {
+                return aabb;
+            }
+        }
+        return null;
+    }
+
     Space getRectangularSpace(float objectWidth, float objectHeight, Vec2 position, float angle) {
         float sin = MathUtils.abs(MathUtils.sin(angle));
         float cos = MathUtils.abs(MathUtils.cos(angle));
@@ -142,28 +311,73 @@ public class PlacementArea {
     }
 
     boolean overlappingWithOtherObject(AABB aabb) {
-        for (Space space : placements.values()) {
-            if (AABB.testOverlap(aabb, space.aabb)) {
-                return true;
+        int minColumn = gridColumn(aabb.lowerBound.x);
+        int maxColumn = gridColumn(aabb.upperBound.x);
+        int minRow = gridRow(aabb.lowerBound.y);
+        int maxRow = gridRow(aabb.upperBound.y);
+        for (int row = minRow; row <= maxRow; row++) {
+            for (int column = minColumn; column <= maxColumn; column++) {
+                List<Space> cell = grid.get(row * gridColumns + column);
+                if (cell == null) {
+                    continue;
+                }
+
+                for (int i = 0, n = cell.size(); i < n; i++) {
+                    if (AABB.testOverlap(aabb, cell.get(i).aabb)) {
+                        return true;
+                    }
+                }
             }
         }
         return false;
     }
 
+    private void addToGrid(Space space) {
+        int minColumn = gridColumn(space.aabb.lowerBound.x);
+        int maxColumn = gridColumn(space.aabb.upperBound.x);
+        int minRow = gridRow(space.aabb.lowerBound.y);
+        int maxRow = gridRow(space.aabb.upperBound.y);
+        for (int row = minRow; row <= maxRow; row++) {
+            for (int column = minColumn; column <= maxColumn; column++) {
+                int index = row * gridColumns + column;
+                List<Space> cell = grid.get(index);
+                if (cell == null) {
+                    cell = new ArrayList<>(4);
+                    grid.set(index, cell);
+                }
+                cell.add(space);
+            }
+        }
+    }
+
+    // Anything outside the area is counted as being in the closest cell at the edge
+    private int gridColumn(float x) {
+        return Math.max(0, Math.min(MathUtils.floor(x / gridCellSize), gridColumns - 1));
+    }
+
+    private int gridRow(float y) {
+        return Math.max(0, Math.min(MathUtils.floor(y / gridCellSize), gridRows - 1));
+    }
+
     void placeObject(Space space, PhysicalObject object) {
         if (space.isUsed()) {
             throw new IllegalArgumentException("Space already used");
         }
 
-        if (overlappingWithOtherObject(space.aabb)) {
-            throw new IllegalArgumentException("Placement space is not available");
-        }
+        // Spaces from a layout were checked when the layout was recorded
+        if (!space.replayed) {
+            if (overlappingWithOtherObject(space.aabb)) {
+                throw new IllegalArgumentException("Placement space is not available");
+            }
 
-        if (!space.aabb.contains(getObjectAABB(object))) {
-            throw new IllegalArgumentException("Object space does not match placement space");
+            if (!space.aabb.contains(getObjectAABB(object))) {
+                throw new IllegalArgumentException(
+                        "Object space does not match placement space");
+            }
         }
 
         placements.put(object, space);
+        addToGrid(space);
         space.markUsed();
     }
 
@@ -192,6 +406,48 @@ public class PlacementArea {
         return placements.keySet();
     }
 
+    /** The cells for placing objects of one size, in the random order they are to be tried. */
+    private class DenseCandidates {
+        private final float cellSize;
+        private final int columns;
+        private final float originX;
+        private final float originY;
+
+        private final int[] order;
+        private int nextIndex = 0;
+
+        DenseCandidates(float extent) {
+            cellSize = extent * DENSE_CELL_SCALE;
+            columns = (int) (width / cellSize);
+            int rows = (int) (height / cellSize);
+
+            // Center the cells in the area
+            originX = (width - columns * cellSize) / 2;
+            originY = (height - rows * cellSize) / 2;
+
+            // Fisher-Yates shuffle
+            int cells = columns * rows;
+            order = new int[cells];
+            for (int i = 0; i < cells; i++) {
+                order[i] = i;
+            }
+            for (int i = cells - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int temp = order[i];
+                order[i] = order[j];
+                order[j] = temp;
+            }
+        }
+
+        boolean hasNext() {
+            return nextIndex < order.length;
+        }
+
+        int next() {
+            return order[nextIndex++];
+        }
+    }
+
     /**
      * Describes some space available in the PlacementArea
      */
@@ -200,6 +456,7 @@ public class PlacementArea {
         private final float angle;
 
         private boolean used = false;
+        private boolean replayed = false;
 
         private Space(AABB aabb, float angle) {
             this.aabb = aabb;
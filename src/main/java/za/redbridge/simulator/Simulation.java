@@ -2,19 +2,37 @@ package za.redbridge.simulator;
 
 import org.jbox2d.common.Settings;
 import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.Body;
 import org.jbox2d.dynamics.World;
 
+import java.awt.Color;
+import java.awt.Paint;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 
+import sim.engine.Schedule;
 import sim.engine.SimState;
+import sim.engine.Steppable;
 import sim.field.continuous.Continuous2D;
 import sim.util.Double2D;
 import za.redbridge.simulator.config.SimConfig;
 import za.redbridge.simulator.factories.RobotFactory;
 import za.redbridge.simulator.object.PhysicalObject;
+import za.redbridge.simulator.object.ResourceObject;
 import za.redbridge.simulator.object.RobotObject;
 import za.redbridge.simulator.object.TargetAreaObject;
 import za.redbridge.simulator.object.WallObject;
+import za.redbridge.simulator.physics.ConcurrentWorldPool;
+import za.redbridge.simulator.physics.PackedPairBroadPhase;
+import za.redbridge.simulator.physics.SensorIndex;
 import za.redbridge.simulator.physics.SimulationContactListener;
 import za.redbridge.simulator.portrayal.DrawProxy;
 
@@ -27,95 +45,368 @@ public class Simulation extends SimState {
 
     private static final float VELOCITY_THRESHOLD = 0.000001f;
 
-    private Continuous2D environment;
+    static {
+        // JBox2D only has a global setting for this. Set it once when the class is loaded rather
+        // than for each simulation so that simulations running on other threads never see it change
+        Settings.velocityThreshold = VELOCITY_THRESHOLD;
+    }
+
     private World physicsWorld;
+    private SensorIndex sensorIndex;
     private PlacementArea placementArea;
+    private final List<WallObject> walls = new ArrayList<>(4);
+
+    // Display structures, only created if the simulation is displayed
+    private Continuous2D environment;
     private DrawProxy drawProxy;
 
     private final SimulationContactListener contactListener = new SimulationContactListener();
 
-    private static final float TIME_STEP = 1f / 10f;
-    private static final int VELOCITY_ITERATIONS = 6;
-    private static final int POSITION_ITERATIONS = 3;
-
     private TargetAreaObject targetArea;
     private RobotFactory robotFactory;
     private final SimConfig config;
 
     private boolean stopOnceCollected = true;
+    private boolean reuseWorld = false;
+
+    private volatile boolean stopRequested = false;
+
+    // Abort a run once its adjusted team fitness can't reach this, NaN to never abort
+    private double abortThreshold = Double.NaN;
+    private boolean aborted = false;
+
+    // Layouts of the objects placed for each seed, shared with other simulations
+    private WorldLayoutCache layoutCache;
+
+    // Records the trajectories of each run to this file if set
+    private Path trajectoryFile;
+    private TrajectoryRecorder trajectoryRecorder;
+
+    // Plays back a recorded run instead of simulating one if set
+    private TrajectoryPlayer replay;
+    private PhysicalObject[] replayObjects;
+    private boolean replayFinished = false;
+
+    private boolean metricsEnabled = false;
+    private StepMetrics metrics;
+
+    // Steps everything, directly when headless or as the schedule's only steppable when displayed
+    private Stepper stepper;
+
+    // The number of iterations the current run is meant to last
+    private int runIterations;
+
+    // Writes a checkpoint of headless runs to this file every so many steps if set
+    private Path checkpointFile;
+    private int checkpointInterval;
+
+    // Runs start from this checkpoint instead of the beginning if set
+    private SimulationCheckpoint startCheckpoint;
+
+    private final Steppable physicsStep = this::stepPhysics;
+    private final Steppable replayStep = this::stepReplay;
 
     public Simulation(SimConfig config, RobotFactory robotFactory) {
-        super(config.getSimulationSeed());
+        this(config, robotFactory, config.getSimulationSeed());
+    }
+
+    /**
+     * Create a simulation with its own seed. The config and robot factory are only read from, so
+     * they may be shared by simulations running on different threads.
+     */
+    public Simulation(SimConfig config, RobotFactory robotFactory, long seed) {
+        super(seed, new StepSchedule());
         this.config = config;
         this.robotFactory = robotFactory;
-
-        Settings.velocityThreshold = VELOCITY_THRESHOLD;
     }
 
     @Override
     public void start() {
+        if (startCheckpoint != null) {
+            restore(startCheckpoint, false);
+            return;
+        }
+
+        start(false);
+        runIterations = config.getSimulationIterations();
+        startStepping(false);
+    }
+
+    /*
+     * Set up a run, ready to take its first step, in a new world if newWorld even if worlds are
+     * reused. Everything is stepped by a Stepper, which startStepping() schedules if the run isn't
+     * headless.
+     */
+    private void start(boolean newWorld) {
+        // Reseed so that every run of this simulation is the same
+        random.setSeed(seed());
         super.start();
+        aborted = false;
 
-        environment =
-                new Continuous2D(1.0, config.getEnvironmentWidth(), config.getEnvironmentHeight());
-        drawProxy = new DrawProxy(environment.getWidth(), environment.getHeight());
-        environment.setObjectLocation(drawProxy, new Double2D());
+        if (reuseWorld && physicsWorld != null && !newWorld) {
+            resetWorld();
+        } else {
+            createWorld();
+        }
 
-        physicsWorld = new World(new Vec2());
-        placementArea =
-                new PlacementArea((float) environment.getWidth(), (float) environment.getHeight());
-        placementArea.setSeed(config.getSimulationSeed());
-        schedule.reset();
-        System.gc();
+        // Now actually add the objects that have been placed to the world and schedule
+        final List<Steppable> steppables = new ArrayList<>();
+        if (replay != null) {
+            // Nothing is simulated, the objects are just moved
+            startReplay();
+            steppables.add(replayStep);
+        } else {
+            for (PhysicalObject object : placementArea.getPlacedObjects()) {
+                steppables.add(object);
+
+                if (object instanceof RobotObject) {
+                    RobotObject robot = (RobotObject) object;
+                    robot.setRandom(random);
+                    robot.setSensorIndex(sensorIndex);
+                }
+            }
+            steppables.add(physicsStep);
+        }
+
+        if (metricsEnabled) {
+            if (metrics == null) {
+                metrics = new StepMetrics();
+            }
+        } else {
+            metrics = null;
+        }
+
+        stepper = new Stepper(steppables);
+    }
+
+    // Start stepping a run that has been set up, from whichever step it is at
+    private void startStepping(boolean headless) {
+        if (!headless) {
+            ((StepSchedule) schedule).setSteps(stepper.getSteps());
+            schedule.scheduleRepeating(stepper);
+        }
+        startRecording();
+    }
+
+    private void stepPhysics(SimState simState) {
+        final StepMetrics metrics = this.metrics;
+        long startTime = metrics != null ? System.nanoTime() : 0L;
+        physicsWorld.step(config.getTimeStep(), config.getVelocityIterations(),
+                config.getPositionIterations());
+        sensorIndex.invalidate();
+        if (metrics != null) {
+            metrics.addTime(StepMetrics.Phase.PHYSICS, startTime);
+        }
+    }
+
+    private void startRecording() {
+        trajectoryRecorder = null;
+        if (trajectoryFile == null || replay != null) {
+            return;
+        }
+
+        try {
+            trajectoryRecorder = new TrajectoryRecorder(trajectoryFile, seed(),
+                    placementArea.getPlacedObjects());
+        } catch (IOException e) {
+            System.out.println("Error recording trajectories to " + trajectoryFile);
+            e.printStackTrace();
+        }
+    }
+
+    /*
+     * Match up the recorded objects with this simulation's objects, which are created in the same
+     * order, and move them to where they were at the start of the recorded run.
+     */
+    private void startReplay() {
+        List<PhysicalObject> objects = new ArrayList<>();
+        for (PhysicalObject object : placementArea.getPlacedObjects()) {
+            if (object instanceof RobotObject || object instanceof ResourceObject) {
+                objects.add(object);
+            }
+        }
+
+        if (objects.size() != replay.getNumberOfObjects()) {
+            throw new IllegalStateException("Recorded run has " + replay.getNumberOfObjects()
+                    + " objects but the simulation has " + objects.size());
+        }
+        for (int i = 0; i < objects.size(); i++) {
+            if (replay.isRobot(i) != objects.get(i) instanceof RobotObject) {
+                throw new IllegalStateException("Recorded run doesn't match the simulation");
+            }
+        }
+
+        replayObjects = objects.toArray(new PhysicalObject[objects.size()]);
+        replay.rewind();
+        replayFinished = false;
+        stepReplay(this);
+    }
+
+    private void stepReplay(SimState simState) {
+        if (!replay.nextFrame()) {
+            replayFinished = true;
+            return;
+        }
+
+        final PhysicalObject[] objects = replayObjects;
+        for (int i = 0; i < objects.length; i++) {
+            PhysicalObject object = objects[i];
+            object.setTransform(new Vec2(replay.getX(i), replay.getY(i)), replay.getAngle(i));
+
+            if (replay.hasColour(i)) {
+                int colour = replay.getColour(i);
+                Paint paint = object.getPaint();
+                if (!(paint instanceof Color) || ((Color) paint).getRGB() != colour) {
+                    object.setPaint(new Color(colour, true));
+                }
+            }
+        }
+    }
+
+    // Called once everything has been stepped
+    private void onStepComplete() {
+        if (trajectoryRecorder != null) {
+            trajectoryRecorder.recordStep();
+        }
+
+        final StepMetrics metrics = this.metrics;
+        if (metrics == null) {
+            return;
+        }
+
+        metrics.count(StepMetrics.Counter.CONTACTS, physicsWorld.getContactCount());
+
+        int awakeBodies = 0;
+        for (Body body = physicsWorld.getBodyList(); body != null; body = body.getNext()) {
+            if (body.isAwake()) {
+                awakeBodies++;
+            }
+        }
+        metrics.count(StepMetrics.Counter.AWAKE_BODIES, awakeBodies);
+
+        metrics.endStep();
+    }
+
+    private void createWorld() {
+        // New objects need to be registered with a new environment if the simulation is displayed
+        environment = null;
+        drawProxy = null;
+
+        physicsWorld =
+                new World(new Vec2(), new ConcurrentWorldPool(), new PackedPairBroadPhase());
+        placementArea = createPlacementArea();
 
         physicsWorld.setContactListener(contactListener);
+        sensorIndex = new SensorIndex(physicsWorld, config.getEnvironmentWidth(),
+                config.getEnvironmentHeight());
 
         // Create ALL the objects
         createWalls();
         createTargetArea();
+        WorldLayout.Builder recorder = useLayout(placementArea);
         robotFactory
                 .placeInstances(placementArea.new ForType<>(), physicsWorld,
                         config.getTargetAreaPlacement());
         config.getResourceFactory().placeInstances(placementArea.new ForType<>(), physicsWorld);
+        if (recorder != null) {
+            layoutCache.putIfAbsent(seed(), recorder.build());
+        }
+    }
 
-        // Now actually add the objects that have been placed to the world and schedule
-        for (PhysicalObject object : placementArea.getPlacedObjects()) {
-            drawProxy.registerDrawable(object.getPortrayal());
-            schedule.scheduleRepeating(object);
+    /*
+     * Replay the seed's layout in a placement area if there is one, otherwise record it. Returns
+     * the recorder if the layout is being recorded.
+     */
+    private WorldLayout.Builder useLayout(PlacementArea placementArea) {
+        if (layoutCache == null) {
+            return null;
+        }
+
+        WorldLayout layout = layoutCache.get(seed());
+        if (layout != null) {
+            placementArea.replayLayout(layout);
+            return null;
+        }
+
+        WorldLayout.Builder recorder = new WorldLayout.Builder(config.getEnvironmentWidth(),
+                config.getEnvironmentHeight());
+        placementArea.recordLayout(recorder);
+        return recorder;
+    }
+
+    /*
+     * Reuse the existing world for a new run. Walls and the target area stay where they are. The
+     * robots and resources are placed again, asking for space in the same order and with the same
+     * sizes as their factories did, so they end up where a freshly created world would put them.
+     */
+    private void resetWorld() {
+        targetArea.reset();
+
+        PlacementArea previousPlacementArea = placementArea;
+        placementArea = createPlacementArea();
+        WorldLayout.Builder recorder = null;
+        for (PhysicalObject object : previousPlacementArea.getPlacedObjects()) {
+            final PlacementArea.Space space;
+            if (object instanceof RobotObject) {
+                RobotObject robot = (RobotObject) object;
+                space = placementArea.getRandomCircularSpace(robot.getRadius());
+                robot.reset(space.getPosition(), space.getAngle());
+            } else if (object instanceof ResourceObject) {
+                ResourceObject resource = (ResourceObject) object;
+                space = placementArea.getRandomRectangularSpace((float) resource.getWidth(),
+                        (float) resource.getHeight());
+                resource.reset(space.getPosition(), space.getAngle());
+            } else {
+                space = placementArea.getRectangularSpace(targetArea.getWidth(),
+                        targetArea.getHeight(), object.getBody().getPosition(), 0f);
+
+                // The target area is placed first, then the layout starts
+                recorder = useLayout(placementArea);
+            }
+            placementArea.placeObject(space, object);
         }
+        if (recorder != null) {
+            layoutCache.putIfAbsent(seed(), recorder.build());
+        }
+
+        // Pair up the fixtures now like a new world would at the start of its first step
+        physicsWorld.getContactManager().findNewContacts();
+        sensorIndex.invalidate();
+    }
 
-        schedule.scheduleRepeating(simState ->
-            physicsWorld.step(TIME_STEP, VELOCITY_ITERATIONS, POSITION_ITERATIONS)
-        );
+    private PlacementArea createPlacementArea() {
+        PlacementArea placementArea = new PlacementArea(config.getEnvironmentWidth(),
+                config.getEnvironmentHeight());
+        placementArea.setSeed(seed());
+        placementArea.setStrategy(config.getPlacementStrategy());
+        return placementArea;
     }
 
     // Walls are simply added to environment since they do not need updating
     private void createWalls() {
         int environmentWidth = config.getEnvironmentWidth();
         int environmentHeight = config.getEnvironmentHeight();
+        walls.clear();
+
         // Left
         Double2D pos = new Double2D(0, environmentHeight / 2.0);
         Double2D v1 = new Double2D(0, -pos.y);
         Double2D v2 = new Double2D(0, pos.y);
-        WallObject wall = new WallObject(physicsWorld, pos, v1, v2);
-        drawProxy.registerDrawable(wall.getPortrayal());
+        walls.add(new WallObject(physicsWorld, pos, v1, v2));
 
         // Right
         pos = new Double2D(environmentWidth, environmentHeight / 2.0);
-        wall = new WallObject(physicsWorld, pos, v1, v2);
-        drawProxy.registerDrawable(wall.getPortrayal());
+        walls.add(new WallObject(physicsWorld, pos, v1, v2));
 
         // Top
         pos = new Double2D(environmentWidth / 2.0, 0);
         v1 = new Double2D(-pos.x, 0);
         v2 = new Double2D(pos.x, 0);
-        wall = new WallObject(physicsWorld, pos, v1, v2);
-        drawProxy.registerDrawable(wall.getPortrayal());
+        walls.add(new WallObject(physicsWorld, pos, v1, v2));
 
         // Bottom
         pos = new Double2D(environmentWidth / 2.0, environmentHeight);
-        wall = new WallObject(physicsWorld, pos, v1, v2);
-        drawProxy.registerDrawable(wall.getPortrayal());
+        walls.add(new WallObject(physicsWorld, pos, v1, v2));
     }
 
     //create target area
@@ -154,12 +445,6 @@ public class Simulation extends SimState {
         placementArea.placeObject(space, targetArea);
     }
 
-    @Override
-    public void setSeed(long seed) {
-        super.setSeed(seed);
-        config.setSimulationSeed(seed);
-    }
-
     private double getRobotAvgPolygonArea() {
         Set<PhysicalObject> objects = placementArea.getPlacedObjects();
         double totalArea = 0.0;
@@ -172,8 +457,25 @@ public class Simulation extends SimState {
         return totalArea/config.getObjectsRobots();
     }
 
-    /** Get the environment (forage area) for this simulation. */
+    /**
+     * Get the environment (forage area) for this simulation. The environment and the portrayals of
+     * all the objects are only created the first time this is called after the world is created,
+     * so a simulation that is never displayed never creates them.
+     */
     public Continuous2D getEnvironment() {
+        if (environment == null) {
+            environment = new Continuous2D(1.0, config.getEnvironmentWidth(),
+                    config.getEnvironmentHeight());
+            drawProxy = new DrawProxy(environment.getWidth(), environment.getHeight());
+            environment.setObjectLocation(drawProxy, new Double2D());
+
+            for (WallObject wall : walls) {
+                drawProxy.registerDrawable(wall.getPortrayal());
+            }
+            for (PhysicalObject object : placementArea.getPlacedObjects()) {
+                drawProxy.registerDrawable(object.getPortrayal());
+            }
+        }
         return environment;
     }
 
@@ -186,25 +488,373 @@ public class Simulation extends SimState {
     }
 
     /**
-     * Run the simulation for a certain number of iterations.
+     * Run the simulation for a certain number of iterations. The simulation is stepped without the
+     * schedule, which gives the same results but skips objects with nothing to do, so it shouldn't
+     * be displayed while it runs. If an abort threshold is set, the run stops as soon as it can no
+     * longer reach it.
      * @param n the number of iterations
      */
     public void runForNIterations(int n) {
-        start();
-        for (int i = 0; i < n; i++) {
-            schedule.step(this);
+        start(false);
+        runIterations = n;
+        startStepping(true);
+        runSteps();
+    }
+
+    /**
+     * Carry on a run from a checkpoint, headless, until it has run for as many iterations as the
+     * run the checkpoint was taken from was meant to. The rest of the run is exactly the same as
+     * if it hadn't been interrupted. Trajectories are recorded from the checkpoint on.
+     * @param checkpoint a checkpoint taken from a simulation with the same config, robots and seed
+     * @throws IllegalArgumentException if the checkpoint doesn't fit this simulation
+     * @see #runForNIterations(int)
+     */
+    public void resume(SimulationCheckpoint checkpoint) {
+        restore(checkpoint, true);
+        runSteps();
+    }
+
+    // Step a headless run until it's done
+    private void runSteps() {
+        final Stepper stepper = this.stepper;
+        final boolean abortable = !Double.isNaN(abortThreshold);
+        while (stepper.getSteps() < runIterations && !stopRequested) {
+            stepper.step(this);
+            onStepComplete();
             if (stopOnceCollected && allResourcesCollected()) {
                 break;
             }
+            if (abortable && getFitnessUpperBound() < abortThreshold) {
+                aborted = true;
+                break;
+            }
+            if (checkpointFile != null && stepper.getSteps() % checkpointInterval == 0) {
+                writeCheckpoint();
+            }
         }
         finish();
     }
 
+    private void writeCheckpoint() {
+        try {
+            checkpoint().write(checkpointFile);
+        } catch (IOException e) {
+            System.out.println("Error writing checkpoint to " + checkpointFile);
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Take a checkpoint of the run in progress, between steps, e.g. when the simulation is paused
+     * or from {@link #runForNIterations(int)} (see {@link #setCheckpointFile(Path, int)}).
+     * Checkpoints can't be taken of replays.
+     * @return the checkpoint
+     * @throws IllegalStateException if the simulation hasn't been started or is a replay
+     */
+    public SimulationCheckpoint checkpoint() {
+        if (stepper == null) {
+            throw new IllegalStateException("Simulation hasn't been started");
+        }
+        if (replay != null) {
+            throw new IllegalStateException("Can't checkpoint a replay");
+        }
+
+        final List<PhysicalObject> objects = new ArrayList<>(placementArea.getPlacedObjects());
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (CheckpointOutput out = new CheckpointOutput(new BufferedOutputStream(bytes),
+                physicsWorld, objects)) {
+            String configKey = config.getCacheKey();
+            out.writeBoolean(configKey != null);
+            if (configKey != null) {
+                byte[] configKeyBytes = configKey.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(configKeyBytes.length);
+                out.write(configKeyBytes);
+            }
+            out.writeInt(runIterations);
+            random.writeState(out);
+
+            out.writeInt(stepper.size());
+            for (int i = 0; i < stepper.size(); i++) {
+                out.writeInt(stepper.getOrder(i));
+            }
+
+            WorldCheckpoint.write(physicsWorld, out);
+
+            out.writeInt(objects.size());
+            for (PhysicalObject object : objects) {
+                object.writeState(out);
+            }
+        } catch (IOException e) {
+            // Only written to memory
+            throw new AssertionError(e);
+        }
+        return new SimulationCheckpoint(seed(), stepper.getSteps(), bytes.toByteArray());
+    }
+
+    /**
+     * Start the simulation from a checkpoint instead of from the beginning, to be stepped with
+     * the schedule, e.g. when it is displayed. The world is built again like a new run and then
+     * set to the checkpoint's state, after which the simulation steps exactly like the simulation
+     * the checkpoint was taken from. Queries of the world may report objects in a different
+     * order than they would have, which doesn't change how it steps.
+     * @param checkpoint a checkpoint taken from a simulation with the same config, robots and seed
+     * @throws IllegalArgumentException if the checkpoint doesn't fit this simulation
+     * @throws IllegalStateException if this simulation is a replay
+     */
+    public void restore(SimulationCheckpoint checkpoint) {
+        restore(checkpoint, false);
+    }
+
+    private void restore(SimulationCheckpoint checkpoint, boolean headless) {
+        if (replay != null) {
+            throw new IllegalStateException("Can't restore a checkpoint into a replay");
+        }
+        if (checkpoint.getSeed() != seed()) {
+            throw new IllegalArgumentException("Checkpoint was taken with seed "
+                    + checkpoint.getSeed() + " but the simulation's seed is " + seed());
+        }
+
+        // The proxies in the broad phase must be numbered like they were in a new world
+        start(true);
+
+        final List<PhysicalObject> objects = new ArrayList<>(placementArea.getPlacedObjects());
+        try (CheckpointInput in = new CheckpointInput(new BufferedInputStream(
+                new ByteArrayInputStream(checkpoint.getData())), physicsWorld, objects)) {
+            if (in.readBoolean()) {
+                byte[] configKeyBytes = new byte[in.readInt()];
+                in.readFully(configKeyBytes);
+                String configKey = config.getCacheKey();
+                if (configKey != null && !configKey.equals(
+                        new String(configKeyBytes, StandardCharsets.UTF_8))) {
+                    throw new IllegalArgumentException(
+                            "Checkpoint was taken with a different config");
+                }
+            }
+            runIterations = in.readInt();
+            random.readState(in);
+
+            int[] order = new int[in.readInt()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = in.readInt();
+            }
+            stepper.restore(checkpoint.getStep(), order);
+
+            WorldCheckpoint.read(physicsWorld, in);
+
+            int numObjects = in.readInt();
+            if (numObjects != objects.size()) {
+                throw new IOException("Checkpoint has " + numObjects
+                        + " objects but the simulation has " + objects.size());
+            }
+            for (PhysicalObject object : objects) {
+                object.readState(in);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Checkpoint doesn't fit the simulation", e);
+        }
+        sensorIndex.invalidate();
+
+        startStepping(headless);
+    }
+
+    @Override
+    public void finish() {
+        super.finish();
+
+        if (trajectoryRecorder != null) {
+            try {
+                trajectoryRecorder.close();
+            } catch (IOException e) {
+                System.out.println("Error recording trajectories to " + trajectoryFile);
+                e.printStackTrace();
+            }
+            trajectoryRecorder = null;
+        }
+    }
+
+    /**
+     * Ask a simulation running in {@link #runForNIterations(int)} to stop after the current step.
+     * Safe to call from another thread. The fitness reached so far is kept. A stopped simulation
+     * stays stopped, so this may also be called before the simulation is run.
+     */
+    public void stop() {
+        stopRequested = true;
+    }
+
+    /** Whether {@link #stop()} has been called on this simulation. */
+    public boolean isStopRequested() {
+        return stopRequested;
+    }
+
     public boolean allResourcesCollected() {
         return config.getResourceFactory().getNumberOfResources()
                 == targetArea.getNumberOfContainedResources();
     }
 
+    /**
+     * If true, every run after the first reuses the physics world and objects of the previous run
+     * instead of building new ones. Walls and the target area are kept, and robots and resources
+     * are moved to the positions a new world would place them at for the seed. Runs are
+     * reproducible for a given sequence of seeds but are not bit-identical to runs in a new world,
+     * because the physics engine pairs up fixtures in a different order. Robot phenotypes are
+     * {@link za.redbridge.simulator.phenotype.Phenotype#reset() reset} rather than cloned again.
+     */
+    public boolean isReuseWorld() {
+        return reuseWorld;
+    }
+
+    /** Set whether runs after the first should reuse the physics world. */
+    public void setReuseWorld(boolean reuseWorld) {
+        this.reuseWorld = reuseWorld;
+    }
+
+    public WorldLayoutCache getLayoutCache() {
+        return layoutCache;
+    }
+
+    /**
+     * Set a cache of the layouts of the objects placed at the start of a run. If the cache has a
+     * layout for this simulation's seed, the robots and resources are put where the layout says
+     * instead of being placed randomly. Otherwise this simulation's layout is added to the cache
+     * when it starts. The results are the same either way.
+     * @param layoutCache the cache, or null to always place objects randomly
+     */
+    public void setLayoutCache(WorldLayoutCache layoutCache) {
+        this.layoutCache = layoutCache;
+    }
+
+    /** Get the file the trajectories of each run are recorded to, or null if not recorded. */
+    public Path getTrajectoryFile() {
+        return trajectoryFile;
+    }
+
+    /**
+     * Record the trajectories of the robots and resources in each run to a file, which is
+     * replaced every run. The file is complete once the run has finished.
+     * @param trajectoryFile the file, or null to not record
+     * @see TrajectoryRecorder
+     */
+    public void setTrajectoryFile(Path trajectoryFile) {
+        this.trajectoryFile = trajectoryFile;
+    }
+
+    /** Get the file checkpoints of headless runs are written to, or null if they aren't. */
+    public Path getCheckpointFile() {
+        return checkpointFile;
+    }
+
+    /** Get the number of steps between the checkpoints written to the checkpoint file. */
+    public int getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    /**
+     * Write a checkpoint of each run in {@link #runForNIterations(int)} to a file every so many
+     * steps, so that a run that is cut short can be {@link #resume(SimulationCheckpoint) resumed}
+     * from the last one. The file is replaced with each checkpoint.
+     * @param checkpointFile the file, or null to not write checkpoints
+     * @param interval the number of steps between checkpoints
+     */
+    public void setCheckpointFile(Path checkpointFile, int interval) {
+        if (checkpointFile != null && interval < 1) {
+            throw new IllegalArgumentException("Invalid checkpoint interval: " + interval);
+        }
+        this.checkpointFile = checkpointFile;
+        this.checkpointInterval = interval;
+    }
+
+    /** Get the checkpoint runs start from, or null if they start from the beginning. */
+    public SimulationCheckpoint getStartCheckpoint() {
+        return startCheckpoint;
+    }
+
+    /**
+     * Start every run from a checkpoint instead of from the beginning, e.g. to display a run from
+     * where a checkpoint was taken. Takes effect the next time the simulation is started with
+     * {@link #start()}.
+     * @param startCheckpoint the checkpoint, or null to start from the beginning
+     * @see #restore(SimulationCheckpoint)
+     */
+    public void setStartCheckpoint(SimulationCheckpoint startCheckpoint) {
+        this.startCheckpoint = startCheckpoint;
+    }
+
+    /** Get the recorded run being played back, or null if this simulation is simulated. */
+    public TrajectoryPlayer getReplay() {
+        return replay;
+    }
+
+    /**
+     * Play back a recorded run instead of simulating. The world is created as usual so that the
+     * objects can be drawn, then each step just moves them to where they were in the recording.
+     * The simulation must have the same config and seed as the recorded run. Takes effect the next
+     * time the simulation is started.
+     * @param replay the recorded run, or null to simulate
+     */
+    public void setReplay(TrajectoryPlayer replay) {
+        this.replay = replay;
+    }
+
+    /** Whether the recorded run being played back has no more steps. */
+    public boolean isReplayFinished() {
+        return replay != null && replayFinished;
+    }
+
+    /**
+     * Get the step metrics of this simulation, or null if metrics are not enabled. The metrics are
+     * kept from run to run, {@link StepMetrics#reset() reset} them to measure a single run.
+     */
+    public StepMetrics getMetrics() {
+        return metrics;
+    }
+
+    /** If true, the time spent in each phase of a step is measured. */
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    /**
+     * Set whether the time spent in each phase of a step should be measured. Takes effect the next
+     * time the simulation is started.
+     */
+    public void setMetricsEnabled(boolean metricsEnabled) {
+        this.metricsEnabled = metricsEnabled;
+    }
+
+    /**
+     * Get the adjusted team fitness threshold below which a run is aborted, or NaN if runs are
+     * never aborted.
+     */
+    public double getAbortThreshold() {
+        return abortThreshold;
+    }
+
+    /**
+     * Set a threshold on the {@link FitnessStats#getAdjustedTeamFitness() adjusted team fitness}
+     * so that a run in {@link #runForNIterations(int)} stops as soon as its
+     * {@link #getFitnessUpperBound() upper bound} drops below the threshold. The fitness reached
+     * so far is kept. Useful when all that matters about a candidate that can't beat the threshold
+     * is that it lost.
+     * @param abortThreshold the threshold (out of 100), or NaN to never abort
+     */
+    public void setAbortThreshold(double abortThreshold) {
+        this.abortThreshold = abortThreshold;
+    }
+
+    /** Whether the last run was aborted because it couldn't reach the abort threshold. */
+    public boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * Get an upper bound on the adjusted team fitness this run can still reach. Resources that
+     * haven't been collected are worth less the longer the run goes on, so the bound drops over
+     * time.
+     */
+    public double getFitnessUpperBound() {
+        return getFitness().getAdjustedTeamFitnessUpperBound(getProgressFraction());
+    }
+
     /** If true, this simulation will stop once all the resource objects have been collected. */
     public boolean isStopOnceCollected() {
         return stopOnceCollected;
@@ -222,12 +872,50 @@ public class Simulation extends SimState {
 
     /** Gets the progress of the simulation as a percentage */
     public double getProgressFraction() {
-        return (double) schedule.getSteps() / config.getSimulationIterations();
+        return (double) getStepNumber() / config.getSimulationIterations();
+    }
+
+    /**
+     * Whether the robots' sensors and controllers run in the current step. They only run every
+     * {@link SimConfig#getControllerPeriod()} steps.
+     */
+    public boolean isControllerStep() {
+        return getStepNumber() % config.getControllerPeriod() == 0;
+    }
+
+    /**
+     * Get the number of iterations the current run is meant to last. Displayed runs carry on past
+     * this until they are stopped.
+     */
+    public int getRunIterations() {
+        return runIterations;
     }
 
     /** Get the number of steps this simulation has been run for. */
     public long getStepNumber() {
-        return schedule.getSteps();
+        return stepper != null ? stepper.getSteps() : schedule.getSteps();
+    }
+
+    /*
+     * Schedule that tells the simulation when each step is complete. Scheduling another steppable
+     * to do this instead would change the order in which the schedule shuffles the objects.
+     */
+    @SuppressWarnings("serial")
+    private static class StepSchedule extends Schedule {
+        // Carry on counting from a step other than the first, e.g. when restoring a checkpoint
+        void setSteps(long steps) {
+            time = steps - 1;
+            this.steps = steps;
+        }
+
+        @Override
+        public synchronized boolean step(SimState state) {
+            boolean stepped = super.step(state);
+            if (stepped) {
+                ((Simulation) state).onStepComplete();
+            }
+            return stepped;
+        }
     }
 
     /**
@@ -0,0 +1,113 @@
+package za.redbridge.simulator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * The complete state of a simulation between two steps: the physics world, the schedule, the
+ * objects, the fitness so far, the robots' heuristics and phenotypes and the random number
+ * generator. A simulation with the same config, robots and seed that
+ * {@link Simulation#restore(SimulationCheckpoint) restores} a checkpoint carries on exactly like
+ * the simulation it was taken from. Immutable.
+ *
+ * Checkpoints are taken with {@link Simulation#checkpoint()} and can be kept in memory or written
+ * to a file. The state is encoded once when the checkpoint is taken, so restoring it only decodes
+ * numbers into a newly built world.
+ */
+public final class SimulationCheckpoint {
+
+    private static final int FILE_MAGIC = 0x43484b50; // "CHKP"
+    private static final int FILE_VERSION = 1;
+
+    private final long seed;
+    private final long step;
+    private final byte[] data;
+
+    SimulationCheckpoint(long seed, long step, byte[] data) {
+        this.seed = seed;
+        this.step = step;
+        this.data = data;
+    }
+
+    /** The seed of the simulation the checkpoint was taken from. */
+    public long getSeed() {
+        return seed;
+    }
+
+    /** The number of steps the simulation had taken when the checkpoint was taken. */
+    public long getStep() {
+        return step;
+    }
+
+    /** The size of the encoded state in bytes. */
+    public int size() {
+        return data.length;
+    }
+
+    byte[] getData() {
+        return data;
+    }
+
+    /** Write the checkpoint to a file, replacing it if it exists. */
+    public void write(Path path) throws IOException {
+        // Write to a temporary file first so that a crash never leaves half a checkpoint
+        Path directory = path.toAbsolutePath().getParent();
+        Path tempPath = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(tempPath)) {
+                DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+                data.writeInt(FILE_MAGIC);
+                data.writeInt(FILE_VERSION);
+                data.writeLong(seed);
+                data.writeLong(step);
+                data.writeInt(this.data.length);
+                data.write(this.data);
+                data.flush();
+            }
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+    }
+
+    /**
+     * Read a checkpoint written with {@link #write(Path)}.
+     * @throws IOException if the file can't be read or isn't a checkpoint file
+     */
+    public static SimulationCheckpoint read(Path path) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+            if (data.readInt() != FILE_MAGIC) {
+                throw new IOException("Not a checkpoint file: " + path);
+            }
+            int version = data.readInt();
+            if (version != FILE_VERSION) {
+                throw new IOException("Unsupported checkpoint file version: " + version);
+            }
+
+            long seed = data.readLong();
+            long step = data.readLong();
+            int size = data.readInt();
+            if (size < 0) {
+                throw new IOException("Invalid checkpoint size: " + size);
+            }
+            byte[] state = new byte[size];
+            try {
+                data.readFully(state);
+            } catch (EOFException e) {
+                throw new IOException("Truncated checkpoint file: " + path, e);
+            }
+            return new SimulationCheckpoint(seed, step, state);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package za.redbridge.simulator;
 
+import sim.display.Console;
 import sim.display.Controller;
 import sim.display.Display2D;
 import sim.display.GUIState;
@@ -8,6 +9,10 @@ import sim.portrayal.continuous.ContinuousPortrayal2D;
 
 import javax.swing.*;
 import java.awt.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by jamie on 2014/07/24.
@@ -16,12 +21,82 @@ import java.awt.*;
 //this should be ExperimentGUI
 public class SimulationGUI extends GUIState {
 
+    /** The default most memory keyframes may take up, in bytes. */
+    public static final long DEFAULT_KEYFRAME_MEMORY = 64L * 1024 * 1024;
+
+    /** The default number of steps between keyframes. */
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 250;
+
+    // The steps run at a time while seeking, between which the display gets to paint
+    private static final int SEEK_STEPS_PER_LOCK = 100;
+
     private Display2D display;
     private JFrame displayFrame;
     private ContinuousPortrayal2D environmentPortrayal = new ContinuousPortrayal2D();
 
+    // Checkpoints taken while the simulation runs, to jump back to with the timeline
+    private final KeyframeBuffer keyframes;
+    private int keyframeInterval = DEFAULT_KEYFRAME_INTERVAL;
+
+    private JSlider timeline;
+    private JLabel timelineLabel;
+
+    // Set while the timeline is moved to the current step rather than by the user
+    private boolean updatingTimeline = false;
+
+    // The step to move the timeline to, set by the model thread and read by the Swing thread
+    private volatile long currentStep;
+    private final AtomicBoolean timelineUpdatePending = new AtomicBoolean();
+
+    // Whether the timeline can jump, once the simulation has started unless it is a replay
+    private volatile boolean seekable = false;
+
+    // Seeks run one at a time on their own thread so that long ones don't freeze the Swing thread
+    private final ExecutorService seeker = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Timeline seek");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // The step of the latest seek until the seek thread takes it, -1 after
+    private final AtomicLong seekStep = new AtomicLong(-1);
+
+    // Counts seeks and whether to play again after the latest, only used on the Swing thread
+    private int seekCount = 0;
+    private boolean resumeAfterSeek = false;
+
     public SimulationGUI(SimState state) {
+        this(state, DEFAULT_KEYFRAME_MEMORY);
+    }
+
+    /**
+     * Create a GUI for a simulation with a timeline that can jump to any step. Every so many steps
+     * a keyframe of the simulation is kept in memory. Jumping restores the latest keyframe before
+     * the step and runs the simulation forward from there, which ends up exactly where the
+     * simulation would have been. Once the keyframes fill their memory the earliest are dropped,
+     * and jumping to before the first keyframe starts the run again. Replays have no keyframes.
+     * @param state the simulation
+     * @param keyframeMemory the most memory keyframes may take up, in bytes
+     */
+    public SimulationGUI(SimState state, long keyframeMemory) {
         super(state);
+        keyframes = new KeyframeBuffer(keyframeMemory);
+    }
+
+    /** Get the number of steps between keyframes. */
+    public int getKeyframeInterval() {
+        return keyframeInterval;
+    }
+
+    /**
+     * Set the number of steps between keyframes. Fewer steps make jumping quicker but fill the
+     * keyframes' memory sooner.
+     */
+    public void setKeyframeInterval(int keyframeInterval) {
+        if (keyframeInterval < 1) {
+            throw new IllegalArgumentException("Invalid keyframe interval: " + keyframeInterval);
+        }
+        this.keyframeInterval = keyframeInterval;
     }
 
     @Override
@@ -37,6 +112,24 @@ public class SimulationGUI extends GUIState {
 
         controller.registerFrame(displayFrame);
 
+        // Jump to the step the timeline is dropped at
+        timeline = new JSlider(0, 0, 0);
+        timeline.setEnabled(false);
+        timeline.addChangeListener(e -> {
+            if (timeline.getValueIsAdjusting()) {
+                timelineLabel.setText(formatStep(timeline.getValue()));
+            } else if (!updatingTimeline) {
+                seek(timeline.getValue());
+            }
+        });
+        timelineLabel = new JLabel(formatStep(0));
+
+        JPanel timelinePanel = new JPanel(new BorderLayout());
+        timelinePanel.add(timeline, BorderLayout.CENTER);
+        timelinePanel.add(timelineLabel, BorderLayout.EAST);
+        displayFrame.getContentPane().add(timelinePanel, BorderLayout.SOUTH);
+        displayFrame.pack();
+
         displayFrame.setVisible(true);
         display.attach(environmentPortrayal, "Forage Area");
     }
@@ -53,24 +146,42 @@ public class SimulationGUI extends GUIState {
         display.reset();
         display.setBackdrop(Color.white);
         display.repaint();
+
+        seekable = simulation.getReplay() == null;
+        updateTimeline();
     }
 
     @Override
     public boolean step() {
         final Simulation simulation = (Simulation) state;
-        if (simulation.allResourcesCollected()) {
+        // Start again once done, replays included
+        if (simulation.allResourcesCollected() || simulation.isReplayFinished()) {
             simulation.finish();
             simulation.start();
             start();
         }
 
-        return super.step();
+        boolean stepped = super.step();
+        addKeyframe();
+        updateTimeline();
+        return stepped;
+    }
+
+    @Override
+    public void finish() {
+        super.finish();
+
+        seekable = false;
+        updateTimeline();
     }
 
     @Override
     public void quit() {
         super.quit();
 
+        seekable = false;
+        seeker.shutdown();
+
         if (displayFrame != null) {
             displayFrame.dispose();
         }
@@ -80,4 +191,139 @@ public class SimulationGUI extends GUIState {
         display = null;
     }
 
+    // Keep a keyframe every so many steps, unless there already is one that far into the run
+    private void addKeyframe() {
+        final Simulation simulation = (Simulation) state;
+        if (simulation.getReplay() != null) {
+            return;
+        }
+
+        long step = simulation.getStepNumber();
+        if (step % keyframeInterval == 0 && step > keyframes.getLatestStep()) {
+            keyframes.add(simulation.checkpoint());
+        }
+    }
+
+    // Jump to a step, pausing the simulation while it is moved if it is playing. Called on the
+    // Swing thread.
+    private void seek(long step) {
+        if (!seekable) {
+            return;
+        }
+
+        // Only the console can stop the play thread running on past the step
+        if (controller instanceof Console) {
+            Console console = (Console) controller;
+            if (console.getPlayState() == Console.PS_PLAYING) {
+                console.pressPause();
+                resumeAfterSeek = true;
+            }
+        }
+
+        // A seek that is still running stops early, this one takes over from where it got to
+        final int seek = ++seekCount;
+        seekStep.set(step);
+        seeker.execute(() -> {
+            long latestStep = seekStep.getAndSet(-1);
+            if (latestStep >= 0) {
+                seekTo(latestStep);
+            }
+            SwingUtilities.invokeLater(() -> finishSeek(seek));
+        });
+    }
+
+    // Once the latest seek is done, play again if it paused the simulation
+    private void finishSeek(int seek) {
+        if (seek != seekCount) {
+            return;
+        }
+
+        if (resumeAfterSeek && controller instanceof Console) {
+            Console console = (Console) controller;
+            if (console.getPlayState() == Console.PS_PAUSED) {
+                console.pressPause();
+            }
+        }
+        resumeAfterSeek = false;
+
+        controller.refresh();
+        updateTimeline();
+    }
+
+    // Hold the schedule's lock while moving the simulation, like the play thread does while
+    // stepping it, but only for so many steps at a time so that the display can still paint
+    private void seekTo(long step) {
+        final Simulation simulation = (Simulation) state;
+
+        synchronized (state.schedule) {
+            if (!seekable) {
+                return;
+            }
+
+            // Go back to the latest keyframe before the step, or to the start if there isn't one.
+            // Going forward, a keyframe saves running from the current step if it's closer.
+            SimulationCheckpoint keyframe = keyframes.floor(step);
+            long currentStep = simulation.getStepNumber();
+            if (step < currentStep || keyframe != null && keyframe.getStep() > currentStep) {
+                if (keyframe != null) {
+                    simulation.restore(keyframe);
+                } else {
+                    simulation.finish();
+                    simulation.start();
+                }
+                // Both build a new world
+                environmentPortrayal.setField(simulation.getEnvironment());
+            }
+        }
+
+        // Running the simulation forward is deterministic, so it reaches the same state as when
+        // it was played. Stop early if stopped or if there is a newer seek to take over.
+        while (true) {
+            synchronized (state.schedule) {
+                for (int i = 0; i < SEEK_STEPS_PER_LOCK; i++) {
+                    if (!seekable || seekStep.get() >= 0 || simulation.getStepNumber() >= step
+                            || simulation.allResourcesCollected()) {
+                        return;
+                    }
+                    simulation.schedule.step(simulation);
+                    addKeyframe();
+                }
+            }
+            updateTimeline();
+        }
+    }
+
+    // Move the timeline to the current step, from whichever thread is stepping the simulation
+    private void updateTimeline() {
+        currentStep = ((Simulation) state).getStepNumber();
+        if (timelineUpdatePending.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::refreshTimeline);
+        }
+    }
+
+    private void refreshTimeline() {
+        timelineUpdatePending.set(false);
+        if (timeline == null || timeline.getValueIsAdjusting()) {
+            return;
+        }
+
+        final Simulation simulation = (Simulation) state;
+        int step = (int) currentStep;
+        SimulationCheckpoint startCheckpoint = simulation.getStartCheckpoint();
+
+        updatingTimeline = true;
+        timeline.setEnabled(seekable);
+        timeline.setMinimum(startCheckpoint != null ? (int) startCheckpoint.getStep() : 0);
+        timeline.setMaximum(Math.max(timeline.getMaximum(),
+                Math.max(simulation.getRunIterations(), step)));
+        timeline.setValue(step);
+        updatingTimeline = false;
+
+        timelineLabel.setText(formatStep(step));
+    }
+
+    private static String formatStep(long step) {
+        return String.format("Step %6d", step);
+    }
+
 }
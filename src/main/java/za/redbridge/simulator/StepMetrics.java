@@ -0,0 +1,269 @@
+package za.redbridge.simulator;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * Timings and counters for the phases of a simulation step. Each phase's time is summed over the
+ * step and recorded once the step is done, so the percentiles are per step. Counters are recorded
+ * per sample: contacts and awake bodies once per step, sensed fixtures once per sensor reading.
+ *
+ * Recording never allocates. The values are kept in histograms with logarithmic buckets, so
+ * percentiles are accurate to within an eighth of the value. A simulation's metrics are only
+ * written by the thread running it, but may be read from any thread, in which case the values are
+ * approximate (they may be mid-step).
+ */
+public class StepMetrics {
+
+    /** The timed parts of a step. */
+    public enum Phase {
+        /** The physics world step */
+        PHYSICS,
+        /** Taking the readings of all the robots' sensors */
+        SENSORS,
+        /** The robots' heuristics and controllers */
+        CONTROLLER,
+        /** Checking for resources entering the target area */
+        TARGET_AREA,
+        /** Creating and destroying the joints between robots and resources */
+        JOINTS
+    }
+
+    /** The counted things. */
+    public enum Counter {
+        /** Contacts in the physics world, sampled once per step */
+        CONTACTS,
+        /** Fixtures that passed a sensor's filter, sampled once per sensor reading */
+        SENSED_FIXTURES,
+        /** Awake bodies in the physics world, sampled once per step */
+        AWAKE_BODIES
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+    private static final Counter[] COUNTERS = Counter.values();
+
+    private static final double NANOS_PER_MICRO = 1000.0;
+    private static final double NANOS_PER_MILLI = 1000000.0;
+
+    private final long[] currentStepNanos = new long[PHASES.length];
+    private final Histogram[] phaseHistograms = new Histogram[PHASES.length];
+    private final Histogram[] counterHistograms = new Histogram[COUNTERS.length];
+
+    private long steps;
+
+    public StepMetrics() {
+        for (int i = 0; i < phaseHistograms.length; i++) {
+            phaseHistograms[i] = new Histogram();
+        }
+        for (int i = 0; i < counterHistograms.length; i++) {
+            counterHistograms[i] = new Histogram();
+        }
+    }
+
+    /**
+     * Add the time since the given start time to a phase of the current step.
+     * @param phase the phase
+     * @param startNanos the start time, from {@link System#nanoTime()}
+     * @return the current time, so that the next phase can be timed from it
+     */
+    public long addTime(Phase phase, long startNanos) {
+        long now = System.nanoTime();
+        currentStepNanos[phase.ordinal()] += now - startNanos;
+        return now;
+    }
+
+    /** Record a sample of a counter. */
+    public void count(Counter counter, long value) {
+        counterHistograms[counter.ordinal()].record(value);
+    }
+
+    /** Record the phase times of the current step and start a new one. */
+    public void endStep() {
+        final long[] currentStepNanos = this.currentStepNanos;
+        for (int i = 0; i < currentStepNanos.length; i++) {
+            phaseHistograms[i].record(currentStepNanos[i]);
+            currentStepNanos[i] = 0;
+        }
+        steps++;
+    }
+
+    /** Get the number of steps recorded. */
+    public long getSteps() {
+        return steps;
+    }
+
+    /** Get the total time spent in a phase, in nanoseconds. */
+    public long getTotalNanos(Phase phase) {
+        return phaseHistograms[phase.ordinal()].total;
+    }
+
+    /**
+     * Get a percentile of the time spent in a phase per step.
+     * @param phase the phase
+     * @param percentile the percentile, between 0 and 100
+     * @return the time in nanoseconds
+     */
+    public long getPercentileNanos(Phase phase, double percentile) {
+        return phaseHistograms[phase.ordinal()].getPercentile(percentile);
+    }
+
+    /** Get the sum of all the samples of a counter. */
+    public long getTotal(Counter counter) {
+        return counterHistograms[counter.ordinal()].total;
+    }
+
+    /** Get the number of samples of a counter. */
+    public long getSamples(Counter counter) {
+        return counterHistograms[counter.ordinal()].count;
+    }
+
+    /**
+     * Get a percentile of the samples of a counter.
+     * @param counter the counter
+     * @param percentile the percentile, between 0 and 100
+     * @return the value
+     */
+    public long getPercentile(Counter counter, double percentile) {
+        return counterHistograms[counter.ordinal()].getPercentile(percentile);
+    }
+
+    /**
+     * Add the recorded values of other metrics to these ones, e.g. to combine the metrics of a
+     * number of runs. The other metrics should not be being recorded to at the same time.
+     */
+    public void add(StepMetrics other) {
+        for (int i = 0; i < phaseHistograms.length; i++) {
+            phaseHistograms[i].add(other.phaseHistograms[i]);
+        }
+        for (int i = 0; i < counterHistograms.length; i++) {
+            counterHistograms[i].add(other.counterHistograms[i]);
+        }
+        steps += other.steps;
+    }
+
+    /** Clear all the recorded values. */
+    public void reset() {
+        Arrays.fill(currentStepNanos, 0);
+        for (Histogram histogram : phaseHistograms) {
+            histogram.clear();
+        }
+        for (Histogram histogram : counterHistograms) {
+            histogram.clear();
+        }
+        steps = 0;
+    }
+
+    /** Print a table of the metrics. Times are in microseconds per step. */
+    public void print(PrintStream out) {
+        out.println("Steps: " + steps);
+        out.printf("%-16s %12s %10s %10s %10s %10s %10s%n",
+                "phase", "total ms", "mean us", "p50 us", "p90 us", "p99 us", "max us");
+        for (Phase phase : PHASES) {
+            Histogram histogram = phaseHistograms[phase.ordinal()];
+            out.printf("%-16s %12.1f %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                    phase.name().toLowerCase(),
+                    histogram.total / NANOS_PER_MILLI,
+                    histogram.getMean() / NANOS_PER_MICRO,
+                    histogram.getPercentile(50) / NANOS_PER_MICRO,
+                    histogram.getPercentile(90) / NANOS_PER_MICRO,
+                    histogram.getPercentile(99) / NANOS_PER_MICRO,
+                    histogram.max / NANOS_PER_MICRO);
+        }
+        out.printf("%-16s %12s %10s %10s %10s %10s %10s%n",
+                "counter", "total", "mean", "p50", "p90", "p99", "max");
+        for (Counter counter : COUNTERS) {
+            Histogram histogram = counterHistograms[counter.ordinal()];
+            out.printf("%-16s %12d %10.1f %10d %10d %10d %10d%n",
+                    counter.name().toLowerCase(),
+                    histogram.total,
+                    histogram.getMean(),
+                    histogram.getPercentile(50),
+                    histogram.getPercentile(90),
+                    histogram.getPercentile(99),
+                    histogram.max);
+        }
+    }
+
+    /*
+     * Histogram of non-negative values. Values below SUB_BUCKETS get a bucket each, after that each
+     * power of two is split into SUB_BUCKETS buckets.
+     */
+    private static class Histogram {
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+        final long[] counts = new long[BUCKETS];
+        long count;
+        long total;
+        long max;
+
+        void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            counts[bucketIndex(value)]++;
+            count++;
+            total += value;
+            if (value > max) {
+                max = value;
+            }
+        }
+
+        void add(Histogram other) {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] += other.counts[i];
+            }
+            count += other.count;
+            total += other.total;
+            max = Math.max(max, other.max);
+        }
+
+        void clear() {
+            Arrays.fill(counts, 0);
+            count = 0;
+            total = 0;
+            max = 0;
+        }
+
+        double getMean() {
+            return count > 0 ? (double) total / count : 0.0;
+        }
+
+        long getPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    // The top of the bucket, but never more than the largest value seen
+                    return Math.min(bucketUpperBound(i), max);
+                }
+            }
+            return max;
+        }
+
+        static int bucketIndex(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int shift = exponent - SUB_BUCKET_BITS;
+            int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+            return (shift + 1) * SUB_BUCKETS + subBucket;
+        }
+
+        static long bucketUpperBound(int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            int shift = index / SUB_BUCKETS - 1;
+            long lowerBound = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+            return lowerBound + (1L << shift) - 1;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package za.redbridge.simulator;
+
+import java.util.List;
+
+import ec.util.MersenneTwisterFast;
+import sim.engine.SimState;
+import sim.engine.Steppable;
+import za.redbridge.simulator.object.PhysicalObject;
+
+/**
+ * Steps everything in a simulation once per step, in the order MASON's
+ * {@link sim.engine.Schedule} would. Headless runs call {@link #step(SimState)} directly, displayed
+ * runs schedule the stepper as their only steppable. The steppables are kept in flat arrays and
+ * objects with nothing to do in a step (see {@link PhysicalObject#isStepNeeded()}) aren't stepped
+ * at all.
+ *
+ * The results are the same as scheduling every steppable. Everything is scheduled repeating with
+ * the same key, so the schedule's heap always hands the steppables back in the same permutation of
+ * the order they were last stepped in (first, then last to second). The schedule then shuffles
+ * them with the simulation's random number generator. Both are done here the same way, so the
+ * steppables are stepped in the same order and the same random numbers are drawn. Since the order
+ * is kept here rather than in the schedule's heap, it can be saved in a checkpoint.
+ */
+@SuppressWarnings("serial")
+class Stepper implements Steppable {
+
+    private final Steppable[] steppables;
+
+    // The object for each steppable, or null if it isn't an object
+    private final PhysicalObject[] objects;
+
+    // Indices of the steppables in the order they were last stepped, and scratch space
+    private int[] order;
+    private int[] nextOrder;
+
+    private long steps = 0;
+
+    /**
+     * Create a stepper for some steppables.
+     * @param steppables the steppables, in the order they would have been scheduled in
+     */
+    Stepper(List<Steppable> steppables) {
+        final int n = steppables.size();
+        this.steppables = steppables.toArray(new Steppable[n]);
+        objects = new PhysicalObject[n];
+        order = new int[n];
+        nextOrder = new int[n];
+        for (int i = 0; i < n; i++) {
+            Steppable steppable = this.steppables[i];
+            if (steppable instanceof PhysicalObject) {
+                objects[i] = (PhysicalObject) steppable;
+            }
+            order[i] = i;
+        }
+    }
+
+    /** Step everything once. */
+    @Override
+    public void step(SimState state) {
+        final int[] order = this.order;
+        final int[] nextOrder = this.nextOrder;
+        final int n = order.length;
+        if (n == 0) {
+            steps++;
+            return;
+        }
+
+        // The order the schedule's heap would give back the steppables in
+        nextOrder[0] = order[0];
+        for (int i = 1; i < n; i++) {
+            nextOrder[i] = order[n - i];
+        }
+
+        // Shuffle them like the schedule does
+        final MersenneTwisterFast random = state.random;
+        for (int x = n - 1; x >= 1; x--) {
+            int rand = random.nextInt(x + 1);
+            int index = nextOrder[x];
+            nextOrder[x] = nextOrder[rand];
+            nextOrder[rand] = index;
+        }
+
+        this.order = nextOrder;
+        this.nextOrder = order;
+
+        final Steppable[] steppables = this.steppables;
+        final PhysicalObject[] objects = this.objects;
+        for (int i = 0; i < n; i++) {
+            int index = nextOrder[i];
+            PhysicalObject object = objects[index];
+            if (object == null || object.isStepNeeded()) {
+                steppables[index].step(state);
+            }
+        }
+
+        steps++;
+    }
+
+    /** Get the number of times everything has been stepped. */
+    long getSteps() {
+        return steps;
+    }
+
+    /** Get the number of steppables. */
+    int size() {
+        return order.length;
+    }
+
+    /** Get the index of the steppable that was stepped at some position in the last step. */
+    int getOrder(int position) {
+        return order[position];
+    }
+
+    /**
+     * Carry on from where another stepper for the same steppables left off.
+     * @param steps the number of steps the other stepper had taken
+     * @param order the order the other stepper last stepped the steppables in
+     */
+    void restore(long steps, int[] order) {
+        if (order.length != this.order.length) {
+            throw new IllegalArgumentException("Expected " + this.order.length
+                    + " steppables but got " + order.length);
+        }
+
+        this.steps = steps;
+        System.arraycopy(order, 0, this.order, 0, order.length);
+    }
+}
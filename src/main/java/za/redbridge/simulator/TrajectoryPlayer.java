@@ -0,0 +1,211 @@
+package za.redbridge.simulator;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static za.redbridge.simulator.TrajectoryRecorder.FILE_MAGIC;
+import static za.redbridge.simulator.TrajectoryRecorder.FILE_VERSION;
+import static za.redbridge.simulator.TrajectoryRecorder.FLAG_COLLECTED;
+import static za.redbridge.simulator.TrajectoryRecorder.FLAG_COLOUR;
+import static za.redbridge.simulator.TrajectoryRecorder.FLAG_JOINED;
+import static za.redbridge.simulator.TrajectoryRecorder.KIND_RESOURCE;
+import static za.redbridge.simulator.TrajectoryRecorder.KIND_ROBOT;
+import static za.redbridge.simulator.TrajectoryRecorder.QUANTUM;
+
+/**
+ * Reads back a run recorded by a {@link TrajectoryRecorder}, one frame at a time. The file is
+ * memory mapped so frames are decoded straight from the page cache.
+ */
+public class TrajectoryPlayer {
+
+    private final ByteBuffer buffer;
+    private final int framesStart;
+
+    private final long seed;
+    private final byte[] kinds;
+
+    private final long[] xs;
+    private final long[] ys;
+    private final long[] angles;
+    private final byte[] flags;
+    private final int[] colours;
+    private final boolean[] hasColour;
+
+    private long frame = -1;
+
+    /**
+     * Open a recorded run. Call {@link #nextFrame()} to read the first frame.
+     * @throws IOException if the file can't be read or isn't a trajectory file
+     */
+    public TrajectoryPlayer(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        try {
+            if (buffer.getInt() != FILE_MAGIC) {
+                throw new IOException("Not a trajectory file: " + path);
+            }
+            int version = buffer.getInt();
+            if (version != FILE_VERSION) {
+                throw new IOException("Unsupported trajectory file version: " + version);
+            }
+
+            seed = buffer.getLong();
+            int count = readVarint();
+            kinds = new byte[count];
+            buffer.get(kinds);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated trajectory file: " + path, e);
+        }
+        framesStart = buffer.position();
+
+        final int count = kinds.length;
+        xs = new long[count];
+        ys = new long[count];
+        angles = new long[count];
+        flags = new byte[count];
+        colours = new int[count];
+        hasColour = new boolean[count];
+    }
+
+    /** The seed of the recorded run. */
+    public long getSeed() {
+        return seed;
+    }
+
+    /** The number of recorded objects. */
+    public int getNumberOfObjects() {
+        return kinds.length;
+    }
+
+    /** Whether an object is a robot, otherwise it's a resource. */
+    public boolean isRobot(int index) {
+        return kinds[index] == KIND_ROBOT;
+    }
+
+    public boolean isResource(int index) {
+        return kinds[index] == KIND_RESOURCE;
+    }
+
+    /**
+     * Read the next frame.
+     * @return false if there are no more frames, including if the file ends part way through one
+     */
+    public boolean nextFrame() {
+        if (!buffer.hasRemaining()) {
+            return false;
+        }
+
+        int start = buffer.position();
+        try {
+            readFrame();
+        } catch (BufferUnderflowException | ArrayIndexOutOfBoundsException e) {
+            // The recording was cut short, e.g. the process died. Chunks are written whole so this
+            // is rare, and the objects are left part way through the last frame.
+            buffer.position(start);
+            return false;
+        }
+        frame++;
+        return true;
+    }
+
+    /** Go back to before the first frame. */
+    public void rewind() {
+        buffer.position(framesStart);
+        frame = -1;
+        Arrays.fill(xs, 0L);
+        Arrays.fill(ys, 0L);
+        Arrays.fill(angles, 0L);
+        Arrays.fill(flags, (byte) 0);
+        Arrays.fill(hasColour, false);
+    }
+
+    /**
+     * The number of the current frame. Frame 0 is the start of the run and frame n is the end of
+     * step n. -1 before the first frame is read.
+     */
+    public long getFrame() {
+        return frame;
+    }
+
+    public float getX(int index) {
+        return xs[index] * QUANTUM;
+    }
+
+    public float getY(int index) {
+        return ys[index] * QUANTUM;
+    }
+
+    public float getAngle(int index) {
+        return angles[index] * QUANTUM;
+    }
+
+    /** Whether a resource has been collected. */
+    public boolean isCollected(int index) {
+        return (flags[index] & FLAG_COLLECTED) != 0;
+    }
+
+    /** Whether a resource has robots joined to it or a robot is joined to a resource. */
+    public boolean isJoined(int index) {
+        return (flags[index] & FLAG_JOINED) != 0;
+    }
+
+    /** Whether an object's colour was recorded. */
+    public boolean hasColour(int index) {
+        return hasColour[index];
+    }
+
+    /** The ARGB colour of an object. */
+    public int getColour(int index) {
+        return colours[index];
+    }
+
+    private void readFrame() {
+        int moved = readVarint();
+        int index = -1;
+        for (int i = 0; i < moved; i++) {
+            index += readVarint() + 1;
+            xs[index] += unzigzag(readVarlong());
+            ys[index] += unzigzag(readVarlong());
+            angles[index] += unzigzag(readVarlong());
+        }
+
+        int changed = readVarint();
+        index = -1;
+        for (int i = 0; i < changed; i++) {
+            index += readVarint() + 1;
+            byte objectFlags = buffer.get();
+            flags[index] = (byte) (objectFlags & ~FLAG_COLOUR);
+            hasColour[index] = (objectFlags & FLAG_COLOUR) != 0;
+            if (hasColour[index]) {
+                colours[index] = buffer.getInt();
+            }
+        }
+    }
+
+    private int readVarint() {
+        return (int) readVarlong();
+    }
+
+    private long readVarlong() {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
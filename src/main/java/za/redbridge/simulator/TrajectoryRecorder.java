@@ -0,0 +1,376 @@
+package za.redbridge.simulator;
+
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.Body;
+
+import java.awt.Color;
+import java.awt.Paint;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+import za.redbridge.simulator.object.PhysicalObject;
+import za.redbridge.simulator.object.ResourceObject;
+import za.redbridge.simulator.object.RobotObject;
+
+/**
+ * Records the trajectories of the robots and resources in a run to a file, so that the run can be
+ * looked at afterwards with a {@link TrajectoryPlayer} without simulating it again.
+ *
+ * Every step is recorded as a frame. Positions and angles are rounded to fixed point and only the
+ * change since the previous frame is written for the objects that moved, as variable length
+ * integers, so sleeping objects cost nothing. Changes of state (collected, joined) and colour are
+ * written when they happen. Frames are encoded on the simulation's thread into chunks that are
+ * written to the file by a background thread shared by all recorders.
+ *
+ * File format (version 1), after the header each frame is:
+ * <pre>
+ *   varint  number of moved objects, then for each:
+ *           varint objects skipped since the last one, zigzag varint dx, dy, dangle
+ *   varint  number of objects with a new state, then for each:
+ *           varint objects skipped since the last one, byte flags, int colour if FLAG_COLOUR
+ * </pre>
+ * The first frame is the state at the start of the run, relative to all zeros.
+ */
+public class TrajectoryRecorder {
+
+    static final int FILE_MAGIC = 0x5452414a; // "TRAJ"
+    static final int FILE_VERSION = 1;
+
+    /** Positions and angles are stored as multiples of this. */
+    static final float QUANTUM = 1e-4f;
+
+    static final byte KIND_ROBOT = 0;
+    static final byte KIND_RESOURCE = 1;
+
+    static final int FLAG_COLLECTED = 1;
+    static final int FLAG_JOINED = 1 << 1;
+    static final int FLAG_COLOUR = 1 << 2;
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    // The most bytes an object can take up in a frame
+    private static final int MAX_OBJECT_BYTES = 2 * 5 + 3 * 10 + 1 + 4;
+
+    private final Path path;
+    private final PhysicalObject[] objects;
+    private final Body[] bodies;
+
+    // The last recorded state of each object
+    private final long[] xs;
+    private final long[] ys;
+    private final long[] angles;
+    private final byte[] flags;
+    private final Paint[] paints;
+
+    // Scratch space for the indices of the objects that changed in a frame
+    private final int[] changed;
+
+    private final FileChannel channel;
+    private byte[] chunk = new byte[CHUNK_SIZE];
+    private int position = 0;
+
+    private long frames = 0;
+    private long bytes = 0;
+
+    private final CountDownLatch closed = new CountDownLatch(1);
+    private volatile IOException writeException;
+
+    /**
+     * Start recording a run to a file. Writes the header and the first frame.
+     * @param path the file to write, replaced if it exists
+     * @param seed the seed of the run
+     * @param objects the robots and resources to record, other objects are ignored
+     * @throws IOException if the file can't be opened
+     */
+    public TrajectoryRecorder(Path path, long seed, Iterable<PhysicalObject> objects)
+            throws IOException {
+        this.path = path;
+
+        int count = 0;
+        for (PhysicalObject object : objects) {
+            if (object instanceof RobotObject || object instanceof ResourceObject) {
+                count++;
+            }
+        }
+
+        this.objects = new PhysicalObject[count];
+        this.bodies = new Body[count];
+        int i = 0;
+        for (PhysicalObject object : objects) {
+            if (object instanceof RobotObject || object instanceof ResourceObject) {
+                this.objects[i] = object;
+                this.bodies[i] = object.getBody();
+                i++;
+            }
+        }
+
+        xs = new long[count];
+        ys = new long[count];
+        angles = new long[count];
+        flags = new byte[count];
+        paints = new Paint[count];
+        changed = new int[count];
+
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+
+        ensureCapacity(4 * 2 + 8 + 5 + count);
+        writeInt(FILE_MAGIC);
+        writeInt(FILE_VERSION);
+        writeLong(seed);
+        writeVarint(count);
+        for (PhysicalObject object : this.objects) {
+            chunk[position++] = object instanceof RobotObject ? KIND_ROBOT : KIND_RESOURCE;
+        }
+
+        // Make sure the first frame writes every object's state
+        Arrays.fill(flags, (byte) -1);
+        recordStep();
+    }
+
+    /** Record the state of the objects at the end of a step. */
+    public void recordStep() {
+        final int n = objects.length;
+        ensureCapacity(10 + n * MAX_OBJECT_BYTES);
+
+        // Moved objects
+        int numChanged = 0;
+        for (int i = 0; i < n; i++) {
+            Body body = bodies[i];
+            Vec2 p = body.getPosition();
+            long x = quantize(p.x);
+            long y = quantize(p.y);
+            long angle = quantize(body.getAngle());
+            if (x != xs[i] || y != ys[i] || angle != angles[i]) {
+                changed[numChanged++] = i;
+            }
+        }
+
+        writeVarint(numChanged);
+        int last = -1;
+        for (int c = 0; c < numChanged; c++) {
+            int i = changed[c];
+            Body body = bodies[i];
+            Vec2 p = body.getPosition();
+            long x = quantize(p.x);
+            long y = quantize(p.y);
+            long angle = quantize(body.getAngle());
+
+            writeVarint(i - last - 1);
+            writeVarlong(zigzag(x - xs[i]));
+            writeVarlong(zigzag(y - ys[i]));
+            writeVarlong(zigzag(angle - angles[i]));
+            xs[i] = x;
+            ys[i] = y;
+            angles[i] = angle;
+            last = i;
+        }
+
+        // Objects with a new state or colour
+        numChanged = 0;
+        for (int i = 0; i < n; i++) {
+            if (getFlags(objects[i]) != flags[i]
+                    || !Objects.equals(objects[i].getPaint(), paints[i])) {
+                changed[numChanged++] = i;
+            }
+        }
+
+        writeVarint(numChanged);
+        last = -1;
+        for (int c = 0; c < numChanged; c++) {
+            int i = changed[c];
+            PhysicalObject object = objects[i];
+            Paint paint = object.getPaint();
+            int objectFlags = getFlags(object);
+            if (paint instanceof Color) {
+                objectFlags |= FLAG_COLOUR;
+            }
+
+            writeVarint(i - last - 1);
+            chunk[position++] = (byte) objectFlags;
+            if (paint instanceof Color) {
+                writeInt(((Color) paint).getRGB());
+            }
+            flags[i] = (byte) getFlags(object);
+            paints[i] = paint;
+            last = i;
+        }
+
+        frames++;
+        if (position >= CHUNK_SIZE) {
+            submitChunk();
+        }
+    }
+
+    /**
+     * Finish recording and wait for everything to be written to the file.
+     * @throws IOException if writing the file failed
+     */
+    public void close() throws IOException {
+        submitChunk();
+        Writer.INSTANCE.submit(() -> {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                writeException = e;
+            }
+            closed.countDown();
+        });
+
+        try {
+            closed.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing " + path, e);
+        }
+
+        if (writeException != null) {
+            throw writeException;
+        }
+    }
+
+    /** The file being recorded to. */
+    public Path getPath() {
+        return path;
+    }
+
+    /** The number of frames recorded, including the first one. */
+    public long getFrames() {
+        return frames;
+    }
+
+    /** The number of bytes recorded so far. */
+    public long getBytes() {
+        return bytes + position;
+    }
+
+    private static int getFlags(PhysicalObject object) {
+        int flags = 0;
+        if (object instanceof ResourceObject) {
+            ResourceObject resource = (ResourceObject) object;
+            if (resource.isCollected()) {
+                flags |= FLAG_COLLECTED;
+            }
+            if (!resource.getPushingRobots().isEmpty()) {
+                flags |= FLAG_JOINED;
+            }
+        } else if (((RobotObject) object).isBoundToResource()) {
+            flags |= FLAG_JOINED;
+        }
+        return flags;
+    }
+
+    static long quantize(float value) {
+        return Math.round(value / QUANTUM);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private void submitChunk() {
+        if (position == 0) {
+            return;
+        }
+
+        final ByteBuffer buffer = ByteBuffer.wrap(chunk, 0, position);
+        bytes += position;
+        chunk = new byte[CHUNK_SIZE];
+        position = 0;
+
+        Writer.INSTANCE.submit(() -> {
+            if (writeException != null) {
+                return;
+            }
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } catch (IOException e) {
+                writeException = e;
+            }
+        });
+    }
+
+    private void ensureCapacity(int size) {
+        if (position + size > chunk.length) {
+            chunk = Arrays.copyOf(chunk, Math.max(chunk.length * 2, position + size));
+        }
+    }
+
+    private void writeVarint(int value) {
+        writeVarlong(value & 0xffffffffL);
+    }
+
+    private void writeVarlong(long value) {
+        while ((value & ~0x7fL) != 0) {
+            chunk[position++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        chunk[position++] = (byte) value;
+    }
+
+    private void writeInt(int value) {
+        chunk[position++] = (byte) (value >>> 24);
+        chunk[position++] = (byte) (value >>> 16);
+        chunk[position++] = (byte) (value >>> 8);
+        chunk[position++] = (byte) value;
+    }
+
+    private void writeLong(long value) {
+        writeInt((int) (value >>> 32));
+        writeInt((int) value);
+    }
+
+    /*
+     * The thread that writes the chunks of all the recorders, in the order they were submitted.
+     * The queue is bounded so that recorders wait for the disk rather than filling up memory.
+     */
+    private static class Writer implements Runnable {
+        private static final Writer INSTANCE = new Writer();
+
+        private final BlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(256);
+
+        private Writer() {
+            Thread thread = new Thread(this, "Trajectory writer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void submit(Runnable task) {
+            // Writes can't be dropped or done out of order without corrupting the file, so keep
+            // waiting if interrupted
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    queue.put(task);
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    queue.take().run();
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -16,8 +16,6 @@ public final class Utils {
     public static final double TWO_PI = Math.PI * 2;
     public static final double EPSILON = 1e-6;
 
-    public static final Random RANDOM = new Random();
-
     private Utils() {
     }
 
@@ -74,10 +72,10 @@ public final class Utils {
         return x > -EPSILON && x < EPSILON;
     }
 
-    public static Vec2 jitter(Vec2 vec, float magnitude) {
+    public static Vec2 jitter(Vec2 vec, float magnitude, MersenneTwisterFast random) {
         if (vec != null) {
-            vec.x += magnitude * RANDOM.nextFloat() - magnitude / 2;
-            vec.y += magnitude * RANDOM.nextFloat() - magnitude / 2;
+            vec.x += magnitude * random.nextFloat() - magnitude / 2;
+            vec.y += magnitude * random.nextFloat() - magnitude / 2;
             return vec;
         }
         return null;
@@ -0,0 +1,518 @@
+package za.redbridge.simulator;
+
+import org.jbox2d.collision.AABB;
+import org.jbox2d.collision.ContactID;
+import org.jbox2d.collision.Manifold;
+import org.jbox2d.collision.ManifoldPoint;
+import org.jbox2d.collision.broadphase.BroadPhase;
+import org.jbox2d.common.Sweep;
+import org.jbox2d.common.Transform;
+import org.jbox2d.common.Vec2;
+import org.jbox2d.common.Vec3;
+import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.ContactManager;
+import org.jbox2d.dynamics.Fixture;
+import org.jbox2d.dynamics.FixtureProxy;
+import org.jbox2d.dynamics.World;
+import org.jbox2d.dynamics.contacts.Contact;
+import org.jbox2d.dynamics.joints.Joint;
+import org.jbox2d.dynamics.joints.TopDownFrictionJoint;
+import org.jbox2d.dynamics.joints.WeldJoint;
+import org.jbox2d.dynamics.joints.WeldJointDef;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import za.redbridge.simulator.physics.PackedPairBroadPhase;
+
+/**
+ * Writes and restores the state of a physics world for a {@link SimulationCheckpoint}: the motion
+ * of the bodies, the boxes in the broad phase, the joints and the contacts with the impulses
+ * cached for warm starting, so that the restored world steps exactly like the original.
+ *
+ * A world is restored into a new world built the same way as the original, with the same bodies
+ * and fixtures created in the same order, so their broad phase proxies get the same ids. Weld
+ * joints are the only joints created during a run, so they are created again and the other joints
+ * must already exist. The broad phase's tree isn't rebuilt node for node, so queries and ray casts
+ * may report fixtures in a different order. Pairs are sorted by proxy id, so contacts are found in
+ * the same order.
+ */
+final class WorldCheckpoint {
+
+    private static final byte JOINT_WELD = 0;
+    private static final byte JOINT_FRICTION = 1;
+
+    // State JBox2D keeps to itself
+    private static final Field WORLD_FLAGS = getField(World.class, "m_flags");
+    private static final Field WORLD_INV_DT0 = getField(World.class, "m_inv_dt0");
+    private static final Field PROXY_ID = getField(FixtureProxy.class, "proxyId");
+    private static final Field WELD_IMPULSE = getField(WeldJoint.class, "m_impulse");
+    private static final Field FRICTION_ANGULAR_IMPULSE =
+            getField(TopDownFrictionJoint.class, "lambdaAP");
+
+    private WorldCheckpoint() {
+    }
+
+    /** Get the bodies of a world, in the order the world lists them. */
+    static List<Body> getBodies(World world) {
+        List<Body> bodies = new ArrayList<>(world.getBodyCount());
+        for (Body body = world.getBodyList(); body != null; body = body.getNext()) {
+            bodies.add(body);
+        }
+        return bodies;
+    }
+
+    /** Get the fixtures of a world, body by body. */
+    static List<Fixture> getFixtures(World world) {
+        List<Fixture> fixtures = new ArrayList<>();
+        for (Body body = world.getBodyList(); body != null; body = body.getNext()) {
+            for (Fixture fixture = body.getFixtureList(); fixture != null;
+                    fixture = fixture.getNext()) {
+                fixtures.add(fixture);
+            }
+        }
+        return fixtures;
+    }
+
+    /** Get the joints of a world, oldest first. */
+    static List<Joint> getJoints(World world) {
+        // The world adds new joints to the front of its list
+        List<Joint> joints = new ArrayList<>(world.getJointCount());
+        for (Joint joint = world.getJointList(); joint != null; joint = joint.getNext()) {
+            joints.add(joint);
+        }
+        Collections.reverse(joints);
+        return joints;
+    }
+
+    // The contacts of a world, oldest first
+    private static List<Contact> getContacts(World world) {
+        List<Contact> contacts = new ArrayList<>(world.getContactCount());
+        for (Contact contact = world.getContactList(); contact != null;
+                contact = contact.getNext()) {
+            contacts.add(contact);
+        }
+        Collections.reverse(contacts);
+        return contacts;
+    }
+
+    /** Write the state of a world. Must be called between steps. */
+    static void write(World world, CheckpointOutput out) throws IOException {
+        final PackedPairBroadPhase broadPhase = getBroadPhase(world);
+        out.writeInt(getInt(WORLD_FLAGS, world));
+        out.writeFloat(getFloat(WORLD_INV_DT0, world));
+
+        List<Body> bodies = getBodies(world);
+        out.writeInt(bodies.size());
+        for (Body body : bodies) {
+            out.writeInt(body.m_fixtureCount);
+            out.writeInt(body.m_flags);
+            out.writeInt(body.m_islandIndex);
+            writeTransform(out, body.m_xf);
+            writeTransform(out, body.m_xf0);
+            writeSweep(out, body.m_sweep);
+            out.writeVec2(body.m_linearVelocity);
+            out.writeFloat(body.m_angularVelocity);
+            out.writeVec2(body.m_force);
+            out.writeFloat(body.m_torque);
+            out.writeFloat(body.m_sleepTime);
+
+            for (Fixture fixture = body.getFixtureList(); fixture != null;
+                    fixture = fixture.getNext()) {
+                out.writeInt(fixture.m_proxyCount);
+                for (int i = 0; i < fixture.m_proxyCount; i++) {
+                    int proxyId = getInt(PROXY_ID, fixture.m_proxies[i]);
+                    out.writeInt(proxyId);
+                    writeAABB(out, broadPhase.getFatAABB(proxyId));
+                    writeAABB(out, fixture.getAABB(i));
+                }
+            }
+        }
+
+        // Proxies that have moved since the pairs were last updated, skipping destroyed ones
+        int moves = 0;
+        for (int i = 0; i < broadPhase.getMoveCount(); i++) {
+            if (broadPhase.getMove(i) != BroadPhase.NULL_PROXY) {
+                moves++;
+            }
+        }
+        out.writeInt(moves);
+        for (int i = 0; i < broadPhase.getMoveCount(); i++) {
+            int proxyId = broadPhase.getMove(i);
+            if (proxyId != BroadPhase.NULL_PROXY) {
+                out.writeInt(proxyId);
+            }
+        }
+
+        List<Joint> joints = getJoints(world);
+        out.writeInt(joints.size());
+        for (Joint joint : joints) {
+            out.writeBody(joint.getBodyA());
+            out.writeBody(joint.getBodyB());
+            if (joint instanceof WeldJoint) {
+                WeldJoint weldJoint = (WeldJoint) joint;
+                out.writeByte(JOINT_WELD);
+                out.writeVec2(weldJoint.getLocalAnchorA());
+                out.writeVec2(weldJoint.getLocalAnchorB());
+                out.writeFloat(weldJoint.getReferenceAngle());
+                out.writeFloat(weldJoint.getFrequency());
+                out.writeFloat(weldJoint.getDampingRatio());
+                out.writeBoolean(weldJoint.getCollideConnected());
+
+                Vec3 impulse = (Vec3) get(WELD_IMPULSE, weldJoint);
+                out.writeFloat(impulse.x);
+                out.writeFloat(impulse.y);
+                out.writeFloat(impulse.z);
+            } else if (joint instanceof TopDownFrictionJoint) {
+                out.writeByte(JOINT_FRICTION);
+                out.writeFloat(getFloat(FRICTION_ANGULAR_IMPULSE, joint));
+            } else {
+                throw new IllegalStateException("Can't checkpoint a " + joint.getType()
+                        + " joint");
+            }
+        }
+
+        List<Contact> contacts = getContacts(world);
+        out.writeInt(contacts.size());
+        for (Contact contact : contacts) {
+            out.writeFixture(contact.getFixtureA());
+            out.writeInt(contact.getChildIndexA());
+            out.writeFixture(contact.getFixtureB());
+            out.writeInt(contact.getChildIndexB());
+            out.writeInt(contact.m_flags);
+            out.writeFloat(contact.m_toiCount);
+            out.writeFloat(contact.m_toi);
+            out.writeFloat(contact.m_friction);
+            out.writeFloat(contact.m_restitution);
+            out.writeFloat(contact.m_tangentSpeed);
+            writeManifold(out, contact.m_manifold);
+        }
+    }
+
+    /**
+     * Restore the state of a world written by {@link #write(World, CheckpointOutput)}.
+     * @param world a new world, built the same way as the one that was written
+     * @throws IOException if the state can't be read or doesn't fit the world
+     */
+    static void read(World world, CheckpointInput in) throws IOException {
+        final PackedPairBroadPhase broadPhase = getBroadPhase(world);
+        final ContactManager contactManager = world.getContactManager();
+        if (contactManager.m_contactCount != 0) {
+            throw new IllegalStateException("World already has contacts");
+        }
+
+        int flags = in.readInt();
+        float invDt0 = in.readFloat();
+
+        List<Body> bodies = getBodies(world);
+        int bodyCount = in.readInt();
+        if (bodyCount != bodies.size()) {
+            throw new IOException("Checkpoint has " + bodyCount + " bodies but the world has "
+                    + bodies.size());
+        }
+        for (Body body : bodies) {
+            if (in.readInt() != body.m_fixtureCount) {
+                throw new IOException("Checkpoint doesn't match the world's fixtures");
+            }
+            body.m_flags = in.readInt();
+            body.m_islandIndex = in.readInt();
+            readTransform(in, body.m_xf);
+            readTransform(in, body.m_xf0);
+            readSweep(in, body.m_sweep);
+            body.m_linearVelocity.set(in.readVec2());
+            body.m_angularVelocity = in.readFloat();
+            body.m_force.set(in.readVec2());
+            body.m_torque = in.readFloat();
+            body.m_sleepTime = in.readFloat();
+
+            for (Fixture fixture = body.getFixtureList(); fixture != null;
+                    fixture = fixture.getNext()) {
+                if (in.readInt() != fixture.m_proxyCount) {
+                    throw new IOException("Checkpoint doesn't match the world's fixtures");
+                }
+                for (int i = 0; i < fixture.m_proxyCount; i++) {
+                    int proxyId = in.readInt();
+                    if (proxyId != getInt(PROXY_ID, fixture.m_proxies[i])) {
+                        throw new IOException("Checkpoint doesn't match the world's proxies");
+                    }
+                    broadPhase.setFatAABB(proxyId, readAABB(in, new AABB()));
+                    readAABB(in, fixture.getAABB(i));
+                }
+            }
+        }
+
+        broadPhase.clearMoves();
+        int moves = in.readInt();
+        for (int i = 0; i < moves; i++) {
+            broadPhase.touchProxy(in.readInt());
+        }
+
+        // Only weld joints come and go, the others were created with the world. New joints go on
+        // the front of the lists so creating them oldest first puts them back in the same order.
+        List<Joint> existingJoints = getJoints(world);
+        int nextExistingJoint = 0;
+        int jointCount = in.readInt();
+        for (int i = 0; i < jointCount; i++) {
+            Body bodyA = in.readBody();
+            Body bodyB = in.readBody();
+            byte type = in.readByte();
+            if (type == JOINT_WELD) {
+                WeldJointDef jointDef = new WeldJointDef();
+                jointDef.bodyA = bodyA;
+                jointDef.bodyB = bodyB;
+                jointDef.localAnchorA.set(in.readVec2());
+                jointDef.localAnchorB.set(in.readVec2());
+                jointDef.referenceAngle = in.readFloat();
+                jointDef.frequencyHz = in.readFloat();
+                jointDef.dampingRatio = in.readFloat();
+                jointDef.collideConnected = in.readBoolean();
+
+                Joint joint = world.createJoint(jointDef);
+                Vec3 impulse = (Vec3) get(WELD_IMPULSE, joint);
+                impulse.x = in.readFloat();
+                impulse.y = in.readFloat();
+                impulse.z = in.readFloat();
+            } else if (type == JOINT_FRICTION) {
+                Joint joint = nextExistingJoint < existingJoints.size()
+                        ? existingJoints.get(nextExistingJoint++) : null;
+                if (!(joint instanceof TopDownFrictionJoint) || joint.getBodyA() != bodyA
+                        || joint.getBodyB() != bodyB) {
+                    throw new IOException("Checkpoint doesn't match the world's joints");
+                }
+                setFloat(FRICTION_ANGULAR_IMPULSE, joint, in.readFloat());
+            } else {
+                throw new IOException("Unknown joint type: " + type);
+            }
+        }
+        if (nextExistingJoint != existingJoints.size()) {
+            throw new IOException("Checkpoint doesn't match the world's joints");
+        }
+        in.updateJoints();
+
+        // Contacts are linked up like the contact manager does when it finds a new pair, but
+        // without waking the bodies or telling the contact listener
+        int contactCount = in.readInt();
+        for (int i = 0; i < contactCount; i++) {
+            Fixture fixtureA = in.readFixture();
+            int indexA = in.readInt();
+            Fixture fixtureB = in.readFixture();
+            int indexB = in.readInt();
+            Contact contact = fixtureA != null && fixtureB != null
+                    ? world.popContact(fixtureA, indexA, fixtureB, indexB) : null;
+            if (contact == null || contact.getFixtureA() != fixtureA) {
+                throw new IOException("Can't create contact");
+            }
+            addContact(contactManager, contact);
+
+            contact.m_flags = in.readInt();
+            contact.m_toiCount = in.readFloat();
+            contact.m_toi = in.readFloat();
+            contact.m_friction = in.readFloat();
+            contact.m_restitution = in.readFloat();
+            contact.m_tangentSpeed = in.readFloat();
+            readManifold(in, contact.m_manifold);
+        }
+
+        setInt(WORLD_FLAGS, world, flags);
+        setFloat(WORLD_INV_DT0, world, invDt0);
+    }
+
+    private static void addContact(ContactManager contactManager, Contact contact) {
+        Body bodyA = contact.getFixtureA().getBody();
+        Body bodyB = contact.getFixtureB().getBody();
+
+        contact.m_prev = null;
+        contact.m_next = contactManager.m_contactList;
+        if (contactManager.m_contactList != null) {
+            contactManager.m_contactList.m_prev = contact;
+        }
+        contactManager.m_contactList = contact;
+
+        contact.m_nodeA.contact = contact;
+        contact.m_nodeA.other = bodyB;
+        contact.m_nodeA.prev = null;
+        contact.m_nodeA.next = bodyA.m_contactList;
+        if (bodyA.m_contactList != null) {
+            bodyA.m_contactList.prev = contact.m_nodeA;
+        }
+        bodyA.m_contactList = contact.m_nodeA;
+
+        contact.m_nodeB.contact = contact;
+        contact.m_nodeB.other = bodyA;
+        contact.m_nodeB.prev = null;
+        contact.m_nodeB.next = bodyB.m_contactList;
+        if (bodyB.m_contactList != null) {
+            bodyB.m_contactList.prev = contact.m_nodeB;
+        }
+        bodyB.m_contactList = contact.m_nodeB;
+
+        ++contactManager.m_contactCount;
+    }
+
+    private static PackedPairBroadPhase getBroadPhase(World world) {
+        BroadPhase broadPhase = world.getContactManager().m_broadPhase;
+        if (!(broadPhase instanceof PackedPairBroadPhase)) {
+            throw new IllegalArgumentException(
+                    "Only worlds with a PackedPairBroadPhase can be checkpointed");
+        }
+        return (PackedPairBroadPhase) broadPhase;
+    }
+
+    private static void writeTransform(CheckpointOutput out, Transform transform)
+            throws IOException {
+        out.writeVec2(transform.p);
+        out.writeFloat(transform.q.s);
+        out.writeFloat(transform.q.c);
+    }
+
+    private static void readTransform(CheckpointInput in, Transform transform)
+            throws IOException {
+        transform.p.set(in.readVec2());
+        transform.q.s = in.readFloat();
+        transform.q.c = in.readFloat();
+    }
+
+    private static void writeSweep(CheckpointOutput out, Sweep sweep) throws IOException {
+        out.writeVec2(sweep.localCenter);
+        out.writeVec2(sweep.c0);
+        out.writeVec2(sweep.c);
+        out.writeFloat(sweep.a0);
+        out.writeFloat(sweep.a);
+        out.writeFloat(sweep.alpha0);
+    }
+
+    private static void readSweep(CheckpointInput in, Sweep sweep) throws IOException {
+        sweep.localCenter.set(in.readVec2());
+        sweep.c0.set(in.readVec2());
+        sweep.c.set(in.readVec2());
+        sweep.a0 = in.readFloat();
+        sweep.a = in.readFloat();
+        sweep.alpha0 = in.readFloat();
+    }
+
+    private static void writeAABB(CheckpointOutput out, AABB aabb) throws IOException {
+        out.writeVec2(aabb.lowerBound);
+        out.writeVec2(aabb.upperBound);
+    }
+
+    private static AABB readAABB(CheckpointInput in, AABB aabb) throws IOException {
+        aabb.lowerBound.set(in.readVec2());
+        aabb.upperBound.set(in.readVec2());
+        return aabb;
+    }
+
+    private static void writeManifold(CheckpointOutput out, Manifold manifold)
+            throws IOException {
+        // Contacts are pooled, so a manifold without points still holds whatever an earlier
+        // contact left in it. Only the points are ever read, so write it like a new contact's,
+        // which has no manifold until it is first updated.
+        if (manifold.pointCount == 0) {
+            out.writeByte(-1);
+            for (int i = 0; i < 4; i++) {
+                out.writeFloat(0.0f);
+            }
+            out.writeByte(0);
+            return;
+        }
+
+        out.writeByte(manifold.type.ordinal());
+        out.writeVec2(manifold.localNormal);
+        out.writeVec2(manifold.localPoint);
+        out.writeByte(manifold.pointCount);
+        for (int i = 0; i < manifold.pointCount; i++) {
+            ManifoldPoint point = manifold.points[i];
+            out.writeVec2(point.localPoint);
+            out.writeFloat(point.normalImpulse);
+            out.writeFloat(point.tangentImpulse);
+
+            ContactID id = point.id;
+            out.writeByte(id.indexA);
+            out.writeByte(id.indexB);
+            out.writeByte(id.typeA);
+            out.writeByte(id.typeB);
+        }
+    }
+
+    private static void readManifold(CheckpointInput in, Manifold manifold) throws IOException {
+        int type = in.readByte();
+        Manifold.ManifoldType[] types = Manifold.ManifoldType.values();
+        if (type < -1 || type >= types.length) {
+            throw new IOException("Unknown manifold type: " + type);
+        }
+        manifold.type = type != -1 ? types[type] : null;
+        manifold.localNormal.set(in.readVec2());
+        manifold.localPoint.set(in.readVec2());
+
+        int pointCount = in.readByte();
+        if (pointCount < 0 || pointCount > manifold.points.length) {
+            throw new IOException("Invalid number of manifold points: " + pointCount);
+        }
+        manifold.pointCount = pointCount;
+        for (int i = 0; i < pointCount; i++) {
+            ManifoldPoint point = manifold.points[i];
+            point.localPoint.set(in.readVec2());
+            point.normalImpulse = in.readFloat();
+            point.tangentImpulse = in.readFloat();
+
+            ContactID id = point.id;
+            id.indexA = in.readByte();
+            id.indexB = in.readByte();
+            id.typeA = in.readByte();
+            id.typeB = in.readByte();
+        }
+    }
+
+    private static Field getField(Class<?> type, String name) {
+        try {
+            Field field = type.getDeclaredField(name);
+            field.setAccessible(true);
+            return field;
+        } catch (NoSuchFieldException e) {
+            // The JBox2D jar is part of the project, so this means it has been changed
+            throw new AssertionError("No field " + name + " in " + type.getName(), e);
+        }
+    }
+
+    private static Object get(Field field, Object object) {
+        try {
+            return field.get(object);
+        } catch (IllegalAccessException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static int getInt(Field field, Object object) {
+        try {
+            return field.getInt(object);
+        } catch (IllegalAccessException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static float getFloat(Field field, Object object) {
+        try {
+            return field.getFloat(object);
+        } catch (IllegalAccessException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void setInt(Field field, Object object, int value) {
+        try {
+            field.setInt(object, value);
+        } catch (IllegalAccessException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void setFloat(Field field, Object object, float value) {
+        try {
+            field.setFloat(object, value);
+        } catch (IllegalAccessException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
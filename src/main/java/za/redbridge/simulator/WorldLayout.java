@@ -0,0 +1,142 @@
+package za.redbridge.simulator;
+
+import org.jbox2d.collision.AABB;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The random spaces given to the objects placed at the start of a simulation, in the order the
+ * factories asked for them. The layout is the same for every simulation on a seed, so it can be
+ * worked out once and then reused: a {@link PlacementArea} replaying a layout hands out its spaces
+ * without drawing random numbers or checking for overlaps. Immutable.
+ *
+ * A layout only fits simulations whose factories ask for the same sizes of space in the same
+ * order, i.e. simulations with the same environment, robots and resources.
+ */
+public final class WorldLayout {
+
+    static final byte RECTANGLE = 0;
+    static final byte CIRCLE = 1;
+
+    // Per space: the requested width and height (or radius twice), the AABB and the angle
+    private static final int FLOATS_PER_SPACE = 7;
+
+    private final float width;
+    private final float height;
+
+    private final byte[] shapes;
+    private final float[] spaces;
+
+    private WorldLayout(float width, float height, byte[] shapes, float[] spaces) {
+        this.width = width;
+        this.height = height;
+        this.shapes = shapes;
+        this.spaces = spaces;
+    }
+
+    /** The width of the environment the layout is for. */
+    public float getWidth() {
+        return width;
+    }
+
+    /** The height of the environment the layout is for. */
+    public float getHeight() {
+        return height;
+    }
+
+    /** The number of spaces in the layout. */
+    public int size() {
+        return shapes.length;
+    }
+
+    // Whether a space was given for the same request
+    boolean matches(int index, byte shape, float requestWidth, float requestHeight) {
+        int offset = index * FLOATS_PER_SPACE;
+        return shapes[index] == shape && spaces[offset] == requestWidth
+                && spaces[offset + 1] == requestHeight;
+    }
+
+    AABB getAABB(int index) {
+        int offset = index * FLOATS_PER_SPACE;
+        AABB aabb = new AABB();
+        aabb.lowerBound.set(spaces[offset + 2], spaces[offset + 3]);
+        aabb.upperBound.set(spaces[offset + 4], spaces[offset + 5]);
+        return aabb;
+    }
+
+    float getAngle(int index) {
+        return spaces[index * FLOATS_PER_SPACE + 6];
+    }
+
+    /** Write the layout to a stream. */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeFloat(width);
+        out.writeFloat(height);
+        out.writeInt(shapes.length);
+        out.write(shapes);
+        for (float f : spaces) {
+            out.writeFloat(f);
+        }
+    }
+
+    /** Read a layout written by {@link #write(DataOutputStream)}. */
+    public static WorldLayout read(DataInputStream in) throws IOException {
+        float width = in.readFloat();
+        float height = in.readFloat();
+        int size = in.readInt();
+        if (size < 0) {
+            throw new IOException("Invalid layout size: " + size);
+        }
+
+        byte[] shapes = new byte[size];
+        in.readFully(shapes);
+        float[] spaces = new float[size * FLOATS_PER_SPACE];
+        for (int i = 0; i < spaces.length; i++) {
+            spaces[i] = in.readFloat();
+        }
+        return new WorldLayout(width, height, shapes, spaces);
+    }
+
+    /**
+     * Records the spaces handed out by a placement area.
+     */
+    static class Builder {
+        private final float width;
+        private final float height;
+
+        private byte[] shapes = new byte[16];
+        private float[] spaces = new float[16 * FLOATS_PER_SPACE];
+        private int size = 0;
+
+        Builder(float width, float height) {
+            this.width = width;
+            this.height = height;
+        }
+
+        void add(byte shape, float requestWidth, float requestHeight, AABB aabb, float angle) {
+            if (size == shapes.length) {
+                shapes = Arrays.copyOf(shapes, size * 2);
+                spaces = Arrays.copyOf(spaces, size * 2 * FLOATS_PER_SPACE);
+            }
+
+            int offset = size * FLOATS_PER_SPACE;
+            shapes[size] = shape;
+            spaces[offset] = requestWidth;
+            spaces[offset + 1] = requestHeight;
+            spaces[offset + 2] = aabb.lowerBound.x;
+            spaces[offset + 3] = aabb.lowerBound.y;
+            spaces[offset + 4] = aabb.upperBound.x;
+            spaces[offset + 5] = aabb.upperBound.y;
+            spaces[offset + 6] = angle;
+            size++;
+        }
+
+        WorldLayout build() {
+            return new WorldLayout(width, height, Arrays.copyOf(shapes, size),
+                    Arrays.copyOf(spaces, size * FLOATS_PER_SPACE));
+        }
+    }
+}
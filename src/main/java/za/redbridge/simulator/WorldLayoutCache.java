@@ -0,0 +1,91 @@
+package za.redbridge.simulator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The {@link WorldLayout} of each seed, shared by all the simulations run on the same seed so
+ * that objects are only placed randomly once per seed. The first simulation started on a seed
+ * records its layout and later simulations replay it. Thread safe.
+ *
+ * Only share a cache between simulations with the same environment, robots and resources. Settings
+ * such as the number of iterations or the physics time step don't affect the layout.
+ */
+public class WorldLayoutCache {
+
+    private static final int FILE_MAGIC = 0x4c41594f; // "LAYO"
+    private static final int FILE_VERSION = 1;
+
+    private final Map<Long, WorldLayout> layouts = new ConcurrentHashMap<>();
+
+    /** Get the layout of a seed, or null if there isn't one yet. */
+    public WorldLayout get(long seed) {
+        return layouts.get(seed);
+    }
+
+    /** Set the layout of a seed, unless there already is one. */
+    public void putIfAbsent(long seed, WorldLayout layout) {
+        layouts.putIfAbsent(seed, layout);
+    }
+
+    /** The number of seeds with a layout. */
+    public int size() {
+        return layouts.size();
+    }
+
+    public void clear() {
+        layouts.clear();
+    }
+
+    /** Save all the layouts to a file. */
+    public void save(Path path) throws IOException {
+        // Sort by seed so that the same layouts always give the same file
+        Map<Long, WorldLayout> sorted = new TreeMap<>(layouts);
+        try (OutputStream out = Files.newOutputStream(path)) {
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+            data.writeInt(FILE_MAGIC);
+            data.writeInt(FILE_VERSION);
+            data.writeInt(sorted.size());
+            for (Map.Entry<Long, WorldLayout> entry : sorted.entrySet()) {
+                data.writeLong(entry.getKey());
+                entry.getValue().write(data);
+            }
+            data.flush();
+        }
+    }
+
+    /**
+     * Load layouts saved with {@link #save(Path)}.
+     * @throws IOException if the file can't be read or isn't a layout file
+     */
+    public static WorldLayoutCache load(Path path) throws IOException {
+        WorldLayoutCache cache = new WorldLayoutCache();
+        try (InputStream in = Files.newInputStream(path)) {
+            DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+            if (data.readInt() != FILE_MAGIC) {
+                throw new IOException("Not a layout file: " + path);
+            }
+            int version = data.readInt();
+            if (version != FILE_VERSION) {
+                throw new IOException("Unsupported layout file version: " + version);
+            }
+
+            int count = data.readInt();
+            for (int i = 0; i < count; i++) {
+                long seed = data.readLong();
+                cache.layouts.put(seed, WorldLayout.read(data));
+            }
+        }
+        return cache;
+    }
+}
@@ -8,7 +8,10 @@ import java.io.InvalidClassException;
 import java.io.Reader;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 import za.redbridge.simulator.factories.ConfigurableResourceFactory;
 import za.redbridge.simulator.factories.ResourceFactory;
@@ -17,6 +20,10 @@ public class SimConfig extends Config {
 
     private static final long DEFAULT_SIMULATION_SEED = System.currentTimeMillis();
     private static final int DEFAULT_SIMULATION_ITERATIONS = 10000;
+    private static final float DEFAULT_TIME_STEP = 1f / 10f;
+    private static final int DEFAULT_VELOCITY_ITERATIONS = 6;
+    private static final int DEFAULT_POSITION_ITERATIONS = 3;
+    private static final int DEFAULT_CONTROLLER_PERIOD = 1;
     private static final int DEFAULT_ENVIRONMENT_WIDTH = 20;
     private static final int DEFAULT_ENVIRONMENT_HEIGHT = 20;
     private static final int DEFAULT_TARGET_AREA_THICKNESS = (int)(DEFAULT_ENVIRONMENT_HEIGHT * 0.2);
@@ -27,8 +34,6 @@ public class SimConfig extends Config {
     private static final float DEFAULT_ROBOT_RADIUS = 0.15f;
     private static final Color DEFAULT_ROBOT_COLOUR = new Color(0,0,0);
 
-
-    private static final ResourceFactory DEFAULT_RESOURCE_FACTORY = new ConfigurableResourceFactory();
     private static final String DEFAULT_ROBOT_FACTORY =
             "za.redbridge.simulator.factories.HomogeneousRobotFactory";
 
@@ -36,11 +41,29 @@ public class SimConfig extends Config {
         NORTH, SOUTH, EAST, WEST
     }
 
+    /** How objects are scattered around the environment when a simulation starts. */
+    public enum PlacementStrategy {
+        /** Keep trying random positions until a free one is found. */
+        RANDOM,
+        /**
+         * Try free cells of a grid in a random order. Much faster for crowded environments with
+         * many objects, but objects are spaced more evenly.
+         */
+        DENSE
+    }
+
     private long simulationSeed;
     private final int simulationIterations;
 
+    // Physics fidelity and how often the robots' controllers run
+    private float timeStep = DEFAULT_TIME_STEP;
+    private int velocityIterations = DEFAULT_VELOCITY_ITERATIONS;
+    private int positionIterations = DEFAULT_POSITION_ITERATIONS;
+    private int controllerPeriod = DEFAULT_CONTROLLER_PERIOD;
+
     private final int environmentWidth;
     private final int environmentHeight;
+    private PlacementStrategy placementStrategy = PlacementStrategy.RANDOM;
 
     private final int objectsRobots;
     private final float robotMass;
@@ -53,12 +76,14 @@ public class SimConfig extends Config {
     private ResourceFactory resourceFactory;
     private String robotFactoryName;
 
+    private final Map<String, FidelityTier> fidelityTiers = new HashMap<>();
+
     //default config
     public SimConfig() {
         this(DEFAULT_SIMULATION_SEED, DEFAULT_SIMULATION_ITERATIONS, DEFAULT_ENVIRONMENT_WIDTH,
                 DEFAULT_ENVIRONMENT_HEIGHT, DEFAULT_TARGET_AREA_PLACEMENT,
                 DEFAULT_TARGET_AREA_THICKNESS, DEFAULT_OBJECTS_ROBOTS, DEFAULT_ROBOT_MASS,
-                DEFAULT_ROBOT_RADIUS, DEFAULT_ROBOT_COLOUR, DEFAULT_RESOURCE_FACTORY,
+                DEFAULT_ROBOT_RADIUS, DEFAULT_ROBOT_COLOUR, new ConfigurableResourceFactory(),
                 DEFAULT_ROBOT_FACTORY);
     }
 
@@ -85,6 +110,20 @@ public class SimConfig extends Config {
         this.robotFactoryName = robotFactoryName;
     }
 
+    // Copy another config but run for a different number of iterations
+    private SimConfig(SimConfig other, int simulationIterations) {
+        this(other.simulationSeed, simulationIterations, other.environmentWidth,
+                other.environmentHeight, other.targetAreaPlacement, other.targetAreaThickness,
+                other.objectsRobots, other.robotMass, other.robotRadius, other.robotColour,
+                other.resourceFactory, other.robotFactoryName);
+        this.placementStrategy = other.placementStrategy;
+        this.timeStep = other.timeStep;
+        this.velocityIterations = other.velocityIterations;
+        this.positionIterations = other.positionIterations;
+        this.controllerPeriod = other.controllerPeriod;
+        this.fidelityTiers.putAll(other.fidelityTiers);
+    }
+
     @SuppressWarnings("unchecked")
     public SimConfig(String filepath) {
         Yaml yaml = new Yaml();
@@ -98,8 +137,13 @@ public class SimConfig extends Config {
         // This is fairly horrible
         long seed = DEFAULT_SIMULATION_SEED;
         int iterations = DEFAULT_SIMULATION_ITERATIONS;
+        float timeStep = DEFAULT_TIME_STEP;
+        int velocityIterations = DEFAULT_VELOCITY_ITERATIONS;
+        int positionIterations = DEFAULT_POSITION_ITERATIONS;
+        int controllerPeriod = DEFAULT_CONTROLLER_PERIOD;
         int width = DEFAULT_ENVIRONMENT_WIDTH;
         int height = DEFAULT_ENVIRONMENT_HEIGHT;
+        PlacementStrategy placementStrategy = PlacementStrategy.RANDOM;
         Direction placement = DEFAULT_TARGET_AREA_PLACEMENT;
         int thickness = DEFAULT_TARGET_AREA_THICKNESS;
         int robots = DEFAULT_OBJECTS_ROBOTS;
@@ -108,7 +152,7 @@ public class SimConfig extends Config {
         float rRadius = DEFAULT_ROBOT_RADIUS;
         Color robotColour = DEFAULT_ROBOT_COLOUR;
 
-        ResourceFactory resFactory = DEFAULT_RESOURCE_FACTORY;
+        ResourceFactory resFactory = new ConfigurableResourceFactory();
         String robotFactory = DEFAULT_ROBOT_FACTORY;
 
         // Load simulation
@@ -122,6 +166,22 @@ public class SimConfig extends Config {
             if (checkFieldPresent(iterationsField, "simulation:iterations")) {
                 iterations = iterationsField;
             }
+            Number timeStepField = (Number) simulation.get("timeStep");
+            if (checkFieldPresent(timeStepField, "simulation:timeStep")) {
+                timeStep = timeStepField.floatValue();
+            }
+            Integer velocityIterationsField = (Integer) simulation.get("velocityIterations");
+            if (checkFieldPresent(velocityIterationsField, "simulation:velocityIterations")) {
+                velocityIterations = velocityIterationsField;
+            }
+            Integer positionIterationsField = (Integer) simulation.get("positionIterations");
+            if (checkFieldPresent(positionIterationsField, "simulation:positionIterations")) {
+                positionIterations = positionIterationsField;
+            }
+            Integer controllerPeriodField = (Integer) simulation.get("controllerPeriod");
+            if (checkFieldPresent(controllerPeriodField, "simulation:controllerPeriod")) {
+                controllerPeriod = controllerPeriodField;
+            }
         }
 
         // Environment
@@ -135,6 +195,10 @@ public class SimConfig extends Config {
             if (checkFieldPresent(heightField, "environment:height")) {
                 height = heightField;
             }
+            String placementStrategyField = (String) environment.get("placement");
+            if (checkFieldPresent(placementStrategyField, "environment:placement")) {
+                placementStrategy = PlacementStrategy.valueOf(placementStrategyField.toUpperCase());
+            }
         }
 
         // Target area
@@ -211,11 +275,25 @@ public class SimConfig extends Config {
             }
         }
 
+        // Fidelity tiers are optional so don't complain if there aren't any
+        Map tiers = (Map) config.get("fidelityTiers");
+        if (tiers != null) {
+            for (Object name : tiers.keySet()) {
+                fidelityTiers.put(name.toString(),
+                        FidelityTier.fromMap(name.toString(), (Map) tiers.get(name)));
+            }
+        }
+
 
         this.simulationSeed = seed;
         this.simulationIterations = iterations;
+        setTimeStep(timeStep);
+        setVelocityIterations(velocityIterations);
+        setPositionIterations(positionIterations);
+        setControllerPeriod(controllerPeriod);
         this.environmentWidth = width;
         this.environmentHeight = height;
+        this.placementStrategy = placementStrategy;
         this.targetAreaPlacement = placement;
         this.targetAreaThickness = thickness;
         this.objectsRobots = robots;
@@ -240,6 +318,59 @@ public class SimConfig extends Config {
         return simulationIterations;
     }
 
+    /** Get the time in seconds the physics world is advanced by each step. */
+    public float getTimeStep() {
+        return timeStep;
+    }
+
+    public void setTimeStep(float timeStep) {
+        if (!(timeStep > 0)) {
+            throw new IllegalArgumentException("Invalid time step: " + timeStep);
+        }
+        this.timeStep = timeStep;
+    }
+
+    /** Get the number of velocity constraint solver iterations per physics step. */
+    public int getVelocityIterations() {
+        return velocityIterations;
+    }
+
+    public void setVelocityIterations(int velocityIterations) {
+        if (velocityIterations < 1) {
+            throw new IllegalArgumentException(
+                    "Invalid number of velocity iterations: " + velocityIterations);
+        }
+        this.velocityIterations = velocityIterations;
+    }
+
+    /** Get the number of position constraint solver iterations per physics step. */
+    public int getPositionIterations() {
+        return positionIterations;
+    }
+
+    public void setPositionIterations(int positionIterations) {
+        if (positionIterations < 1) {
+            throw new IllegalArgumentException(
+                    "Invalid number of position iterations: " + positionIterations);
+        }
+        this.positionIterations = positionIterations;
+    }
+
+    /**
+     * Get the number of steps between runs of the robots' sensors and controllers. The robots keep
+     * driving their wheels the same way in between. 1 runs them every step.
+     */
+    public int getControllerPeriod() {
+        return controllerPeriod;
+    }
+
+    public void setControllerPeriod(int controllerPeriod) {
+        if (controllerPeriod < 1) {
+            throw new IllegalArgumentException("Invalid controller period: " + controllerPeriod);
+        }
+        this.controllerPeriod = controllerPeriod;
+    }
+
     public int getEnvironmentWidth() {
         return environmentWidth;
     }
@@ -248,6 +379,14 @@ public class SimConfig extends Config {
         return environmentHeight;
     }
 
+    public PlacementStrategy getPlacementStrategy() {
+        return placementStrategy;
+    }
+
+    public void setPlacementStrategy(PlacementStrategy placementStrategy) {
+        this.placementStrategy = placementStrategy;
+    }
+
     public Direction getTargetAreaPlacement() {
         return targetAreaPlacement;
     }
@@ -268,4 +407,145 @@ public class SimConfig extends Config {
 
     public ResourceFactory getResourceFactory() { return resourceFactory; }
 
+    /**
+     * Get a key that identifies everything in this config that affects the results of a
+     * simulation, other than the seed.
+     * @return the key, or null if the resource factory can't be identified
+     */
+    public String getCacheKey() {
+        String resourceKey = resourceFactory != null ? resourceFactory.getCacheKey() : null;
+        if (resourceKey == null) {
+            return null;
+        }
+
+        return simulationIterations + ";" + environmentWidth + "x" + environmentHeight + ";"
+                + placementStrategy + ";" + targetAreaPlacement + "," + targetAreaThickness + ";"
+                + objectsRobots + "," + robotMass + "," + robotRadius + "," + robotColour.getRGB()
+                + "," + robotFactoryName + ";" + timeStep + "," + velocityIterations + ","
+                + positionIterations + "," + controllerPeriod + ";"
+                + resourceFactory.getClass().getName() + ":" + resourceKey;
+    }
+
+    /** Get the names of the fidelity tiers in this config. */
+    public Set<String> getFidelityTierNames() {
+        return Collections.unmodifiableSet(fidelityTiers.keySet());
+    }
+
+    public FidelityTier getFidelityTier(String name) {
+        return fidelityTiers.get(name);
+    }
+
+    public void addFidelityTier(String name, FidelityTier tier) {
+        fidelityTiers.put(name, tier);
+    }
+
+    /**
+     * Get a copy of this config with the settings of one of its fidelity tiers.
+     * @param name the name of the tier
+     * @return a new config, changes to which don't affect this one
+     * @throws IllegalArgumentException if there's no tier with the name
+     */
+    public SimConfig forFidelityTier(String name) {
+        FidelityTier tier = fidelityTiers.get(name);
+        if (tier == null) {
+            throw new IllegalArgumentException("No fidelity tier named " + name);
+        }
+        return tier.apply(this);
+    }
+
+    /**
+     * A named set of changes to a config that trade the accuracy of a simulation for how quickly it
+     * runs, e.g. a "screen" tier with a coarse time step and fewer iterations to quickly weed out
+     * bad candidates. Settings that aren't set are left as they are in the config.
+     *
+     * In a config file, tiers go under fidelityTiers, each with any of the keys iterations,
+     * timeStep, velocityIterations, positionIterations and controllerPeriod.
+     */
+    public static class FidelityTier {
+        private Integer iterations;
+        private Float timeStep;
+        private Integer velocityIterations;
+        private Integer positionIterations;
+        private Integer controllerPeriod;
+
+        public FidelityTier setIterations(int iterations) {
+            if (iterations < 1) {
+                throw new IllegalArgumentException("Invalid number of iterations: " + iterations);
+            }
+            this.iterations = iterations;
+            return this;
+        }
+
+        public FidelityTier setTimeStep(float timeStep) {
+            this.timeStep = timeStep;
+            return this;
+        }
+
+        public FidelityTier setVelocityIterations(int velocityIterations) {
+            this.velocityIterations = velocityIterations;
+            return this;
+        }
+
+        public FidelityTier setPositionIterations(int positionIterations) {
+            this.positionIterations = positionIterations;
+            return this;
+        }
+
+        public FidelityTier setControllerPeriod(int controllerPeriod) {
+            this.controllerPeriod = controllerPeriod;
+            return this;
+        }
+
+        /** Create a copy of a config with this tier's settings. */
+        public SimConfig apply(SimConfig config) {
+            SimConfig tierConfig = new SimConfig(config,
+                    iterations != null ? iterations : config.getSimulationIterations());
+            if (timeStep != null) {
+                tierConfig.setTimeStep(timeStep);
+            }
+            if (velocityIterations != null) {
+                tierConfig.setVelocityIterations(velocityIterations);
+            }
+            if (positionIterations != null) {
+                tierConfig.setPositionIterations(positionIterations);
+            }
+            if (controllerPeriod != null) {
+                tierConfig.setControllerPeriod(controllerPeriod);
+            }
+            return tierConfig;
+        }
+
+        private static FidelityTier fromMap(String name, Map tier) {
+            FidelityTier fidelityTier = new FidelityTier();
+            if (tier == null) {
+                return fidelityTier;
+            }
+
+            Integer iterations = (Integer) tier.get("iterations");
+            if (checkFieldPresent(iterations, "fidelityTiers:" + name + ":iterations")) {
+                fidelityTier.setIterations(iterations);
+            }
+            Number timeStep = (Number) tier.get("timeStep");
+            if (checkFieldPresent(timeStep, "fidelityTiers:" + name + ":timeStep")) {
+                fidelityTier.setTimeStep(timeStep.floatValue());
+            }
+            Integer velocityIterations = (Integer) tier.get("velocityIterations");
+            if (checkFieldPresent(velocityIterations,
+                    "fidelityTiers:" + name + ":velocityIterations")) {
+                fidelityTier.setVelocityIterations(velocityIterations);
+            }
+            Integer positionIterations = (Integer) tier.get("positionIterations");
+            if (checkFieldPresent(positionIterations,
+                    "fidelityTiers:" + name + ":positionIterations")) {
+                fidelityTier.setPositionIterations(positionIterations);
+            }
+            Integer controllerPeriod = (Integer) tier.get("controllerPeriod");
+            if (checkFieldPresent(controllerPeriod,
+                    "fidelityTiers:" + name + ":controllerPeriod")) {
+                fidelityTier.setControllerPeriod(controllerPeriod);
+            }
+            return fidelityTier;
+        }
+    }
+
 }
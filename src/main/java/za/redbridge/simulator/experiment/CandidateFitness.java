@@ -0,0 +1,130 @@
+package za.redbridge.simulator.experiment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import za.redbridge.simulator.FitnessStats;
+import za.redbridge.simulator.phenotype.Phenotype;
+
+/**
+ * The fitness of a single candidate phenotype over all of the seeds it was evaluated on.
+ */
+public class CandidateFitness {
+
+    private final Phenotype candidate;
+    private final List<Run> runs = new ArrayList<>();
+
+    private double meanTeamFitness = 0.0;
+    private double sumOfSquares = 0.0;
+
+    public CandidateFitness(Phenotype candidate) {
+        this.candidate = candidate;
+    }
+
+    /**
+     * Add the result of a single completed run. Uses Welford's method so the mean and variance can
+     * be read at any point.
+     */
+    public void addRun(Run run) {
+        runs.add(run);
+
+        double teamFitness = run.getStats().getTeamFitness();
+        double delta = teamFitness - meanTeamFitness;
+        meanTeamFitness += delta / runs.size();
+        sumOfSquares += delta * (teamFitness - meanTeamFitness);
+    }
+
+    public Phenotype getCandidate() {
+        return candidate;
+    }
+
+    /** The runs in the order they were added. */
+    public List<Run> getRuns() {
+        return Collections.unmodifiableList(runs);
+    }
+
+    public int getNumberOfRuns() {
+        return runs.size();
+    }
+
+    /** Gets the mean normalized team fitness over all runs (out of 100) */
+    public double getMeanTeamFitness() {
+        return meanTeamFitness;
+    }
+
+    /** Gets the sample variance of the team fitness, or 0 if there are fewer than two runs. */
+    public double getTeamFitnessVariance() {
+        return runs.size() > 1 ? sumOfSquares / (runs.size() - 1) : 0.0;
+    }
+
+    public double getTeamFitnessStandardDeviation() {
+        return Math.sqrt(getTeamFitnessVariance());
+    }
+
+    /** Gets the standard error of the mean team fitness, or 0 if there are fewer than two runs. */
+    public double getTeamFitnessStandardError() {
+        return runs.size() > 1 ? Math.sqrt(getTeamFitnessVariance() / runs.size()) : 0.0;
+    }
+
+    /**
+     * The result of running a candidate on one seed.
+     */
+    public static class Run {
+        private final long seed;
+        private final FitnessStats stats;
+        private final long steps;
+        private final long wallTime;
+        private final boolean aborted;
+
+        /**
+         * @param seed the seed the simulation was run with
+         * @param stats the fitness at the end of the run
+         * @param steps the number of steps the simulation ran for
+         * @param wallTime how long the run took in milliseconds
+         */
+        public Run(long seed, FitnessStats stats, long steps, long wallTime) {
+            this(seed, stats, steps, wallTime, false);
+        }
+
+        /**
+         * @param seed the seed the simulation was run with
+         * @param stats the fitness at the end of the run
+         * @param steps the number of steps the simulation ran for
+         * @param wallTime how long the run took in milliseconds
+         * @param aborted whether the run was aborted because it couldn't reach the abort threshold
+         */
+        public Run(long seed, FitnessStats stats, long steps, long wallTime, boolean aborted) {
+            this.seed = seed;
+            this.stats = stats;
+            this.steps = steps;
+            this.wallTime = wallTime;
+            this.aborted = aborted;
+        }
+
+        public long getSeed() {
+            return seed;
+        }
+
+        public FitnessStats getStats() {
+            return stats;
+        }
+
+        public long getSteps() {
+            return steps;
+        }
+
+        /** How long the run took in milliseconds. */
+        public long getWallTime() {
+            return wallTime;
+        }
+
+        /**
+         * Whether the run was aborted because it couldn't reach the abort threshold, in which case
+         * the stats are only partial.
+         */
+        public boolean isAborted() {
+            return aborted;
+        }
+    }
+}
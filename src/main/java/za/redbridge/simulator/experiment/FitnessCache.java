@@ -0,0 +1,328 @@
+package za.redbridge.simulator.experiment;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import za.redbridge.simulator.FitnessStats;
+import za.redbridge.simulator.config.SimConfig;
+import za.redbridge.simulator.phenotype.Phenotype;
+import za.redbridge.simulator.sensor.AgentSensor;
+
+/**
+ * Remembers the results of simulation runs so that a candidate that is evaluated again on the same
+ * seed, like an elite or a duplicate genome, doesn't need to be simulated again. Simulations are
+ * deterministic so a run's result only depends on its controller, its sensors, the config and the
+ * seed, and these are hashed into the key.
+ *
+ * The most recently used results are kept in memory. If a directory is given, every result is also
+ * written to a file in it so that results survive restarts. This class is thread safe.
+ */
+public class FitnessCache {
+
+    private static final int FILE_MAGIC = 0x46495443; // "FITC"
+    private static final int FILE_VERSION = 1;
+    private static final String FILE_EXTENSION = ".fit";
+
+    private final Map<String, Entry> entries;
+    private final Path directory;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    /** Create a cache that only keeps results in memory. */
+    public FitnessCache(int capacity) {
+        this(capacity, null);
+    }
+
+    /**
+     * Create a cache.
+     * @param capacity the number of results to keep in memory
+     * @param directory the directory to store all results in, or null to only keep them in memory
+     */
+    public FitnessCache(int capacity, Path directory) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+        this.directory = directory;
+
+        if (directory != null) {
+            try {
+                Files.createDirectories(directory);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Can't create cache directory " + directory, e);
+            }
+        }
+    }
+
+    /**
+     * Get the key for the result of running a candidate on a seed.
+     * @return the key, or null if the result can't be cached because the candidate or the config
+     *         can't be identified
+     */
+    public static String getKey(Phenotype candidate, SimConfig config, long seed) {
+        String candidateKey = candidate.getCacheKey();
+        String configKey = config.getCacheKey();
+        if (candidateKey == null || configKey == null) {
+            return null;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(FILE_VERSION).append('\n')
+                .append(candidate.getClass().getName()).append('\n')
+                .append(candidateKey).append('\n');
+        for (AgentSensor sensor : candidate.getSensors()) {
+            sb.append(sensor.getClass().getName()).append(',')
+                    .append(sensor.getBearing()).append(',')
+                    .append(sensor.getOrientation()).append(',')
+                    .append(sensor.getRange()).append(',')
+                    .append(sensor.getFieldOfView()).append(',')
+                    .append(sensor.getReadingSize());
+
+            // Sort the additional configs so that the key doesn't depend on the map's order
+            Map<String, Object> additionalConfigs = sensor.getAdditionalConfigs();
+            if (additionalConfigs != null) {
+                sb.append(new TreeMap<>(additionalConfigs));
+            }
+            sb.append('\n');
+        }
+        sb.append(configKey).append('\n')
+                .append(seed);
+
+        return sha256(sb.toString());
+    }
+
+    /**
+     * Get a cached result.
+     * @param key the key from {@link #getKey(Phenotype, SimConfig, long)}
+     * @param candidate the candidate the result is for. Clones of it stand in for the robots in
+     *                  the result's phenotype fitnesses.
+     * @return the run, or null if there's no result for the key
+     */
+    public CandidateFitness.Run get(String key, Phenotype candidate) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+
+        if (entry == null && directory != null) {
+            entry = read(key);
+            if (entry != null) {
+                synchronized (entries) {
+                    entries.put(key, entry);
+                }
+            }
+        }
+
+        synchronized (this) {
+            if (entry != null) {
+                hits++;
+            } else {
+                misses++;
+            }
+        }
+        return entry != null ? entry.toRun(candidate) : null;
+    }
+
+    /**
+     * Store the result of a run. Runs that were aborted or stopped early shouldn't be stored, since
+     * their results are only partial.
+     * @param key the key from {@link #getKey(Phenotype, SimConfig, long)}
+     * @param run the run
+     */
+    public void put(String key, CandidateFitness.Run run) {
+        Entry entry = new Entry(run);
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+
+        if (directory != null) {
+            write(key, entry);
+        }
+    }
+
+    /** The number of results kept in memory. */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /** Remove all the results kept in memory. Results stored on disk are kept. */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /** The number of times a result was found. */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /** The number of times a result wasn't found. */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    private Entry read(String key) {
+        try (InputStream in = Files.newInputStream(directory.resolve(key + FILE_EXTENSION))) {
+            DataInputStream data = new DataInputStream(in);
+            if (data.readInt() != FILE_MAGIC || data.readInt() != FILE_VERSION) {
+                return null;
+            }
+            return Entry.read(data);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            System.out.println("Error reading cached fitness " + key);
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private void write(String key, Entry entry) {
+        // Write to a temporary file first so that other processes never see half a file
+        Path path = directory.resolve(key + FILE_EXTENSION);
+        try {
+            Path tempPath = Files.createTempFile(directory, key, ".tmp");
+            try (OutputStream out = Files.newOutputStream(tempPath)) {
+                DataOutputStream data = new DataOutputStream(out);
+                data.writeInt(FILE_MAGIC);
+                data.writeInt(FILE_VERSION);
+                entry.write(data);
+                data.flush();
+            }
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println("Error writing cached fitness " + key);
+            e.printStackTrace();
+        }
+    }
+
+    private static String sha256(String s) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform has to support SHA-256
+            throw new AssertionError(e);
+        }
+
+        byte[] hash = digest.digest(s.getBytes(StandardCharsets.UTF_8));
+        StringBuilder sb = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16))
+                    .append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    /*
+     * The parts of a run that are kept. The phenotypes in the run's fitness stats are the robots
+     * of one simulation, so only their fitnesses are kept.
+     */
+    private static class Entry {
+        private final long seed;
+        private final long steps;
+        private final long wallTime;
+        private final double totalResourceValue;
+        private final int maxSteps;
+        private final double collectedValue;
+        private final double adjustedCollectedValue;
+        private final double[] phenotypeFitnesses;
+
+        Entry(CandidateFitness.Run run) {
+            FitnessStats stats = run.getStats();
+            seed = run.getSeed();
+            steps = run.getSteps();
+            wallTime = run.getWallTime();
+            totalResourceValue = stats.getTotalResourceValue();
+            maxSteps = stats.getMaxSteps();
+            collectedValue = stats.getCollectedValue();
+            adjustedCollectedValue = stats.getAdjustedCollectedValue();
+
+            Map<Phenotype, Double> fitnesses = stats.getPhenotypeFitnessMap();
+            phenotypeFitnesses = new double[fitnesses.size()];
+            int i = 0;
+            for (double fitness : fitnesses.values()) {
+                phenotypeFitnesses[i++] = fitness;
+            }
+        }
+
+        private Entry(long seed, long steps, long wallTime, double totalResourceValue,
+                int maxSteps, double collectedValue, double adjustedCollectedValue,
+                double[] phenotypeFitnesses) {
+            this.seed = seed;
+            this.steps = steps;
+            this.wallTime = wallTime;
+            this.totalResourceValue = totalResourceValue;
+            this.maxSteps = maxSteps;
+            this.collectedValue = collectedValue;
+            this.adjustedCollectedValue = adjustedCollectedValue;
+            this.phenotypeFitnesses = phenotypeFitnesses;
+        }
+
+        CandidateFitness.Run toRun(Phenotype candidate) {
+            Map<Phenotype, Double> fitnesses = new HashMap<>();
+            for (double fitness : phenotypeFitnesses) {
+                fitnesses.put(candidate.clone(), fitness);
+            }
+
+            FitnessStats stats = new FitnessStats(totalResourceValue, maxSteps, collectedValue,
+                    adjustedCollectedValue, fitnesses);
+            return new CandidateFitness.Run(seed, stats, steps, wallTime);
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeLong(seed);
+            out.writeLong(steps);
+            out.writeLong(wallTime);
+            out.writeDouble(totalResourceValue);
+            out.writeInt(maxSteps);
+            out.writeDouble(collectedValue);
+            out.writeDouble(adjustedCollectedValue);
+            out.writeInt(phenotypeFitnesses.length);
+            for (double fitness : phenotypeFitnesses) {
+                out.writeDouble(fitness);
+            }
+        }
+
+        static Entry read(DataInputStream in) throws IOException {
+            long seed = in.readLong();
+            long steps = in.readLong();
+            long wallTime = in.readLong();
+            double totalResourceValue = in.readDouble();
+            int maxSteps = in.readInt();
+            double collectedValue = in.readDouble();
+            double adjustedCollectedValue = in.readDouble();
+            double[] phenotypeFitnesses = new double[in.readInt()];
+            for (int i = 0; i < phenotypeFitnesses.length; i++) {
+                phenotypeFitnesses[i] = in.readDouble();
+            }
+            return new Entry(seed, steps, wallTime, totalResourceValue, maxSteps, collectedValue,
+                    adjustedCollectedValue, phenotypeFitnesses);
+        }
+    }
+}
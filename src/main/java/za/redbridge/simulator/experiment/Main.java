@@ -4,15 +4,27 @@ import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
 
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import sim.display.Console;
+import za.redbridge.simulator.FitnessStats;
 import za.redbridge.simulator.Simulation;
+import za.redbridge.simulator.SimulationCheckpoint;
 import za.redbridge.simulator.SimulationGUI;
+import za.redbridge.simulator.TrajectoryPlayer;
 import za.redbridge.simulator.config.ExperimentConfig;
 import za.redbridge.simulator.config.MorphologyConfig;
 import za.redbridge.simulator.config.SimConfig;
 import za.redbridge.simulator.factories.HomogeneousRobotFactory;
 import za.redbridge.simulator.phenotype.ChasingPhenotype;
+import za.redbridge.simulator.phenotype.Phenotype;
 
 //entry point into simulator
 
@@ -32,6 +44,30 @@ public class Main {
     @Option (name="--show-visuals", aliases="-v", usage="Show visualisation for simulation")
     private boolean showVisuals = false;
 
+    @Option (name="--runs", aliases="-n", usage="Number of seeds to run in headless mode (default: runsPerGenome)")
+    private int runs = 0;
+
+    @Option (name="--threads", usage="Number of simulations to run at once in headless mode (default: all cores)")
+    private int threads = 0;
+
+    @Option (name="--output", aliases="-o", usage="File to write headless results to", metaVar="<output file>")
+    private String output = "results.csv";
+
+    @Option (name="--metrics", usage="Print the time spent in each phase of a step after running headless")
+    private boolean metrics = false;
+
+    @Option (name="--record", usage="Directory to record the trajectories of headless runs in", metaVar="<directory>")
+    private String record;
+
+    @Option (name="--replay", usage="Play back a recorded run with the visualisation instead of simulating", metaVar="<trajectory file>")
+    private String replay;
+
+    @Option (name="--resume", usage="Show a run with the visualisation from where a checkpoint was taken", metaVar="<checkpoint file>")
+    private String resume;
+
+    @Option (name="--keyframe-memory", usage="Memory the visualisation may use for keyframes to jump back in time with, in megabytes", metaVar="<megabytes>")
+    private int keyframeMemory = (int) (SimulationGUI.DEFAULT_KEYFRAME_MEMORY / (1024 * 1024));
+
     public static void main (String[] args) {
 
         Main options = new Main();
@@ -69,11 +105,44 @@ public class Main {
                     simulationConfiguration.getRobotRadius(), simulationConfiguration.getRobotColour(),
                     simulationConfiguration.getObjectsRobots());
 
-            Simulation simulation = new Simulation(simulationConfiguration, robotFactory);
-
-
-            SimulationGUI video =
-                    new SimulationGUI(simulation);
+            Simulation simulation;
+            if (options.getReplay() != null) {
+                TrajectoryPlayer player = null;
+                try {
+                    player = new TrajectoryPlayer(Paths.get(options.getReplay()));
+                }
+                catch (IOException e) {
+                    System.out.println("Error reading recorded run.");
+                    e.printStackTrace();
+                    System.exit(1);
+                }
+
+                simulation = new Simulation(simulationConfiguration, robotFactory,
+                        player.getSeed());
+                simulation.setReplay(player);
+            }
+            else if (options.getResume() != null) {
+                SimulationCheckpoint checkpoint = null;
+                try {
+                    checkpoint = SimulationCheckpoint.read(Paths.get(options.getResume()));
+                }
+                catch (IOException e) {
+                    System.out.println("Error reading checkpoint.");
+                    e.printStackTrace();
+                    System.exit(1);
+                }
+
+                simulation = new Simulation(simulationConfiguration, robotFactory,
+                        checkpoint.getSeed());
+                simulation.setStartCheckpoint(checkpoint);
+            }
+            else {
+                simulation = new Simulation(simulationConfiguration, robotFactory);
+            }
+
+
+            SimulationGUI video = new SimulationGUI(simulation,
+                    options.getKeyframeMemory() * 1024L * 1024L);
 
             //new console which displays this simulation
             Console console = new Console(video);
@@ -83,14 +152,90 @@ public class Main {
         else {
 
             //headless option
+            System.setProperty("java.awt.headless", "true");
+
+            int runs = options.getRuns() > 0 ?
+                    options.getRuns() : experimentConfiguration.getRunsPerGenome();
+            int threads = options.getThreads() > 0 ?
+                    options.getThreads() : Runtime.getRuntime().availableProcessors();
 
+            runHeadless(simulationConfiguration, runs, threads, options.getOutput(),
+                    options.isMetrics(), options.getRecord());
         }
 
     }
 
+    /**
+     * Run the chasing phenotype on a number of seeds and write one row per run to the output file
+     * as each run finishes.
+     */
+    private static void runHeadless(SimConfig config, int runs, int threads, String output,
+            boolean metrics, String record) {
+        PopulationEvaluator evaluator = new PopulationEvaluator(config, threads);
+        evaluator.setMetricsEnabled(metrics);
+
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(Paths.get(output)))) {
+            if (record != null) {
+                evaluator.setTrajectoryDirectory(Files.createDirectories(Paths.get(record)));
+            }
+
+            writer.println("seed,steps,teamFitness,phenotypeFitness,wallTimeMs");
+            writer.flush();
+
+            evaluator.setRunListener((candidate, run) -> {
+                String row = run.getSeed() + "," + run.getSteps() + ","
+                        + run.getStats().getTeamFitness() + ","
+                        + formatPhenotypeFitnesses(run.getStats()) + "," + run.getWallTime();
+                synchronized (writer) {
+                    writer.println(row);
+                    writer.flush();
+                }
+            });
+
+            List<Phenotype> candidates = Collections.singletonList(new ChasingPhenotype());
+            CandidateFitness fitness = evaluator.evaluate(candidates, runs).get(0);
+
+            System.out.println("Completed " + fitness.getNumberOfRuns() + " runs, mean team fitness "
+                    + fitness.getMeanTeamFitness() + " (sd "
+                    + fitness.getTeamFitnessStandardDeviation() + ")");
+
+            if (metrics) {
+                evaluator.getMetrics().print(System.out);
+            }
+        } catch (IOException e) {
+            System.out.println("Error writing headless results.");
+            e.printStackTrace();
+        } finally {
+            evaluator.shutdown();
+        }
+    }
+
+    // Robots are clones so there is no stable order, list their fitnesses from highest to lowest
+    private static String formatPhenotypeFitnesses(FitnessStats stats) {
+        List<Double> fitnesses = new ArrayList<>(stats.getPhenotypeFitnessMap().values());
+        Collections.sort(fitnesses, Collections.reverseOrder());
+
+        StringBuilder sb = new StringBuilder();
+        for (Double fitness : fitnesses) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(fitness);
+        }
+        return sb.toString();
+    }
+
     public String getExperimentConfig() { return experimentConfig; }
     public String getSimulationConfig() { return simulationConfig; }
     public boolean showVisuals() { return showVisuals; }
+    public int getRuns() { return runs; }
+    public int getThreads() { return threads; }
+    public String getOutput() { return output; }
+    public boolean isMetrics() { return metrics; }
+    public String getRecord() { return record; }
+    public String getReplay() { return replay; }
+    public String getResume() { return resume; }
+    public int getKeyframeMemory() { return keyframeMemory; }
 
 
 }
@@ -0,0 +1,557 @@
+package za.redbridge.simulator.experiment;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+import ec.util.MersenneTwisterFast;
+import za.redbridge.simulator.Simulation;
+import za.redbridge.simulator.StepMetrics;
+import za.redbridge.simulator.WorldLayoutCache;
+import za.redbridge.simulator.config.SimConfig;
+import za.redbridge.simulator.factories.HomogeneousRobotFactory;
+import za.redbridge.simulator.phenotype.Phenotype;
+
+/**
+ * Evaluates a population of candidate phenotypes by running each one on a number of seeds. Every
+ * (candidate, seed) pair is an independent simulation and these are spread over a work-stealing
+ * thread pool.
+ */
+public class PopulationEvaluator {
+
+    private final SimConfig config;
+    private final ForkJoinPool pool;
+
+    private final Set<Simulation> runningSimulations = ConcurrentHashMap.newKeySet();
+    private volatile boolean cancelled = false;
+
+    private RunListener runListener;
+
+    private volatile boolean metricsEnabled = false;
+    private volatile double abortThreshold = Double.NaN;
+
+    private volatile FitnessCache fitnessCache;
+    private volatile WorldLayoutCache layoutCache = new WorldLayoutCache();
+    private volatile Path trajectoryDirectory;
+    private final StepMetrics metrics = new StepMetrics();
+
+    /** Create an evaluator that uses all available processors. */
+    public PopulationEvaluator(SimConfig config) {
+        this(config, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create an evaluator.
+     * @param config the simulation config, shared by all the simulations
+     * @param threads the number of simulations to run at once
+     */
+    public PopulationEvaluator(SimConfig config, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Need at least one thread");
+        }
+
+        this.config = config;
+        this.pool = new ForkJoinPool(threads);
+    }
+
+    /**
+     * Evaluate each candidate on seeds counting up from the seed in the config.
+     * @param candidates the phenotypes to evaluate, each robot gets a clone
+     * @param runsPerGenome the number of seeds to run each candidate on
+     * @return the fitness of each candidate, in the same order as the candidates
+     */
+    public List<CandidateFitness> evaluate(List<? extends Phenotype> candidates,
+            int runsPerGenome) {
+        long[] seeds = new long[runsPerGenome];
+        for (int i = 0; i < runsPerGenome; i++) {
+            seeds[i] = config.getSimulationSeed() + i;
+        }
+        return evaluate(candidates, seeds);
+    }
+
+    /**
+     * Evaluate each candidate on each of the given seeds. Blocks until all the simulations are done
+     * or the evaluation is cancelled. If cancelled, only the runs that completed are included.
+     * @param candidates the phenotypes to evaluate, each robot gets a clone
+     * @param seeds the seeds to run each candidate on
+     * @return the fitness of each candidate, in the same order as the candidates
+     */
+    public List<CandidateFitness> evaluate(List<? extends Phenotype> candidates, long[] seeds) {
+        cancelled = false;
+        return evaluate(config, null, candidates, null, seeds);
+    }
+
+    /**
+     * Evaluate the candidates in two stages. First every candidate is screened on the seeds with a
+     * cheaper fidelity tier of the config, then only the best of them by mean team fitness are
+     * evaluated on the seeds with the full config. If cancelled during screening, nothing is
+     * promoted.
+     * @param candidates the phenotypes to evaluate, each robot gets a clone
+     * @param seeds the seeds to run each candidate on, in both stages
+     * @param screeningTier the name of the config's fidelity tier to screen with
+     * @param promotionFraction the fraction of the candidates to evaluate fully, at least one
+     *                          candidate is always promoted
+     * @return the screening and full fitness of each candidate, in the same order as the
+     *         candidates
+     * @throws IllegalArgumentException if the config has no tier with the name
+     */
+    public TieredEvaluation evaluateTiered(List<? extends Phenotype> candidates, long[] seeds,
+            String screeningTier, double promotionFraction) {
+        return evaluateTiered(candidates, seeds, screeningTier, promotionFraction, 0.0);
+    }
+
+    /**
+     * Evaluate the candidates in two stages like
+     * {@link #evaluateTiered(List, long[], String, double)}, and also evaluate a random sample of
+     * the candidates that weren't promoted with the full config. These audited candidates aren't
+     * promoted, but they let the rank agreement between the tiers cover the whole range of
+     * screening fitnesses rather than only the best of them. The sample is drawn with the config's
+     * simulation seed so that it is the same every time.
+     * @param auditFraction the fraction of the candidates that weren't promoted to evaluate fully,
+     *                      at least one candidate is audited if it is more than 0
+     */
+    public TieredEvaluation evaluateTiered(List<? extends Phenotype> candidates, long[] seeds,
+            String screeningTier, double promotionFraction, double auditFraction) {
+        if (promotionFraction <= 0.0 || promotionFraction > 1.0) {
+            throw new IllegalArgumentException("Invalid promotion fraction: " + promotionFraction);
+        }
+        if (auditFraction < 0.0 || auditFraction > 1.0) {
+            throw new IllegalArgumentException("Invalid audit fraction: " + auditFraction);
+        }
+
+        cancelled = false;
+
+        final int numCandidates = candidates.size();
+        List<CandidateFitness> screenFitnesses =
+                evaluate(config.forFidelityTier(screeningTier), screeningTier, candidates, null,
+                        seeds);
+
+        List<CandidateFitness> fullFitnesses = new ArrayList<>(numCandidates);
+        for (int i = 0; i < numCandidates; i++) {
+            fullFitnesses.add(null);
+        }
+
+        if (cancelled || numCandidates == 0) {
+            return new TieredEvaluation(screenFitnesses, fullFitnesses);
+        }
+
+        // Promote the best screened candidates, the sort is stable so ties go to the earliest
+        List<Integer> order = new ArrayList<>(numCandidates);
+        for (int i = 0; i < numCandidates; i++) {
+            order.add(i);
+        }
+        order.sort((a, b) -> Double.compare(screenFitnesses.get(b).getMeanTeamFitness(),
+                screenFitnesses.get(a).getMeanTeamFitness()));
+
+        int numPromoted = Math.max(1, (int) Math.ceil(promotionFraction * numCandidates));
+
+        // Audit a random sample of the rest, shuffling only as much of them as is sampled
+        List<Integer> rest = new ArrayList<>(order.subList(numPromoted, numCandidates));
+        int numAudited = (int) Math.ceil(auditFraction * rest.size());
+        MersenneTwisterFast random = new MersenneTwisterFast(config.getSimulationSeed());
+        for (int i = 0; i < numAudited; i++) {
+            Collections.swap(rest, i, i + random.nextInt(rest.size() - i));
+        }
+        List<Integer> audited = rest.subList(0, numAudited);
+
+        List<Integer> evaluated = new ArrayList<>(order.subList(0, numPromoted));
+        evaluated.addAll(audited);
+        Collections.sort(evaluated);
+
+        final int numEvaluated = evaluated.size();
+        List<Phenotype> evaluatedCandidates = new ArrayList<>(numEvaluated);
+        int[] evaluatedIndices = new int[numEvaluated];
+        for (int i = 0; i < numEvaluated; i++) {
+            evaluatedCandidates.add(candidates.get(evaluated.get(i)));
+            evaluatedIndices[i] = evaluated.get(i);
+        }
+
+        List<CandidateFitness> evaluatedFitnesses =
+                evaluate(config, null, evaluatedCandidates, evaluatedIndices, seeds);
+        for (int i = 0; i < numEvaluated; i++) {
+            fullFitnesses.set(evaluated.get(i), evaluatedFitnesses.get(i));
+        }
+        return new TieredEvaluation(screenFitnesses, fullFitnesses, audited);
+    }
+
+    /**
+     * Evaluate the candidates by racing them: seeds are run for each candidate a few at a time and
+     * a candidate stops being run as soon as its mean team fitness is clearly above or below the
+     * cut-off for selection. The cut-off is halfway between the current mean team fitnesses of the
+     * last candidate that would be selected and the first that wouldn't, and a candidate is clearly
+     * above or below it when its mean is more than the given number of standard errors away. A
+     * candidate whose runs all have the same fitness has no standard error and stops. Candidates
+     * that stay close to the cut-off are run on all the seeds. The seeds each candidate was actually run on are in its
+     * runs. If cancelled, only the runs that completed are included.
+     * @param candidates the phenotypes to evaluate, each robot gets a clone
+     * @param seeds the seeds to run each candidate on, in order, at most
+     * @param minRuns the number of seeds each candidate is run on before it can stop, at least 2
+     *                so that there is a variance
+     * @param survivors the number of candidates that will be selected
+     * @param bound the number of standard errors the mean must be from the cut-off to stop
+     * @return the fitness of each candidate, in the same order as the candidates
+     */
+    public List<CandidateFitness> evaluateRacing(List<? extends Phenotype> candidates,
+            long[] seeds, int minRuns, int survivors, double bound) {
+        if (minRuns < 2) {
+            throw new IllegalArgumentException("Need at least two runs to race: " + minRuns);
+        }
+        if (survivors < 1) {
+            throw new IllegalArgumentException("Need at least one survivor: " + survivors);
+        }
+        if (bound <= 0.0) {
+            throw new IllegalArgumentException("Invalid bound: " + bound);
+        }
+
+        cancelled = false;
+
+        final int numCandidates = candidates.size();
+        final CandidateFitness.Run[][] runs = new CandidateFitness.Run[numCandidates][seeds.length];
+        final List<CandidateFitness> results = new ArrayList<>(numCandidates);
+        for (Phenotype candidate : candidates) {
+            results.add(new CandidateFitness(candidate));
+        }
+
+        final boolean[] racing = new boolean[numCandidates];
+        Arrays.fill(racing, true);
+
+        // Run every candidate on the minimum number of seeds, then one more seed per round
+        int nextSeed = 0;
+        int roundSeeds = Math.min(minRuns, seeds.length);
+        while (roundSeeds > 0 && !cancelled) {
+            List<RecursiveAction> tasks = new ArrayList<>();
+            for (int i = 0; i < numCandidates; i++) {
+                if (!racing[i]) {
+                    continue;
+                }
+                for (int j = nextSeed; j < nextSeed + roundSeeds; j++) {
+                    tasks.add(new RunTask(config, candidates.get(i), seeds[j], runs[i], j,
+                            getTrajectoryName(null, i, seeds[j])));
+                }
+            }
+            invokeAll(tasks);
+
+            for (int i = 0; i < numCandidates; i++) {
+                if (!racing[i]) {
+                    continue;
+                }
+                for (int j = nextSeed; j < nextSeed + roundSeeds; j++) {
+                    if (runs[i][j] != null) {
+                        results.get(i).addRun(runs[i][j]);
+                    }
+                }
+            }
+            nextSeed += roundSeeds;
+            roundSeeds = Math.min(1, seeds.length - nextSeed);
+
+            if (survivors >= numCandidates) {
+                // Everything is selected so there is nothing to race for
+                break;
+            }
+
+            double cutoff = getRacingCutoff(results, survivors);
+            boolean anyRacing = false;
+            for (int i = 0; i < numCandidates; i++) {
+                if (racing[i]) {
+                    CandidateFitness fitness = results.get(i);
+                    double distance = Math.abs(fitness.getMeanTeamFitness() - cutoff);
+                    double standardError = fitness.getTeamFitnessStandardError();
+                    racing[i] = standardError > 0.0 && distance <= bound * standardError;
+                    anyRacing |= racing[i];
+                }
+            }
+
+            if (!anyRacing) {
+                break;
+            }
+        }
+
+        return results;
+    }
+
+    // Halfway between the mean team fitness of the candidate that would be selected last and that
+    // of the candidate that would be rejected first, so that neither sits on the cut-off
+    private static double getRacingCutoff(List<CandidateFitness> fitnesses, int survivors) {
+        double[] means = new double[fitnesses.size()];
+        for (int i = 0; i < means.length; i++) {
+            means[i] = fitnesses.get(i).getMeanTeamFitness();
+        }
+        Arrays.sort(means);
+        int lastSelected = means.length - survivors;
+        return (means[lastSelected] + means[lastSelected - 1]) / 2.0;
+    }
+
+    /*
+     * Evaluate the candidates with a config. The tier and the indices of the candidates in the
+     * whole population (null if they're the whole population) only name trajectory files.
+     */
+    private List<CandidateFitness> evaluate(SimConfig config, String tier,
+            List<? extends Phenotype> candidates, int[] candidateIndices, long[] seeds) {
+
+        final int numCandidates = candidates.size();
+        final CandidateFitness.Run[][] runs = new CandidateFitness.Run[numCandidates][seeds.length];
+
+        List<RecursiveAction> tasks = new ArrayList<>(numCandidates * seeds.length);
+        for (int i = 0; i < numCandidates; i++) {
+            for (int j = 0; j < seeds.length; j++) {
+                int candidateIndex = candidateIndices != null ? candidateIndices[i] : i;
+                tasks.add(new RunTask(config, candidates.get(i), seeds[j], runs[i], j,
+                        getTrajectoryName(tier, candidateIndex, seeds[j])));
+            }
+        }
+
+        invokeAll(tasks);
+
+        List<CandidateFitness> results = new ArrayList<>(numCandidates);
+        for (int i = 0; i < numCandidates; i++) {
+            CandidateFitness fitness = new CandidateFitness(candidates.get(i));
+            for (CandidateFitness.Run run : runs[i]) {
+                if (run != null) {
+                    fitness.addRun(run);
+                }
+            }
+            results.add(fitness);
+        }
+        return results;
+    }
+
+    // Run the tasks on the pool and wait for them all to finish
+    private void invokeAll(List<RecursiveAction> tasks) {
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+    }
+
+    /**
+     * Cancel the current evaluation. Simulations that have not started are skipped and running
+     * simulations are stopped after their current step. Safe to call from any thread.
+     */
+    public void cancel() {
+        cancelled = true;
+        for (Simulation simulation : runningSimulations) {
+            simulation.stop();
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /** The number of simulations that are run at once. */
+    public int getThreads() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Set a listener to be told about each run as soon as it completes. The listener is called
+     * from the worker threads so it must be thread safe.
+     */
+    public void setRunListener(RunListener runListener) {
+        this.runListener = runListener;
+    }
+
+    /** If true, the step metrics of every completed run are collected. */
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    /** Set whether the step metrics of every completed run should be collected. */
+    public void setMetricsEnabled(boolean metricsEnabled) {
+        this.metricsEnabled = metricsEnabled;
+    }
+
+    /** Get the adjusted team fitness below which runs are aborted, or NaN if they never are. */
+    public double getAbortThreshold() {
+        return abortThreshold;
+    }
+
+    /**
+     * Set a threshold on the adjusted team fitness below which runs are aborted as soon as they
+     * can't reach it. Aborted runs still count, with the fitness they reached.
+     * @see Simulation#setAbortThreshold(double)
+     */
+    public void setAbortThreshold(double abortThreshold) {
+        this.abortThreshold = abortThreshold;
+    }
+
+    public FitnessCache getFitnessCache() {
+        return fitnessCache;
+    }
+
+    /**
+     * Set a cache to reuse the results of runs in. Runs of candidates or configs that can't be
+     * identified are never cached. Cached runs don't count towards the step metrics.
+     * @param fitnessCache the cache, or null to always run the simulations
+     */
+    public void setFitnessCache(FitnessCache fitnessCache) {
+        this.fitnessCache = fitnessCache;
+    }
+
+    /**
+     * Get the cache of the layout of each seed, which is shared by all the simulations so that
+     * objects are only placed randomly once per seed.
+     */
+    public WorldLayoutCache getLayoutCache() {
+        return layoutCache;
+    }
+
+    /**
+     * Set the cache of the layout of each seed, e.g. to use layouts loaded from a file. Fidelity
+     * tiers don't change the layouts, so the same cache is used for them.
+     * @param layoutCache the cache, or null to place objects randomly in every simulation
+     */
+    public void setLayoutCache(WorldLayoutCache layoutCache) {
+        this.layoutCache = layoutCache;
+    }
+
+    /** Get the directory the trajectories of runs are recorded in, or null if not recorded. */
+    public Path getTrajectoryDirectory() {
+        return trajectoryDirectory;
+    }
+
+    /**
+     * Record the trajectories of every simulated run to a file in a directory, named after the
+     * candidate's index and the seed, and the fidelity tier if screening. Runs found in the fitness
+     * cache aren't simulated so they aren't recorded.
+     * @param trajectoryDirectory the directory, which must exist, or null to not record
+     * @see za.redbridge.simulator.TrajectoryRecorder
+     */
+    public void setTrajectoryDirectory(Path trajectoryDirectory) {
+        this.trajectoryDirectory = trajectoryDirectory;
+    }
+
+    /**
+     * Get the combined step metrics of all the runs completed while metrics were enabled. The
+     * returned object is updated as runs complete, synchronize on it to read a consistent view.
+     */
+    public StepMetrics getMetrics() {
+        return metrics;
+    }
+
+    /** Stop the worker threads. The evaluator cannot be used afterwards. */
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    private static String getTrajectoryName(String tier, int candidateIndex, long seed) {
+        String name = "candidate" + candidateIndex + "-seed" + seed + ".traj";
+        return tier != null ? tier + "-" + name : name;
+    }
+
+    private Simulation createSimulation(SimConfig config, Phenotype candidate, long seed) {
+        HomogeneousRobotFactory robotFactory = new HomogeneousRobotFactory(candidate,
+                config.getRobotMass(), config.getRobotRadius(), config.getRobotColour(),
+                config.getObjectsRobots());
+        Simulation simulation = new Simulation(config, robotFactory, seed);
+        simulation.setMetricsEnabled(metricsEnabled);
+        simulation.setAbortThreshold(abortThreshold);
+        simulation.setLayoutCache(layoutCache);
+        return simulation;
+    }
+
+    private void notifyRunComplete(Phenotype candidate, CandidateFitness.Run run) {
+        RunListener listener = runListener;
+        if (listener != null) {
+            listener.onRunComplete(candidate, run);
+        }
+    }
+
+    /**
+     * Listener for completed runs.
+     */
+    public interface RunListener {
+        void onRunComplete(Phenotype candidate, CandidateFitness.Run run);
+    }
+
+    @SuppressWarnings("serial")
+    private class RunTask extends RecursiveAction {
+        private final SimConfig config;
+        private final Phenotype candidate;
+        private final long seed;
+        private final CandidateFitness.Run[] runs;
+        private final int index;
+        private final String trajectoryName;
+
+        RunTask(SimConfig config, Phenotype candidate, long seed, CandidateFitness.Run[] runs,
+                int index, String trajectoryName) {
+            this.config = config;
+            this.candidate = candidate;
+            this.seed = seed;
+            this.runs = runs;
+            this.index = index;
+            this.trajectoryName = trajectoryName;
+        }
+
+        @Override
+        protected void compute() {
+            // Reuse the result of an identical run if there is one
+            final FitnessCache cache = fitnessCache;
+            final String cacheKey =
+                    cache != null ? FitnessCache.getKey(candidate, config, seed) : null;
+            if (cacheKey != null && !cancelled) {
+                CandidateFitness.Run run = cache.get(cacheKey, candidate);
+                if (run != null) {
+                    runs[index] = run;
+                    notifyRunComplete(candidate, run);
+                    return;
+                }
+            }
+
+            Simulation simulation = createSimulation(config, candidate, seed);
+            Path directory = trajectoryDirectory;
+            if (directory != null) {
+                simulation.setTrajectoryFile(directory.resolve(trajectoryName));
+            }
+
+            // Register before checking the flag so that cancel() either sees this simulation or
+            // this task sees the flag
+            runningSimulations.add(simulation);
+            try {
+                if (cancelled) {
+                    return;
+                }
+
+                // The wall clock can jump, so time the run with the monotonic clock
+                long startTime = System.nanoTime();
+                simulation.run();
+                long wallTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+
+                // A stopped run only has a partial fitness so it doesn't count
+                if (simulation.isStopRequested()) {
+                    return;
+                }
+
+                CandidateFitness.Run run = new CandidateFitness.Run(seed,
+                        simulation.getFitness(), simulation.getStepNumber(), wallTime,
+                        simulation.isAborted());
+                runs[index] = run;
+
+                // An aborted run only has a partial fitness so it can't be reused
+                if (cacheKey != null && !run.isAborted()) {
+                    cache.put(cacheKey, run);
+                }
+
+                StepMetrics runMetrics = simulation.getMetrics();
+                if (runMetrics != null) {
+                    synchronized (metrics) {
+                        metrics.add(runMetrics);
+                    }
+                }
+
+                notifyRunComplete(candidate, run);
+            } finally {
+                runningSimulations.remove(simulation);
+            }
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package za.redbridge.simulator.experiment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The result of evaluating candidates with a cheap screening tier of the simulation and then
+ * evaluating only the best of them at full fidelity. A random sample of the other candidates may
+ * also be audited at full fidelity. Also measures how well the screening tier ranks the candidates
+ * compared to the full evaluation, to show whether screening is safe.
+ */
+public class TieredEvaluation {
+
+    private final List<CandidateFitness> screenFitnesses;
+    private final List<CandidateFitness> fullFitnesses;
+    private final boolean[] audited;
+
+    /**
+     * @param screenFitnesses the screening fitness of every candidate
+     * @param fullFitnesses the full fitness of every candidate, null for candidates that weren't
+     *                      promoted
+     */
+    public TieredEvaluation(List<CandidateFitness> screenFitnesses,
+            List<CandidateFitness> fullFitnesses) {
+        this(screenFitnesses, fullFitnesses, Collections.emptyList());
+    }
+
+    /**
+     * @param screenFitnesses the screening fitness of every candidate
+     * @param fullFitnesses the full fitness of every candidate, null for candidates that were
+     *                      neither promoted nor audited
+     * @param auditedIndices the indices of the candidates that were evaluated fully only to audit
+     *                       the screening, not because they were promoted
+     */
+    public TieredEvaluation(List<CandidateFitness> screenFitnesses,
+            List<CandidateFitness> fullFitnesses, Collection<Integer> auditedIndices) {
+        if (screenFitnesses.size() != fullFitnesses.size()) {
+            throw new IllegalArgumentException("Need a full fitness entry for every candidate");
+        }
+
+        this.screenFitnesses = new ArrayList<>(screenFitnesses);
+        this.fullFitnesses = new ArrayList<>(fullFitnesses);
+
+        audited = new boolean[screenFitnesses.size()];
+        for (int index : auditedIndices) {
+            if (fullFitnesses.get(index) == null) {
+                throw new IllegalArgumentException("Audited candidate " + index
+                        + " has no full fitness");
+            }
+            audited[index] = true;
+        }
+    }
+
+    /** The number of candidates. */
+    public int size() {
+        return screenFitnesses.size();
+    }
+
+    public CandidateFitness getScreenFitness(int index) {
+        return screenFitnesses.get(index);
+    }
+
+    /** Get the full fitness of a candidate, or null if it was neither promoted nor audited. */
+    public CandidateFitness getFullFitness(int index) {
+        return fullFitnesses.get(index);
+    }
+
+    public boolean isPromoted(int index) {
+        return fullFitnesses.get(index) != null && !audited[index];
+    }
+
+    /** Whether a candidate that wasn't promoted was evaluated fully to audit the screening. */
+    public boolean isAudited(int index) {
+        return audited[index];
+    }
+
+    public int getNumberOfPromoted() {
+        int promoted = 0;
+        for (int i = 0; i < size(); i++) {
+            if (isPromoted(i)) {
+                promoted++;
+            }
+        }
+        return promoted;
+    }
+
+    public int getNumberOfAudited() {
+        int numAudited = 0;
+        for (boolean candidateAudited : audited) {
+            if (candidateAudited) {
+                numAudited++;
+            }
+        }
+        return numAudited;
+    }
+
+    /**
+     * Get the fitness to select each candidate by: the full fitness of promoted candidates and
+     * the screening fitness of the rest, audited or not. Fitnesses from different tiers are not
+     * comparable, so promoted candidates should be ranked above the others.
+     */
+    public List<CandidateFitness> getFitnesses() {
+        List<CandidateFitness> fitnesses = new ArrayList<>(size());
+        for (int i = 0; i < size(); i++) {
+            fitnesses.add(isPromoted(i) ? fullFitnesses.get(i) : screenFitnesses.get(i));
+        }
+        return Collections.unmodifiableList(fitnesses);
+    }
+
+    /**
+     * Get Spearman's rank correlation between the screening and full mean team fitnesses of the
+     * candidates that were evaluated fully, promoted or audited. 1 means the tiers rank them the
+     * same, 0 means the screening ranks are no better than random. Without an audit only the
+     * promoted candidates can be compared, and since they're all fairly good the agreement is
+     * biased and usually looks worse than it is over all the candidates. Audited candidates
+     * spread the comparison over the whole population, though the best candidates are still
+     * over-represented. Check {@link #getRankAgreementPairs()} before trusting the value.
+     * @return the correlation, or NaN if fewer than two candidates were evaluated fully or either
+     *         tier gave them all the same fitness
+     */
+    public double getRankAgreement() {
+        int n = getRankAgreementPairs();
+        if (n < 2) {
+            return Double.NaN;
+        }
+
+        double[] screen = new double[n];
+        double[] full = new double[n];
+        for (int i = 0, j = 0; i < size(); i++) {
+            CandidateFitness fitness = fullFitnesses.get(i);
+            if (fitness != null) {
+                screen[j] = screenFitnesses.get(i).getMeanTeamFitness();
+                full[j] = fitness.getMeanTeamFitness();
+                j++;
+            }
+        }
+
+        return pearsonCorrelation(ranks(screen), ranks(full));
+    }
+
+    /**
+     * Get the number of candidates {@link #getRankAgreement()} compares, each with a screening and
+     * a full fitness.
+     */
+    public int getRankAgreementPairs() {
+        int pairs = 0;
+        for (CandidateFitness fitness : fullFitnesses) {
+            if (fitness != null) {
+                pairs++;
+            }
+        }
+        return pairs;
+    }
+
+    // Rank values from 1, giving tied values the mean of their ranks
+    private static double[] ranks(double[] values) {
+        final int n = values.length;
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingDouble(i -> values[i]));
+
+        double[] ranks = new double[n];
+        for (int i = 0; i < n; ) {
+            int j = i + 1;
+            while (j < n && values[order[j]] == values[order[i]]) {
+                j++;
+            }
+
+            double rank = (i + j + 1) / 2.0;
+            for (int k = i; k < j; k++) {
+                ranks[order[k]] = rank;
+            }
+            i = j;
+        }
+        return ranks;
+    }
+
+    private static double pearsonCorrelation(double[] x, double[] y) {
+        final int n = x.length;
+        double meanX = 0.0, meanY = 0.0;
+        for (int i = 0; i < n; i++) {
+            meanX += x[i];
+            meanY += y[i];
+        }
+        meanX /= n;
+        meanY /= n;
+
+        double covariance = 0.0, varianceX = 0.0, varianceY = 0.0;
+        for (int i = 0; i < n; i++) {
+            double dx = x[i] - meanX;
+            double dy = y[i] - meanY;
+            covariance += dx * dy;
+            varianceX += dx * dx;
+            varianceY += dy * dy;
+        }
+
+        if (varianceX == 0.0 || varianceY == 0.0) {
+            return Double.NaN;
+        }
+        return covariance / Math.sqrt(varianceX * varianceY);
+    }
+}
@@ -133,6 +133,11 @@ public class ConfigurableResourceFactory extends Config implements ResourceFacto
                 largeResourceSpec.getTotalValue();
     }
 
+    @Override
+    public String getCacheKey() {
+        return smallResourceSpec + ";" + mediumResourceSpec + ";" + largeResourceSpec;
+    }
+
     private static class ResourceSpec {
         private final int quantity;
         private final float width;
@@ -154,5 +159,11 @@ public class ConfigurableResourceFactory extends Config implements ResourceFacto
         double getTotalValue() {
             return quantity * value;
         }
+
+        @Override
+        public String toString() {
+            return quantity + "," + width + "," + height + "," + mass + "," + pushingBots + ","
+                    + value;
+        }
     }
 }
@@ -31,4 +31,13 @@ public interface ResourceFactory {
      * @return the total value of all the resources placed by this factory
      */
     public double getTotalResourceValue();
+
+    /**
+     * Get a key that identifies the resources this factory places, so that the results of
+     * simulations can be reused for factories with the same key.
+     * @return the key, or null if the results of simulations with this factory shouldn't be reused
+     */
+    default String getCacheKey() {
+        return null;
+    }
 }
@@ -15,7 +15,6 @@ import za.redbridge.simulator.physics.FilterConstants;
 import za.redbridge.simulator.portrayal.CirclePortrayal;
 import za.redbridge.simulator.portrayal.Portrayal;
 import za.redbridge.simulator.sensor.AgentSensor;
-import za.redbridge.simulator.sensor.sensedobjects.PolygonSensedObject;
 import za.redbridge.simulator.sensor.sensedobjects.SensedObject;
 
 
@@ -128,7 +127,7 @@ public class BottomProximitySensor extends ProximitySensor {
                 w = h = FIELD_RADIUS * 2;
             }
 
-            return new PolygonSensedObject(targetArea, 0f, x, y, w, h);
+            return obtainPolygonSensedObject(targetArea, 0f, x, y, w, h);
         }
 
         final float distance, x, y, w, h;
@@ -161,7 +160,14 @@ public class BottomProximitySensor extends ProximitySensor {
             return null;
         }
 
-        return new PolygonSensedObject(targetArea, distance, x, y, w, h);
+        return obtainPolygonSensedObject(targetArea, distance, x, y, w, h);
+    }
+
+    @Override
+    protected float getDistanceLowerBound(Fixture fixture, Transform objectRelativeTransform) {
+        // Distances are measured along one axis to the target area's AABB, so could be closer
+        // than the target area's bounding circle
+        return 0f;
     }
 
     @Override
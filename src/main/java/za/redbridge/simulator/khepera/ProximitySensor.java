@@ -29,11 +29,18 @@ public class ProximitySensor extends AgentSensor {
     }
 
     @Override
-    protected void provideObjectReading(List<SensedObject> sensedObjects, List<Double> output) {
+    protected int getMaxSensedObjects() {
+        // Only the closest object is read
+        return 1;
+    }
+
+    @Override
+    protected void provideObjectReading(List<SensedObject> sensedObjects, double[] output,
+            int offset) {
         if (!sensedObjects.isEmpty()) {
-            output.add(readingCurve(sensedObjects.get(0).getDistance()));
+            output[offset] = readingCurve(sensedObjects.get(0).getDistance());
         } else {
-            output.add(0.0);
+            output[offset] = 0.0;
         }
     }
 
@@ -28,20 +28,27 @@ public class UltrasonicSensor extends AgentSensor {
     }
 
     @Override
-    protected void provideObjectReading(List<SensedObject> sensedObjects, List<Double> output) {
+    protected int getMaxSensedObjects() {
+        // Only the closest object is read
+        return 1;
+    }
+
+    @Override
+    protected void provideObjectReading(List<SensedObject> sensedObjects, double[] output,
+            int offset) {
         if (!sensedObjects.isEmpty()) {
             SensedObject closestObject = sensedObjects.get(0);
             float closestDistance = closestObject.getDistance();
             if (closestDistance > ULTRASONIC_SENSOR_MIN_RANGE) {
                 float range = ULTRASONIC_SENSOR_MAX_RANGE - ULTRASONIC_SENSOR_MIN_RANGE;
                 float distance = closestDistance - ULTRASONIC_SENSOR_MIN_RANGE;
-                output.add(1.0 - distance / range);
+                output[offset] = 1.0 - distance / range;
             } else {
                 // Objects closer than the minimum range just return 1.0
-                output.add(1.0);
+                output[offset] = 1.0;
             }
         } else {
-            output.add(0.0);
+            output[offset] = 0.0;
         }
     }
 
@@ -0,0 +1,61 @@
+package za.redbridge.simulator.object;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import za.redbridge.simulator.physics.FilterConstants;
+
+/**
+ * Maps each type of {@link PhysicalObject} to the filter category bits its fixtures have, so that
+ * sensors configured with class names can be given mask bits that only let through the objects
+ * they're interested in. Subclasses of a registered type have the same category bits unless they
+ * are registered themselves.
+ */
+public final class ObjectCategories {
+
+    private static final Map<Class<?>, Integer> categoryBits = new ConcurrentHashMap<>();
+
+    static {
+        register(ResourceObject.class, FilterConstants.CategoryBits.RESOURCE);
+        register(RobotObject.class, FilterConstants.CategoryBits.ROBOT);
+        register(WallObject.class, FilterConstants.CategoryBits.WALL);
+        register(TargetAreaObject.class, FilterConstants.CategoryBits.TARGET_AREA);
+    }
+
+    private ObjectCategories() {
+    }
+
+    /**
+     * Register the category bits of a type of object.
+     * @param type the type of object
+     * @param bits the category bits the type's fixtures are created with
+     */
+    public static void register(Class<? extends PhysicalObject> type, int bits) {
+        categoryBits.put(type, bits);
+    }
+
+    /**
+     * Get the category bits of a type of object.
+     * @param type the type of object
+     * @return the category bits, or 0 if neither the type nor any of its superclasses is registered
+     */
+    public static int getCategoryBits(Class<?> type) {
+        for (Class<?> t = type; t != null; t = t.getSuperclass()) {
+            Integer bits = categoryBits.get(t);
+            if (bits != null) {
+                return bits;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Get the category bits of a type of object by its class name.
+     * @param className the fully qualified class name
+     * @return the category bits, or 0 if the type is not registered
+     * @throws ClassNotFoundException if there is no class with the given name
+     */
+    public static int getCategoryBits(String className) throws ClassNotFoundException {
+        return getCategoryBits(Class.forName(className));
+    }
+}
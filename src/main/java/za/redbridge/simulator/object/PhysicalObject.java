@@ -1,50 +1,163 @@
 package za.redbridge.simulator.object;
 
+import org.jbox2d.common.Vec2;
 import org.jbox2d.dynamics.Body;
 import org.jbox2d.dynamics.BodyType;
 
+import java.awt.Color;
+import java.awt.Paint;
+import java.io.IOException;
+
 import sim.engine.SimState;
 import sim.engine.Steppable;
+import za.redbridge.simulator.CheckpointInput;
+import za.redbridge.simulator.CheckpointOutput;
 import za.redbridge.simulator.portrayal.Portrayal;
 
 /**
  * Created by jamie on 2014/07/25.
  */
-public class PhysicalObject implements Steppable {
+public abstract class PhysicalObject implements Steppable {
 
-    private final Portrayal portrayal;
     private final Body body;
 
-    public PhysicalObject(Portrayal portrayal, Body body) {
-        if (portrayal == null || body == null) {
-            throw new NullPointerException("Portrayal and body must not be null");
+    // Only created once something asks to draw this object
+    private Portrayal portrayal;
+    private Paint paint;
+
+    public PhysicalObject(Body body) {
+        if (body == null) {
+            throw new NullPointerException("Body must not be null");
         }
 
-        this.portrayal = portrayal;
         this.body = body;
 
         // Make this body trackable
         this.body.setUserData(this);
-
-        // Make sure we're drawn in the right place
-        this.portrayal.setTransform(this.body.getTransform());
     }
 
+    /**
+     * Create the portrayal for this object. Only called the first time {@link #getPortrayal()} is
+     * called, so objects in a simulation that is never displayed never have a portrayal.
+     */
+    protected abstract Portrayal createPortrayal();
+
     @Override
     public void step(SimState simState) {
-        // Nothing to update if we're static or sleeping
-        if (body.getType() == BodyType.STATIC || !body.isAwake()) {
+        if (!isPortrayalOutOfDate()) {
             return;
         }
 
         portrayal.setTransform(body.getTransform());
     }
 
+    /**
+     * Whether {@link #step(SimState)} has anything to do. Objects that return false may not be
+     * stepped at all. Subclasses that override step() must override this too.
+     */
+    public boolean isStepNeeded() {
+        return isPortrayalOutOfDate();
+    }
+
+    private boolean isPortrayalOutOfDate() {
+        // Nothing to update if we're not drawn, static or sleeping
+        return portrayal != null && body.getType() != BodyType.STATIC && body.isAwake();
+    }
+
+    /**
+     * Move this object's body to a new position and angle and bring it to rest. All the body's
+     * contacts are destroyed, so its fixtures will be paired again from scratch on the next step.
+     * @param position the new position
+     * @param angle the new angle
+     */
+    protected void resetBody(Vec2 position, float angle) {
+        // Deactivating the body destroys its broadphase proxies and contacts (ending them first)
+        body.setActive(false);
+        body.setTransform(position, angle);
+        body.setLinearVelocity(new Vec2());
+        body.setAngularVelocity(0f);
+        body.setAwake(true);
+        body.setActive(true);
+
+        if (portrayal != null) {
+            portrayal.setTransform(body.getTransform());
+        }
+    }
+
+    /**
+     * Move this object without simulating it, e.g. to replay a recorded run. The body keeps its
+     * velocity and its contacts are updated on the next physics step, if there is one.
+     * @param position the new position
+     * @param angle the new angle
+     */
+    public void setTransform(Vec2 position, float angle) {
+        body.setTransform(position, angle);
+
+        if (portrayal != null) {
+            portrayal.setTransform(body.getTransform());
+        }
+    }
+
+    /**
+     * Write the state this object has built up during a run, for a
+     * {@link za.redbridge.simulator.SimulationCheckpoint}. The body is written with the rest of
+     * the world. Subclasses that keep state between steps must override this and
+     * {@link #readState(CheckpointInput)}.
+     */
+    public void writeState(CheckpointOutput out) throws IOException {
+        // Only colours are ever used
+        out.writeBoolean(paint instanceof Color);
+        if (paint instanceof Color) {
+            out.writeInt(((Color) paint).getRGB());
+        }
+    }
+
+    /**
+     * Read back the state written by {@link #writeState(CheckpointOutput)}. The object is one that
+     * has just been created for a new run, and the world has already been restored.
+     */
+    public void readState(CheckpointInput in) throws IOException {
+        if (in.readBoolean()) {
+            setPaint(new Color(in.readInt(), true));
+        }
+    }
+
     public Body getBody() {
         return body;
     }
 
+    /** Get the portrayal for this object, creating it if this is the first time it is needed. */
     public Portrayal getPortrayal() {
+        if (portrayal == null) {
+            portrayal = createPortrayal();
+            if (paint != null) {
+                portrayal.setPaint(paint);
+            }
+
+            // Make sure we're drawn in the right place
+            portrayal.setTransform(body.getTransform());
+        }
         return portrayal;
     }
+
+    /** Whether the portrayal for this object has been created. */
+    public boolean hasPortrayal() {
+        return portrayal != null;
+    }
+
+    /** Get the paint for this object's portrayal, or null if it hasn't been set. */
+    public Paint getPaint() {
+        return paint;
+    }
+
+    /**
+     * Set the paint for this object's portrayal. If the portrayal hasn't been created yet the paint
+     * is applied when it is.
+     */
+    public void setPaint(Paint paint) {
+        this.paint = paint;
+        if (portrayal != null) {
+            portrayal.setPaint(paint);
+        }
+    }
 }
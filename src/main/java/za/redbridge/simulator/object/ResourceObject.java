@@ -10,12 +10,16 @@ import org.jbox2d.dynamics.joints.WeldJointDef;
 
 import java.awt.Color;
 import java.awt.Paint;
-import java.util.HashMap;
+import java.io.IOException;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 
 import sim.engine.SimState;
+import za.redbridge.simulator.CheckpointInput;
+import za.redbridge.simulator.CheckpointOutput;
 import za.redbridge.simulator.Simulation;
+import za.redbridge.simulator.StepMetrics;
 import za.redbridge.simulator.physics.BodyBuilder;
 import za.redbridge.simulator.physics.FilterConstants;
 import za.redbridge.simulator.portrayal.PolygonPortrayal;
@@ -59,8 +63,7 @@ public class ResourceObject extends PhysicalObject {
 
     public ResourceObject(World world, Vec2 position, float angle, float width, float height,
             float mass, int pushingRobots, double value) {
-        super(createPortrayal(width, height),
-                createBody(world, position, angle, width, height, mass));
+        super(createBody(world, position, angle, width, height, mass));
         this.width = width;
         this.height = height;
         this.pushingRobots = pushingRobots;
@@ -74,12 +77,18 @@ public class ResourceObject extends PhysicalObject {
         bottomAnchorPoints = new AnchorPoint[pushingRobots];
         initAnchorPoints();
 
-        joints = new HashMap<>(pushingRobots);
-        pendingJoints = new HashMap<>(pushingRobots);
+        // Ordered maps so that joints are always created and destroyed in the same order
+        joints = new LinkedHashMap<>(pushingRobots);
+        pendingJoints = new LinkedHashMap<>(pushingRobots);
+    }
 
+    @Override
+    protected Portrayal createPortrayal() {
+        Portrayal portrayal = createPortrayal(width, height);
         if (DEBUG) {
-            getPortrayal().setChildDrawable(new DebugPortrayal(Color.BLACK, true));
+            portrayal.setChildDrawable(new DebugPortrayal(Color.BLACK, true));
         }
+        return portrayal;
     }
 
     protected static Portrayal createPortrayal(double width, double height) {
@@ -143,32 +152,163 @@ public class ResourceObject extends PhysicalObject {
         }
     }
 
+    /**
+     * Reset this resource so that it can be reused for a new simulation run. Breaks any joints to
+     * robots.
+     * @param position the resource's new position
+     * @param angle the resource's new angle
+     */
+    public void reset(Vec2 position, float angle) {
+        for (Joint joint : joints.values()) {
+            getBody().getWorld().destroyJoint(joint);
+        }
+        joints.clear();
+        pendingJoints.clear();
+
+        for (Side side : Side.values()) {
+            for (AnchorPoint anchorPoint : getAnchorPointsForSide(side)) {
+                anchorPoint.taken = false;
+                anchorPoint.worldPosition = null;
+            }
+        }
+        stickySide = null;
+
+        isCollected = false;
+        adjustedValue = value;
+        setPaint(DEFAULT_COLOUR);
+
+        resetBody(position, angle);
+    }
+
+    @Override
+    public void writeState(CheckpointOutput out) throws IOException {
+        super.writeState(out);
+        out.writeByte(stickySide != null ? stickySide.ordinal() : -1);
+        out.writeDouble(adjustedValue);
+        out.writeBoolean(isCollected);
+
+        for (Side side : Side.values()) {
+            for (AnchorPoint anchorPoint : getAnchorPointsForSide(side)) {
+                out.writeBoolean(anchorPoint.taken);
+                out.writeBoolean(anchorPoint.worldPosition != null);
+                if (anchorPoint.worldPosition != null) {
+                    out.writeVec2(anchorPoint.worldPosition);
+                }
+            }
+        }
+
+        out.writeInt(joints.size());
+        for (Map.Entry<RobotObject, Joint> entry : joints.entrySet()) {
+            out.writeObject(entry.getKey());
+            out.writeJoint(entry.getValue());
+        }
+
+        // Pending joints are always weld joints between this resource and the robot
+        out.writeInt(pendingJoints.size());
+        for (Map.Entry<RobotObject, JointDef> entry : pendingJoints.entrySet()) {
+            WeldJointDef wjd = (WeldJointDef) entry.getValue();
+            out.writeObject(entry.getKey());
+            out.writeFloat(wjd.referenceAngle);
+            out.writeVec2(wjd.localAnchorA);
+            out.writeVec2(wjd.localAnchorB);
+            out.writeBoolean(wjd.collideConnected);
+        }
+    }
+
+    @Override
+    public void readState(CheckpointInput in) throws IOException {
+        super.readState(in);
+        int stickySide = in.readByte();
+        this.stickySide = stickySide >= 0 ? Side.values()[stickySide] : null;
+        adjustedValue = in.readDouble();
+        isCollected = in.readBoolean();
+
+        for (Side side : Side.values()) {
+            for (AnchorPoint anchorPoint : getAnchorPointsForSide(side)) {
+                anchorPoint.taken = in.readBoolean();
+                anchorPoint.worldPosition = in.readBoolean() ? in.readVec2() : null;
+            }
+        }
+
+        joints.clear();
+        int numJoints = in.readInt();
+        for (int i = 0; i < numJoints; i++) {
+            RobotObject robot = in.readObject(RobotObject.class);
+            joints.put(robot, in.readJoint());
+        }
+
+        pendingJoints.clear();
+        int numPendingJoints = in.readInt();
+        for (int i = 0; i < numPendingJoints; i++) {
+            RobotObject robot = in.readObject(RobotObject.class);
+            WeldJointDef wjd = new WeldJointDef();
+            wjd.bodyA = getBody();
+            wjd.bodyB = robot.getBody();
+            wjd.referenceAngle = in.readFloat();
+            wjd.localAnchorA.set(in.readVec2());
+            wjd.localAnchorB.set(in.readVec2());
+            wjd.collideConnected = in.readBoolean();
+            pendingJoints.put(robot, wjd);
+        }
+    }
+
     public void adjustValue(SimState simState) {
         Simulation simulation = (Simulation) simState;
-        this.adjustedValue = value - 0.9 * simulation.getProgressFraction() * value;
+        this.adjustedValue = getAdjustedValue(value, simulation.getProgressFraction());
+    }
+
+    /**
+     * Get the value of a resource collected at some point in a simulation. The later it is
+     * collected, the less it is worth.
+     * @param value the unadjusted value of the resource
+     * @param progressFraction how far through the simulation it is collected
+     */
+    public static double getAdjustedValue(double value, double progressFraction) {
+        return value - 0.9 * progressFraction * value;
+    }
+
+    @Override
+    public boolean isStepNeeded() {
+        return super.isStepNeeded() || !pendingJoints.isEmpty()
+                || (isCollected && !joints.isEmpty());
     }
 
     @Override
     public void step(SimState simState) {
         super.step(simState);
 
+        // Most steps have no joints to create or destroy so only time the steps that do
+        final StepMetrics metrics = ((Simulation) simState).getMetrics();
+
         if (!pendingJoints.isEmpty()) {
+            long startTime = metrics != null ? System.nanoTime() : 0L;
+
             // Create all the pending joints and then clear them
             for (Map.Entry<RobotObject, JointDef> entry : pendingJoints.entrySet()) {
                 Joint joint = getBody().getWorld().createJoint(entry.getValue());
                 joints.put(entry.getKey(), joint);
             }
             pendingJoints.clear();
+
+            if (metrics != null) {
+                metrics.addTime(StepMetrics.Phase.JOINTS, startTime);
+            }
         }
 
         // Add an additional check here in case joints fail to be destroyed
         if (isCollected && !joints.isEmpty()) {
+            long startTime = metrics != null ? System.nanoTime() : 0L;
+
             for (Map.Entry<RobotObject, Joint> entry : joints.entrySet()) {
                 RobotObject robot = entry.getKey();
                 robot.setBoundToResource(false);
                 getBody().getWorld().destroyJoint(entry.getValue());
             }
             joints.clear();
+
+            if (metrics != null) {
+                metrics.addTime(StepMetrics.Phase.JOINTS, startTime);
+            }
         }
     }
 
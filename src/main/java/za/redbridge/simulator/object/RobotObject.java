@@ -9,23 +9,32 @@ import org.jbox2d.dynamics.World;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.Paint;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import ec.util.MersenneTwisterFast;
 import sim.engine.SimState;
 import sim.portrayal.DrawInfo2D;
 import sim.util.Double2D;
+import za.redbridge.simulator.CheckpointInput;
+import za.redbridge.simulator.CheckpointOutput;
+import za.redbridge.simulator.Simulation;
+import za.redbridge.simulator.StepMetrics;
 import za.redbridge.simulator.config.SimConfig;
 import za.redbridge.simulator.phenotype.HeuristicPhenotype;
 import za.redbridge.simulator.phenotype.Phenotype;
+import za.redbridge.simulator.phenotype.StochasticPhenotype;
 import za.redbridge.simulator.physics.BodyBuilder;
 import za.redbridge.simulator.physics.FilterConstants;
+import za.redbridge.simulator.physics.SensorIndex;
 import za.redbridge.simulator.portrayal.CirclePortrayal;
 import za.redbridge.simulator.portrayal.Drawable;
 import za.redbridge.simulator.portrayal.PolygonPortrayal;
 import za.redbridge.simulator.portrayal.Portrayal;
 import za.redbridge.simulator.sensor.AgentSensor;
+import za.redbridge.simulator.sensor.NearbyFixtures;
 
 /**
  * Object that represents a finished agent in the environment, including controller and all physical attributes.
@@ -52,33 +61,53 @@ public class RobotObject extends PhysicalObject {
     private final Phenotype phenotype;
     private final HeuristicPhenotype heuristicPhenotype;
 
+    // Reused every step: the readings of all the sensors back to back, and the wheel drives
+    private final double[] sensorReadings;
+    private final double[] wheelDrives = new double[2];
+
     private final Vec2 leftWheelPosition;
     private final Vec2 rightWheelPosition;
 
     // Cached Vec2's for calculating wheel force and position of force
     private final Vec2 wheelForce = new Vec2();
     private final Vec2 wheelForcePosition = new Vec2();
+    private final Vec2 lateralImpulse = new Vec2();
+
+    // The fixtures near the robot that its sensors might sense, shared by all the sensors
+    private final NearbyFixtures nearbyFixtures;
 
     private boolean isBoundToResource = false;
 
+    private MersenneTwisterFast random;
+
+    private final float radius;
     private final Color defaultColor;
+    private Color color;
 
     private ArrayList<SpatialPoint> samplePoints;
     private ArrayList<Double> samplePolygonAreas;
 
-    private final Portrayal directionPortrayal = new DirectionPortrayal();
+    private Portrayal directionPortrayal;
 
     public RobotObject(World world, Vec2 position, float angle, double radius, double mass,
             Color color, Phenotype phenotype, SimConfig.Direction targetAreaPlacement) {
-        super(createPortrayal(radius, color), createBody(world, position, angle, radius, mass));
+        super(createBody(world, position, angle, radius, mass));
 
+        nearbyFixtures = new NearbyFixtures(getBody());
         this.phenotype = phenotype;
+        this.radius = (float) radius;
         this.defaultColor = color;
-        directionPortrayal.setPaint(invertColor(color));
+        this.color = color;
 
         heuristicPhenotype = new HeuristicPhenotype(phenotype, this, targetAreaPlacement);
         initSensors();
 
+        int readingSize = 0;
+        for (AgentSensor sensor : phenotype.getSensors()) {
+            readingSize += sensor.getReadingSize();
+        }
+        sensorReadings = new double[readingSize];
+
         float wheelDistance = (float) (radius * WHEEL_DISTANCE);
         leftWheelPosition = new Vec2(0f, wheelDistance);
         rightWheelPosition = new Vec2(0f, -wheelDistance);
@@ -91,8 +120,15 @@ public class RobotObject extends PhysicalObject {
         for (AgentSensor sensor : phenotype.getSensors()) {
             sensor.attach(this);
         }
+    }
 
-        getPortrayal().setChildDrawable(new Drawable() {
+    @Override
+    protected Portrayal createPortrayal() {
+        directionPortrayal = new DirectionPortrayal();
+        directionPortrayal.setPaint(invertColor(color));
+
+        Portrayal portrayal = createPortrayal(radius, color);
+        portrayal.setChildDrawable(new Drawable() {
             @Override
             public void draw(Object object, Graphics2D graphics, DrawInfo2D info) {
                 directionPortrayal.draw(object, graphics, info);
@@ -117,6 +153,7 @@ public class RobotObject extends PhysicalObject {
                 }
             }
         });
+        return portrayal;
     }
 
     protected static Portrayal createPortrayal(double radius, Paint paint) {
@@ -137,30 +174,95 @@ public class RobotObject extends PhysicalObject {
                 .build(world);
     }
 
+    /**
+     * Reset this robot so that it can be reused for a new simulation run.
+     * @param position the robot's new position
+     * @param angle the robot's new angle
+     */
+    public void reset(Vec2 position, float angle) {
+        resetBody(position, angle);
+
+        isBoundToResource = false;
+        samplePoints.clear();
+        samplePolygonAreas.clear();
+        setColor(null);
+
+        heuristicPhenotype.reset();
+    }
+
+    @Override
+    public void writeState(CheckpointOutput out) throws IOException {
+        super.writeState(out);
+        out.writeBoolean(isBoundToResource);
+        out.writeInt(color.getRGB());
+        out.writeDouble(wheelDrives[0]);
+        out.writeDouble(wheelDrives[1]);
+
+        // The sample points are all the body's position, only how many there are matters
+        out.writeInt(samplePoints.size());
+        out.writeInt(samplePolygonAreas.size());
+        for (double area : samplePolygonAreas) {
+            out.writeDouble(area);
+        }
+
+        heuristicPhenotype.writeState(out);
+    }
+
+    @Override
+    public void readState(CheckpointInput in) throws IOException {
+        super.readState(in);
+        isBoundToResource = in.readBoolean();
+        setColor(new Color(in.readInt(), true));
+        wheelDrives[0] = in.readDouble();
+        wheelDrives[1] = in.readDouble();
+
+        samplePoints.clear();
+        int numSamplePoints = in.readInt();
+        for (int i = 0; i < numSamplePoints; i++) {
+            samplePoints.add(new SpatialPoint(getBody().getPosition(), samplePoints));
+        }
+        samplePolygonAreas.clear();
+        int numSamplePolygonAreas = in.readInt();
+        for (int i = 0; i < numSamplePolygonAreas; i++) {
+            samplePolygonAreas.add(in.readDouble());
+        }
+
+        heuristicPhenotype.readState(in);
+    }
+
     public float getRadius() {
-        return (float) ((CirclePortrayal) getPortrayal()).getRadius();
+        return radius;
+    }
+
+    @Override
+    public boolean isStepNeeded() {
+        // Robots drive every step
+        return true;
     }
 
     @Override
     public void step(SimState sim) {
         super.step(sim);
 
-        List<AgentSensor> sensors = phenotype.getSensors();
-        List<List<Double>> readings = new ArrayList<>(sensors.size());
-        sensors.forEach(s -> readings.add(s.sense()));
+        final Simulation simulation = (Simulation) sim;
 
-        Double2D wheelDrives = heuristicPhenotype.step(readings);
+        // The controller only runs every few steps, the wheels are driven the same in between
+        if (simulation.isControllerStep()) {
+            senseAndControl(simulation.getMetrics());
+        }
 
-        if (Math.abs(wheelDrives.x) > 1.0 || Math.abs(wheelDrives.y) > 1.0) {
-            throw new RuntimeException("Invalid force applied: " + wheelDrives);
+        final double[] wheelDrives = this.wheelDrives;
+        if (Math.abs(wheelDrives[0]) > 1.0 || Math.abs(wheelDrives[1]) > 1.0) {
+            throw new RuntimeException("Invalid force applied: "
+                    + new Double2D(wheelDrives[0], wheelDrives[1]));
         }
 
-        applyWheelDrive((float) wheelDrives.x, leftWheelPosition);
-        applyWheelDrive((float) wheelDrives.y, rightWheelPosition);
+        applyWheelDrive((float) wheelDrives[0], leftWheelPosition);
+        applyWheelDrive((float) wheelDrives[1], rightWheelPosition);
 
         updateFriction();
 
-        if (sim.schedule.getSteps() % 50 == 0 && !heuristicPhenotype.getActiveHeuristic().equalsIgnoreCase("none")) {
+        if (simulation.getStepNumber() % 50 == 0 && !heuristicPhenotype.getActiveHeuristic().equalsIgnoreCase("none")) {
 
             SpatialPoint sample = new SpatialPoint(this.getBody().getPosition(), samplePoints);
             samplePoints.add(sample);
@@ -174,6 +276,34 @@ public class RobotObject extends PhysicalObject {
         }
     }
 
+    // Take the sensor readings and work out the wheel drives from them
+    private void senseAndControl(StepMetrics metrics) {
+        long time = metrics != null ? System.nanoTime() : 0L;
+
+        final List<AgentSensor> sensors = phenotype.getSensors();
+        final double[] sensorReadings = this.sensorReadings;
+        int offset = 0;
+        for (int i = 0, n = sensors.size(); i < n; i++) {
+            AgentSensor sensor = sensors.get(i);
+            sensor.sense(sensorReadings, offset);
+            offset += sensor.getReadingSize();
+            if (metrics != null) {
+                metrics.count(StepMetrics.Counter.SENSED_FIXTURES,
+                        sensor.getNumberOfSensedFixtures());
+            }
+        }
+
+        if (metrics != null) {
+            time = metrics.addTime(StepMetrics.Phase.SENSORS, time);
+        }
+
+        heuristicPhenotype.step(sensorReadings, wheelDrives);
+
+        if (metrics != null) {
+            metrics.addTime(StepMetrics.Phase.CONTROLLER, time);
+        }
+    }
+
     private void applyWheelDrive(float wheelDrive, Vec2 wheelPosition) {
         final Body body = getBody();
 
@@ -218,12 +348,15 @@ public class RobotObject extends PhysicalObject {
      * For the below 2 methods, see: http://www.iforce2d.net/src/iforce2d_TopdownCar.h
      */
     private Vec2 getLateralVelocity() {
-        Vec2 currentRightNormal = getBody().getWorldVector(new Vec2(1, 0));
+        Vec2 currentRightNormal = lateralImpulse;
+        currentRightNormal.set(1, 0);
+        getBody().getWorldVectorToOut(currentRightNormal, currentRightNormal);
         currentRightNormal.mulLocal(Vec2.dot(currentRightNormal, getBody().getLinearVelocity()));
         return currentRightNormal;
     }
 
     private void updateFriction() {
+        // Reuses the lateral velocity vector
         Vec2 impulse = getLateralVelocity()
                 .negateLocal()
                 .mulLocal(getBody().getMass());
@@ -239,6 +372,23 @@ public class RobotObject extends PhysicalObject {
                 * -getBody().getAngularVelocity());
      }
 
+    /**
+     * Set the index this robot's sensors find nearby fixtures with. Must be set before the sensors
+     * take a reading.
+     */
+    public void setSensorIndex(SensorIndex sensorIndex) {
+        nearbyFixtures.setSensorIndex(sensorIndex);
+    }
+
+    /**
+     * Get the fixtures near this robot, found using the sensor index. NOTE: the same object is
+     * returned every time and it is only brought up to date when
+     * {@link NearbyFixtures#update()} is called.
+     */
+    public NearbyFixtures getNearbyFixtures() {
+        return nearbyFixtures;
+    }
+
     public boolean isBoundToResource() {
         return isBoundToResource;
     }
@@ -259,13 +409,38 @@ public class RobotObject extends PhysicalObject {
         this.isBoundToResource = isBoundToResource;
     }
 
+    /** Get the random number generator of the simulation this robot is in. */
+    public MersenneTwisterFast getRandom() {
+        return random;
+    }
+
+    /**
+     * Set the random number generator this robot (and its phenotype, if it needs one) should use.
+     * @param random the simulation's random number generator
+     */
+    public void setRandom(MersenneTwisterFast random) {
+        this.random = random;
+
+        if (phenotype instanceof StochasticPhenotype) {
+            ((StochasticPhenotype) phenotype).setRandom(random);
+        }
+    }
+
     public void setColor(Color color) {
         if (color == null) {
             color = defaultColor;
         }
 
-        getPortrayal().setPaint(color);
-        directionPortrayal.setPaint(invertColor(color));
+        // Called every step so skip the work (and allocation) if nothing changed
+        if (color.equals(this.color)) {
+            return;
+        }
+
+        this.color = color;
+        setPaint(color);
+        if (directionPortrayal != null) {
+            directionPortrayal.setPaint(invertColor(color));
+        }
     }
 
     private static Color invertColor(Color color) {
@@ -11,14 +11,22 @@ import org.jbox2d.dynamics.contacts.Contact;
 
 import java.awt.Color;
 import java.awt.Paint;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import sim.engine.SimState;
+import za.redbridge.simulator.CheckpointInput;
+import za.redbridge.simulator.CheckpointOutput;
 import za.redbridge.simulator.FitnessStats;
 import za.redbridge.simulator.Simulation;
+import za.redbridge.simulator.StepMetrics;
+import za.redbridge.simulator.phenotype.Phenotype;
 import za.redbridge.simulator.physics.BodyBuilder;
 import za.redbridge.simulator.physics.Collideable;
 import za.redbridge.simulator.physics.FilterConstants;
@@ -43,8 +51,11 @@ public class TargetAreaObject extends PhysicalObject implements Collideable {
     private int width, height;
     private final AABB aabb;
 
+    private final double totalResourceValue;
+    private final int maxSteps;
+
     //total resource value in this target area
-    private final FitnessStats fitnessStats;
+    private FitnessStats fitnessStats;
 
     //hash set so that object values only get added to forage area once
     private final Set<ResourceObject> containedObjects = new HashSet<>();
@@ -53,15 +64,22 @@ public class TargetAreaObject extends PhysicalObject implements Collideable {
     //keeps track of what has been pushed into this place
     public TargetAreaObject(World world, Vec2 position, int width, int height,
             double totalResourceValue, int maxSteps) {
-        super(createPortrayal(width, height), createBody(world, position, width, height));
+        super(createBody(world, position, width, height));
 
         this.width = width;
         this.height = height;
+        this.totalResourceValue = totalResourceValue;
+        this.maxSteps = maxSteps;
         this.fitnessStats = new FitnessStats(totalResourceValue, maxSteps);
 
         aabb = getBody().getFixtureList().getAABB(0);
     }
 
+    @Override
+    protected Portrayal createPortrayal() {
+        return createPortrayal(width, height);
+    }
+
     protected static Portrayal createPortrayal(int width, int height) {
         Paint areaColour = new Color(31, 110, 11, 100);
         return new RectanglePortrayal(width, height, areaColour, true);
@@ -79,12 +97,22 @@ public class TargetAreaObject extends PhysicalObject implements Collideable {
                 .build(world);
     }
 
+    @Override
+    public boolean isStepNeeded() {
+        // Only resources touching the target area need to be checked
+        return super.isStepNeeded() || !watchedFixtures.isEmpty();
+    }
+
     @Override
     public void step(SimState simState) {
         super.step(simState);
 
+        final StepMetrics metrics = ((Simulation) simState).getMetrics();
+        long startTime = metrics != null ? System.nanoTime() : 0L;
+
         // Check if any objects have passed into the target area completely or have left
-        for (Fixture fixture : watchedFixtures) {
+        for (int i = 0; i < watchedFixtures.size(); i++) {
+            Fixture fixture = watchedFixtures.get(i);
             ResourceObject resource = (ResourceObject) fixture.getBody().getUserData();
             if (aabb.contains(fixture.getAABB(0))) {
                 // Object moved completely into the target area
@@ -97,6 +125,75 @@ public class TargetAreaObject extends PhysicalObject implements Collideable {
                 removeResource(resource);
             }
         }
+
+        if (metrics != null) {
+            metrics.addTime(StepMetrics.Phase.TARGET_AREA, startTime);
+        }
+    }
+
+    /**
+     * Reset this target area for a new simulation run. A new {@link FitnessStats} object is
+     * created so that the stats from the previous run are left as they were.
+     */
+    public void reset() {
+        fitnessStats = new FitnessStats(totalResourceValue, maxSteps);
+        containedObjects.clear();
+        watchedFixtures.clear();
+    }
+
+    @Override
+    public void writeState(CheckpointOutput out) throws IOException {
+        super.writeState(out);
+        out.writeDouble(fitnessStats.getCollectedValue());
+        out.writeDouble(fitnessStats.getAdjustedCollectedValue());
+        // Hashed by identity, so written in the simulation's order to always write them the same
+        List<Map.Entry<Phenotype, Double>> phenotypeFitnesses =
+                new ArrayList<>(fitnessStats.getPhenotypeFitnessMap().entrySet());
+        phenotypeFitnesses.sort(Comparator.comparingInt(entry -> out.getIndex(entry.getKey())));
+        out.writeInt(phenotypeFitnesses.size());
+        for (Map.Entry<Phenotype, Double> entry : phenotypeFitnesses) {
+            out.writePhenotype(entry.getKey());
+            out.writeDouble(entry.getValue());
+        }
+
+        List<ResourceObject> resources = new ArrayList<>(containedObjects);
+        resources.sort(Comparator.comparingInt(out::getIndex));
+        out.writeInt(resources.size());
+        for (ResourceObject resource : resources) {
+            out.writeObject(resource);
+        }
+
+        out.writeInt(watchedFixtures.size());
+        for (Fixture fixture : watchedFixtures) {
+            out.writeFixture(fixture);
+        }
+    }
+
+    @Override
+    public void readState(CheckpointInput in) throws IOException {
+        super.readState(in);
+        double collectedValue = in.readDouble();
+        double adjustedCollectedValue = in.readDouble();
+        Map<Phenotype, Double> phenotypeFitnesses = new HashMap<>();
+        int numPhenotypes = in.readInt();
+        for (int i = 0; i < numPhenotypes; i++) {
+            Phenotype phenotype = in.readPhenotype();
+            phenotypeFitnesses.put(phenotype, in.readDouble());
+        }
+        fitnessStats = new FitnessStats(totalResourceValue, maxSteps, collectedValue,
+                adjustedCollectedValue, phenotypeFitnesses);
+
+        containedObjects.clear();
+        int numContainedObjects = in.readInt();
+        for (int i = 0; i < numContainedObjects; i++) {
+            containedObjects.add(in.readObject(ResourceObject.class));
+        }
+
+        watchedFixtures.clear();
+        int numWatchedFixtures = in.readInt();
+        for (int i = 0; i < numWatchedFixtures; i++) {
+            watchedFixtures.add(in.readFixture());
+        }
     }
 
     private void addResource(ResourceObject resource) {
@@ -122,7 +219,7 @@ public class TargetAreaObject extends PhysicalObject implements Collideable {
 
             // Mark resource as collected (this breaks the joints)
             resource.setCollected(true);
-            resource.getPortrayal().setPaint(Color.CYAN);
+            resource.setPaint(Color.CYAN);
         }
     }
 
@@ -132,7 +229,7 @@ public class TargetAreaObject extends PhysicalObject implements Collideable {
 
             // Mark resource as no longer collected
             resource.setCollected(false);
-            resource.getPortrayal().setPaint(Color.MAGENTA);
+            resource.setPaint(Color.MAGENTA);
 
             Set<RobotObject> pushingBots = findRobotsNearResource(resource);
 
@@ -15,8 +15,18 @@ import za.redbridge.simulator.portrayal.Portrayal;
  */
 public class WallObject extends PhysicalObject {
 
+    private final Double2D v1;
+    private final Double2D v2;
+
     public WallObject(World world, Double2D pos, Double2D v1, Double2D v2) {
-        super(createPortrayal(v1, v2), createBody(world, pos, v1, v2));
+        super(createBody(world, pos, v1, v2));
+        this.v1 = v1;
+        this.v2 = v2;
+    }
+
+    @Override
+    protected Portrayal createPortrayal() {
+        return createPortrayal(v1, v2);
     }
 
     protected static Portrayal createPortrayal(Double2D v1, Double2D v2) {
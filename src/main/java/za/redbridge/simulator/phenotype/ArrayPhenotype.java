@@ -0,0 +1,49 @@
+package za.redbridge.simulator.phenotype;
+
+import java.util.List;
+
+import sim.util.Double2D;
+
+/**
+ * A phenotype that reads its sensor inputs from a flat array and writes its wheel drives to an
+ * array, so that no readings need to be boxed or collected into lists on each step.
+ *
+ * The inputs are laid out in the order of {@link #getSensors()}, with each sensor taking up
+ * {@link za.redbridge.simulator.sensor.AgentSensor#getReadingSize()} consecutive values.
+ */
+public interface ArrayPhenotype extends Phenotype {
+
+    /**
+     * Process the sensor inputs and provide actuator outputs
+     * @param inputs the readings of all the sensors, one after the other
+     * @param wheelDrives the array to write the left and right wheel drives to, in that order
+     */
+    void step(double[] inputs, double[] wheelDrives);
+
+    @Override
+    ArrayPhenotype clone();
+
+    /**
+     * Flattens the readings and steps through {@link #step(double[], double[])}. Prefer calling
+     * that method directly.
+     */
+    @Override
+    default Double2D step(List<List<Double>> list) {
+        int size = 0;
+        for (List<Double> readings : list) {
+            size += readings.size();
+        }
+
+        double[] inputs = new double[size];
+        int i = 0;
+        for (List<Double> readings : list) {
+            for (double reading : readings) {
+                inputs[i++] = reading;
+            }
+        }
+
+        double[] wheelDrives = new double[2];
+        step(inputs, wheelDrives);
+        return new Double2D(wheelDrives[0], wheelDrives[1]);
+    }
+}
@@ -1,61 +1,104 @@
 package za.redbridge.simulator.phenotype;
 
-import java.util.List;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Map;
 
-import sim.util.Double2D;
+import ec.util.MersenneTwisterFast;
 import za.redbridge.simulator.khepera.KheperaIIIPhenotype;
 import za.redbridge.simulator.khepera.UltrasonicSensor;
 import za.redbridge.simulator.physics.FilterConstants;
 import za.redbridge.simulator.sensor.AgentSensor;
 
-public class ChasingPhenotype extends KheperaIIIPhenotype {
+public class ChasingPhenotype extends KheperaIIIPhenotype
+        implements ArrayPhenotype, StochasticPhenotype {
     private static final int COOLDOWN = 10;
 
     private int cooldownCounter = 0;
-    private Double2D lastMove = null;
+    private double lastLeft = 0.0;
+    private double lastRight = 0.0;
 
-    private static final Configuration CONFIG = new Configuration();
-    static {
-        CONFIG.enableUltrasonicSensor0Degrees = true;
-        CONFIG.enableUltrasonicSensors40Degrees = true;
-    }
+    private MersenneTwisterFast random = new MersenneTwisterFast();
 
     public ChasingPhenotype() {
-        super(CONFIG);
+        super(createConfiguration());
+    }
+
+    private static Configuration createConfiguration() {
+        Configuration config = new Configuration();
+        config.enableUltrasonicSensor0Degrees = true;
+        config.enableUltrasonicSensors40Degrees = true;
+        return config;
+    }
+
+    @Override
+    public void reset() {
+        cooldownCounter = 0;
+        lastLeft = 0.0;
+        lastRight = 0.0;
     }
 
     @Override
-    public Double2D step(List<List<Double>> list) {
-        Double2D left = new Double2D(0.5,1.0);
-        Double2D forward = new Double2D(1.0,1.0);
-        Double2D right = new Double2D(1.0,0.5);
-        Double2D random = new Double2D((float)Math.random()*2f - 1f, (float)Math.random()*2f - 1f);
+    public void writeState(DataOutput out) throws IOException {
+        out.writeInt(cooldownCounter);
+        out.writeDouble(lastLeft);
+        out.writeDouble(lastRight);
+    }
+
+    @Override
+    public void readState(DataInput in) throws IOException {
+        cooldownCounter = in.readInt();
+        lastLeft = in.readDouble();
+        lastRight = in.readDouble();
+    }
+
+    @Override
+    public String getCacheKey() {
+        // No parameters, the behaviour is fixed for a seed
+        return "";
+    }
+
+    @Override
+    public void setRandom(MersenneTwisterFast random) {
+        this.random = random;
+    }
+
+    @Override
+    public void step(double[] inputs, double[] wheelDrives) {
+        // Draw the random move every step to keep the random number sequence the same
+        double randomLeft = random.nextFloat()*2f - 1f;
+        double randomRight = random.nextFloat()*2f - 1f;
 
         if(cooldownCounter > 0) {
             cooldownCounter--;
-            return lastMove;
+            wheelDrives[0] = lastLeft;
+            wheelDrives[1] = lastRight;
+            return;
         }else {
             cooldownCounter = COOLDOWN;
         }
 
-        double leftReading = list.get(0).get(0);
-        double forwardReading = list.get(1).get(0);
-        double rightReading = list.get(2).get(0);
+        double leftReading = inputs[0];
+        double forwardReading = inputs[1];
+        double rightReading = inputs[2];
         double max = Math.max(leftReading, Math.max(forwardReading, rightReading));
         if(max < 0.0001){
-            lastMove = random;
-            return random;
+            lastLeft = randomLeft;
+            lastRight = randomRight;
         }else if(leftReading == max) {
-            lastMove = left;
-            return left;
+            lastLeft = 0.5;
+            lastRight = 1.0;
         }else if(rightReading == max) {
-            lastMove = right;
-            return right;
+            lastLeft = 1.0;
+            lastRight = 0.5;
         }else {
-            lastMove = forward;
-            return forward;
+            lastLeft = 1.0;
+            lastRight = 1.0;
         }
+
+        wheelDrives[0] = lastLeft;
+        wheelDrives[1] = lastRight;
     }
 
     @Override
@@ -3,16 +3,20 @@ package za.redbridge.simulator.phenotype;
 import org.jbox2d.common.Transform;
 
 import java.awt.Graphics2D;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 
 import sim.portrayal.DrawInfo2D;
-import sim.util.Double2D;
 import za.redbridge.simulator.config.SimConfig;
 import za.redbridge.simulator.object.RobotObject;
 import za.redbridge.simulator.phenotype.heuristics.CollisionAvoidanceHeuristic;
+import za.redbridge.simulator.phenotype.heuristics.Heuristic;
 import za.redbridge.simulator.phenotype.heuristics.HeuristicSchedule;
 import za.redbridge.simulator.phenotype.heuristics.PickupHeuristic;
+import za.redbridge.simulator.phenotype.heuristics.PickupPositioningHeuristic;
 import za.redbridge.simulator.portrayal.Drawable;
 import za.redbridge.simulator.sensor.AgentSensor;
 import za.redbridge.simulator.sensor.CollisionSensor;
@@ -23,7 +27,7 @@ import za.redbridge.simulator.sensor.PickupSensor;
  * phenotype.
  * Created by shsu on 2014/08/27.
  */
-public class HeuristicPhenotype implements Phenotype, Drawable {
+public class HeuristicPhenotype implements ArrayPhenotype, Drawable {
 
     private static final boolean PICKUP_HEURISTIC_ENABLED = true;
     private static final boolean COLLISION_HEURISTIC_ENABLED = false;
@@ -35,6 +39,7 @@ public class HeuristicPhenotype implements Phenotype, Drawable {
     private static final float COLLISION_SENSOR_RADIUS = 0.55f;
 
     private final Phenotype controllerPhenotype;
+    private final ArrayPhenotype controller;
     private final RobotObject robot;
     private final SimConfig.Direction targetAreaPlacement;
     private final HeuristicSchedule schedule;
@@ -45,6 +50,7 @@ public class HeuristicPhenotype implements Phenotype, Drawable {
     public HeuristicPhenotype(Phenotype controllerPhenotype, RobotObject robot,
             SimConfig.Direction targetAreaPlacement) {
         this.controllerPhenotype = controllerPhenotype;
+        this.controller = ListPhenotypeAdapter.adapt(controllerPhenotype);
         this.robot = robot;
         this.targetAreaPlacement = targetAreaPlacement;
 
@@ -56,11 +62,19 @@ public class HeuristicPhenotype implements Phenotype, Drawable {
         if (COLLISION_HEURISTIC_ENABLED) {
             collisionSensor = new CollisionSensor(COLLISION_SENSOR_RADIUS);
             collisionSensor.attach(robot);
-            schedule.addHeuristic(new CollisionAvoidanceHeuristic(collisionSensor, robot));
         }
         if (PICKUP_HEURISTIC_ENABLED) {
             pickupSensor = new PickupSensor(PICKUP_SENSOR_WIDTH, PICKUP_SENSOR_HEIGHT);
             pickupSensor.attach(robot);
+        }
+        scheduleHeuristics();
+    }
+
+    private void scheduleHeuristics() {
+        if (COLLISION_HEURISTIC_ENABLED) {
+            schedule.addHeuristic(new CollisionAvoidanceHeuristic(collisionSensor, robot));
+        }
+        if (PICKUP_HEURISTIC_ENABLED) {
             schedule.addHeuristic(new PickupHeuristic(pickupSensor, robot, targetAreaPlacement));
         }
     }
@@ -70,6 +84,40 @@ public class HeuristicPhenotype implements Phenotype, Drawable {
         return new HeuristicPhenotype(controllerPhenotype.clone(), robot, targetAreaPlacement);
     }
 
+    @Override
+    public void reset() {
+        schedule.clear();
+        scheduleHeuristics();
+        controllerPhenotype.reset();
+    }
+
+    @Override
+    public void writeState(DataOutput out) throws IOException {
+        schedule.writeState(out);
+        controllerPhenotype.writeState(out);
+    }
+
+    @Override
+    public void readState(DataInput in) throws IOException {
+        schedule.readState(in, this::createHeuristic);
+        controllerPhenotype.readState(in);
+    }
+
+    // Create a new heuristic of one of the kinds that may be scheduled, or null if unknown
+    private Heuristic createHeuristic(String name) {
+        if (name.equals(CollisionAvoidanceHeuristic.class.getSimpleName())
+                && COLLISION_HEURISTIC_ENABLED) {
+            return new CollisionAvoidanceHeuristic(collisionSensor, robot);
+        } else if (name.equals(PickupHeuristic.class.getSimpleName())
+                && PICKUP_HEURISTIC_ENABLED) {
+            return new PickupHeuristic(pickupSensor, robot, targetAreaPlacement);
+        } else if (name.equals(PickupPositioningHeuristic.class.getSimpleName())
+                && PICKUP_HEURISTIC_ENABLED) {
+            return new PickupPositioningHeuristic(pickupSensor, robot);
+        }
+        return null;
+    }
+
     @Override
     public void configure(Map<String, Object> phenotypeConfigs) {
         // TODO: Make heuristic configurable from file
@@ -81,15 +129,11 @@ public class HeuristicPhenotype implements Phenotype, Drawable {
     }
 
     @Override
-    public Double2D step(List<List<Double>> list) {
-        Double2D wheelDrives = schedule.step(list);
-
-        if (wheelDrives == null) {
+    public void step(double[] inputs, double[] wheelDrives) {
+        if (!schedule.step(inputs, wheelDrives)) {
             robot.setColor(null);
-            wheelDrives = controllerPhenotype.step(list);
+            controller.step(inputs, wheelDrives);
         }
-
-        return wheelDrives;
     }
 
     @Override
@@ -0,0 +1,140 @@
+package za.redbridge.simulator.phenotype;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import sim.util.Double2D;
+import za.redbridge.simulator.sensor.AgentSensor;
+
+/**
+ * Adapts a phenotype that takes its readings as a list of lists to the {@link ArrayPhenotype}
+ * interface. The flat inputs are split back up per sensor using each sensor's reading size.
+ *
+ * The lists are read-only views of the inputs and are reused every step, so the adapted phenotype
+ * must not keep them between steps.
+ */
+public class ListPhenotypeAdapter implements ArrayPhenotype {
+
+    private final Phenotype phenotype;
+
+    private final List<SensorReadings> sensorReadings = new ArrayList<>();
+    private final List<List<Double>> readings = new ArrayList<>();
+    private final List<List<Double>> unmodifiableReadings =
+            Collections.unmodifiableList(readings);
+
+    public ListPhenotypeAdapter(Phenotype phenotype) {
+        if (phenotype instanceof ArrayPhenotype) {
+            throw new IllegalArgumentException("Phenotype does not need to be adapted");
+        }
+
+        this.phenotype = phenotype;
+    }
+
+    /**
+     * Get an {@link ArrayPhenotype} for the given phenotype, wrapping it in an adapter only if it
+     * doesn't implement the interface already.
+     */
+    public static ArrayPhenotype adapt(Phenotype phenotype) {
+        if (phenotype instanceof ArrayPhenotype) {
+            return (ArrayPhenotype) phenotype;
+        }
+        return new ListPhenotypeAdapter(phenotype);
+    }
+
+    public Phenotype getPhenotype() {
+        return phenotype;
+    }
+
+    @Override
+    public void step(double[] inputs, double[] wheelDrives) {
+        final List<AgentSensor> sensors = phenotype.getSensors();
+        final List<List<Double>> readings = this.readings;
+        readings.clear();
+
+        // Index rather than iterate so that no iterator is allocated
+        int offset = 0;
+        for (int i = 0, n = sensors.size(); i < n; i++) {
+            if (i == sensorReadings.size()) {
+                sensorReadings.add(new SensorReadings());
+            }
+
+            int readingSize = sensors.get(i).getReadingSize();
+            SensorReadings sensorReading = sensorReadings.get(i);
+            sensorReading.set(inputs, offset, readingSize);
+            readings.add(sensorReading);
+            offset += readingSize;
+        }
+
+        Double2D output = phenotype.step(unmodifiableReadings);
+        wheelDrives[0] = output.x;
+        wheelDrives[1] = output.y;
+    }
+
+    @Override
+    public Double2D step(List<List<Double>> list) {
+        return phenotype.step(list);
+    }
+
+    @Override
+    public List<AgentSensor> getSensors() {
+        return phenotype.getSensors();
+    }
+
+    @Override
+    public ListPhenotypeAdapter clone() {
+        return new ListPhenotypeAdapter(phenotype.clone());
+    }
+
+    @Override
+    public void reset() {
+        phenotype.reset();
+    }
+
+    @Override
+    public void writeState(DataOutput out) throws IOException {
+        phenotype.writeState(out);
+    }
+
+    @Override
+    public void readState(DataInput in) throws IOException {
+        phenotype.readState(in);
+    }
+
+    @Override
+    public void configure(Map<String, Object> phenotypeConfigs) {
+        phenotype.configure(phenotypeConfigs);
+    }
+
+    /** A read-only view of one sensor's readings in the flat inputs. */
+    private static class SensorReadings extends AbstractList<Double> implements RandomAccess {
+        private double[] inputs;
+        private int offset;
+        private int size;
+
+        void set(double[] inputs, int offset, int size) {
+            this.inputs = inputs;
+            this.offset = offset;
+            this.size = size;
+        }
+
+        @Override
+        public Double get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return inputs[offset + index];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
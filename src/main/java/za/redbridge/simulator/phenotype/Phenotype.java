@@ -1,5 +1,8 @@
 package za.redbridge.simulator.phenotype;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -27,8 +30,41 @@ public interface Phenotype extends Cloneable {
 
     Phenotype clone();
 
+    /**
+     * Reset any state built up while running so that this phenotype behaves like a fresh clone.
+     * Called when a simulation reuses its robots for a new run. Phenotypes that keep state between
+     * steps must override this.
+     */
+    default void reset() {
+    }
+
+    /**
+     * Write any state built up while running, for a
+     * {@link za.redbridge.simulator.SimulationCheckpoint}, so that a fresh clone that reads it
+     * back with {@link #readState(DataInput)} carries on exactly like this phenotype. Phenotypes
+     * that keep state between steps must override both methods.
+     */
+    default void writeState(DataOutput out) throws IOException {
+    }
+
+    /** Read back the state written by {@link #writeState(DataOutput)}. */
+    default void readState(DataInput in) throws IOException {
+    }
+
     void configure(Map<String,Object> phenotypeConfigs);
 
+    /**
+     * Get a key that identifies the controller, so that the results of evaluating it can be
+     * reused for a phenotype with the same key. Two phenotypes of the same class with the same key
+     * must behave identically given the same sensor readings and random numbers, so the key should
+     * include all the controller's parameters, e.g. the network weights. The sensors don't need to
+     * be included.
+     * @return the key, or null if the results of this phenotype shouldn't be reused
+     */
+    default String getCacheKey() {
+        return null;
+    }
+
     /**
      * Represents a controller that outputs a one vector. For testing.
      */
@@ -0,0 +1,17 @@
+package za.redbridge.simulator.phenotype;
+
+import ec.util.MersenneTwisterFast;
+
+/**
+ * A phenotype that makes random decisions. The simulation gives it the random number generator to
+ * use so that its behaviour is repeatable for a given seed and independent of other simulations.
+ */
+public interface StochasticPhenotype extends Phenotype {
+
+    /**
+     * Set the random number generator for this phenotype to use.
+     * @param random the simulation's random number generator
+     */
+    void setRandom(MersenneTwisterFast random);
+
+}
@@ -1,10 +1,9 @@
 package za.redbridge.simulator.phenotype.heuristics;
 
+import org.jbox2d.common.Vec2;
+
 import java.awt.Color;
-import java.util.List;
-import java.util.Optional;
 
-import sim.util.Double2D;
 import za.redbridge.simulator.object.RobotObject;
 import za.redbridge.simulator.sensor.ClosestObjectSensor;
 import za.redbridge.simulator.sensor.CollisionSensor;
@@ -22,6 +21,8 @@ public class CollisionAvoidanceHeuristic extends Heuristic {
 
     protected final CollisionSensor collisionSensor;
 
+    private final Vec2 awayFromObject = new Vec2();
+
     public CollisionAvoidanceHeuristic(CollisionSensor collisionSensor, RobotObject robot) {
         super(robot);
         this.collisionSensor = collisionSensor;
@@ -30,12 +31,16 @@ public class CollisionAvoidanceHeuristic extends Heuristic {
     }
 
     @Override
-    public Double2D step(List<List<Double>> list) {
-        Optional<ClosestObjectSensor.ClosestObject> collision = collisionSensor.sense();
-
-        return collision.map(o -> o.getVectorToObject())
-                .map(o -> wheelDriveForTargetPosition(jitter(o.negate(), 0.2f)))
-                .orElse(null);
+    public boolean step(double[] inputs, double[] wheelDrives) {
+        ClosestObjectSensor.ClosestObject collision = collisionSensor.sense();
+        if (collision == null) {
+            return false;
+        }
+
+        // Head away from the object
+        awayFromObject.set(collision.getVectorToObject()).negateLocal();
+        wheelDriveForTargetPosition(jitter(awayFromObject, 0.2f, robot.getRandom()), wheelDrives);
+        return true;
     }
 
     @Override
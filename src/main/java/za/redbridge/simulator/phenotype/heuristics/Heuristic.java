@@ -5,9 +5,10 @@ import org.jbox2d.common.Vec2;
 
 import java.awt.Color;
 import java.awt.Paint;
-import java.util.List;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
-import sim.util.Double2D;
 import za.redbridge.simulator.object.RobotObject;
 import za.redbridge.simulator.sensor.Sensor;
 
@@ -23,6 +24,8 @@ public abstract class Heuristic implements Comparable<Heuristic> {
 
     private HeuristicSchedule schedule;
 
+    private final String name = getClass().getSimpleName();
+
     public Heuristic(RobotObject robot) {
         this.robot = robot;
     }
@@ -35,7 +38,14 @@ public abstract class Heuristic implements Comparable<Heuristic> {
         schedule.removeHeuristic(this);
     }
 
-    abstract Double2D step(List<List<Double>> list);
+    /**
+     * Take control of the robot if this heuristic applies.
+     * @param inputs the robot's sensor readings
+     * @param wheelDrives the array to write the left and right wheel drives to if the heuristic
+     *                    applies
+     * @return true if the heuristic applies and has written the wheel drives
+     */
+    abstract boolean step(double[] inputs, double[] wheelDrives);
 
     /**
      * Color used to change colour of robot as each heuristic takes over.
@@ -51,18 +61,18 @@ public abstract class Heuristic implements Comparable<Heuristic> {
     /**
      * Get the wheel drive that will steer the agent towards the target position.
      * @param targetPosition The position of the target in local coordinates
-     * @return the heuristic wheel drive
+     * @param wheelDrives the array to write the heuristic wheel drive to
      */
-    protected static Double2D wheelDriveForTargetPosition(Vec2 targetPosition) {
-        return wheelDriveForTargetAngle(MathUtils.atan2(targetPosition.y, targetPosition.x));
+    protected static void wheelDriveForTargetPosition(Vec2 targetPosition, double[] wheelDrives) {
+        wheelDriveForTargetAngle(MathUtils.atan2(targetPosition.y, targetPosition.x), wheelDrives);
     }
 
     /**
      * Get the wheel drive that will steer the agent towards the target angle.
      * @param targetAngle The angle to the target
-     * @return the heuristic wheel drive
+     * @param wheelDrives the array to write the heuristic wheel drive to
      */
-    protected static Double2D wheelDriveForTargetAngle(double targetAngle) {
+    protected static void wheelDriveForTargetAngle(double targetAngle, double[] wheelDrives) {
         final double left, right;
         if(Math.abs(targetAngle) > Math.PI) targetAngle = Math.PI*Math.signum(targetAngle);
         // Different response for each of four quadrants
@@ -88,7 +98,19 @@ public abstract class Heuristic implements Comparable<Heuristic> {
             }
         }
 
-        return new Double2D(left, right);
+        wheelDrives[0] = left;
+        wheelDrives[1] = right;
+    }
+
+    /**
+     * Write any state built up while running, for a checkpoint. Heuristics that keep state between
+     * steps must override this and {@link #readState(DataInput)}.
+     */
+    void writeState(DataOutput out) throws IOException {
+    }
+
+    /** Read back the state written by {@link #writeState(DataOutput)}. */
+    void readState(DataInput in) throws IOException {
     }
 
     public int getPriority() {
@@ -99,6 +121,10 @@ public abstract class Heuristic implements Comparable<Heuristic> {
         this.priority = priority;
     }
 
+    /* package */ String getName() {
+        return name;
+    }
+
     /* package */ RobotObject getRobot() {
         return robot;
     }
@@ -1,45 +1,78 @@
 package za.redbridge.simulator.phenotype.heuristics;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.PriorityQueue;
-
-import sim.util.Double2D;
+import java.util.function.Function;
 
 /**
  * Created by jamie on 2014/09/10.
  */
 public class HeuristicSchedule {
-    private final PriorityQueue<Heuristic> schedule = new PriorityQueue<>();
+    // Kept sorted by priority. A list rather than a PriorityQueue so that it can be walked in
+    // priority order without allocating an iterator every step.
+    private final List<Heuristic> schedule = new ArrayList<>();
 
     private final List<Heuristic> addList = new ArrayList<>();
     private final List<Heuristic> removeList = new ArrayList<>();
 
     private String activeHeuristic = "none";
 
-    public Double2D step(List<List<Double>> readings) {
-        schedule.addAll(addList);
-        addList.forEach(h -> h.setSchedule(this));
-        addList.clear();
+    /**
+     * Step the scheduled heuristics in priority order until one of them applies.
+     * @param inputs the robot's sensor readings
+     * @param wheelDrives the array the applicable heuristic writes its wheel drives to
+     * @return true if a heuristic applied, false if the wheel drives were left untouched
+     */
+    public boolean step(double[] inputs, double[] wheelDrives) {
+        if (!addList.isEmpty()) {
+            for (int i = 0, n = addList.size(); i < n; i++) {
+                Heuristic heuristic = addList.get(i);
+                if (!schedule.contains(heuristic)) {
+                    schedule.add(heuristic);
+                    heuristic.setSchedule(this);
+                }
+            }
+            addList.clear();
+            Collections.sort(schedule);
+        }
 
-        schedule.removeAll(removeList);
-        removeList.forEach(h -> h.setSchedule(null));
-        removeList.clear();
+        if (!removeList.isEmpty()) {
+            for (int i = 0, n = removeList.size(); i < n; i++) {
+                Heuristic heuristic = removeList.get(i);
+                schedule.remove(heuristic);
+                heuristic.setSchedule(null);
+            }
+            removeList.clear();
+        }
 
-        Double2D wheelDrive = null;
         String activeHeuristic = "none";
-        for (Heuristic heuristic : schedule) {
-            wheelDrive = heuristic.step(readings);
-            if (wheelDrive != null) {
+        boolean applied = false;
+        for (int i = 0, n = schedule.size(); i < n; i++) {
+            Heuristic heuristic = schedule.get(i);
+            if (heuristic.step(inputs, wheelDrives)) {
                 // Update the robot's paint
                 heuristic.getRobot().setColor(heuristic.getColor());
                 //Update active heuristic
-                activeHeuristic = heuristic.getClass().getSimpleName();
+                activeHeuristic = heuristic.getName();
+                applied = true;
                 break;
             }
         }
 
-        return wheelDrive;
+        return applied;
+    }
+
+    /** Remove all heuristics from the schedule, including any waiting to be added. */
+    public void clear() {
+        schedule.forEach(h -> h.setSchedule(null));
+        schedule.clear();
+        addList.clear();
+        removeList.clear();
+        activeHeuristic = "none";
     }
 
     public void addHeuristic(Heuristic heuristic) {
@@ -55,4 +88,88 @@ public class HeuristicSchedule {
     }
 
     public synchronized String getActiveHeuristic() { return activeHeuristic; }
+
+    /**
+     * Write the heuristics in the schedule, including any waiting to be added or removed, and
+     * their state, for a checkpoint.
+     */
+    public void writeState(DataOutput out) throws IOException {
+        // Each heuristic is written once, then the lists refer to them by index
+        List<Heuristic> heuristics = new ArrayList<>();
+        addDistinct(heuristics, schedule);
+        addDistinct(heuristics, addList);
+        addDistinct(heuristics, removeList);
+
+        out.writeInt(heuristics.size());
+        for (Heuristic heuristic : heuristics) {
+            out.writeUTF(heuristic.getName());
+            out.writeInt(heuristic.getPriority());
+            out.writeBoolean(heuristic.getSchedule() == this);
+            heuristic.writeState(out);
+        }
+
+        writeIndices(out, schedule, heuristics);
+        writeIndices(out, addList, heuristics);
+        writeIndices(out, removeList, heuristics);
+        out.writeUTF(activeHeuristic);
+    }
+
+    /**
+     * Replace the heuristics in the schedule with the ones written by
+     * {@link #writeState(DataOutput)}.
+     * @param heuristicFactory creates a new heuristic given its name, or returns null if the name
+     *                         is unknown
+     */
+    public void readState(DataInput in, Function<String, Heuristic> heuristicFactory)
+            throws IOException {
+        clear();
+
+        Heuristic[] heuristics = new Heuristic[in.readInt()];
+        for (int i = 0; i < heuristics.length; i++) {
+            String name = in.readUTF();
+            Heuristic heuristic = heuristicFactory.apply(name);
+            if (heuristic == null) {
+                throw new IOException("Unknown heuristic: " + name);
+            }
+            heuristic.setPriority(in.readInt());
+            if (in.readBoolean()) {
+                heuristic.setSchedule(this);
+            }
+            heuristic.readState(in);
+            heuristics[i] = heuristic;
+        }
+
+        readIndices(in, schedule, heuristics);
+        readIndices(in, addList, heuristics);
+        readIndices(in, removeList, heuristics);
+        activeHeuristic = in.readUTF();
+    }
+
+    private static void addDistinct(List<Heuristic> heuristics, List<Heuristic> list) {
+        for (Heuristic heuristic : list) {
+            if (!heuristics.contains(heuristic)) {
+                heuristics.add(heuristic);
+            }
+        }
+    }
+
+    private static void writeIndices(DataOutput out, List<Heuristic> list,
+            List<Heuristic> heuristics) throws IOException {
+        out.writeInt(list.size());
+        for (Heuristic heuristic : list) {
+            out.writeInt(heuristics.indexOf(heuristic));
+        }
+    }
+
+    private static void readIndices(DataInput in, List<Heuristic> list, Heuristic[] heuristics)
+            throws IOException {
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            int index = in.readInt();
+            if (index < 0 || index >= heuristics.length) {
+                throw new IOException("Invalid heuristic index: " + index);
+            }
+            list.add(heuristics[index]);
+        }
+    }
 }
@@ -1,12 +1,11 @@
 package za.redbridge.simulator.phenotype.heuristics;
 
 import java.awt.Color;
-import java.util.List;
 
-import sim.util.Double2D;
 import za.redbridge.simulator.config.SimConfig;
 import za.redbridge.simulator.object.ResourceObject;
 import za.redbridge.simulator.object.RobotObject;
+import za.redbridge.simulator.sensor.ClosestObjectSensor;
 import za.redbridge.simulator.sensor.PickupSensor;
 import za.redbridge.simulator.sensor.Sensor;
 
@@ -35,29 +34,32 @@ public class PickupHeuristic extends Heuristic {
     }
 
     @Override
-    public Double2D step(List<List<Double>> list) {
+    public boolean step(double[] inputs, double[] wheelDrives) {
         // Go for the target area if we've managed to attach to a resource
         if (robot.isBoundToResource()) {
-            return wheelDriveForTargetAngle(targetAreaAngle());
+            wheelDriveForTargetAngle(targetAreaAngle(), wheelDrives);
+            return true;
         }
 
         // Check for a resource in the sensor
+        ClosestObjectSensor.ClosestObject closestObject = pickupSensor.sense();
         ResourceObject resource =
-                pickupSensor.sense().map(o -> (ResourceObject) o.getObject()).orElse(null);
+                closestObject != null ? (ResourceObject) closestObject.getObject() : null;
         if (resource == null || !resource.canBePickedUp()) {
-            return null; // No viable resource, nothing to do
+            return false; // No viable resource, nothing to do
         }
 
         // Try pick it up
         if (resource.tryPickup(robot)) {
             // Success! Head for the target zone
-            return wheelDriveForTargetAngle(targetAreaAngle());
+            wheelDriveForTargetAngle(targetAreaAngle(), wheelDrives);
+            return true;
         } else if (ENABLE_PICKUP_POSITIONING) {
             // Couldn't pick it up, add a heuristic to navigate to the resource
             getSchedule().addHeuristic(new PickupPositioningHeuristic(pickupSensor, robot));
         }
 
-        return null;
+        return false;
     }
 
     @Override
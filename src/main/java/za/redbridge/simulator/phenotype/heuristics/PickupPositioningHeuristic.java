@@ -3,11 +3,13 @@ package za.redbridge.simulator.phenotype.heuristics;
 import org.jbox2d.common.Vec2;
 
 import java.awt.Color;
-import java.util.List;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
-import sim.util.Double2D;
 import za.redbridge.simulator.object.ResourceObject;
 import za.redbridge.simulator.object.RobotObject;
+import za.redbridge.simulator.sensor.ClosestObjectSensor;
 import za.redbridge.simulator.sensor.PickupSensor;
 import za.redbridge.simulator.sensor.Sensor;
 
@@ -25,6 +27,8 @@ public class PickupPositioningHeuristic extends Heuristic {
 
     private Vec2 targetPoint = null;
 
+    private final Vec2 localTarget = new Vec2();
+
     public PickupPositioningHeuristic(PickupSensor pickupSensor, RobotObject robot) {
         super(robot);
         this.pickupSensor = pickupSensor;
@@ -33,34 +37,57 @@ public class PickupPositioningHeuristic extends Heuristic {
     }
 
     @Override
-    public Double2D step(List<List<Double>> list) {
+    public boolean step(double[] inputs, double[] wheelDrives) {
         if (robot.isBoundToResource()) { // Shouldn't happen
             removeSelfFromSchedule();
-            return null;
+            return false;
         }
 
+        ClosestObjectSensor.ClosestObject closestObject = pickupSensor.sense();
         ResourceObject resource =
-                pickupSensor.sense().map(o -> (ResourceObject) o.getObject()).orElse(null);
+                closestObject != null ? (ResourceObject) closestObject.getObject() : null;
 
         // Check the resource is still present and hasn't been collected by another robot
         if (resource == null || !resource.canBePickedUp()) {
             removeSelfFromSchedule();
-            return null;
+            return false;
         }
 
         // Try pick up the resource
         if (resource.tryPickup(robot)) {
             removeSelfFromSchedule();
-            return null;
+            return false;
         }
 
         Vec2 newPosition = nextStep(resource);
-        jitter(newPosition, 0.1f);
+        jitter(newPosition, 0.1f, robot.getRandom());
 
         if (newPosition != null) {
-            return wheelDriveForTargetPosition(robot.getBody().getLocalPoint(newPosition));
+            robot.getBody().getLocalPointToOut(newPosition, localTarget);
+            wheelDriveForTargetPosition(localTarget, wheelDrives);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    void writeState(DataOutput out) throws IOException {
+        out.writeBoolean(targetPoint != null);
+        if (targetPoint != null) {
+            out.writeFloat(targetPoint.x);
+            out.writeFloat(targetPoint.y);
+        }
+    }
+
+    @Override
+    void readState(DataInput in) throws IOException {
+        if (in.readBoolean()) {
+            float x = in.readFloat();
+            float y = in.readFloat();
+            targetPoint = new Vec2(x, y);
+        } else {
+            targetPoint = null;
         }
-        return null;
     }
 
     @Override
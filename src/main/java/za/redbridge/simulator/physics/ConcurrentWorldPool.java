@@ -0,0 +1,273 @@
+package za.redbridge.simulator.physics;
+
+import org.jbox2d.collision.AABB;
+import org.jbox2d.collision.Collision;
+import org.jbox2d.collision.Distance;
+import org.jbox2d.collision.Manifold;
+import org.jbox2d.collision.TimeOfImpact;
+import org.jbox2d.collision.shapes.CircleShape;
+import org.jbox2d.collision.shapes.EdgeShape;
+import org.jbox2d.collision.shapes.PolygonShape;
+import org.jbox2d.common.Mat22;
+import org.jbox2d.common.Mat33;
+import org.jbox2d.common.Rot;
+import org.jbox2d.common.Settings;
+import org.jbox2d.common.Transform;
+import org.jbox2d.common.Vec2;
+import org.jbox2d.common.Vec3;
+import org.jbox2d.dynamics.contacts.Contact;
+import org.jbox2d.dynamics.contacts.EdgeAndCircleContact;
+import org.jbox2d.dynamics.contacts.EdgeAndPolygonContact;
+import org.jbox2d.dynamics.contacts.PolygonContact;
+import org.jbox2d.pooling.IDynamicStack;
+import org.jbox2d.pooling.IWorldPool;
+import org.jbox2d.pooling.normal.DefaultWorldPool;
+import org.jbox2d.pooling.normal.MutableStack;
+
+/**
+ * World pool that allows several physics worlds to be stepped on different threads at once.
+ *
+ * JBox2D's narrow phase for polygon-polygon, edge-polygon and edge-circle contacts writes to
+ * static scratch vectors (in {@link Transform} and {@link Collision}), so two worlds evaluating
+ * those contacts at the same time can corrupt each other's manifolds. This pool hands out contacts
+ * that evaluate those three shape pairs with the pool's own {@link NarrowPhase} instead. Everything
+ * else is delegated to a regular {@link DefaultWorldPool}. Use one pool per world.
+ */
+public class ConcurrentWorldPool implements IWorldPool {
+
+    private static final int POOL_SIZE = 100;
+    private static final int POOL_CONTAINER_SIZE = 10;
+
+    private final DefaultWorldPool pool = new DefaultWorldPool(POOL_SIZE, POOL_CONTAINER_SIZE);
+
+    private final NarrowPhase narrowPhase = new NarrowPhase(pool.getCollision());
+
+    private final MutableStack<Contact> polygonContactStack =
+            new MutableStack<Contact>(Settings.CONTACT_STACK_INIT_SIZE) {
+                @Override
+                protected Contact newInstance() {
+                    return new PooledPolygonContact(narrowPhase, ConcurrentWorldPool.this);
+                }
+
+                @Override
+                protected Contact[] newArray(int size) {
+                    return new Contact[size];
+                }
+            };
+
+    private final MutableStack<Contact> edgeCircleContactStack =
+            new MutableStack<Contact>(Settings.CONTACT_STACK_INIT_SIZE) {
+                @Override
+                protected Contact newInstance() {
+                    return new PooledEdgeAndCircleContact(narrowPhase, ConcurrentWorldPool.this);
+                }
+
+                @Override
+                protected Contact[] newArray(int size) {
+                    return new Contact[size];
+                }
+            };
+
+    private final MutableStack<Contact> edgePolygonContactStack =
+            new MutableStack<Contact>(Settings.CONTACT_STACK_INIT_SIZE) {
+                @Override
+                protected Contact newInstance() {
+                    return new PooledEdgeAndPolygonContact(narrowPhase, ConcurrentWorldPool.this);
+                }
+
+                @Override
+                protected Contact[] newArray(int size) {
+                    return new Contact[size];
+                }
+            };
+
+    @Override
+    public IDynamicStack<Contact> getPolyContactStack() {
+        return polygonContactStack;
+    }
+
+    @Override
+    public IDynamicStack<Contact> getCircleContactStack() {
+        return pool.getCircleContactStack();
+    }
+
+    @Override
+    public IDynamicStack<Contact> getPolyCircleContactStack() {
+        return pool.getPolyCircleContactStack();
+    }
+
+    @Override
+    public IDynamicStack<Contact> getEdgeCircleContactStack() {
+        return edgeCircleContactStack;
+    }
+
+    @Override
+    public IDynamicStack<Contact> getEdgePolyContactStack() {
+        return edgePolygonContactStack;
+    }
+
+    @Override
+    public IDynamicStack<Contact> getChainCircleContactStack() {
+        return pool.getChainCircleContactStack();
+    }
+
+    @Override
+    public IDynamicStack<Contact> getChainPolyContactStack() {
+        return pool.getChainPolyContactStack();
+    }
+
+    @Override
+    public Vec2 popVec2() {
+        return pool.popVec2();
+    }
+
+    @Override
+    public Vec2[] popVec2(int num) {
+        return pool.popVec2(num);
+    }
+
+    @Override
+    public void pushVec2(int num) {
+        pool.pushVec2(num);
+    }
+
+    @Override
+    public Vec3 popVec3() {
+        return pool.popVec3();
+    }
+
+    @Override
+    public Vec3[] popVec3(int num) {
+        return pool.popVec3(num);
+    }
+
+    @Override
+    public void pushVec3(int num) {
+        pool.pushVec3(num);
+    }
+
+    @Override
+    public Mat22 popMat22() {
+        return pool.popMat22();
+    }
+
+    @Override
+    public Mat22[] popMat22(int num) {
+        return pool.popMat22(num);
+    }
+
+    @Override
+    public void pushMat22(int num) {
+        pool.pushMat22(num);
+    }
+
+    @Override
+    public Mat33 popMat33() {
+        return pool.popMat33();
+    }
+
+    @Override
+    public void pushMat33(int num) {
+        pool.pushMat33(num);
+    }
+
+    @Override
+    public AABB popAABB() {
+        return pool.popAABB();
+    }
+
+    @Override
+    public AABB[] popAABB(int num) {
+        return pool.popAABB(num);
+    }
+
+    @Override
+    public void pushAABB(int num) {
+        pool.pushAABB(num);
+    }
+
+    @Override
+    public Rot popRot() {
+        return pool.popRot();
+    }
+
+    @Override
+    public void pushRot(int num) {
+        pool.pushRot(num);
+    }
+
+    @Override
+    public Collision getCollision() {
+        return pool.getCollision();
+    }
+
+    @Override
+    public TimeOfImpact getTimeOfImpact() {
+        return pool.getTimeOfImpact();
+    }
+
+    @Override
+    public Distance getDistance() {
+        return pool.getDistance();
+    }
+
+    @Override
+    public float[] getFloatArray(int length) {
+        return pool.getFloatArray(length);
+    }
+
+    @Override
+    public int[] getIntArray(int length) {
+        return pool.getIntArray(length);
+    }
+
+    @Override
+    public Vec2[] getVec2Array(int length) {
+        return pool.getVec2Array(length);
+    }
+
+    private static class PooledPolygonContact extends PolygonContact {
+        private final NarrowPhase narrowPhase;
+
+        PooledPolygonContact(NarrowPhase narrowPhase, IWorldPool pool) {
+            super(pool);
+            this.narrowPhase = narrowPhase;
+        }
+
+        @Override
+        public void evaluate(Manifold manifold, Transform xfA, Transform xfB) {
+            narrowPhase.collidePolygons(manifold, (PolygonShape) m_fixtureA.getShape(), xfA,
+                    (PolygonShape) m_fixtureB.getShape(), xfB);
+        }
+    }
+
+    private static class PooledEdgeAndCircleContact extends EdgeAndCircleContact {
+        private final NarrowPhase narrowPhase;
+
+        PooledEdgeAndCircleContact(NarrowPhase narrowPhase, IWorldPool pool) {
+            super(pool);
+            this.narrowPhase = narrowPhase;
+        }
+
+        @Override
+        public void evaluate(Manifold manifold, Transform xfA, Transform xfB) {
+            narrowPhase.collideEdgeAndCircle(manifold, (EdgeShape) m_fixtureA.getShape(), xfA,
+                    (CircleShape) m_fixtureB.getShape(), xfB);
+        }
+    }
+
+    private static class PooledEdgeAndPolygonContact extends EdgeAndPolygonContact {
+        private final NarrowPhase narrowPhase;
+
+        PooledEdgeAndPolygonContact(NarrowPhase narrowPhase, IWorldPool pool) {
+            super(pool);
+            this.narrowPhase = narrowPhase;
+        }
+
+        @Override
+        public void evaluate(Manifold manifold, Transform xfA, Transform xfB) {
+            narrowPhase.collideEdgeAndPolygon(manifold, (EdgeShape) m_fixtureA.getShape(), xfA,
+                    (PolygonShape) m_fixtureB.getShape(), xfB);
+        }
+    }
+}
@@ -21,12 +21,4 @@ public final class FilterConstants {
         public static final int AGENT_SENSOR = 1 << 7;
         public static final int TARGET_AREA_SENSOR = 1 << 8;
     }
-
-    public static final class GroupIndexes {
-        private GroupIndexes() {
-        }
-
-        /** Setting a negative group number for sensors mean that all sensors never collide. */
-        public static final int SENSOR = -1;
-    }
 }
@@ -0,0 +1,784 @@
+/*
+ * Parts of this file are ported from JBox2D 2.3.1's org.jbox2d.collision.Collision.
+ * Copyright (c) 2013, Daniel Murphy. All rights reserved.
+ * Redistributed under the BSD 2-clause license; see
+ * libs/licenses/jbox2d-library-2.3.1-SNAPSHOT.jar.LICENSE for the full terms.
+ */
+package za.redbridge.simulator.physics;
+
+import org.jbox2d.collision.Collision;
+import org.jbox2d.collision.Collision.ClipVertex;
+import org.jbox2d.collision.ContactID;
+import org.jbox2d.collision.Manifold;
+import org.jbox2d.collision.ManifoldPoint;
+import org.jbox2d.collision.shapes.CircleShape;
+import org.jbox2d.collision.shapes.EdgeShape;
+import org.jbox2d.collision.shapes.PolygonShape;
+import org.jbox2d.common.MathUtils;
+import org.jbox2d.common.Rot;
+import org.jbox2d.common.Settings;
+import org.jbox2d.common.Transform;
+import org.jbox2d.common.Vec2;
+
+/**
+ * The polygon-polygon, edge-circle and edge-polygon narrow phase from JBox2D's {@link Collision},
+ * with all of its scratch state held by the instance.
+ *
+ * JBox2D's versions of these three tests write to static scratch vectors ({@code Collision.d} and
+ * the one behind {@link Transform#mulTransToOutUnsafe(Transform, Transform, Transform)}), so two
+ * worlds can't run them at the same time. The code here does the same arithmetic in the same order,
+ * so manifolds are bit-identical to JBox2D's. Each {@link ConcurrentWorldPool} owns one instance,
+ * which makes it safe to step worlds on different threads but not to share one world between
+ * threads.
+ */
+class NarrowPhase {
+
+    private final Collision collision;
+
+    // collidePolygons
+    private final Transform xf = new Transform();
+    private final Vec2 n = new Vec2();
+    private final Vec2 v1 = new Vec2();
+    private final EdgeResults results1 = new EdgeResults();
+    private final EdgeResults results2 = new EdgeResults();
+    private final ClipVertex[] incidentEdge = new ClipVertex[2];
+    private final Vec2 localTangent = new Vec2();
+    private final Vec2 localNormal = new Vec2();
+    private final Vec2 planePoint = new Vec2();
+    private final Vec2 tangent = new Vec2();
+    private final Vec2 v11 = new Vec2();
+    private final Vec2 v12 = new Vec2();
+    private final ClipVertex[] clipPoints1 = new ClipVertex[2];
+    private final ClipVertex[] clipPoints2 = new ClipVertex[2];
+
+    // collideEdgeAndCircle
+    private final Vec2 temp = new Vec2();
+    private final Vec2 d = new Vec2();
+    private final Vec2 Q = new Vec2();
+    private final Vec2 e = new Vec2();
+    private final Vec2 e1 = new Vec2();
+    private final Vec2 P = new Vec2();
+    private final ContactID cf = new ContactID();
+
+    // Stands in for Transform's static pool vector
+    private final Vec2 transformTemp = new Vec2();
+
+    private final EdgePolygonCollider edgePolygonCollider = new EdgePolygonCollider();
+
+    /**
+     * @param collision the world's collision instance, used for its stateless helpers
+     */
+    NarrowPhase(Collision collision) {
+        this.collision = collision;
+        for (int i = 0; i < 2; i++) {
+            incidentEdge[i] = new ClipVertex();
+            clipPoints1[i] = new ClipVertex();
+            clipPoints2[i] = new ClipVertex();
+        }
+    }
+
+    /** Same as {@link Collision#collidePolygons}. */
+    void collidePolygons(Manifold manifold, PolygonShape polyA, Transform xfA,
+            PolygonShape polyB, Transform xfB) {
+        manifold.pointCount = 0;
+        float totalRadius = polyA.m_radius + polyB.m_radius;
+
+        findMaxSeparation(results1, polyA, xfA, polyB, xfB);
+        if (results1.separation > totalRadius) {
+            return;
+        }
+
+        findMaxSeparation(results2, polyB, xfB, polyA, xfA);
+        if (results2.separation > totalRadius) {
+            return;
+        }
+
+        PolygonShape poly1;
+        PolygonShape poly2;
+        Transform xf1;
+        Transform xf2;
+        int edge1;
+        boolean flip;
+        float k_tol = 0.1f * Settings.linearSlop;
+        if (results2.separation > results1.separation + k_tol) {
+            poly1 = polyB;
+            poly2 = polyA;
+            xf1 = xfB;
+            xf2 = xfA;
+            edge1 = results2.edgeIndex;
+            manifold.type = Manifold.ManifoldType.FACE_B;
+            flip = true;
+        } else {
+            poly1 = polyA;
+            poly2 = polyB;
+            xf1 = xfA;
+            xf2 = xfB;
+            edge1 = results1.edgeIndex;
+            manifold.type = Manifold.ManifoldType.FACE_A;
+            flip = false;
+        }
+        Rot xf1q = xf1.q;
+
+        collision.findIncidentEdge(incidentEdge, poly1, xf1, edge1, poly2, xf2);
+
+        int count1 = poly1.m_count;
+        Vec2[] vertices1 = poly1.m_vertices;
+        int iv1 = edge1;
+        int iv2 = edge1 + 1 < count1 ? edge1 + 1 : 0;
+        v11.set(vertices1[iv1]);
+        v12.set(vertices1[iv2]);
+        localTangent.x = v12.x - v11.x;
+        localTangent.y = v12.y - v11.y;
+        localTangent.normalize();
+
+        localNormal.x = 1.0f * localTangent.y;
+        localNormal.y = -1.0f * localTangent.x;
+
+        planePoint.x = (v11.x + v12.x) * 0.5f;
+        planePoint.y = (v11.y + v12.y) * 0.5f;
+
+        tangent.x = xf1q.c * localTangent.x - xf1q.s * localTangent.y;
+        tangent.y = xf1q.s * localTangent.x + xf1q.c * localTangent.y;
+
+        float normalx = 1.0f * tangent.y;
+        float normaly = -1.0f * tangent.x;
+
+        Transform.mulToOut(xf1, v11, v11);
+        Transform.mulToOut(xf1, v12, v12);
+
+        float frontOffset = normalx * v11.x + normaly * v11.y;
+        float sideOffset1 = -(tangent.x * v11.x + tangent.y * v11.y) + totalRadius;
+        float sideOffset2 = tangent.x * v12.x + tangent.y * v12.y + totalRadius;
+
+        tangent.negateLocal();
+        int np = Collision.clipSegmentToLine(clipPoints1, incidentEdge, tangent, sideOffset1, iv1);
+        tangent.negateLocal();
+        if (np < 2) {
+            return;
+        }
+
+        np = Collision.clipSegmentToLine(clipPoints2, clipPoints1, tangent, sideOffset2, iv2);
+        if (np < 2) {
+            return;
+        }
+
+        manifold.localNormal.set(localNormal);
+        manifold.localPoint.set(planePoint);
+
+        int pointCount = 0;
+        for (int i = 0; i < Settings.maxManifoldPoints; ++i) {
+            float separation = normalx * clipPoints2[i].v.x + normaly * clipPoints2[i].v.y
+                    - frontOffset;
+            if (separation <= totalRadius) {
+                ManifoldPoint cp = manifold.points[pointCount];
+                Vec2 out = cp.localPoint;
+                float px = clipPoints2[i].v.x - xf2.p.x;
+                float py = clipPoints2[i].v.y - xf2.p.y;
+                out.x = xf2.q.c * px + xf2.q.s * py;
+                out.y = -xf2.q.s * px + xf2.q.c * py;
+                cp.id.set(clipPoints2[i].id);
+                if (flip) {
+                    cp.id.flip();
+                }
+                ++pointCount;
+            }
+        }
+        manifold.pointCount = pointCount;
+    }
+
+    private void findMaxSeparation(EdgeResults results, PolygonShape poly1, Transform xf1,
+            PolygonShape poly2, Transform xf2) {
+        int count1 = poly1.m_count;
+        int count2 = poly2.m_count;
+        Vec2[] n1s = poly1.m_normals;
+        Vec2[] v1s = poly1.m_vertices;
+        Vec2[] v2s = poly2.m_vertices;
+
+        mulTransToOutUnsafe(xf2, xf1, xf);
+        Rot xfq = xf.q;
+
+        int bestIndex = 0;
+        float maxSeparation = -Float.MAX_VALUE;
+        for (int i = 0; i < count1; i++) {
+            Rot.mulToOutUnsafe(xfq, n1s[i], n);
+            Transform.mulToOutUnsafe(xf, v1s[i], v1);
+
+            float si = Float.MAX_VALUE;
+            for (int j = 0; j < count2; ++j) {
+                Vec2 v2sj = v2s[j];
+                float sij = n.x * (v2sj.x - v1.x) + n.y * (v2sj.y - v1.y);
+                if (sij < si) {
+                    si = sij;
+                }
+            }
+
+            if (si > maxSeparation) {
+                maxSeparation = si;
+                bestIndex = i;
+            }
+        }
+
+        results.edgeIndex = bestIndex;
+        results.separation = maxSeparation;
+    }
+
+    /** Same as {@link Collision#collideEdgeAndCircle}. */
+    void collideEdgeAndCircle(Manifold manifold, EdgeShape edgeA, Transform xfA,
+            CircleShape circleB, Transform xfB) {
+        manifold.pointCount = 0;
+
+        // Compute circle in frame of edge
+        Transform.mulToOutUnsafe(xfB, circleB.m_p, temp);
+        Transform.mulTransToOutUnsafe(xfA, temp, Q);
+
+        final Vec2 A = edgeA.m_vertex1;
+        final Vec2 B = edgeA.m_vertex2;
+        e.set(B).subLocal(A);
+
+        // Barycentric coordinates
+        float u = Vec2.dot(e, temp.set(B).subLocal(Q));
+        float v = Vec2.dot(e, temp.set(Q).subLocal(A));
+
+        float radius = edgeA.m_radius + circleB.m_radius;
+
+        cf.indexB = 0;
+        cf.typeB = (byte) ContactID.Type.VERTEX.ordinal();
+
+        // Region A
+        if (v <= 0.0f) {
+            d.set(Q).subLocal(A);
+            float dd = Vec2.dot(d, d);
+            if (dd > radius * radius) {
+                return;
+            }
+
+            // Is there an edge connected to A?
+            if (edgeA.m_hasVertex0) {
+                e1.set(A).subLocal(edgeA.m_vertex0);
+                float u1 = Vec2.dot(e1, temp.set(A).subLocal(Q));
+
+                // Is the circle in Region AB of the previous edge?
+                if (u1 > 0.0f) {
+                    return;
+                }
+            }
+
+            cf.indexA = 0;
+            cf.typeA = (byte) ContactID.Type.VERTEX.ordinal();
+            setCircleManifold(manifold, A, circleB);
+            return;
+        }
+
+        // Region B
+        if (u <= 0.0f) {
+            d.set(Q).subLocal(B);
+            float dd = Vec2.dot(d, d);
+            if (dd > radius * radius) {
+                return;
+            }
+
+            // Is there an edge connected to B?
+            if (edgeA.m_hasVertex3) {
+                e1.set(edgeA.m_vertex3).subLocal(B);
+                float v2 = Vec2.dot(e1, temp.set(Q).subLocal(B));
+
+                // Is the circle in Region AB of the next edge?
+                if (v2 > 0.0f) {
+                    return;
+                }
+            }
+
+            cf.indexA = 1;
+            cf.typeA = (byte) ContactID.Type.VERTEX.ordinal();
+            setCircleManifold(manifold, B, circleB);
+            return;
+        }
+
+        // Region AB
+        float den = Vec2.dot(e, e);
+        assert den > 0.0f;
+
+        P.set(A).mulLocal(u).addLocal(temp.set(B).mulLocal(v));
+        P.mulLocal(1.0f / den);
+        d.set(Q).subLocal(P);
+        float dd = Vec2.dot(d, d);
+        if (dd > radius * radius) {
+            return;
+        }
+
+        n.x = -e.y;
+        n.y = e.x;
+        if (Vec2.dot(n, temp.set(Q).subLocal(A)) < 0.0f) {
+            n.set(-n.x, -n.y);
+        }
+        n.normalize();
+
+        cf.indexA = 0;
+        cf.typeA = (byte) ContactID.Type.FACE.ordinal();
+        manifold.pointCount = 1;
+        manifold.type = Manifold.ManifoldType.FACE_A;
+        manifold.localNormal.set(n);
+        manifold.localPoint.set(A);
+        manifold.points[0].id.set(cf);
+        manifold.points[0].localPoint.set(circleB.m_p);
+    }
+
+    private void setCircleManifold(Manifold manifold, Vec2 point, CircleShape circleB) {
+        manifold.pointCount = 1;
+        manifold.type = Manifold.ManifoldType.CIRCLES;
+        manifold.localNormal.setZero();
+        manifold.localPoint.set(point);
+        manifold.points[0].id.set(cf);
+        manifold.points[0].localPoint.set(circleB.m_p);
+    }
+
+    /** Same as {@link Collision#collideEdgeAndPolygon}. */
+    void collideEdgeAndPolygon(Manifold manifold, EdgeShape edgeA, Transform xfA,
+            PolygonShape polygonB, Transform xfB) {
+        edgePolygonCollider.collide(manifold, edgeA, xfA, polygonB, xfB);
+    }
+
+    /**
+     * Same as {@link Transform#mulTransToOutUnsafe(Transform, Transform, Transform)} but with the
+     * intermediate vector owned by this instance.
+     */
+    private void mulTransToOutUnsafe(Transform A, Transform B, Transform out) {
+        assert out != A;
+        assert out != B;
+        Rot.mulTransUnsafe(A.q, B.q, out.q);
+        transformTemp.set(B.p).subLocal(A.p);
+        Rot.mulTransUnsafe(A.q, transformTemp, out.p);
+    }
+
+    private static class EdgeResults {
+        float separation;
+        int edgeIndex;
+    }
+
+    /** JBox2D's {@code EPCollider}: edge-polygon collision using the edge's neighbours. */
+    private class EdgePolygonCollider {
+
+        private final TempPolygon m_polygonB = new TempPolygon();
+        private final Transform m_xf = new Transform();
+        private final Vec2 m_centroidB = new Vec2();
+        private Vec2 m_v0;
+        private Vec2 m_v1;
+        private Vec2 m_v2;
+        private Vec2 m_v3;
+        private final Vec2 m_normal0 = new Vec2();
+        private final Vec2 m_normal1 = new Vec2();
+        private final Vec2 m_normal2 = new Vec2();
+        private final Vec2 m_normal = new Vec2();
+        private final Vec2 m_lowerLimit = new Vec2();
+        private final Vec2 m_upperLimit = new Vec2();
+        private float m_radius;
+        private boolean m_front;
+
+        private final Vec2 edge0 = new Vec2();
+        private final Vec2 edge1 = new Vec2();
+        private final Vec2 edge2 = new Vec2();
+        private final Vec2 temp = new Vec2();
+        private final ClipVertex[] ie = new ClipVertex[2];
+        private final ClipVertex[] clipPoints1 = new ClipVertex[2];
+        private final ClipVertex[] clipPoints2 = new ClipVertex[2];
+        private final ReferenceFace rf = new ReferenceFace();
+        private final EPAxis edgeAxis = new EPAxis();
+        private final EPAxis polygonAxis = new EPAxis();
+        private final Vec2 perp = new Vec2();
+        private final Vec2 n = new Vec2();
+
+        EdgePolygonCollider() {
+            for (int i = 0; i < 2; i++) {
+                ie[i] = new ClipVertex();
+                clipPoints1[i] = new ClipVertex();
+                clipPoints2[i] = new ClipVertex();
+            }
+        }
+
+        void collide(Manifold manifold, EdgeShape edgeA, Transform xfA, PolygonShape polygonB,
+                Transform xfB) {
+            mulTransToOutUnsafe(xfA, xfB, m_xf);
+            Transform.mulToOutUnsafe(m_xf, polygonB.m_centroid, m_centroidB);
+
+            m_v0 = edgeA.m_vertex0;
+            m_v1 = edgeA.m_vertex1;
+            m_v2 = edgeA.m_vertex2;
+            m_v3 = edgeA.m_vertex3;
+
+            boolean hasVertex0 = edgeA.m_hasVertex0;
+            boolean hasVertex3 = edgeA.m_hasVertex3;
+
+            edge1.set(m_v2).subLocal(m_v1);
+            edge1.normalize();
+            m_normal1.set(edge1.y, -edge1.x);
+            float offset1 = Vec2.dot(m_normal1, temp.set(m_centroidB).subLocal(m_v1));
+            float offset0 = 0.0f;
+            float offset2 = 0.0f;
+            boolean convex1 = false;
+            boolean convex2 = false;
+
+            // Is there a preceding edge?
+            if (hasVertex0) {
+                edge0.set(m_v1).subLocal(m_v0);
+                edge0.normalize();
+                m_normal0.set(edge0.y, -edge0.x);
+                convex1 = Vec2.cross(edge0, edge1) >= 0.0f;
+                offset0 = Vec2.dot(m_normal0, temp.set(m_centroidB).subLocal(m_v0));
+            }
+
+            // Is there a following edge?
+            if (hasVertex3) {
+                edge2.set(m_v3).subLocal(m_v2);
+                edge2.normalize();
+                m_normal2.set(edge2.y, -edge2.x);
+                convex2 = Vec2.cross(edge1, edge2) > 0.0f;
+                offset2 = Vec2.dot(m_normal2, temp.set(m_centroidB).subLocal(m_v2));
+            }
+
+            // Determine front or back collision. Determine collision normal limits.
+            if (hasVertex0 && hasVertex3) {
+                if (convex1 && convex2) {
+                    m_front = offset0 >= 0.0f || offset1 >= 0.0f || offset2 >= 0.0f;
+                    if (m_front) {
+                        setLimits(m_normal1, false, m_normal0, false, m_normal2, false);
+                    } else {
+                        setLimits(m_normal1, true, m_normal1, true, m_normal1, true);
+                    }
+                } else if (convex1) {
+                    m_front = offset0 >= 0.0f || (offset1 >= 0.0f && offset2 >= 0.0f);
+                    if (m_front) {
+                        setLimits(m_normal1, false, m_normal0, false, m_normal1, false);
+                    } else {
+                        setLimits(m_normal1, true, m_normal2, true, m_normal1, true);
+                    }
+                } else if (convex2) {
+                    m_front = offset2 >= 0.0f || (offset0 >= 0.0f && offset1 >= 0.0f);
+                    if (m_front) {
+                        setLimits(m_normal1, false, m_normal1, false, m_normal2, false);
+                    } else {
+                        setLimits(m_normal1, true, m_normal1, true, m_normal0, true);
+                    }
+                } else {
+                    m_front = offset0 >= 0.0f && offset1 >= 0.0f && offset2 >= 0.0f;
+                    if (m_front) {
+                        setLimits(m_normal1, false, m_normal1, false, m_normal1, false);
+                    } else {
+                        setLimits(m_normal1, true, m_normal2, true, m_normal0, true);
+                    }
+                }
+            } else if (hasVertex0) {
+                if (convex1) {
+                    m_front = offset0 >= 0.0f || offset1 >= 0.0f;
+                    if (m_front) {
+                        setLimits(m_normal1, false, m_normal0, false, m_normal1, true);
+                    } else {
+                        setLimits(m_normal1, true, m_normal1, false, m_normal1, true);
+                    }
+                } else {
+                    m_front = offset0 >= 0.0f && offset1 >= 0.0f;
+                    if (m_front) {
+                        setLimits(m_normal1, false, m_normal1, false, m_normal1, true);
+                    } else {
+                        setLimits(m_normal1, true, m_normal1, false, m_normal0, true);
+                    }
+                }
+            } else if (hasVertex3) {
+                if (convex2) {
+                    m_front = offset1 >= 0.0f || offset2 >= 0.0f;
+                    if (m_front) {
+                        setLimits(m_normal1, false, m_normal1, true, m_normal2, false);
+                    } else {
+                        setLimits(m_normal1, true, m_normal1, true, m_normal1, false);
+                    }
+                } else {
+                    m_front = offset1 >= 0.0f && offset2 >= 0.0f;
+                    if (m_front) {
+                        setLimits(m_normal1, false, m_normal1, true, m_normal1, false);
+                    } else {
+                        setLimits(m_normal1, true, m_normal2, true, m_normal1, false);
+                    }
+                }
+            } else {
+                m_front = offset1 >= 0.0f;
+                if (m_front) {
+                    setLimits(m_normal1, false, m_normal1, true, m_normal1, true);
+                } else {
+                    setLimits(m_normal1, true, m_normal1, false, m_normal1, false);
+                }
+            }
+
+            // Get polygonB in frameA
+            m_polygonB.count = polygonB.m_count;
+            for (int i = 0; i < polygonB.m_count; ++i) {
+                Transform.mulToOutUnsafe(m_xf, polygonB.m_vertices[i], m_polygonB.vertices[i]);
+                Rot.mulToOutUnsafe(m_xf.q, polygonB.m_normals[i], m_polygonB.normals[i]);
+            }
+
+            m_radius = 2.0f * Settings.polygonRadius;
+
+            manifold.pointCount = 0;
+
+            computeEdgeSeparation(edgeAxis);
+
+            // If no valid normal can be found than this edge should not collide.
+            if (edgeAxis.type == EPAxis.Type.UNKNOWN) {
+                return;
+            }
+
+            if (edgeAxis.separation > m_radius) {
+                return;
+            }
+
+            computePolygonSeparation(polygonAxis);
+            if (polygonAxis.type != EPAxis.Type.UNKNOWN && polygonAxis.separation > m_radius) {
+                return;
+            }
+
+            // Use hysteresis for jitter reduction.
+            final float k_relativeTol = 0.98f;
+            final float k_absoluteTol = 0.001f;
+
+            EPAxis primaryAxis;
+            if (polygonAxis.type == EPAxis.Type.UNKNOWN) {
+                primaryAxis = edgeAxis;
+            } else if (polygonAxis.separation
+                    > k_relativeTol * edgeAxis.separation + k_absoluteTol) {
+                primaryAxis = polygonAxis;
+            } else {
+                primaryAxis = edgeAxis;
+            }
+
+            final ClipVertex ie0 = ie[0];
+            final ClipVertex ie1 = ie[1];
+
+            if (primaryAxis.type == EPAxis.Type.EDGE_A) {
+                manifold.type = Manifold.ManifoldType.FACE_A;
+
+                // Search for the polygon normal that is most anti-parallel to the edge normal.
+                int bestIndex = 0;
+                float bestValue = Vec2.dot(m_normal, m_polygonB.normals[0]);
+                for (int i = 1; i < m_polygonB.count; ++i) {
+                    float value = Vec2.dot(m_normal, m_polygonB.normals[i]);
+                    if (value < bestValue) {
+                        bestValue = value;
+                        bestIndex = i;
+                    }
+                }
+
+                int i1 = bestIndex;
+                int i2 = i1 + 1 < m_polygonB.count ? i1 + 1 : 0;
+
+                ie0.v.set(m_polygonB.vertices[i1]);
+                ie0.id.indexA = 0;
+                ie0.id.indexB = (byte) i1;
+                ie0.id.typeA = (byte) ContactID.Type.FACE.ordinal();
+                ie0.id.typeB = (byte) ContactID.Type.VERTEX.ordinal();
+
+                ie1.v.set(m_polygonB.vertices[i2]);
+                ie1.id.indexA = 0;
+                ie1.id.indexB = (byte) i2;
+                ie1.id.typeA = (byte) ContactID.Type.FACE.ordinal();
+                ie1.id.typeB = (byte) ContactID.Type.VERTEX.ordinal();
+
+                if (m_front) {
+                    rf.i1 = 0;
+                    rf.i2 = 1;
+                    rf.v1.set(m_v1);
+                    rf.v2.set(m_v2);
+                    rf.normal.set(m_normal1);
+                } else {
+                    rf.i1 = 1;
+                    rf.i2 = 0;
+                    rf.v1.set(m_v2);
+                    rf.v2.set(m_v1);
+                    rf.normal.set(m_normal1).negateLocal();
+                }
+            } else {
+                manifold.type = Manifold.ManifoldType.FACE_B;
+
+                ie0.v.set(m_v1);
+                ie0.id.indexA = 0;
+                ie0.id.indexB = (byte) primaryAxis.index;
+                ie0.id.typeA = (byte) ContactID.Type.VERTEX.ordinal();
+                ie0.id.typeB = (byte) ContactID.Type.FACE.ordinal();
+
+                ie1.v.set(m_v2);
+                ie1.id.indexA = 0;
+                ie1.id.indexB = (byte) primaryAxis.index;
+                ie1.id.typeA = (byte) ContactID.Type.VERTEX.ordinal();
+                ie1.id.typeB = (byte) ContactID.Type.FACE.ordinal();
+
+                rf.i1 = primaryAxis.index;
+                rf.i2 = rf.i1 + 1 < m_polygonB.count ? rf.i1 + 1 : 0;
+                rf.v1.set(m_polygonB.vertices[rf.i1]);
+                rf.v2.set(m_polygonB.vertices[rf.i2]);
+                rf.normal.set(m_polygonB.normals[rf.i1]);
+            }
+
+            rf.sideNormal1.set(rf.normal.y, -rf.normal.x);
+            rf.sideNormal2.set(rf.sideNormal1).negateLocal();
+            rf.sideOffset1 = Vec2.dot(rf.sideNormal1, rf.v1);
+            rf.sideOffset2 = Vec2.dot(rf.sideNormal2, rf.v2);
+
+            // Clip incident edge against extruded edge1 side edges.
+            int np = Collision.clipSegmentToLine(clipPoints1, ie, rf.sideNormal1, rf.sideOffset1,
+                    rf.i1);
+            if (np < Settings.maxManifoldPoints) {
+                return;
+            }
+
+            // Clip to negative box side 1
+            np = Collision.clipSegmentToLine(clipPoints2, clipPoints1, rf.sideNormal2,
+                    rf.sideOffset2, rf.i2);
+            if (np < Settings.maxManifoldPoints) {
+                return;
+            }
+
+            // Now clipPoints2 contains the clipped points.
+            if (primaryAxis.type == EPAxis.Type.EDGE_A) {
+                manifold.localNormal.set(rf.normal);
+                manifold.localPoint.set(rf.v1);
+            } else {
+                manifold.localNormal.set(polygonB.m_normals[rf.i1]);
+                manifold.localPoint.set(polygonB.m_vertices[rf.i1]);
+            }
+
+            int pointCount = 0;
+            for (int i = 0; i < Settings.maxManifoldPoints; ++i) {
+                float separation = Vec2.dot(rf.normal, temp.set(clipPoints2[i].v).subLocal(rf.v1));
+                if (separation <= m_radius) {
+                    ManifoldPoint cp = manifold.points[pointCount];
+                    if (primaryAxis.type == EPAxis.Type.EDGE_A) {
+                        Transform.mulTransToOutUnsafe(m_xf, clipPoints2[i].v, cp.localPoint);
+                        cp.id.set(clipPoints2[i].id);
+                    } else {
+                        cp.localPoint.set(clipPoints2[i].v);
+                        cp.id.typeA = clipPoints2[i].id.typeB;
+                        cp.id.typeB = clipPoints2[i].id.typeA;
+                        cp.id.indexA = clipPoints2[i].id.indexB;
+                        cp.id.indexB = clipPoints2[i].id.indexA;
+                    }
+                    ++pointCount;
+                }
+            }
+            manifold.pointCount = pointCount;
+        }
+
+        private void setLimits(Vec2 normal, boolean negateNormal, Vec2 lower, boolean negateLower,
+                Vec2 upper, boolean negateUpper) {
+            setOrNegate(m_normal, normal, negateNormal);
+            setOrNegate(m_lowerLimit, lower, negateLower);
+            setOrNegate(m_upperLimit, upper, negateUpper);
+        }
+
+        private void computeEdgeSeparation(EPAxis axis) {
+            axis.type = EPAxis.Type.EDGE_A;
+            axis.index = m_front ? 0 : 1;
+            axis.separation = Float.MAX_VALUE;
+            float nx = m_normal.x;
+            float ny = m_normal.y;
+
+            for (int i = 0; i < m_polygonB.count; ++i) {
+                Vec2 v = m_polygonB.vertices[i];
+                float tempx = v.x - m_v1.x;
+                float tempy = v.y - m_v1.y;
+                float s = nx * tempx + ny * tempy;
+                if (s < axis.separation) {
+                    axis.separation = s;
+                }
+            }
+        }
+
+        private void computePolygonSeparation(EPAxis axis) {
+            axis.type = EPAxis.Type.UNKNOWN;
+            axis.index = -1;
+            axis.separation = -Float.MAX_VALUE;
+
+            perp.x = -m_normal.y;
+            perp.y = m_normal.x;
+
+            for (int i = 0; i < m_polygonB.count; ++i) {
+                Vec2 normalB = m_polygonB.normals[i];
+                Vec2 vB = m_polygonB.vertices[i];
+                n.x = -normalB.x;
+                n.y = -normalB.y;
+
+                float s1 = n.x * (vB.x - m_v1.x) + n.y * (vB.y - m_v1.y);
+                float s2 = n.x * (vB.x - m_v2.x) + n.y * (vB.y - m_v2.y);
+                float s = MathUtils.min(s1, s2);
+
+                if (s > m_radius) {
+                    // No collision
+                    axis.type = EPAxis.Type.EDGE_B;
+                    axis.index = i;
+                    axis.separation = s;
+                    return;
+                }
+
+                // Adjacency
+                if (n.x * perp.x + n.y * perp.y >= 0.0f) {
+                    if (Vec2.dot(temp.set(n).subLocal(m_upperLimit), m_normal)
+                            < -Settings.angularSlop) {
+                        continue;
+                    }
+                } else {
+                    if (Vec2.dot(temp.set(n).subLocal(m_lowerLimit), m_normal)
+                            < -Settings.angularSlop) {
+                        continue;
+                    }
+                }
+
+                if (s > axis.separation) {
+                    axis.type = EPAxis.Type.EDGE_B;
+                    axis.index = i;
+                    axis.separation = s;
+                }
+            }
+        }
+    }
+
+    private static void setOrNegate(Vec2 out, Vec2 v, boolean negate) {
+        if (negate) {
+            out.x = -v.x;
+            out.y = -v.y;
+        } else {
+            out.x = v.x;
+            out.y = v.y;
+        }
+    }
+
+    private static class ReferenceFace {
+        int i1;
+        int i2;
+        final Vec2 v1 = new Vec2();
+        final Vec2 v2 = new Vec2();
+        final Vec2 normal = new Vec2();
+        final Vec2 sideNormal1 = new Vec2();
+        float sideOffset1;
+        final Vec2 sideNormal2 = new Vec2();
+        float sideOffset2;
+    }
+
+    private static class TempPolygon {
+        final Vec2[] vertices = new Vec2[Settings.maxPolygonVertices];
+        final Vec2[] normals = new Vec2[Settings.maxPolygonVertices];
+        int count;
+
+        TempPolygon() {
+            for (int i = 0; i < vertices.length; i++) {
+                vertices[i] = new Vec2();
+                normals[i] = new Vec2();
+            }
+        }
+    }
+
+    private static class EPAxis {
+        enum Type {
+            UNKNOWN, EDGE_A, EDGE_B
+        }
+
+        Type type;
+        int index;
+        float separation;
+    }
+}
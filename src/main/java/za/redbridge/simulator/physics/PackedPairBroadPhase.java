@@ -0,0 +1,248 @@
+package za.redbridge.simulator.physics;
+
+import org.jbox2d.callbacks.DebugDraw;
+import org.jbox2d.callbacks.PairCallback;
+import org.jbox2d.callbacks.TreeCallback;
+import org.jbox2d.callbacks.TreeRayCastCallback;
+import org.jbox2d.collision.AABB;
+import org.jbox2d.collision.RayCastInput;
+import org.jbox2d.collision.broadphase.BroadPhase;
+import org.jbox2d.collision.broadphase.BroadPhaseStrategy;
+import org.jbox2d.collision.broadphase.DynamicTree;
+import org.jbox2d.common.Vec2;
+
+import java.util.Arrays;
+
+/**
+ * A broad phase that works exactly like JBox2D's
+ * {@link org.jbox2d.collision.broadphase.DefaultBroadPhaseBuffer} except that it doesn't allocate
+ * memory once its buffers have grown to size. The default implementation sorts its pairs with
+ * {@code Arrays.sort(Object[])}, which allocates a temporary array every step that more than a
+ * handful of pairs need updating. Here each pair is packed into a long so the pairs can be sorted
+ * as primitives, in the same order.
+ */
+public class PackedPairBroadPhase implements TreeCallback, BroadPhase {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final Vec2 ZERO_DISPLACEMENT = new Vec2();
+
+    private final BroadPhaseStrategy tree;
+
+    private int proxyCount = 0;
+
+    private int[] moveBuffer = new int[INITIAL_CAPACITY];
+    private int moveCount = 0;
+
+    // Proxy id A in the high bits, B in the low bits. Ids are never negative so these sort in the
+    // same order as JBox2D's Pair objects.
+    private long[] pairBuffer = new long[INITIAL_CAPACITY];
+    private int pairCount = 0;
+
+    private int queryProxyId = NULL_PROXY;
+
+    public PackedPairBroadPhase() {
+        this(new DynamicTree());
+    }
+
+    public PackedPairBroadPhase(BroadPhaseStrategy strategy) {
+        this.tree = strategy;
+    }
+
+    @Override
+    public int createProxy(AABB aabb, Object userData) {
+        int proxyId = tree.createProxy(aabb, userData);
+        ++proxyCount;
+        bufferMove(proxyId);
+        return proxyId;
+    }
+
+    @Override
+    public void destroyProxy(int proxyId) {
+        unbufferMove(proxyId);
+        --proxyCount;
+        tree.destroyProxy(proxyId);
+    }
+
+    @Override
+    public void moveProxy(int proxyId, AABB aabb, Vec2 displacement) {
+        if (tree.moveProxy(proxyId, aabb, displacement)) {
+            bufferMove(proxyId);
+        }
+    }
+
+    @Override
+    public void touchProxy(int proxyId) {
+        bufferMove(proxyId);
+    }
+
+    @Override
+    public Object getUserData(int proxyId) {
+        return tree.getUserData(proxyId);
+    }
+
+    @Override
+    public AABB getFatAABB(int proxyId) {
+        return tree.getFatAABB(proxyId);
+    }
+
+    @Override
+    public boolean testOverlap(int proxyIdA, int proxyIdB) {
+        AABB a = tree.getFatAABB(proxyIdA);
+        AABB b = tree.getFatAABB(proxyIdB);
+        if (b.lowerBound.x - a.upperBound.x > 0.0f || b.lowerBound.y - a.upperBound.y > 0.0f) {
+            return false;
+        }
+        return !(a.lowerBound.x - b.upperBound.x > 0.0f)
+                && !(a.lowerBound.y - b.upperBound.y > 0.0f);
+    }
+
+    @Override
+    public int getProxyCount() {
+        return proxyCount;
+    }
+
+    @Override
+    public void drawTree(DebugDraw argDraw) {
+        tree.drawTree(argDraw);
+    }
+
+    @Override
+    public void updatePairs(PairCallback callback) {
+        // Find all the pairs for the proxies that have moved
+        pairCount = 0;
+        for (int i = 0; i < moveCount; ++i) {
+            queryProxyId = moveBuffer[i];
+            if (queryProxyId == NULL_PROXY) {
+                continue;
+            }
+
+            tree.query(this, tree.getFatAABB(queryProxyId));
+        }
+        moveCount = 0;
+
+        // Sort so that duplicates are next to each other
+        Arrays.sort(pairBuffer, 0, pairCount);
+
+        // Report each pair once
+        int i = 0;
+        while (i < pairCount) {
+            long primaryPair = pairBuffer[i];
+            Object userDataA = tree.getUserData(proxyIdA(primaryPair));
+            Object userDataB = tree.getUserData(proxyIdB(primaryPair));
+            callback.addPair(userDataA, userDataB);
+            ++i;
+
+            // Skip any duplicate pairs
+            while (i < pairCount && pairBuffer[i] == primaryPair) {
+                ++i;
+            }
+        }
+    }
+
+    @Override
+    public void query(TreeCallback callback, AABB aabb) {
+        tree.query(callback, aabb);
+    }
+
+    @Override
+    public void raycast(TreeRayCastCallback callback, RayCastInput input) {
+        tree.raycast(callback, input);
+    }
+
+    @Override
+    public int getTreeHeight() {
+        return tree.getHeight();
+    }
+
+    @Override
+    public int getTreeBalance() {
+        return tree.getMaxBalance();
+    }
+
+    @Override
+    public float getTreeQuality() {
+        return tree.getAreaRatio();
+    }
+
+    /** Get the number of proxies that have moved since the pairs were last updated. */
+    public int getMoveCount() {
+        return moveCount;
+    }
+
+    /**
+     * Get the id of a proxy that has moved since the pairs were last updated, or
+     * {@link #NULL_PROXY} if it has since been destroyed.
+     * @param index the index of the move, less than {@link #getMoveCount()}
+     */
+    public int getMove(int index) {
+        return moveBuffer[index];
+    }
+
+    /**
+     * Forget the proxies that have moved, e.g. to restore a checkpoint. Use
+     * {@link #touchProxy(int)} to add them again.
+     */
+    public void clearMoves() {
+        moveCount = 0;
+    }
+
+    /**
+     * Set the fat AABB of a proxy to exactly the given box, e.g. to restore a checkpoint. Moving a
+     * proxy only replaces its box if it has left it, and then with a box grown by a margin. The
+     * proxy isn't added to the moved proxies.
+     */
+    public void setFatAABB(int proxyId, AABB aabb) {
+        // Moving the proxy makes sure the tree's nodes contain the new box, shrinking the proxy's
+        // box in place afterwards keeps it that way
+        tree.moveProxy(proxyId, aabb, ZERO_DISPLACEMENT);
+        tree.getFatAABB(proxyId).set(aabb);
+    }
+
+    @Override
+    public boolean treeCallback(int proxyId) {
+        // A proxy cannot form a pair with itself
+        if (proxyId == queryProxyId) {
+            return true;
+        }
+
+        if (pairCount == pairBuffer.length) {
+            pairBuffer = Arrays.copyOf(pairBuffer, pairBuffer.length * 2);
+        }
+
+        if (proxyId < queryProxyId) {
+            pairBuffer[pairCount] = packPair(proxyId, queryProxyId);
+        } else {
+            pairBuffer[pairCount] = packPair(queryProxyId, proxyId);
+        }
+        ++pairCount;
+        return true;
+    }
+
+    private void bufferMove(int proxyId) {
+        if (moveCount == moveBuffer.length) {
+            moveBuffer = Arrays.copyOf(moveBuffer, moveBuffer.length * 2);
+        }
+        moveBuffer[moveCount++] = proxyId;
+    }
+
+    private void unbufferMove(int proxyId) {
+        for (int i = 0; i < moveCount; ++i) {
+            if (moveBuffer[i] == proxyId) {
+                moveBuffer[i] = NULL_PROXY;
+            }
+        }
+    }
+
+    private static long packPair(int proxyIdA, int proxyIdB) {
+        return ((long) proxyIdA << 32) | proxyIdB;
+    }
+
+    private static int proxyIdA(long pair) {
+        return (int) (pair >>> 32);
+    }
+
+    private static int proxyIdB(long pair) {
+        return (int) pair;
+    }
+}
@@ -0,0 +1,269 @@
+package za.redbridge.simulator.physics;
+
+import org.jbox2d.collision.AABB;
+import org.jbox2d.collision.Collision;
+import org.jbox2d.collision.shapes.Shape;
+import org.jbox2d.common.MathUtils;
+import org.jbox2d.common.Transform;
+import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.Fixture;
+import org.jbox2d.dynamics.World;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Spatial index of the fixtures in a physics world, used by sensors to find the fixtures near a
+ * robot. Each robot queries this index once per step and its sensors test the fixtures returned
+ * against their own shapes. This keeps sensors out of the physics world, so they don't add large
+ * fixtures to its broadphase or make it track a contact for everything a sensor overlaps.
+ *
+ * The index is a uniform grid over the environment, stored as one array of fixture indices sorted
+ * by cell. It is rebuilt on the first query after it is {@link #invalidate() invalidated}, which
+ * the simulation does after every physics step. Fixtures that cover many cells (walls and the
+ * target area) are kept out of the grid and checked on every query.
+ */
+public class SensorIndex {
+
+    private static final float CELL_SIZE = 2f;
+
+    // Fixtures that would be put in more cells than this are checked on every query instead
+    private static final int MAX_FIXTURE_CELLS = 16;
+
+    private final World world;
+    private final Collision collision;
+
+    private final int columns;
+    private final int rows;
+
+    // cellFixtures[cellStarts[cell]] to cellFixtures[cellStarts[cell + 1] - 1] are in the cell
+    private final int[] cellStarts;
+    private int[] cellFixtures = new int[0];
+
+    private Fixture[] fixtures = new Fixture[0];
+
+    // Per fixture: the cell range it covers, or a negative first column for the large fixtures
+    private int[] fixtureCells = new int[0];
+
+    private int[] largeFixtures = new int[0];
+    private int largeFixtureCount = 0;
+
+    // Stops fixtures in more than one cell being returned more than once by a query
+    private int[] queryMarks = new int[0];
+    private int queryMark = 0;
+
+    private boolean valid = false;
+    private int version = 0;
+
+    /**
+     * Create an index for a world.
+     * @param world the physics world
+     * @param width the width of the environment
+     * @param height the height of the environment
+     */
+    public SensorIndex(World world, float width, float height) {
+        this.world = world;
+        this.collision = new Collision(world.getPool());
+
+        columns = Math.max(1, MathUtils.ceil(width / CELL_SIZE));
+        rows = Math.max(1, MathUtils.ceil(height / CELL_SIZE));
+        cellStarts = new int[columns * rows + 1];
+    }
+
+    /**
+     * Mark the index as out of date because the bodies in the world have moved. The index is
+     * rebuilt when it is next queried.
+     */
+    public void invalidate() {
+        valid = false;
+        version++;
+    }
+
+    /**
+     * Get the version of the index. The version changes every time the index is invalidated, so
+     * query results can be kept for as long as the version stays the same.
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Find the fixtures whose AABBs overlap the given AABB. The fixtures are always found in the
+     * same order for the same world.
+     * @param aabb the area to search
+     * @param out the list to add the fixtures to
+     */
+    public void query(AABB aabb, List<Fixture> out) {
+        if (!valid) {
+            rebuild();
+        }
+
+        final Fixture[] fixtures = this.fixtures;
+
+        for (int i = 0; i < largeFixtureCount; i++) {
+            Fixture fixture = fixtures[largeFixtures[i]];
+            if (AABB.testOverlap(aabb, fixture.getAABB(0))) {
+                out.add(fixture);
+            }
+        }
+
+        final int mark = nextQueryMark();
+        final int[] queryMarks = this.queryMarks;
+        final int[] cellStarts = this.cellStarts;
+        final int[] cellFixtures = this.cellFixtures;
+
+        final int minColumn = column(aabb.lowerBound.x);
+        final int maxColumn = column(aabb.upperBound.x);
+        final int minRow = row(aabb.lowerBound.y);
+        final int maxRow = row(aabb.upperBound.y);
+        for (int row = minRow; row <= maxRow; row++) {
+            for (int column = minColumn; column <= maxColumn; column++) {
+                int cell = row * columns + column;
+                for (int i = cellStarts[cell], end = cellStarts[cell + 1]; i < end; i++) {
+                    int index = cellFixtures[i];
+                    if (queryMarks[index] == mark) {
+                        continue;
+                    }
+                    queryMarks[index] = mark;
+
+                    Fixture fixture = fixtures[index];
+                    if (AABB.testOverlap(aabb, fixture.getAABB(0))) {
+                        out.add(fixture);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Test whether a shape overlaps a fixture, the same test the physics world uses to decide
+     * whether a sensor fixture is touching another fixture.
+     * @param shape the shape
+     * @param transform the shape's transform
+     * @param fixture the fixture
+     * @return true if they overlap
+     */
+    public boolean testOverlap(Shape shape, Transform transform, Fixture fixture) {
+        final Shape fixtureShape = fixture.getShape();
+        final Transform fixtureTransform = fixture.getBody().getTransform();
+        for (int i = 0, n = fixtureShape.getChildCount(); i < n; i++) {
+            if (collision.testOverlap(shape, 0, fixtureShape, i, transform, fixtureTransform)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void rebuild() {
+        // Gather the fixtures
+        int count = 0;
+        for (Body body = world.getBodyList(); body != null; body = body.getNext()) {
+            for (Fixture fixture = body.getFixtureList(); fixture != null;
+                    fixture = fixture.getNext()) {
+                count++;
+            }
+        }
+        ensureFixtureCapacity(count);
+
+        final Fixture[] fixtures = this.fixtures;
+        count = 0;
+        for (Body body = world.getBodyList(); body != null; body = body.getNext()) {
+            for (Fixture fixture = body.getFixtureList(); fixture != null;
+                    fixture = fixture.getNext()) {
+                fixtures[count++] = fixture;
+            }
+        }
+
+        // Count the fixtures in each cell
+        final int[] cellStarts = this.cellStarts;
+        final int[] fixtureCells = this.fixtureCells;
+        Arrays.fill(cellStarts, 0);
+        largeFixtureCount = 0;
+        int entries = 0;
+        for (int i = 0; i < count; i++) {
+            AABB aabb = fixtures[i].getAABB(0);
+            int minColumn = column(aabb.lowerBound.x);
+            int maxColumn = column(aabb.upperBound.x);
+            int minRow = row(aabb.lowerBound.y);
+            int maxRow = row(aabb.upperBound.y);
+
+            int cells = (maxColumn - minColumn + 1) * (maxRow - minRow + 1);
+            if (cells > MAX_FIXTURE_CELLS) {
+                largeFixtures[largeFixtureCount++] = i;
+                fixtureCells[i * 4] = -1;
+                continue;
+            }
+
+            fixtureCells[i * 4] = minColumn;
+            fixtureCells[i * 4 + 1] = maxColumn;
+            fixtureCells[i * 4 + 2] = minRow;
+            fixtureCells[i * 4 + 3] = maxRow;
+            for (int row = minRow; row <= maxRow; row++) {
+                for (int column = minColumn; column <= maxColumn; column++) {
+                    cellStarts[row * columns + column + 1]++;
+                }
+            }
+            entries += cells;
+        }
+
+        for (int i = 1; i < cellStarts.length; i++) {
+            cellStarts[i] += cellStarts[i - 1];
+        }
+
+        // Fill the cells, using the starts as write positions and then shifting them back
+        if (cellFixtures.length < entries) {
+            cellFixtures = new int[entries];
+        }
+        final int[] cellFixtures = this.cellFixtures;
+        for (int i = 0; i < count; i++) {
+            int minColumn = fixtureCells[i * 4];
+            if (minColumn < 0) {
+                continue;
+            }
+
+            int maxColumn = fixtureCells[i * 4 + 1];
+            int minRow = fixtureCells[i * 4 + 2];
+            int maxRow = fixtureCells[i * 4 + 3];
+            for (int row = minRow; row <= maxRow; row++) {
+                for (int column = minColumn; column <= maxColumn; column++) {
+                    cellFixtures[cellStarts[row * columns + column]++] = i;
+                }
+            }
+        }
+        for (int i = cellStarts.length - 1; i > 0; i--) {
+            cellStarts[i] = cellStarts[i - 1];
+        }
+        cellStarts[0] = 0;
+
+        valid = true;
+    }
+
+    private void ensureFixtureCapacity(int count) {
+        if (fixtures.length >= count) {
+            return;
+        }
+
+        fixtures = new Fixture[count];
+        fixtureCells = new int[count * 4];
+        largeFixtures = new int[count];
+        queryMarks = new int[count];
+        queryMark = 0;
+    }
+
+    private int nextQueryMark() {
+        if (++queryMark == 0) {
+            // Wrapped around, so old marks could match again
+            Arrays.fill(queryMarks, 0);
+            queryMark = 1;
+        }
+        return queryMark;
+    }
+
+    private int column(float x) {
+        return Math.max(0, Math.min(columns - 1, MathUtils.floor(x / CELL_SIZE)));
+    }
+
+    private int row(float y) {
+        return Math.max(0, Math.min(rows - 1, MathUtils.floor(y / CELL_SIZE)));
+    }
+}
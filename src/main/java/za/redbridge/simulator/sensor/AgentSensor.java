@@ -15,10 +15,13 @@ import org.jbox2d.dynamics.Fixture;
 
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 
+import za.redbridge.simulator.object.ObjectCategories;
 import za.redbridge.simulator.object.PhysicalObject;
 import za.redbridge.simulator.object.RobotObject;
 import za.redbridge.simulator.physics.FilterConstants;
@@ -37,6 +40,9 @@ import static za.redbridge.simulator.Utils.isNearlyZero;
  */
 public abstract class AgentSensor extends Sensor<List<Double>> {
 
+    /** Returned by {@link #getMaxSensedObjects()} by sensors that read every object they sense. */
+    protected static final int ALL_OBJECTS = Integer.MAX_VALUE;
+
     protected final float bearing;
     protected final float orientation;
     protected final float range;
@@ -44,9 +50,33 @@ public abstract class AgentSensor extends Sensor<List<Double>> {
 
     private final float fovGradient;
 
+    // Polygon distances are measured along rays that may be longer than the range but are scaled
+    // as if they weren't, so can be this much less than the actual distance (less a little for
+    // rounding)
+    private final float polygonDistanceScale;
+
     protected Map<String, Object> additionalConfigs = null;
 
     private final List<SensedObject> sensedObjects = new ArrayList<>();
+
+    // Sensed objects and scratch space are reused between readings so that, once warmed up,
+    // sensing doesn't allocate anything
+    private final SensedObjectPool<CircleSensedObject> circleSensedObjects =
+            new SensedObjectPool<>(CircleSensedObject::new);
+    private final SensedObjectPool<PolygonSensedObject> polygonSensedObjects =
+            new SensedObjectPool<>(PolygonSensedObject::new);
+    private final SensedObjectPool<EdgeSensedObject> edgeSensedObjects =
+            new SensedObjectPool<>(EdgeSensedObject::new);
+
+    private final RayCastInput rayCastInput = new RayCastInput();
+    private final RayCastOutput rayCastOutput = new RayCastOutput();
+    private final AABB polygonAABB = new AABB();
+    private final Vec2 edgeVertex1 = new Vec2();
+    private final Vec2 edgeVertex2 = new Vec2();
+
+    // Sized lazily since getReadingSize() can't be called from the constructor
+    private double[] readingBuffer;
+
     private final List<Double> readings = new ArrayList<>();
     private final List<Double> unmodifiableReadings = Collections.unmodifiableList(readings);
 
@@ -56,6 +86,7 @@ public abstract class AgentSensor extends Sensor<List<Double>> {
         range = 10.0f;
         fieldOfView = 1.5f;
         fovGradient = (float) Math.tan(fieldOfView / 2);
+        polygonDistanceScale = (float) Math.cos(fieldOfView / 2) * 0.999f;
     }
 
     public AgentSensor(float bearing, float orientation, float range, float fieldOfView) {
@@ -73,6 +104,7 @@ public abstract class AgentSensor extends Sensor<List<Double>> {
         this.fieldOfView = fieldOfView;
 
         fovGradient = (float) Math.tan(fieldOfView / 2);
+        polygonDistanceScale = (float) Math.cos(fieldOfView / 2) * 0.999f;
     }
 
     @Override
@@ -121,31 +153,160 @@ public abstract class AgentSensor extends Sensor<List<Double>> {
         return new ConePortrayal(range, fieldOfView, DEFAULT_PAINT);
     }
 
+    /**
+     * Take a reading and write it into part of an array rather than returning a list, so that the
+     * readings don't need to be boxed.
+     * @param output the array to write to
+     * @param offset where in the array to start writing this sensor's
+     *               {@link #getReadingSize()} readings
+     */
+    public final void sense(double[] output, int offset) {
+        final double[] readingBuffer = getReadingBuffer();
+        takeReading(readingBuffer);
+        System.arraycopy(readingBuffer, 0, output, offset, readingBuffer.length);
+    }
+
+    /**
+     * Take a reading of the objects in the sensor's field. Sensors that don't need to know about
+     * every object in their field, such as ray casting sensors, can override this.
+     * @param output the array to write exactly {@link #getReadingSize()} readings to
+     */
+    protected void takeReading(double[] output) {
+        // Convert to an actual reading in a subclass
+        provideObjectReading(senseObjects(collectFixtures()), output, 0);
+    }
+
     @Override
     protected List<Double> provideReading(List<Fixture> fixtures) {
+        final double[] readingBuffer = getReadingBuffer();
+
+        // Convert to an actual reading in a subclass
+        provideObjectReading(senseObjects(fixtures), readingBuffer, 0);
+
+        // Return an unmodifiable view of the readings produced
+        return getPreviousReadings();
+    }
+
+    private List<SensedObject> senseObjects(List<Fixture> fixtures) {
         final List<SensedObject> sensedObjects = this.sensedObjects;
         sensedObjects.clear();
 
-        // Sense each fixture and filter out those that can't be sensed
-        for (Fixture fixture : fixtures) {
-            SensedObject object = senseFixture(fixture);
-            if (object != null) {
-                sensedObjects.add(object);
+        // The previous reading's objects are no longer needed
+        recycleSensedObjects();
+
+        final int n = fixtures.size();
+        final int maxObjects = getMaxSensedObjects();
+        if (maxObjects >= n) {
+            // Sense each fixture and filter out those that can't be sensed
+            for (int i = 0; i < n; i++) {
+                Fixture fixture = fixtures.get(i);
+                SensedObject object = senseFixture(fixture, getFixtureRelativeTransform(fixture));
+                if (object != null) {
+                    sensedObjects.add(object);
+                }
+            }
+
+            // Sort objects (closest first)
+            Collections.sort(sensedObjects);
+        } else {
+            // Only keep the closest objects, in order. Fixtures that can't be closer than the
+            // furthest object kept so far aren't sensed at all.
+            for (int i = 0; i < n; i++) {
+                Fixture fixture = fixtures.get(i);
+                Transform objectRelativeTransform = getFixtureRelativeTransform(fixture);
+                if (sensedObjects.size() == maxObjects
+                        && getDistanceLowerBound(fixture, objectRelativeTransform)
+                                >= sensedObjects.get(maxObjects - 1).getDistance()) {
+                    continue;
+                }
+
+                SensedObject object = senseFixture(fixture, objectRelativeTransform);
+                if (object != null) {
+                    insertSensedObject(object, maxObjects);
+                }
             }
         }
 
-        // Sort objects (closest first)
-        Collections.sort(sensedObjects);
+        return sensedObjects;
+    }
 
-        // Clear the previous readings
-        final List<Double> readings = this.readings;
-        readings.clear();
+    /*
+     * Insert an object into the sorted list of sensed objects, keeping at most maxObjects. Objects
+     * go after any at the same distance, so the list is the same as the first maxObjects of a
+     * stable sort of all the objects.
+     */
+    private void insertSensedObject(SensedObject object, int maxObjects) {
+        final List<SensedObject> sensedObjects = this.sensedObjects;
+        int index = sensedObjects.size();
+        while (index > 0 && sensedObjects.get(index - 1).compareTo(object) > 0) {
+            index--;
+        }
 
-        // Convert to an actual reading in a subclass
-        provideObjectReading(sensedObjects, readings);
+        if (index < maxObjects) {
+            if (sensedObjects.size() == maxObjects) {
+                sensedObjects.remove(maxObjects - 1);
+            }
+            sensedObjects.add(index, object);
+        }
+    }
 
-        // Return an unmodifiable view of the readings produced
-        return unmodifiableReadings;
+    /**
+     * Get the number of objects this sensor's {@link #provideObjectReading(List, double[], int)}
+     * needs: 1 for sensors that only read the closest object, or {@link #ALL_OBJECTS}. Only that
+     * many of the closest objects are passed to it, which is cheaper than sorting every object in
+     * the sensor's field.
+     */
+    protected int getMaxSensedObjects() {
+        return ALL_OBJECTS;
+    }
+
+    /**
+     * Get a distance that the {@link SensedObject} for a fixture can't be closer than, so that
+     * fixtures that can't be among the closest objects needn't be sensed. Only used if
+     * {@link #getMaxSensedObjects()} is limited. The default is the distance to the fixture's
+     * bounding circle about its body's origin, so sensors that override the sense*Fixture methods
+     * to measure distance differently should override this too.
+     * @param fixture the fixture
+     * @param objectRelativeTransform the fixture's body's transform relative to the sensor
+     * @return a lower bound on the distance of the fixture's sensed object
+     */
+    protected float getDistanceLowerBound(Fixture fixture, Transform objectRelativeTransform) {
+        final Shape shape = fixture.getShape();
+        final float distance = objectRelativeTransform.p.length();
+        switch (shape.getType()) {
+            case CIRCLE:
+                CircleShape circleShape = (CircleShape) shape;
+                return distance - circleShape.m_p.length() - circleShape.getRadius();
+            case POLYGON:
+                PolygonShape polygonShape = (PolygonShape) shape;
+                float maxLengthSquared = 0f;
+                for (int i = 0, n = polygonShape.getVertexCount(); i < n; i++) {
+                    maxLengthSquared = Math.max(maxLengthSquared,
+                            polygonShape.getVertex(i).lengthSquared());
+                }
+                float bound = distance - MathUtils.sqrt(maxLengthSquared);
+                return bound > 0 ? bound * polygonDistanceScale : bound;
+            case EDGE:
+                EdgeShape edgeShape = (EdgeShape) shape;
+                return distance
+                        - Math.max(edgeShape.m_vertex1.length(), edgeShape.m_vertex2.length());
+            default:
+                return Float.NEGATIVE_INFINITY;
+        }
+    }
+
+    /* package */ void recycleSensedObjects() {
+        circleSensedObjects.recycleAll();
+        polygonSensedObjects.recycleAll();
+        edgeSensedObjects.recycleAll();
+    }
+
+    /** Get the array the latest reading is kept in. */
+    protected final double[] getReadingBuffer() {
+        if (readingBuffer == null) {
+            readingBuffer = new double[getReadingSize()];
+        }
+        return readingBuffer;
     }
 
     /**
@@ -153,6 +314,14 @@ public abstract class AgentSensor extends Sensor<List<Double>> {
      * @return An unmodifiable list of the previous readings of this sensor
      */
     public List<Double> getPreviousReadings() {
+        // Only box the readings when they're asked for as a list
+        final List<Double> readings = this.readings;
+        readings.clear();
+        if (readingBuffer != null) {
+            for (double reading : readingBuffer) {
+                readings.add(reading);
+            }
+        }
         return unmodifiableReadings;
     }
 
@@ -160,11 +329,10 @@ public abstract class AgentSensor extends Sensor<List<Double>> {
      * Determines whether an object lies within the field of the sensor and if so where in the field
      * the object exists.
      * @param fixture the fixture to check
+     * @param objectRelativeTransform the fixture's body's transform relative to the sensor
      * @return a {@link SensedObject} reading if the object is in the field, else null
      */
-    private SensedObject senseFixture(Fixture fixture) {
-        Transform objectRelativeTransform = getFixtureRelativeTransform(fixture);
-
+    private SensedObject senseFixture(Fixture fixture, Transform objectRelativeTransform) {
         switch (fixture.getShape().getType()) {
             case CIRCLE:
                 return senseCircleFixture(fixture, objectRelativeTransform);
@@ -217,8 +385,9 @@ public abstract class AgentSensor extends Sensor<List<Double>> {
             distance = objectRelativeTransform.p.length() - radius;
         }
 
-        return new CircleSensedObject(getFixtureObject(circleFixture), distance, radius, x, y, x0,
-                y0, x1, y1);
+        CircleSensedObject sensedObject = circleSensedObjects.obtain();
+        sensedObject.set(getFixtureObject(circleFixture), distance, radius, x, y, x0, y0, x1, y1);
+        return sensedObject;
     }
 
     private float lineCircleIntersection(float m, float c, float p, float q, float r) {
@@ -233,10 +402,13 @@ public abstract class AgentSensor extends Sensor<List<Double>> {
             Transform objectRelativeTransform) {
         PolygonShape polygonShape = (PolygonShape) polygonFixture.getShape();
 
-        RayCastInput rin = new RayCastInput();
+        RayCastInput rin = rayCastInput;
+        rin.p1.setZero();
+        rin.p2.set(range, 0f);
         rin.maxFraction = 1f;
-        rin.p2.x = range;
-        RayCastOutput rout = new RayCastOutput();
+        RayCastOutput rout = rayCastOutput;
+        rout.fraction = 0f; // Not written to if the ray misses
+        rout.normal.setZero();
         polygonShape.raycast(rout, rin, objectRelativeTransform, 0);
 
         // If raycast down the middle unsuccessful, try the edges of the field of view
@@ -260,7 +432,7 @@ public abstract class AgentSensor extends Sensor<List<Double>> {
 
         float distance = rout.fraction * range;
 
-        AABB aabb = new AABB();
+        AABB aabb = polygonAABB;
         polygonShape.computeAABB(aabb, objectRelativeTransform, 0);
         float x0 = aabb.lowerBound.x;
         float y0 = aabb.lowerBound.y;
@@ -286,8 +458,8 @@ public abstract class AgentSensor extends Sensor<List<Double>> {
             y1 = yMax;
         }
 
-        return new PolygonSensedObject(getFixtureObject(polygonFixture), distance, x0, y0, x1 - x0,
-                y1 - y0);
+        return obtainPolygonSensedObject(getFixtureObject(polygonFixture), distance, x0, y0,
+                x1 - x0, y1 - y0);
     }
 
     protected SensedObject senseEdgeFixture(Fixture edgeFixture,
@@ -295,8 +467,10 @@ public abstract class AgentSensor extends Sensor<List<Double>> {
         EdgeShape edgeShape = (EdgeShape) edgeFixture.getShape();
 
         // Transform ends of edge to space relative to sensor
-        Vec2 v1 = Transform.mul(objectRelativeTransform, edgeShape.m_vertex1);
-        Vec2 v2 = Transform.mul(objectRelativeTransform, edgeShape.m_vertex2);
+        Vec2 v1 = edgeVertex1;
+        Vec2 v2 = edgeVertex2;
+        Transform.mulToOutUnsafe(objectRelativeTransform, edgeShape.m_vertex1, v1);
+        Transform.mulToOutUnsafe(objectRelativeTransform, edgeShape.m_vertex2, v2);
 
         // Check if vertical or horizontal line to prevent division by zero
         float dy = v2.y - v1.y;
@@ -380,7 +554,21 @@ public abstract class AgentSensor extends Sensor<List<Double>> {
             }
         }
 
-        return new EdgeSensedObject(getFixtureObject(edgeFixture), distance, x1, y1, x2, y2);
+        EdgeSensedObject sensedObject = edgeSensedObjects.obtain();
+        sensedObject.set(getFixtureObject(edgeFixture), distance, x1, y1, x2, y2);
+        return sensedObject;
+    }
+
+    /**
+     * Get a {@link PolygonSensedObject} for the current reading. Subclasses that override
+     * {@link #sensePolygonFixture(Fixture, Transform)} should use this rather than creating new
+     * instances.
+     */
+    protected final PolygonSensedObject obtainPolygonSensedObject(PhysicalObject object,
+            float distance, float x, float y, float w, float h) {
+        PolygonSensedObject sensedObject = polygonSensedObjects.obtain();
+        sensedObject.set(object, distance, x, y, w, h);
+        return sensedObject;
     }
 
     /**
@@ -395,12 +583,19 @@ public abstract class AgentSensor extends Sensor<List<Double>> {
 
     /**
      * Converts a list of objects that have been determined to fall within the sensor's range into
-     * a list of readings in the range [0.0, 1.0].
-     * @param objects the objects in the sensor's field, *sorted by distance*
-     * @param output the output vector for this sensor. Write the sensor output to this list (which
-     *               should be empty).
+     * readings in the range [0.0, 1.0]. Sensors that don't read objects, because they override
+     * {@link #takeReading(double[])} and {@link #provideReading(List)}, needn't override this.
+     * The default reads 0 as if nothing were sensed.
+     * @param objects the objects in the sensor's field, *sorted by distance*. Only the closest
+     *                {@link #getMaxSensedObjects()} objects are included.
+     * @param output the output vector for this sensor. Write exactly {@link #getReadingSize()}
+     *               readings to this array, starting at the offset.
+     * @param offset the index of this sensor's first reading in the output
      */
-    protected abstract void provideObjectReading(List<SensedObject> objects, List<Double> output);
+    protected void provideObjectReading(List<SensedObject> objects, double[] output,
+            int offset) {
+        Arrays.fill(output, offset, offset + getReadingSize(), 0.0);
+    }
 
     public abstract void readAdditionalConfigs(Map<String, Object> map) throws ParseException;
 
@@ -412,6 +607,45 @@ public abstract class AgentSensor extends Sensor<List<Double>> {
         return false;
     }
 
+    /**
+     * Compile a space separated list of object class names from a sensor's configs into mask bits
+     * that let through objects of those types, so that other objects are filtered out before they
+     * reach the sensor.
+     * @param classNames the fully qualified class names
+     * @return the mask bits
+     * @throws ParseException if a class doesn't exist or isn't a type of object that can be sensed
+     */
+    protected static int parseClassMaskBits(String classNames) throws ParseException {
+        int maskBits = 0;
+        for (String className : classNames.trim().split("\\s+")) {
+            final int bits;
+            try {
+                bits = ObjectCategories.getCategoryBits(className);
+            } catch (ClassNotFoundException e) {
+                throw new ParseException("Specified class not found: " + className, 0);
+            }
+
+            if (bits == 0) {
+                throw new ParseException("Objects of type " + className + " can't be sensed", 0);
+            }
+            maskBits |= bits;
+        }
+        return maskBits;
+    }
+
+    /**
+     * Get the category bits an agent sensor needs to sense objects in the given categories.
+     * @param maskBits the categories of the objects to sense
+     */
+    protected static int getCategoryBitsToSense(int maskBits) {
+        int categoryBits = FilterConstants.CategoryBits.AGENT_SENSOR;
+        if ((maskBits & FilterConstants.CategoryBits.TARGET_AREA) != 0) {
+            // The target area only collides with target area sensors
+            categoryBits |= FilterConstants.CategoryBits.TARGET_AREA_SENSOR;
+        }
+        return categoryBits;
+    }
+
     @Override
     public abstract AgentSensor clone();
 
@@ -434,4 +668,26 @@ public abstract class AgentSensor extends Sensor<List<Double>> {
     public float getFieldOfView() {
         return fieldOfView;
     }
+
+    /** Hands out instances for a reading and takes them all back before the next reading. */
+    private static class SensedObjectPool<T extends SensedObject> {
+        private final Supplier<T> factory;
+        private final List<T> objects = new ArrayList<>();
+        private int used = 0;
+
+        SensedObjectPool(Supplier<T> factory) {
+            this.factory = factory;
+        }
+
+        T obtain() {
+            if (used == objects.size()) {
+                objects.add(factory.get());
+            }
+            return objects.get(used++);
+        }
+
+        void recycleAll() {
+            used = 0;
+        }
+    }
 }
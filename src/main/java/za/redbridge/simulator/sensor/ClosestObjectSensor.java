@@ -6,7 +6,6 @@ import org.jbox2d.common.Vec2;
 import org.jbox2d.dynamics.Fixture;
 
 import java.util.List;
-import java.util.Optional;
 
 import za.redbridge.simulator.object.PhysicalObject;
 import za.redbridge.simulator.physics.FilterConstants;
@@ -14,11 +13,16 @@ import za.redbridge.simulator.physics.FilterConstants;
 
 /**
  * A sensor that picks up the closest relevant object and determines the distance to that object as
- * well as the position on the edge of that object that is closest to the sensor.
+ * well as the position on the edge of that object that is closest to the sensor. The reading is
+ * null if there is no object in the sensor's field. NOTE: the same {@link ClosestObject} instance
+ * is returned for every reading.
  * Created by jamie on 2014/08/05.
  */
-public abstract class ClosestObjectSensor
-        extends Sensor<Optional<ClosestObjectSensor.ClosestObject>> {
+public abstract class ClosestObjectSensor extends Sensor<ClosestObjectSensor.ClosestObject> {
+
+    private final ClosestObject closestObject = new ClosestObject();
+    private final Vec2 normal = new Vec2();
+    private final Vec2 closestNormal = new Vec2();
 
     public ClosestObjectSensor() {
     }
@@ -28,40 +32,47 @@ public abstract class ClosestObjectSensor
         return FilterConstants.CategoryBits.HEURISTIC_SENSOR;
     }
 
-    protected ClosestObject senseFixture(Fixture fixture) {
-        Transform objectRelativeTransform = getFixtureRelativeTransform(fixture);
-
-        Vec2 vec = new Vec2();
-        float dist = fixture.computeDistance(getBody().getPosition(), 0, vec);
-
-        vec.mulLocal(-dist); // negated because the normal is given from the fixture to the sensor
-        Rot.mulToOut(objectRelativeTransform.q, vec, vec);
-
-        return new ClosestObject(getFixtureObject(fixture), dist, vec);
-    }
-
     @Override
-    protected Optional<ClosestObject> provideReading(List<Fixture> fixtures) {
+    protected ClosestObject provideReading(List<Fixture> fixtures) {
         // Find the closest object
-        ClosestObject closestObject = null;
-        double closestDistance = Double.MAX_VALUE;
-        for (Fixture fixture : fixtures) {
-            ClosestObject object = senseFixture(fixture);
-            double distance = object.getDistance();
+        Fixture closestFixture = null;
+        float closestDistance = Float.MAX_VALUE;
+        for (int i = 0, n = fixtures.size(); i < n; i++) {
+            Fixture fixture = fixtures.get(i);
+            float distance = fixture.computeDistance(getBody().getPosition(), 0, normal);
             if (distance < closestDistance) {
-                closestObject = object;
+                closestFixture = fixture;
                 closestDistance = distance;
+                closestNormal.set(normal);
             }
         }
-        return Optional.ofNullable(closestObject);
+
+        if (closestFixture == null) {
+            return null;
+        }
+
+        Transform objectRelativeTransform = getFixtureRelativeTransform(closestFixture);
+
+        // Negated because the normal is given from the fixture to the sensor
+        Vec2 vectorToObject = closestObject.vectorToObject;
+        vectorToObject.set(closestNormal).mulLocal(-closestDistance);
+        Rot.mulToOut(objectRelativeTransform.q, vectorToObject, vectorToObject);
+
+        closestObject.object = getFixtureObject(closestFixture);
+        closestObject.distance = closestDistance;
+        return closestObject;
     }
 
     public static class ClosestObject implements Comparable<ClosestObject> {
 
-        private final PhysicalObject object;
-        private final double distance;
+        private PhysicalObject object;
+        private double distance;
         private final Vec2 vectorToObject;
 
+        private ClosestObject() {
+            vectorToObject = new Vec2();
+        }
+
         public ClosestObject(PhysicalObject object, double distance, Vec2 vectorToObject) {
             this.object = object;
             this.distance = distance;
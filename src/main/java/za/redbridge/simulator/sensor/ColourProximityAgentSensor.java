@@ -13,7 +13,7 @@ import za.redbridge.simulator.sensor.sensedobjects.SensedObject;
 
 public class ColourProximityAgentSensor extends AgentSensor {
 
-    private static final int readingSize = 1;
+    private static final int readingSize = 3;
 
     public ColourProximityAgentSensor(float bearing) {
         this(bearing, 0.0f, 30.0f, 0.1f);
@@ -25,20 +25,24 @@ public class ColourProximityAgentSensor extends AgentSensor {
     }
 
     @Override
-    protected void provideObjectReading(List<SensedObject> objects, List<Double> output) {
-        output.add(0.0);
-        output.add(0.0);
-        output.add(0.0);
+    protected int getMaxSensedObjects() {
+        // Only the closest object is read
+        return 1;
+    }
+
+    @Override
+    protected void provideObjectReading(List<SensedObject> objects, double[] output,
+            int offset) {
+        output[offset] = 0.0;
+        output[offset + 1] = 0.0;
+        output[offset + 2] = 0.0;
 
         if (!objects.isEmpty()) {
             SensedObject closest = objects.get(0);
             double reading = 1 - Math.min(closest.getDistance() / range, 1.0);
-            if(closest.getObject() instanceof RobotObject) output.set(0, reading);
-            else output.set(0, 0.0);
-            if(closest.getObject() instanceof ResourceObject) output.set(1, reading);
-            else output.set(1, 0.0);
-            if(closest.getObject() instanceof WallObject) output.set(2, reading);
-            else output.set(2, 0.0);
+            if(closest.getObject() instanceof RobotObject) output[offset] = reading;
+            if(closest.getObject() instanceof ResourceObject) output[offset + 1] = reading;
+            if(closest.getObject() instanceof WallObject) output[offset + 2] = reading;
         }
     }
 
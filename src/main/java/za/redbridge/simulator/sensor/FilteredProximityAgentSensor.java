@@ -2,16 +2,20 @@ package za.redbridge.simulator.sensor;
 
 import java.text.ParseException;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
+import za.redbridge.simulator.object.ObjectCategories;
 import za.redbridge.simulator.sensor.sensedobjects.SensedObject;
 
+/**
+ * A proximity sensor that only senses objects of the types in its whitelist. The whitelist is
+ * compiled into the sensor's filter mask bits when the sensor is attached, so objects of other
+ * types are never sensed at all.
+ */
 public class FilteredProximityAgentSensor extends AgentSensor {
 
-    private Set<Class> whitelist = new HashSet<>();
+    private int whitelistMaskBits = 0;
     private static final int readingSize = 1;
 
     public FilteredProximityAgentSensor() {
@@ -20,11 +24,7 @@ public class FilteredProximityAgentSensor extends AgentSensor {
 
     public FilteredProximityAgentSensor(float bearing, Collection<String> whitelist) {
         super(bearing, 0.0f, 30.0f, 0.1f);
-        for(String cs : whitelist){
-            try {
-                this.whitelist.add(Class.forName(cs));
-            }catch(ClassNotFoundException e){}
-        }
+        setWhitelist(whitelist);
     }
 
     public FilteredProximityAgentSensor(float bearing, float orientation, float range, float fieldOfView) {
@@ -32,18 +32,20 @@ public class FilteredProximityAgentSensor extends AgentSensor {
     }
 
     @Override
-    protected void provideObjectReading(List<SensedObject> objects, List<Double> output) {
-        for(SensedObject o : objects){
-            if(!whitelist.contains(o.getObject().getClass())){
-                objects.remove(o);
-            }
-        }
+    protected int getMaxSensedObjects() {
+        // Only the closest object is read
+        return 1;
+    }
+
+    @Override
+    protected void provideObjectReading(List<SensedObject> objects, double[] output,
+            int offset) {
         double reading = 0.0;
         if (!objects.isEmpty()) {
             reading = 1 - Math.min(objects.get(0).getDistance() / range, 1.0);
         }
 
-        output.add(reading);
+        output[offset] = reading;
     }
 
     protected double readingCurve(double fraction) {
@@ -52,19 +54,31 @@ public class FilteredProximityAgentSensor extends AgentSensor {
         return 1 / (1 + Math.exp(fraction + offset));
     }
 
+    /**
+     * Add types of object to the whitelist. Must be called before the sensor is attached to a
+     * robot. Class names that aren't found are ignored.
+     */
     public void setWhitelist(Collection<String> whitelist){
-
         for(String cs : whitelist){
             try {
-                this.whitelist.add(Class.forName(cs));
+                whitelistMaskBits |= ObjectCategories.getCategoryBits(cs);
             }catch(ClassNotFoundException e){}
         }
     }
 
+    @Override
+    protected int getFilterCategoryBits() {
+        return getCategoryBitsToSense(whitelistMaskBits);
+    }
+
+    @Override
+    protected int getFilterMaskBits() {
+        return whitelistMaskBits;
+    }
+
     @Override
     public void readAdditionalConfigs(Map<String, Object> map) throws ParseException {
 
-        String[] whiteList = null;
         additionalConfigs = map;
 
         if (map == null) {
@@ -72,19 +86,9 @@ public class FilteredProximityAgentSensor extends AgentSensor {
             return;
         }
 
-        if (checkFieldPresent(map, "whiteList")) {
-            whiteList = ((String) map.get("whiteList")).split(" ");
-
-            for (String cs: whiteList) {
-
-                try {
-                    whitelist.add(Class.forName(cs));
-                }
-                catch (ClassNotFoundException c) {
-                    System.out.println("Specified whitelist class not found.");
-                    System.exit(-1);
-                }
-            }
+        String whiteList = (String) map.get("whiteList");
+        if (checkFieldPresent(whiteList, "whiteList")) {
+            whitelistMaskBits |= parseClassMaskBits(whiteList);
         }
         else {
             throw new ParseException("No whitelist found for FilteredProximitySensor configs.", 0);
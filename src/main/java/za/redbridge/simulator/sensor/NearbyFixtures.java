@@ -0,0 +1,121 @@
+package za.redbridge.simulator.sensor;
+
+import org.jbox2d.collision.AABB;
+import org.jbox2d.common.MathUtils;
+import org.jbox2d.common.Transform;
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.Fixture;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import za.redbridge.simulator.physics.SensorIndex;
+
+/**
+ * The fixtures near a robot that its sensors might sense. These are found and located relative to
+ * the robot once each time the physics world is stepped, and then shared by all the robot's
+ * sensors. Each fixture is given a bounding circle in the robot's frame so that a sensor can rule
+ * out most of the fixtures with a cheap circle test before doing any real geometry.
+ */
+public class NearbyFixtures {
+
+    private final Body body;
+
+    private SensorIndex sensorIndex;
+    private float reach = 0f;
+    private int version;
+
+    private final List<Fixture> fixtures = new ArrayList<>();
+
+    // Bounding circles relative to the robot: x, y and radius for each fixture
+    private float[] bounds = new float[0];
+
+    private final AABB queryAABB = new AABB();
+    private final Vec2 center = new Vec2();
+
+    public NearbyFixtures(Body body) {
+        this.body = body;
+    }
+
+    /** Set the index to find fixtures with. */
+    public void setSensorIndex(SensorIndex sensorIndex) {
+        this.sensorIndex = sensorIndex;
+        this.version = sensorIndex.getVersion() - 1;
+    }
+
+    public SensorIndex getSensorIndex() {
+        return sensorIndex;
+    }
+
+    /** Make sure the fixtures within the given distance of the robot's center are found. */
+    public void extendReach(float reach) {
+        this.reach = Math.max(this.reach, reach);
+    }
+
+    /** Find the fixtures near the robot, unless the world hasn't been stepped since last time. */
+    public void update() {
+        if (sensorIndex == null) {
+            throw new IllegalStateException("No sensor index set, cannot sense");
+        }
+
+        final int version = sensorIndex.getVersion();
+        if (this.version == version) {
+            return;
+        }
+        this.version = version;
+
+        final Transform transform = body.getTransform();
+        final Vec2 position = transform.p;
+        queryAABB.lowerBound.set(position.x - reach, position.y - reach);
+        queryAABB.upperBound.set(position.x + reach, position.y + reach);
+
+        final List<Fixture> fixtures = this.fixtures;
+        fixtures.clear();
+        sensorIndex.query(queryAABB, fixtures);
+
+        final int n = fixtures.size();
+        if (bounds.length < n * 3) {
+            bounds = new float[n * 3];
+        }
+
+        final float[] bounds = this.bounds;
+        final Vec2 center = this.center;
+        for (int i = 0; i < n; i++) {
+            AABB aabb = fixtures.get(i).getAABB(0);
+            float halfWidth = (aabb.upperBound.x - aabb.lowerBound.x) / 2;
+            float halfHeight = (aabb.upperBound.y - aabb.lowerBound.y) / 2;
+            center.set(aabb.lowerBound.x + halfWidth, aabb.lowerBound.y + halfHeight);
+            Transform.mulTransToOut(transform, center, center);
+
+            bounds[i * 3] = center.x;
+            bounds[i * 3 + 1] = center.y;
+            bounds[i * 3 + 2] = MathUtils.sqrt(halfWidth * halfWidth + halfHeight * halfHeight);
+        }
+    }
+
+    /** The number of fixtures found. */
+    public int size() {
+        return fixtures.size();
+    }
+
+    public Fixture getFixture(int index) {
+        return fixtures.get(index);
+    }
+
+    /**
+     * Check whether a fixture's bounding circle overlaps a circle given relative to the robot.
+     * @param index the index of the fixture
+     * @param x the x coordinate of the circle's center, relative to the robot
+     * @param y the y coordinate of the circle's center, relative to the robot
+     * @param radius the radius of the circle
+     * @return false if the fixture is definitely outside the circle
+     */
+    public boolean mayOverlap(int index, float x, float y, float radius) {
+        final float[] bounds = this.bounds;
+        float dx = bounds[index * 3] - x;
+        float dy = bounds[index * 3 + 1] - y;
+        float r = bounds[index * 3 + 2] + radius;
+        return dx * dx + dy * dy <= r * r;
+    }
+}
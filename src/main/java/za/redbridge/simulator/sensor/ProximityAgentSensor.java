@@ -22,13 +22,20 @@ public class ProximityAgentSensor extends AgentSensor {
     }
 
     @Override
-    protected void provideObjectReading(List<SensedObject> objects, List<Double> output) {
+    protected int getMaxSensedObjects() {
+        // Only the closest object is read
+        return 1;
+    }
+
+    @Override
+    protected void provideObjectReading(List<SensedObject> objects, double[] output,
+            int offset) {
         double reading = 0.0;
         if (!objects.isEmpty()) {
             reading = 1 - Math.min(objects.get(0).getDistance() / range, 1.0);
         }
 
-        output.add(reading);
+        output[offset] = reading;
     }
 
     protected double readingCurve(double fraction) {
@@ -0,0 +1,154 @@
+package za.redbridge.simulator.sensor;
+
+import org.jbox2d.callbacks.RayCastCallback;
+import org.jbox2d.common.Rot;
+import org.jbox2d.common.Transform;
+import org.jbox2d.common.Vec2;
+import org.jbox2d.dynamics.Fixture;
+
+import java.text.ParseException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A proximity sensor that casts rays through the physics world rather than working out where each
+ * object in its field of view lies. Much cheaper than the other sensors for narrow beams. The rays
+ * are spread evenly across the field of view and the reading is the proximity of the closest hit:
+ * 1 when touching, falling to 0 at the sensor's range.
+ *
+ * Additional configs:
+ * <ul>
+ *     <li>rays: the number of rays to cast (default 1, straight ahead)</li>
+ *     <li>whiteList: space separated class names of the objects to sense (default resources,
+ *     robots and walls)</li>
+ * </ul>
+ */
+public class RayCastAgentSensor extends AgentSensor {
+
+    private static final int readingSize = 1;
+
+    // Named after their config keys so that MorphologyConfig.dumpMorphology() writes them out
+    private int rays = 1;
+    private String whiteList = null;
+
+    private int whiteListMaskBits = 0;
+
+    // The ends of the rays relative to the sensor
+    private Vec2[] rayEnds;
+
+    private final Vec2 rayEnd = new Vec2();
+    private float closestFraction;
+    private final RayCastCallback rayCastCallback = this::reportFixture;
+
+    public RayCastAgentSensor(float bearing, float orientation, float range, float fieldOfView) {
+        super(bearing, orientation, range, fieldOfView);
+        createRays();
+    }
+
+    private void createRays() {
+        rayEnds = new Vec2[rays];
+        for (int i = 0; i < rays; i++) {
+            float angle = rays > 1 ? -fieldOfView / 2 + fieldOfView * i / (rays - 1) : 0f;
+            rayEnds[i] = new Vec2((float) Math.cos(angle) * range, (float) Math.sin(angle) * range);
+        }
+    }
+
+    @Override
+    protected void takeReading(double[] output) {
+        beginReading();
+
+        final Transform sensorTransform = getSensorTransform();
+        closestFraction = 1f;
+        for (Vec2 end : rayEnds) {
+            Rot.mulToOutUnsafe(sensorTransform.q, end, rayEnd);
+            rayEnd.addLocal(sensorTransform.p);
+
+            // The callback shortens the ray to the closest hit so far
+            getBody().getWorld().raycast(rayCastCallback, sensorTransform.p, rayEnd);
+        }
+
+        output[0] = 1.0 - closestFraction;
+    }
+
+    private float reportFixture(Fixture fixture, Vec2 point, Vec2 normal, float fraction) {
+        if (!canSense(fixture) || filterOutObject(getFixtureObject(fixture))) {
+            return -1f; // Ignore this fixture and carry on
+        }
+
+        if (fraction < closestFraction) {
+            closestFraction = fraction;
+        }
+        return fraction;
+    }
+
+    @Override
+    protected boolean usesNearbyFixtures() {
+        // The rays are cast through the world's broad phase
+        return false;
+    }
+
+    @Override
+    protected List<Double> provideReading(List<Fixture> fixtures) {
+        // The fixtures in the sensor's field aren't needed
+        takeReading(getReadingBuffer());
+        return getPreviousReadings();
+    }
+
+    @Override
+    protected int getFilterCategoryBits() {
+        return getCategoryBitsToSense(getFilterMaskBits());
+    }
+
+    @Override
+    protected int getFilterMaskBits() {
+        return whiteListMaskBits != 0 ? whiteListMaskBits : super.getFilterMaskBits();
+    }
+
+    @Override
+    public void readAdditionalConfigs(Map<String, Object> map) throws ParseException {
+        additionalConfigs = map;
+
+        if (map == null) {
+            return;
+        }
+
+        Number rays = (Number) map.get("rays");
+        if (checkFieldPresent(rays, "rays")) {
+            if (rays.intValue() < 1) {
+                throw new ParseException("Ray cast sensors need at least one ray", 0);
+            }
+            this.rays = rays.intValue();
+            createRays();
+        }
+
+        String whiteList = (String) map.get("whiteList");
+        if (checkFieldPresent(whiteList, "whiteList")) {
+            this.whiteListMaskBits = parseClassMaskBits(whiteList);
+            this.whiteList = whiteList;
+        }
+    }
+
+    @Override
+    public int getReadingSize() { return readingSize; }
+
+    @Override
+    public RayCastAgentSensor clone() {
+
+        RayCastAgentSensor cloned =
+                new RayCastAgentSensor(bearing, orientation, range, fieldOfView);
+
+        try {
+            cloned.readAdditionalConfigs(additionalConfigs);
+        }
+        catch (ParseException p) {
+            System.out.println("Clone failed.");
+            p.printStackTrace();
+            System.exit(-1);
+        }
+
+        return cloned;
+    }
+
+    @Override
+    public Map<String,Object> getAdditionalConfigs() { return additionalConfigs; }
+}
@@ -1,11 +1,13 @@
 package za.redbridge.simulator.sensor;
 
+import org.jbox2d.collision.AABB;
 import org.jbox2d.collision.shapes.Shape;
+import org.jbox2d.common.MathUtils;
+import org.jbox2d.common.Rot;
 import org.jbox2d.common.Transform;
 import org.jbox2d.dynamics.Body;
+import org.jbox2d.dynamics.Filter;
 import org.jbox2d.dynamics.Fixture;
-import org.jbox2d.dynamics.FixtureDef;
-import org.jbox2d.dynamics.contacts.Contact;
 
 import java.awt.Color;
 import java.awt.Paint;
@@ -14,37 +16,90 @@ import java.util.List;
 
 import za.redbridge.simulator.object.PhysicalObject;
 import za.redbridge.simulator.object.RobotObject;
-import za.redbridge.simulator.physics.Collideable;
-import za.redbridge.simulator.physics.FilterConstants;
+import za.redbridge.simulator.physics.SensorIndex;
 import za.redbridge.simulator.portrayal.Portrayal;
 import za.redbridge.simulator.portrayal.STRTransform;
 
 /**
- * The base class for all sensors that attach to a RobotObject.
- * NOTE: Sensors do not detect other sensors.
+ * The base class for all sensors that attach to a RobotObject. Sensors are not physics fixtures:
+ * each reading tests the fixtures near the robot, found using the simulation's
+ * {@link SensorIndex}, against the sensor's shape. A fixture is sensed if it overlaps the shape
+ * and would have collided with a sensor fixture with this sensor's filter bits.
  *
  * Created by xenos on 8/22/14.
  * @param <T> the type that this Sensor returns from the {@link #sense()} method
  */
-public abstract class Sensor<T> implements Collideable {
+public abstract class Sensor<T> {
     protected static final Paint DEFAULT_PAINT = new Color(100, 100, 100, 50);
 
     private Portrayal portrayal;
-    private Fixture sensorFixture;
+    private boolean portrayalCreated = false;
+
+    private RobotObject robot;
+    private Shape shape;
+    private int categoryBits;
+    private int maskBits;
 
     private Transform robotRelativeTransform;
+    private final AABB shapeAABB = new AABB();
+
+    // Bounding circle of the shape relative to the robot
+    private float boundsX;
+    private float boundsY;
+    private float boundsRadius;
 
     private boolean cachedSensorTransformValid;
     private final Transform cachedSensorTransform = new Transform();
     private final Transform cachedObjectRelativeTransform = new Transform();
 
-    private final List<Fixture> sensedFixtures = new ArrayList<>();
+    private final List<Fixture> filteredFixtures = new ArrayList<>();
 
     public Sensor() {
     }
 
     public final T sense() {
-        if (sensorFixture == null) {
+        return provideReading(collectFixtures());
+    }
+
+    /**
+     * Prepare for a new reading and get the fixtures currently in the sensor's field that are not
+     * filtered out. NOTE: the same list is returned for every reading.
+     */
+    protected final List<Fixture> collectFixtures() {
+        beginReading();
+
+        final Transform bodyTransform = robot.getBody().getTransform();
+        shape.computeAABB(shapeAABB, bodyTransform, 0);
+
+        final NearbyFixtures nearbyFixtures = robot.getNearbyFixtures();
+        nearbyFixtures.update();
+        final SensorIndex sensorIndex = nearbyFixtures.getSensorIndex();
+
+        final List<Fixture> fixtures = filteredFixtures;
+        fixtures.clear();
+        for (int i = 0, n = nearbyFixtures.size(); i < n; i++) {
+            if (!nearbyFixtures.mayOverlap(i, boundsX, boundsY, boundsRadius)) {
+                continue;
+            }
+
+            Fixture fixture = nearbyFixtures.getFixture(i);
+            if (canSense(fixture)
+                    && AABB.testOverlap(shapeAABB, fixture.getAABB(0))
+                    && sensorIndex.testOverlap(shape, bodyTransform, fixture)
+                    && !filterOutObject(getFixtureObject(fixture))) {
+                fixtures.add(fixture);
+            }
+        }
+
+        return fixtures;
+    }
+
+    /**
+     * Prepare for a new reading. Called by {@link #collectFixtures()}, sensors that find objects
+     * some other way must call this before each reading.
+     */
+    protected final void beginReading() {
+        if (robot == null) {
             throw new IllegalStateException("Sensor not attached, cannot sense");
         }
 
@@ -55,16 +110,29 @@ public abstract class Sensor<T> implements Collideable {
 
         // Invalidate the cached transform
         cachedSensorTransformValid = false;
+    }
 
-        List<Fixture> fixtures = new ArrayList<>(sensedFixtures.size());
-        for (Fixture fixture : sensedFixtures) {
-            PhysicalObject obj = (PhysicalObject) fixture.getBody().getUserData();
-            if (!filterOutObject(obj)) {
-                fixtures.add(fixture);
-            }
+    /**
+     * Check whether a fixture could be sensed by this sensor, wherever it is: it must not be part
+     * of the robot or joined to it, and its filter bits must match this sensor's the same way the
+     * physics world matches the filter bits of two fixtures.
+     */
+    protected final boolean canSense(Fixture fixture) {
+        final Body body = robot.getBody();
+        final Body otherBody = fixture.getBody();
+        if (otherBody == body || !body.shouldCollide(otherBody)) {
+            return false;
         }
 
-        return provideReading(fixtures);
+        Filter filter = fixture.getFilterData();
+        return (filter.categoryBits & maskBits) != 0 && (filter.maskBits & categoryBits) != 0;
+    }
+
+    /**
+     * Get the number of fixtures that passed the filter for the last reading.
+     */
+    public final int getNumberOfSensedFixtures() {
+        return filteredFixtures.size();
     }
 
     /**
@@ -74,7 +142,7 @@ public abstract class Sensor<T> implements Collideable {
      */
     protected final Transform getSensorTransform() {
         if (!cachedSensorTransformValid) {
-            Transform robotTransform = sensorFixture.getBody().getTransform();
+            Transform robotTransform = robot.getBody().getTransform();
             Transform.mulToOut(robotTransform, robotRelativeTransform, cachedSensorTransform);
             cachedSensorTransformValid = true;
         }
@@ -91,50 +159,50 @@ public abstract class Sensor<T> implements Collideable {
         Transform objectTransform = fixture.getBody().getTransform();
         Transform sensorTransform = getSensorTransform();
 
-        Transform.mulTransToOut(sensorTransform, objectTransform, cachedObjectRelativeTransform);
-        return cachedObjectRelativeTransform;
+        // Same as Transform.mulTransToOut(), but without the static temporary that makes that method
+        // unsafe to call from more than one simulation at a time
+        Transform out = cachedObjectRelativeTransform;
+        Rot.mulTrans(sensorTransform.q, objectTransform.q, out.q);
+        out.p.set(objectTransform.p).subLocal(sensorTransform.p);
+        Rot.mulTrans(sensorTransform.q, out.p, out.p);
+        return out;
     }
 
     public final void attach(RobotObject robot) {
-        // Clear existing fixture
-        if (sensorFixture != null) {
-            sensorFixture.destroy();
-            sensorFixture = null;
-
-            // Clear the list of objects in case there are any strays
-            sensedFixtures.clear();
-        }
+        this.robot = robot;
 
         // Update transform
         robotRelativeTransform = createTransform(robot);
 
-        // Create a fixture definition
-        FixtureDef fixtureDef = new FixtureDef();
-        fixtureDef.isSensor = true;
-
-        fixtureDef.shape = createShape(robotRelativeTransform);
-
-        // Add ourselves as user data so we can be fetched
-        fixtureDef.userData = this;
-
-        // Set the filter flags
-        fixtureDef.filter.categoryBits = getFilterCategoryBits();
-        fixtureDef.filter.maskBits = getFilterMaskBits();
-
-        // Set a negative group index for all sensors so that they never collide
-        fixtureDef.filter.groupIndex = FilterConstants.GroupIndexes.SENSOR;
-
-        // Attach
-        sensorFixture = robot.getBody().createFixture(fixtureDef);
+        shape = createShape(robotRelativeTransform);
+        categoryBits = getFilterCategoryBits();
+        maskBits = getFilterMaskBits();
+
+        // Bound the shape with a circle relative to the robot, and make sure the robot looks far
+        // enough for fixtures in that circle
+        shape.computeAABB(shapeAABB, new Transform(), 0);
+        float halfWidth = (shapeAABB.upperBound.x - shapeAABB.lowerBound.x) / 2;
+        float halfHeight = (shapeAABB.upperBound.y - shapeAABB.lowerBound.y) / 2;
+        boundsX = shapeAABB.lowerBound.x + halfWidth;
+        boundsY = shapeAABB.lowerBound.y + halfHeight;
+        boundsRadius = MathUtils.sqrt(halfWidth * halfWidth + halfHeight * halfHeight);
+        if (usesNearbyFixtures()) {
+            robot.getNearbyFixtures().extendReach(
+                    MathUtils.sqrt(boundsX * boundsX + boundsY * boundsY) + boundsRadius);
+        }
 
-        // Create the portrayal
-        portrayal = createPortrayal();
+        // The portrayal is created when it is first needed
+        portrayal = null;
+        portrayalCreated = false;
+    }
 
-        // Make sure the portrayal is relative to the robot
-        if (portrayal != null) {
-            STRTransform transform = new STRTransform(robotRelativeTransform);
-            portrayal.setLocalTransform(transform);
-        }
+    /**
+     * Whether this sensor finds the objects it senses with {@link #collectFixtures()}. Sensors
+     * that find them some other way should return false so that attaching them doesn't make the
+     * robot's {@link NearbyFixtures} query reach further for every other sensor.
+     */
+    protected boolean usesNearbyFixtures() {
+        return true;
     }
 
     /**
@@ -152,13 +220,14 @@ public abstract class Sensor<T> implements Collideable {
     protected abstract Shape createShape(Transform transform);
 
     /**
-     * Get the filter category bits for the fixture for this sensor.
+     * Get the filter category bits for this sensor. Objects whose mask bits don't include these
+     * bits are not sensed.
      */
     protected abstract int getFilterCategoryBits();
 
     /**
-     * Get the filter mask bits for the fixture for this sensor.
-     * @return The bits for the objects that this sensor should collide with.
+     * Get the filter mask bits for this sensor.
+     * @return The bits for the objects that this sensor should sense.
      */
     protected abstract int getFilterMaskBits();
 
@@ -188,31 +257,25 @@ public abstract class Sensor<T> implements Collideable {
     protected abstract T provideReading(List<Fixture> fixtures);
 
     public final Body getBody() {
-        return sensorFixture.getBody();
+        return robot.getBody();
     }
 
+    /**
+     * Get the portrayal for this sensor, creating it if this is the first time it is needed. May
+     * return null if the sensor has no visualization.
+     */
     public final Portrayal getPortrayal() {
-        return portrayal;
-    }
-
-    @Override
-    public void handleBeginContact(Contact contact, Fixture otherFixture) {
-        if (otherFixture.getUserData() instanceof Sensor) {
-            return;
-        }
+        if (!portrayalCreated && robot != null) {
+            portrayal = createPortrayal();
 
-        if (!sensedFixtures.contains(otherFixture)) {
-            sensedFixtures.add(otherFixture);
-        }
-    }
-
-    @Override
-    public void handleEndContact(Contact contact, Fixture otherFixture) {
-        if (otherFixture.getUserData() instanceof Sensor) {
-            return;
+            // Make sure the portrayal is relative to the robot
+            if (portrayal != null) {
+                STRTransform transform = new STRTransform(robotRelativeTransform);
+                portrayal.setLocalTransform(transform);
+            }
+            portrayalCreated = true;
         }
-
-        sensedFixtures.remove(otherFixture);
+        return portrayal;
     }
 
     protected static PhysicalObject getFixtureObject(Fixture fixture) {
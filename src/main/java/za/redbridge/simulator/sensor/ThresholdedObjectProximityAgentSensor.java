@@ -1,9 +1,7 @@
 package za.redbridge.simulator.sensor;
 
-import za.redbridge.simulator.object.ResourceObject;
-import za.redbridge.simulator.object.RobotObject;
-import za.redbridge.simulator.object.TargetAreaObject;
-import za.redbridge.simulator.object.WallObject;
+import za.redbridge.simulator.object.ObjectCategories;
+import za.redbridge.simulator.object.PhysicalObject;
 import za.redbridge.simulator.physics.FilterConstants;
 import za.redbridge.simulator.portrayal.ConePortrayal;
 import za.redbridge.simulator.portrayal.Portrayal;
@@ -99,23 +97,36 @@ public class ThresholdedObjectProximityAgentSensor extends AdjustableSensitivity
     }
 
     @Override
-    protected void provideObjectReading(List<SensedObject> objects, List<Double> output) {
+    protected int getMaxSensedObjects() {
+        // Only objects of the sensed class get through the filter, so only the closest is read
+        return 1;
+    }
+
+    /**
+     * The mask bits let through subclasses of the sensed class too, since they share its category
+     * bits, but only objects of exactly the sensed class are sensed.
+     */
+    @Override
+    protected boolean filterOutObject(PhysicalObject object) {
+        return !object.getClass().equals(senseClass);
+    }
+
+    @Override
+    protected void provideObjectReading(List<SensedObject> objects, double[] output,
+            int offset) {
 
         double reading = 0.0;
 
-        for(SensedObject o : objects){
-            if(o.getObject().getClass().equals(senseClass)){
-                reading = 1 - Math.min(o.getDistance() / range, 1.0);
-                break;
-            }
+        if (!objects.isEmpty()) {
+            reading = 1 - Math.min(objects.get(0).getDistance() / range, 1.0);
         }
 
         //threshold
         if (reading >= (1-sensitivity)) {
-            output.add(reading);
+            output[offset] = reading;
         }
         else {
-            output.add(0.0);
+            output[offset] = 0.0;
         }
     }
 
@@ -164,33 +175,13 @@ public class ThresholdedObjectProximityAgentSensor extends AdjustableSensitivity
 
     @Override
     protected int getFilterCategoryBits() {
-        if (senseClass.getSimpleName().contains("TargetAreaObject")) {
-            return FilterConstants.CategoryBits.TARGET_AREA_SENSOR;
-        }
-
-        return FilterConstants.CategoryBits.AGENT_SENSOR;
+        return getCategoryBitsToSense(getFilterMaskBits());
     }
 
     @Override
     protected int getFilterMaskBits() {
-
-        String className = senseClass.getSimpleName();
-
-        if (className.equals("RobotObject")) {
-            return FilterConstants.CategoryBits.ROBOT;
-        }
-        else if (className.equals("ResourceObject")) {
-            return FilterConstants.CategoryBits.RESOURCE;
-        }
-        else if (className.equals("TargetAreaObject")) {
-            return FilterConstants.CategoryBits.TARGET_AREA;
-        }
-        else if (className.equals("WallObject")) {
-            return FilterConstants.CategoryBits.WALL;
-        }
-        else {
-            return FilterConstants.CategoryBits.DEFAULT;
-        }
+        int maskBits = ObjectCategories.getCategoryBits(senseClass);
+        return maskBits != 0 ? maskBits : FilterConstants.CategoryBits.DEFAULT;
     }
 
 
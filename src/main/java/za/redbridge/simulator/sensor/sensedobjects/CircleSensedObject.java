@@ -11,19 +11,28 @@ import za.redbridge.simulator.object.PhysicalObject;
  */
 public class CircleSensedObject extends SensedObject<Arc2D> {
 
-    private final float radius;
-    private final float x;
-    private final float y;
-    private final float x0;
-    private final float y0;
-    private final float x1;
-    private final float y1;
+    private float radius;
+    private float x;
+    private float y;
+    private float x0;
+    private float y0;
+    private float x1;
+    private float y1;
 
     private Arc2D shape;
 
+    public CircleSensedObject() {
+    }
+
     public CircleSensedObject(PhysicalObject object, float distance, float radius,
             float x, float y, float x0, float y0, float x1, float y1) {
-        super(object, distance);
+        set(object, distance, radius, x, y, x0, y0, x1, y1);
+    }
+
+    /** Reuse this instance for a new reading. */
+    public void set(PhysicalObject object, float distance, float radius,
+            float x, float y, float x0, float y0, float x1, float y1) {
+        set(object, distance);
         this.radius = radius;
         this.x = x;
         this.y = y;
@@ -31,6 +40,7 @@ public class CircleSensedObject extends SensedObject<Arc2D> {
         this.y0 = y0;
         this.x1 = x1;
         this.y1 = y1;
+        shape = null;
     }
 
     @Override
@@ -11,21 +11,31 @@ import za.redbridge.simulator.object.PhysicalObject;
  */
 public class EdgeSensedObject extends SensedObject<Line2D> {
 
-    private final float x0;
-    private final float y0;
-    private final float x1;
-    private final float y1;
+    private float x0;
+    private float y0;
+    private float x1;
+    private float y1;
 
     private Line2D shape;
 
+    public EdgeSensedObject() {
+    }
+
     public EdgeSensedObject(PhysicalObject object, float distance, float x0, float y0, float x1,
                 float y1) {
-        super(object, distance);
+        set(object, distance, x0, y0, x1, y1);
+    }
+
+    /** Reuse this instance for a new reading. */
+    public void set(PhysicalObject object, float distance, float x0, float y0, float x1,
+            float y1) {
+        set(object, distance);
 
         this.x0 = x0;
         this.y0 = y0;
         this.x1 = x1;
         this.y1 = y1;
+        shape = null;
     }
 
     @Override
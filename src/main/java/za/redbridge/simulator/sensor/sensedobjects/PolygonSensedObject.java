@@ -12,13 +12,16 @@ import za.redbridge.simulator.object.PhysicalObject;
  */
 public class PolygonSensedObject extends SensedObject<Rectangle2D> {
 
-    private final float x;
-    private final float y;
-    private final float w;
-    private final float h;
+    private float x;
+    private float y;
+    private float w;
+    private float h;
 
     private Rectangle2D shape;
 
+    public PolygonSensedObject() {
+    }
+
     /**
      *
      * @param object The object detected
@@ -30,12 +33,18 @@ public class PolygonSensedObject extends SensedObject<Rectangle2D> {
      */
     public PolygonSensedObject(PhysicalObject object, float distance, float x, float y, float w,
             float h) {
-        super(object, distance);
+        set(object, distance, x, y, w, h);
+    }
+
+    /** Reuse this instance for a new reading. */
+    public void set(PhysicalObject object, float distance, float x, float y, float w, float h) {
+        set(object, distance);
 
         this.x = x;
         this.y = y;
         this.w = w;
         this.h = h;
+        shape = null;
     }
 
     @Override
@@ -5,18 +5,28 @@ import java.awt.Shape;
 import za.redbridge.simulator.object.PhysicalObject;
 
 /**
+ * Sensors reuse their SensedObject instances from one reading to the next, so don't hold on to a
+ * SensedObject after the reading it was passed to.
  * Created by jamie on 2014/09/05.
  */
 public abstract class SensedObject<T extends Shape> implements Comparable<SensedObject> {
 
-    protected final PhysicalObject object;
-    protected final float distance;
+    protected PhysicalObject object;
+    protected float distance;
+
+    public SensedObject() {
+    }
 
     public SensedObject(PhysicalObject object, float distance) {
         this.object = object;
         this.distance = distance;
     }
 
+    protected void set(PhysicalObject object, float distance) {
+        this.object = object;
+        this.distance = distance;
+    }
+
     /** Get the detected object. */
     public PhysicalObject getObject() {
         return object;
@@ -0,0 +1,140 @@
+package za.redbridge.simulator;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import za.redbridge.simulator.config.SimConfig;
+import za.redbridge.simulator.experiment.CandidateFitness;
+import za.redbridge.simulator.experiment.PopulationEvaluator;
+import za.redbridge.simulator.factories.HomogeneousRobotFactory;
+import za.redbridge.simulator.phenotype.ChasingPhenotype;
+import za.redbridge.simulator.phenotype.Phenotype;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that simulations run at the same time on several threads end up exactly where they do
+ * when they are run one by one, down to the last bit of every body's state.
+ */
+public class ConcurrentSimulationTest {
+
+    private static final long[] SEEDS = {1, 2, 3, 4, 5, 6, 7, 8};
+    private static final int THREADS = 4;
+    private static final int ITERATIONS = 1500;
+
+    private static SimConfig config;
+
+    @BeforeClass
+    public static void setUpClass() {
+        SimConfig fullConfig = new SimConfig("configs/smallSimConfig.yml");
+        config = new SimConfig.FidelityTier().setIterations(ITERATIONS).apply(fullConfig);
+    }
+
+    @Test
+    public void parallelEvaluationMatchesSequentialEvaluation() {
+        List<Phenotype> candidates = Arrays.asList(new ChasingPhenotype(),
+                new ChasingPhenotype());
+
+        List<CandidateFitness> sequential = evaluate(candidates, 1);
+        List<CandidateFitness> parallel = evaluate(candidates, THREADS);
+
+        assertEquals(sequential.size(), parallel.size());
+        for (int i = 0; i < sequential.size(); i++) {
+            List<CandidateFitness.Run> sequentialRuns = sequential.get(i).getRuns();
+            List<CandidateFitness.Run> parallelRuns = parallel.get(i).getRuns();
+            assertEquals(SEEDS.length, sequentialRuns.size());
+            assertEquals(SEEDS.length, parallelRuns.size());
+
+            for (int j = 0; j < SEEDS.length; j++) {
+                CandidateFitness.Run expected = sequentialRuns.get(j);
+                CandidateFitness.Run actual = parallelRuns.get(j);
+                String run = "candidate " + i + ", seed " + expected.getSeed();
+                assertEquals(run, expected.getSeed(), actual.getSeed());
+                assertEquals(run, expected.getSteps(), actual.getSteps());
+                assertStatsIdentical(run, expected.getStats(), actual.getStats());
+            }
+        }
+    }
+
+    @Test
+    public void parallelRunsEndInTheSameStateAsSequentialRuns() throws Exception {
+        List<byte[]> sequential = new ArrayList<>(SEEDS.length);
+        for (long seed : SEEDS) {
+            sequential.add(run(seed, null));
+        }
+
+        // Every simulation shares a layout cache like they do in a PopulationEvaluator
+        final WorldLayoutCache layoutCache = new WorldLayoutCache();
+        List<Callable<byte[]>> runs = new ArrayList<>(SEEDS.length);
+        for (long seed : SEEDS) {
+            runs.add(() -> run(seed, layoutCache));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<byte[]>> parallel = executor.invokeAll(runs);
+            for (int i = 0; i < SEEDS.length; i++) {
+                assertArrayEquals("seed " + SEEDS[i], sequential.get(i), parallel.get(i).get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<CandidateFitness> evaluate(List<Phenotype> candidates, int threads) {
+        PopulationEvaluator evaluator = new PopulationEvaluator(config, threads);
+        try {
+            return evaluator.evaluate(candidates, SEEDS);
+        } finally {
+            evaluator.shutdown();
+        }
+    }
+
+    // Run a simulation and get its complete state at the end, as encoded in a checkpoint
+    private static byte[] run(long seed, WorldLayoutCache layoutCache) {
+        HomogeneousRobotFactory robotFactory = new HomogeneousRobotFactory(new ChasingPhenotype(),
+                config.getRobotMass(), config.getRobotRadius(), config.getRobotColour(),
+                config.getObjectsRobots());
+        Simulation simulation = new Simulation(config, robotFactory, seed);
+        if (layoutCache != null) {
+            simulation.setLayoutCache(layoutCache);
+        }
+        simulation.setStopOnceCollected(false);
+        simulation.runForNIterations(ITERATIONS);
+        return simulation.checkpoint().getData();
+    }
+
+    private static void assertStatsIdentical(String run, FitnessStats expected,
+            FitnessStats actual) {
+        assertBitsEqual(run, expected.getTeamFitness(), actual.getTeamFitness());
+        assertBitsEqual(run, expected.getAdjustedTeamFitness(), actual.getAdjustedTeamFitness());
+        assertBitsEqual(run, expected.getCollectedValue(), actual.getCollectedValue());
+        assertBitsEqual(run, expected.getAdjustedCollectedValue(),
+                actual.getAdjustedCollectedValue());
+        assertBitsEqual(run, expected.getTotalResourceValue(), actual.getTotalResourceValue());
+
+        // Each run has its own clones of the candidate, so only the fitnesses can be compared
+        assertArrayEquals(run, getPhenotypeFitnesses(expected), getPhenotypeFitnesses(actual));
+    }
+
+    private static void assertBitsEqual(String run, double expected, double actual) {
+        assertEquals(run, Double.doubleToLongBits(expected), Double.doubleToLongBits(actual));
+    }
+
+    private static long[] getPhenotypeFitnesses(FitnessStats stats) {
+        long[] fitnesses = stats.getPhenotypeFitnessMap().values().stream()
+                .mapToLong(Double::doubleToLongBits)
+                .toArray();
+        Arrays.sort(fitnesses);
+        return fitnesses;
+    }
+}
@@ -0,0 +1,96 @@
+package za.redbridge.simulator;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+
+import za.redbridge.simulator.config.SimConfig;
+import za.redbridge.simulator.factories.HomogeneousRobotFactory;
+import za.redbridge.simulator.phenotype.ChasingPhenotype;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that a run restored from a checkpoint carries on exactly like the run the checkpoint was
+ * taken from, down to the last bit of its fitness and state.
+ */
+public class SimulationCheckpointTest {
+
+    private static final long SEED = 3;
+    private static final int ITERATIONS = 1500;
+    private static final int CHECKPOINT_STEP = 1000;
+
+    private static SimConfig config;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void setUpClass() {
+        SimConfig fullConfig = new SimConfig("configs/smallSimConfig.yml");
+        config = new SimConfig.FidelityTier().setIterations(ITERATIONS).apply(fullConfig);
+    }
+
+    @Test
+    public void resumedRunEndsLikeUninterruptedRun() throws Exception {
+        // Only one checkpoint is taken before the end, so it is the one left in the file
+        Path checkpointFile = folder.getRoot().toPath().resolve("run.checkpoint");
+        Simulation uninterrupted = createSimulation();
+        uninterrupted.setCheckpointFile(checkpointFile, CHECKPOINT_STEP);
+        uninterrupted.runForNIterations(ITERATIONS);
+
+        SimulationCheckpoint checkpoint = SimulationCheckpoint.read(checkpointFile);
+        assertEquals(CHECKPOINT_STEP, checkpoint.getStep());
+
+        Simulation resumed = createSimulation();
+        resumed.resume(checkpoint);
+
+        assertEquals(ITERATIONS, resumed.getStepNumber());
+        assertSameEnd(uninterrupted, resumed);
+    }
+
+    @Test
+    public void restoredRunEndsLikeUninterruptedRun() {
+        Simulation interrupted = createSimulation();
+        interrupted.start();
+        for (int i = 0; i < CHECKPOINT_STEP; i++) {
+            interrupted.schedule.step(interrupted);
+        }
+        SimulationCheckpoint checkpoint = interrupted.checkpoint();
+
+        Simulation uninterrupted = createSimulation();
+        uninterrupted.runForNIterations(ITERATIONS);
+
+        // Step the restored run with the schedule, like the GUI does
+        Simulation restored = createSimulation();
+        restored.restore(checkpoint);
+        while (restored.getStepNumber() < ITERATIONS) {
+            restored.schedule.step(restored);
+        }
+
+        assertSameEnd(uninterrupted, restored);
+    }
+
+    private static Simulation createSimulation() {
+        HomogeneousRobotFactory robotFactory = new HomogeneousRobotFactory(new ChasingPhenotype(),
+                config.getRobotMass(), config.getRobotRadius(), config.getRobotColour(),
+                config.getObjectsRobots());
+        Simulation simulation = new Simulation(config, robotFactory, SEED);
+        simulation.setStopOnceCollected(false);
+        return simulation;
+    }
+
+    private static void assertSameEnd(Simulation expected, Simulation actual) {
+        FitnessStats expectedFitness = expected.getFitness();
+        FitnessStats actualFitness = actual.getFitness();
+        assertEquals(Double.doubleToLongBits(expectedFitness.getTeamFitness()),
+                Double.doubleToLongBits(actualFitness.getTeamFitness()));
+        assertEquals(Double.doubleToLongBits(expectedFitness.getCollectedValue()),
+                Double.doubleToLongBits(actualFitness.getCollectedValue()));
+        assertArrayEquals(expected.checkpoint().getData(), actual.checkpoint().getData());
+    }
+}
@@ -0,0 +1,134 @@
+package za.redbridge.simulator;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+
+import sim.util.Double2D;
+import za.redbridge.simulator.config.SimConfig;
+import za.redbridge.simulator.factories.HomogeneousRobotFactory;
+import za.redbridge.simulator.khepera.KheperaIIIPhenotype;
+import za.redbridge.simulator.khepera.UltrasonicSensor;
+import za.redbridge.simulator.phenotype.ChasingPhenotype;
+import za.redbridge.simulator.phenotype.Phenotype;
+import za.redbridge.simulator.physics.FilterConstants;
+import za.redbridge.simulator.sensor.AgentSensor;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks that a warmed up simulation allocates next to nothing each step. Sensors, heuristics,
+ * robots and the physics all reuse their objects, and the occasional joint or contact is all that
+ * should be allocated.
+ */
+public class StepAllocationTest {
+
+    private static final int WARM_UP_STEPS = 2000;
+    private static final int MEASURED_STEPS = 5000;
+
+    // Around 16 bytes a step is normal, for the odd joint or contact. Before the step loop was made
+    // not to allocate it was over a kilobyte, and over 5 kilobytes through a list phenotype.
+    private static final double MAX_BYTES_PER_STEP = 32;
+
+    @Test
+    public void warmSimulationStepsWithoutAllocating() {
+        assertStepsWithoutAllocating(new ChasingPhenotype());
+    }
+
+    @Test
+    public void warmListPhenotypeStepsWithoutAllocating() {
+        assertStepsWithoutAllocating(new ListChasingPhenotype());
+    }
+
+    private static void assertStepsWithoutAllocating(Phenotype phenotype) {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadAllocation =
+                (com.sun.management.ThreadMXBean) threads;
+        assumeTrue(threadAllocation.isThreadAllocatedMemorySupported());
+        threadAllocation.setThreadAllocatedMemoryEnabled(true);
+
+        SimConfig config = new SimConfig("configs/smallSimConfig.yml");
+        HomogeneousRobotFactory robotFactory = new HomogeneousRobotFactory(phenotype,
+                config.getRobotMass(), config.getRobotRadius(), config.getRobotColour(),
+                config.getObjectsRobots());
+        Simulation simulation = new Simulation(config, robotFactory, 1);
+        simulation.start();
+        for (int i = 0; i < WARM_UP_STEPS; i++) {
+            simulation.schedule.step(simulation);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threadAllocation.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_STEPS; i++) {
+            simulation.schedule.step(simulation);
+        }
+        long allocated = threadAllocation.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        double bytesPerStep = (double) allocated / MEASURED_STEPS;
+        assertTrue("Allocated " + bytesPerStep + " bytes per step",
+                bytesPerStep <= MAX_BYTES_PER_STEP);
+    }
+
+    /**
+     * A phenotype that takes its readings as lists, so that the simulation steps it through a
+     * {@link za.redbridge.simulator.phenotype.ListPhenotypeAdapter}. It turns towards whichever of
+     * its three ultrasonic sensors sees a resource closest, without allocating anything itself.
+     */
+    private static class ListChasingPhenotype extends KheperaIIIPhenotype {
+        private static final Double2D SEARCH = new Double2D(1.0, 0.25);
+        private static final Double2D LEFT = new Double2D(0.5, 1.0);
+        private static final Double2D RIGHT = new Double2D(1.0, 0.5);
+        private static final Double2D FORWARD = new Double2D(1.0, 1.0);
+
+        ListChasingPhenotype() {
+            super(createConfiguration());
+        }
+
+        private static Configuration createConfiguration() {
+            Configuration config = new Configuration();
+            config.enableUltrasonicSensor0Degrees = true;
+            config.enableUltrasonicSensors40Degrees = true;
+            return config;
+        }
+
+        @Override
+        public Double2D step(List<List<Double>> list) {
+            double left = list.get(0).get(0);
+            double forward = list.get(1).get(0);
+            double right = list.get(2).get(0);
+            double max = Math.max(left, Math.max(forward, right));
+            if (max < 0.0001) {
+                return SEARCH;
+            } else if (left == max) {
+                return LEFT;
+            } else if (right == max) {
+                return RIGHT;
+            } else {
+                return FORWARD;
+            }
+        }
+
+        @Override
+        protected AgentSensor createUltrasonicSensor(float bearing, float orientation) {
+            return new UltrasonicSensor(bearing, orientation) {
+                @Override
+                protected int getFilterMaskBits() {
+                    return FilterConstants.CategoryBits.RESOURCE;
+                }
+            };
+        }
+
+        @Override
+        public ListChasingPhenotype clone() {
+            return new ListChasingPhenotype();
+        }
+
+        @Override
+        public void configure(Map<String, Object> phenotypeConfigs) {
+        }
+    }
+}
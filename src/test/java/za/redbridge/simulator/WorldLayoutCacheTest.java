@@ -0,0 +1,106 @@
+package za.redbridge.simulator;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+
+import za.redbridge.simulator.config.SimConfig;
+import za.redbridge.simulator.factories.HomogeneousRobotFactory;
+import za.redbridge.simulator.phenotype.ChasingPhenotype;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that runs that replay a seed's layout from a {@link WorldLayoutCache} end in exactly the
+ * same state as runs that place their objects randomly.
+ */
+public class WorldLayoutCacheTest {
+
+    private static final long[] SEEDS = {1, 2, 3};
+    private static final int ITERATIONS = 1000;
+
+    private static SimConfig config;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void setUpClass() {
+        SimConfig fullConfig = new SimConfig("configs/smallSimConfig.yml");
+        config = new SimConfig.FidelityTier().setIterations(ITERATIONS).apply(fullConfig);
+    }
+
+    @Test
+    public void replayedLayoutsMatchRandomPlacement() {
+        WorldLayoutCache layoutCache = new WorldLayoutCache();
+        for (long seed : SEEDS) {
+            byte[] expected = run(createSimulation(seed));
+
+            // The first run records the layout and the second replays it
+            Simulation recording = createSimulation(seed);
+            recording.setLayoutCache(layoutCache);
+            assertArrayEquals("seed " + seed + " recorded", expected, run(recording));
+
+            Simulation replaying = createSimulation(seed);
+            replaying.setLayoutCache(layoutCache);
+            assertArrayEquals("seed " + seed + " replayed", expected, run(replaying));
+        }
+        assertEquals(SEEDS.length, layoutCache.size());
+    }
+
+    @Test
+    public void loadedLayoutsMatchRandomPlacement() throws Exception {
+        WorldLayoutCache layoutCache = new WorldLayoutCache();
+        for (long seed : SEEDS) {
+            Simulation recording = createSimulation(seed);
+            recording.setLayoutCache(layoutCache);
+            run(recording);
+        }
+
+        Path file = folder.getRoot().toPath().resolve("layouts");
+        layoutCache.save(file);
+        WorldLayoutCache loadedCache = WorldLayoutCache.load(file);
+
+        for (long seed : SEEDS) {
+            Simulation replaying = createSimulation(seed);
+            replaying.setLayoutCache(loadedCache);
+            assertArrayEquals("seed " + seed, run(createSimulation(seed)), run(replaying));
+        }
+    }
+
+    @Test
+    public void reusedWorldReplaysLayouts() {
+        WorldLayoutCache layoutCache = new WorldLayoutCache();
+        for (long seed : SEEDS) {
+            Simulation random = createSimulation(seed);
+            random.setReuseWorld(true);
+            run(random);
+            byte[] expected = run(random);
+
+            Simulation replaying = createSimulation(seed);
+            replaying.setReuseWorld(true);
+            replaying.setLayoutCache(layoutCache);
+            run(replaying);
+            assertArrayEquals("seed " + seed, expected, run(replaying));
+        }
+    }
+
+    private static Simulation createSimulation(long seed) {
+        HomogeneousRobotFactory robotFactory = new HomogeneousRobotFactory(new ChasingPhenotype(),
+                config.getRobotMass(), config.getRobotRadius(), config.getRobotColour(),
+                config.getObjectsRobots());
+        Simulation simulation = new Simulation(config, robotFactory, seed);
+        simulation.setStopOnceCollected(false);
+        return simulation;
+    }
+
+    // Run a simulation and get its complete state at the end, as encoded in a checkpoint
+    private static byte[] run(Simulation simulation) {
+        simulation.runForNIterations(ITERATIONS);
+        return simulation.checkpoint().getData();
+    }
+}